@@ -9,7 +9,10 @@ import java.io.UnsupportedEncodingException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
 import javax.crypto.*;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import org.apache.commons.codec.binary.Base64;
@@ -33,44 +36,106 @@ import org.apache.commons.codec.binary.Base64;
  * 
  * The encryptString and decryptString methods use the UTF-8 character set and Base64 encoding.
  * 
+ * An instance may be used by any number of threads at the same time: each
+ * thread has its own Cipher and SecureRandom for the IV, so threads do not
+ * wait for each other.
+ * 
+ * When created with authenticatedEncryption, encrypt uses AES-GCM and the
+ * ciphertext is the 8 byte GCM_HEADER, a 12 byte IV, and the encrypted data
+ * with a 16 byte tag. decrypt reads both GCM ciphertext and the CBC
+ * ciphertext (16 byte IV and encrypted data) of earlier versions, so
+ * existing data can still be read after enabling GCM. A CBC ciphertext is
+ * only mistaken for GCM if its random IV starts with the 8 header bytes.
+ * AES-GCM requires Java 8 or later.
+ * 
  * @author jbuhacoff
  */
 public class Aes128 {
     private SecretKey secretKey;
     private static int KEY_LENGTH = 128;
     private static int BLOCK_SIZE = 16; // KEY_LENGTH / 8
-    private Cipher cipher;
+    private static final String CBC = "AES/CBC/PKCS5Padding";
+    private static final String GCM = "AES/GCM/NoPadding";
+    private static final byte[] GCM_HEADER = new byte[] { 'A', 'E', 'S', 'G', 'C', 'M', 0, 1 };
+    private static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 16;
+    private final boolean authenticatedEncryption;
+    private final ThreadLocal<Cipher> cbcCipher = new ThreadLocal<>();
+    private final ThreadLocal<Cipher> gcmCipher = new ThreadLocal<>();
+    private final ThreadLocal<SecureRandom> random = new ThreadLocal<>();
     
     public Aes128(byte[] secretKeyAes128) throws CryptographyException {
-        try {
-            cipher = Cipher.getInstance ("AES/CBC/PKCS5Padding");
-            secretKey = new SecretKeySpec(secretKeyAes128, "AES");
-        }
-        catch(NoSuchAlgorithmException e) {
-            throw new CryptographyException(e);
-        }
-        catch(NoSuchPaddingException e) {
-            throw new CryptographyException(e);
-        }
+        this(new SecretKeySpec(secretKeyAes128, "AES"), false);
     }
 
     public Aes128(SecretKey secretKeyAes128) throws CryptographyException {
-        try {
-            cipher = Cipher.getInstance ("AES/CBC/PKCS5Padding");
-            secretKey = secretKeyAes128;
-        }
-        catch(NoSuchAlgorithmException e) {
-            throw new CryptographyException(e);
-        }
-        catch(NoSuchPaddingException e) {
-            throw new CryptographyException(e);
-        }
+        this(secretKeyAes128, false);
+    }
+    
+    /**
+     * @param secretKeyAes128
+     * @param authenticatedEncryption true to encrypt with AES-GCM, false to encrypt with AES-CBC
+     * @throws CryptographyException if the cipher is not available
+     */
+    public Aes128(byte[] secretKeyAes128, boolean authenticatedEncryption) throws CryptographyException {
+        this(new SecretKeySpec(secretKeyAes128, "AES"), authenticatedEncryption);
+    }
+
+    /**
+     * @param secretKeyAes128
+     * @param authenticatedEncryption true to encrypt with AES-GCM, false to encrypt with AES-CBC
+     * @throws CryptographyException if the cipher is not available
+     */
+    public Aes128(SecretKey secretKeyAes128, boolean authenticatedEncryption) throws CryptographyException {
+        secretKey = secretKeyAes128;
+        this.authenticatedEncryption = authenticatedEncryption;
+        // fail here instead of on first use if the cipher is not available
+        getCipher(authenticatedEncryption ? gcmCipher : cbcCipher, authenticatedEncryption ? GCM : CBC);
+    }
+    
+    private Cipher getCipher(ThreadLocal<Cipher> threadCipher, String transformation) throws CryptographyException {
+        Cipher cipher = threadCipher.get();
+        if( cipher == null ) {
+            try {
+                cipher = Cipher.getInstance(transformation);
+            }
+            catch(NoSuchAlgorithmException e) {
+                throw new CryptographyException(e);
+            }
+            catch(NoSuchPaddingException e) {
+                throw new CryptographyException(e);
+            }
+            threadCipher.set(cipher);
+        }
+        return cipher;
     }
     
-    public synchronized byte[] encrypt(byte[] plaintext) throws CryptographyException {
+    private byte[] randomIv(int length) {
+        SecureRandom secureRandom = random.get();
+        if( secureRandom == null ) {
+            secureRandom = new SecureRandom();
+            random.set(secureRandom);
+        }
+        byte[] iv = new byte[length];
+        secureRandom.nextBytes(iv);
+        return iv;
+    }
+    
+    public byte[] encrypt(byte[] plaintext) throws CryptographyException {
         try {
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            byte[] iv = cipher.getIV();
+            if( authenticatedEncryption ) {
+                Cipher cipher = getCipher(gcmCipher, GCM);
+                byte[] iv = randomIv(GCM_IV_LENGTH);
+                cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv));
+                byte[] result = new byte[GCM_HEADER.length + GCM_IV_LENGTH + cipher.getOutputSize(plaintext.length)];
+                System.arraycopy(GCM_HEADER, 0, result, 0, GCM_HEADER.length);
+                System.arraycopy(iv, 0, result, GCM_HEADER.length, GCM_IV_LENGTH);
+                int length = GCM_HEADER.length + GCM_IV_LENGTH + cipher.doFinal(plaintext, 0, plaintext.length, result, GCM_HEADER.length + GCM_IV_LENGTH);
+                return length == result.length ? result : Arrays.copyOf(result, length);
+            }
+            Cipher cipher = getCipher(cbcCipher, CBC);
+            byte[] iv = randomIv(BLOCK_SIZE);
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv));
             byte[] ciphertext = cipher.doFinal(plaintext);
             return concat(iv, ciphertext);
         }
@@ -83,6 +148,12 @@ public class Aes128 {
         catch(BadPaddingException e) {
             throw new CryptographyException(e);
         }
+        catch(InvalidAlgorithmParameterException e) {
+            throw new CryptographyException(e);
+        }
+        catch(ShortBufferException e) {
+            throw new CryptographyException(e);
+        }
     }
     
     public String encryptString(String plaintext) throws CryptographyException {
@@ -93,8 +164,12 @@ public class Aes128 {
         }
     }
         
-    public synchronized byte[] decrypt(byte[] ciphertext) throws CryptographyException {
+    public byte[] decrypt(byte[] ciphertext) throws CryptographyException {
+        if( isGcmCiphertext(ciphertext) ) {
+            return decryptGcm(ciphertext);
+        }
         try {
+            Cipher cipher = getCipher(cbcCipher, CBC);
             cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(ciphertext, 0, BLOCK_SIZE));
             return cipher.doFinal(ciphertext, BLOCK_SIZE, ciphertext.length - BLOCK_SIZE); // skip the first 16 bytes (IV)
         }
@@ -112,6 +187,27 @@ public class Aes128 {
         }
     }
 
+    private byte[] decryptGcm(byte[] ciphertext) throws CryptographyException {
+        try {
+            Cipher cipher = getCipher(gcmCipher, GCM);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH * 8, ciphertext, GCM_HEADER.length, GCM_IV_LENGTH));
+            int offset = GCM_HEADER.length + GCM_IV_LENGTH;
+            return cipher.doFinal(ciphertext, offset, ciphertext.length - offset); // skip the header and IV
+        }
+        catch(InvalidKeyException e) {
+            throw new CryptographyException(e);
+        }
+        catch(IllegalBlockSizeException e) {
+            throw new CryptographyException(e);
+        }
+        catch(BadPaddingException e) {
+            throw new CryptographyException(e);
+        }
+        catch(InvalidAlgorithmParameterException e) {
+            throw new CryptographyException(e);
+        }
+    }
+
     public String decryptString(String ciphertext) throws CryptographyException {
         try {
             return new String(decrypt(Base64.decodeBase64(ciphertext)), "UTF-8");
@@ -121,6 +217,18 @@ public class Aes128 {
     }
     
     
+    private boolean isGcmCiphertext(byte[] ciphertext) {
+        if( ciphertext.length < GCM_HEADER.length + GCM_IV_LENGTH + GCM_TAG_LENGTH ) {
+            return false;
+        }
+        for(int i=0; i<GCM_HEADER.length; i++) {
+            if( ciphertext[i] != GCM_HEADER[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     private byte[] concat(byte[] a, byte[] b) {
         byte[] result = new byte[a.length + b.length];
         System.arraycopy(a, 0, result, 0, a.length);
@@ -56,4 +56,25 @@ public class Aes128Test {
         assertEquals(input, output);
         
     }
+    
+    @Test
+    public void testAuthenticatedEncryptDecrypt() throws CryptographyException {
+        SecretKey secretKey = Aes128.generateKey();
+        Aes128 gcm = new Aes128(secretKey, true);
+        Aes128 cbc = new Aes128(secretKey);
+        String ciphertext = gcm.encryptString("hello world");
+        assertEquals("hello world", gcm.decryptString(ciphertext));
+        // both modes read data encrypted with either mode
+        assertEquals("hello world", cbc.decryptString(ciphertext));
+        assertEquals("hello world", gcm.decryptString(cbc.encryptString("hello world")));
+        assertEquals("", gcm.decryptString(gcm.encryptString("")));
+    }
+    
+    @Test(expected=CryptographyException.class)
+    public void testAuthenticatedDecryptModifiedCiphertext() throws CryptographyException {
+        Aes128 gcm = new Aes128(Aes128.generateKey(), true);
+        byte[] ciphertext = gcm.encrypt(new byte[32]);
+        ciphertext[ciphertext.length - 20] ^= 1;
+        gcm.decrypt(ciphertext);
+    }
 }
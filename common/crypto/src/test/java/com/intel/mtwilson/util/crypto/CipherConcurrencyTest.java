@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import org.apache.commons.codec.binary.Base64;
 import com.fasterxml.jackson.databind.ObjectMapper;
 //import org.codehaus.jackson.map.ObjectMapper;
+import static org.junit.Assert.*;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -95,4 +96,72 @@ public class CipherConcurrencyTest {
             }
         }
     }
+    
+    /**
+     * Decrypts and encrypts with one shared cipher, like the attestation
+     * threads loading host connection strings, and checks every result.
+     */
+    private static class RoundTripTask implements Runnable {
+        private final Aes128 sharedCipher;
+        private final String plaintext;
+        private final String ciphertext;
+        private final int operations;
+        public RoundTripTask(Aes128 sharedCipher, int operations) throws CryptographyException {
+            this.sharedCipher = sharedCipher;
+            this.plaintext = "https://host.example.com:9443;admin;" + Base64.encodeBase64String(Aes128.generateKey().getEncoded());
+            this.ciphertext = sharedCipher.encryptString(plaintext);
+            this.operations = operations;
+        }
+        @Override
+        public void run() {
+            try {
+                for(int i=0; i<operations; i++) {
+                    String decrypted = sharedCipher.decryptString(ciphertext);
+                    if( !plaintext.equals(decrypted)) {
+                        throw new IllegalArgumentException("Bad decryption of "+plaintext+": "+decrypted);
+                    }
+                    if( i % 10 == 0 ) {
+                        String reencrypted = sharedCipher.decryptString(sharedCipher.encryptString(decrypted));
+                        if( !plaintext.equals(reencrypted)) {
+                            throw new IllegalArgumentException("Bad round trip of "+plaintext+": "+reencrypted);
+                        }
+                    }
+                }
+            }
+            catch(CryptographyException e) {
+                throw new IllegalArgumentException("Cannot decrypt text: "+e.toString(), e);
+            }
+        }
+    }
+    
+    /**
+     * Runs one round trip task per thread with the shared cipher and
+     * reports the throughput.
+     */
+    private double measureContention(Aes128 sharedCipher, int threads, int operations) throws Exception {
+        ArrayList<Task> tasks = new ArrayList<Task>();
+        for(int t=0; t<threads; t++) {
+            tasks.add(new Task(new RoundTripTask(sharedCipher, operations)));
+        }
+        long start = System.nanoTime();
+        PerformanceUtil.measureMultipleConcurrentTasks(tasks, timeout);
+        long elapsed = System.nanoTime() - start;
+        for(Task task : tasks) {
+            if( task.isError() ) {
+                fail("Error: " + task.getCause().toString());
+            }
+        }
+        return threads * operations * 1000000000.0 / elapsed;
+    }
+    
+    @Test
+    public void testContention() throws Exception {
+        Aes128 cbc = new Aes128(Aes128.generateKey());
+        Aes128 gcm = new Aes128(Aes128.generateKey(), true);
+        for(int threads : new int[] { 1, 4, 16, 64 }) {
+            double cbcRate = measureContention(cbc, threads, 500);
+            double gcmRate = measureContention(gcm, threads, 500);
+            log.debug("{} threads: {} CBC operations/s, {} GCM operations/s", threads, Math.round(cbcRate), Math.round(gcmRate));
+        }
+    }
 }
@@ -51,6 +51,7 @@ public class PcrManifest extends ObjectModel {
     private final PcrEventLogSha1[] pcrEventLogsSha1 = new PcrEventLogSha1[24];
     private final PcrEventLogSha256[] pcrEventLogsSha256 = new PcrEventLogSha256[24];
     private String measurementXml;
+    private transient volatile List<Measurement> measurementXmlLog; // parsed from measurementXml on first use
     private byte[] ProvisionedTag; //this is additional field added to support the new way of assetag attestation -- Haidong
 
     public byte[] getProvisionedTag() {
@@ -410,6 +411,29 @@ public class PcrManifest extends ObjectModel {
 
     public void setMeasurementXml(String measurementXml) {
         this.measurementXml = measurementXml;
+        this.measurementXmlLog = null;
+    }
+
+    /**
+     * The measurement log is parsed the first time this method is called and
+     * the same list is returned to every caller, so all the rules that check
+     * the measurement log share one parsed copy.
+     * 
+     * @return unmodifiable list of the measurements in the measurement xml, empty if there is no measurement xml
+     */
+    @JsonIgnore
+    public List<Measurement> getMeasurementXmlLog() {
+        List<Measurement> measurements = measurementXmlLog;
+        if( measurements == null ) {
+            synchronized(this) {
+                measurements = measurementXmlLog;
+                if( measurements == null ) {
+                    measurements = Collections.unmodifiableList(XmlMeasurementLog.parseMeasurements(measurementXml));
+                    measurementXmlLog = measurements;
+                }
+            }
+        }
+        return measurements;
     }
 
     private PcrEventLog[] getEventLogBank(DigestAlgorithm bank) {
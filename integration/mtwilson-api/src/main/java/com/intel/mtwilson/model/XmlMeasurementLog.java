@@ -7,17 +7,14 @@ import com.intel.dcsg.cpg.validation.ObjectModel;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
-import com.intel.mtwilson.measurement.xml.Measurements;
-import com.intel.mtwilson.measurement.xml.MeasurementType;
 import com.intel.mtwilson.measurement.xml.DirectoryMeasurementType;
 import com.intel.mtwilson.measurement.xml.FileMeasurementType;
-import com.intel.dcsg.cpg.xml.JAXB;
-import java.io.IOException;
+import java.io.StringReader;
 import java.util.HashMap;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.slf4j.LoggerFactory;
 
 //import org.codehaus.jackson.annotate.JsonValue;
@@ -35,10 +32,16 @@ import org.slf4j.LoggerFactory;
  * all the measurements of the individual modules using the XmlMeasurementLogEquals and 
  * XmlMeasurementLogIntegrity policies.
  * 
+ * The log is read with a streaming parser so that logs with tens of thousands of entries
+ * do not need to be unmarshalled into an intermediate JAXB object tree. Use
+ * PcrManifest.getMeasurementXmlLog() to get the host's measurements, which are parsed
+ * only once per host report.
+ * 
  */
 public class XmlMeasurementLog extends ObjectModel {
    
-    private org.slf4j.Logger log = LoggerFactory.getLogger(getClass());
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(XmlMeasurementLog.class);
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
     private final PcrIndex pcrIndex;
     private final List<Measurement> measurements = new ArrayList<>();
 
@@ -48,49 +51,71 @@ public class XmlMeasurementLog extends ObjectModel {
     
     @JsonCreator
     public XmlMeasurementLog(@JsonProperty("pcr_index") PcrIndex pcrIndex, @JsonProperty("xml_measurement_log") String xmlMeasurementLog) {
-        log.debug("XmlMeasurementLog Constructor: About to parse {} for PCR {}", xmlMeasurementLog, pcrIndex.toString());
+        log.debug("XmlMeasurementLog Constructor: About to parse measurement log for PCR {}", pcrIndex.toString());
         this.pcrIndex = pcrIndex;
-        parseXmlMeasurementLog(xmlMeasurementLog);
-        log.debug("XmlMeasurementLog Constructor: Parsed with output {}.", xmlMeasurementLog);
+        this.measurements.addAll(parseMeasurements(xmlMeasurementLog));
+        log.debug("XmlMeasurementLog Constructor: Parsed {} measurements.", measurements.size());
     }
     
-    private void parseXmlMeasurementLog(String xmlMeasurements) {
-        
-        JAXB measurementLogJaxb = new JAXB();        
-        if (xmlMeasurements != null && !xmlMeasurements.isEmpty()) {
-            try {
-                
-                Measurements measurements = measurementLogJaxb.read(xmlMeasurements, Measurements.class);
-                if (measurements.getMeasurements().size() > 0) {
-                    for (MeasurementType measurementLogEntry : measurements.getMeasurements()) {
-                        if (measurementLogEntry.getClass().equals(DirectoryMeasurementType.class)) {
-                            DirectoryMeasurementType dirEntry = (DirectoryMeasurementType) measurementLogEntry;
-                            log.debug("Directory details {} - {} - {} - {}", dirEntry.getPath(), dirEntry.getValue(), dirEntry.getExclude(), dirEntry.getInclude());
-                            
-                            HashMap<String,String> moduleInfo = new HashMap<>();
-                            moduleInfo.put("Type", DirectoryMeasurementType.class.getSimpleName());
-                            moduleInfo.put("Include", dirEntry.getInclude());
-                            moduleInfo.put("Exclude", dirEntry.getExclude());
-                            
-                            Measurement newDirModule = new MeasurementSha1(Sha1Digest.valueOfHex(dirEntry.getValue()), dirEntry.getPath(), moduleInfo);
-                            this.measurements.add(newDirModule);
-                        } else {
-                            FileMeasurementType fileEntry = (FileMeasurementType) measurementLogEntry;
-                            log.debug("File details {} - {}", fileEntry.getPath(), fileEntry.getValue());
-
-                            HashMap<String,String> moduleInfo = new HashMap<>();
-                            moduleInfo.put("Type", FileMeasurementType.class.getSimpleName());
-                            
-                            Measurement newFileModule = new MeasurementSha1(Sha1Digest.valueOfHex(fileEntry.getValue()), fileEntry.getPath(), moduleInfo);
-                            this.measurements.add(newFileModule);
-                        }                            
-                    }
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+    
+    /**
+     * Reads the File and Dir entries of a measurement log in document order.
+     * 
+     * @param xmlMeasurements measurement log in the mtwilson:trustdirector:measurements:1.1 format
+     * @return a new list of measurements, empty if the log is null, empty, or not well formed
+     */
+    public static List<Measurement> parseMeasurements(String xmlMeasurements) {
+        ArrayList<Measurement> list = new ArrayList<>();
+        if (xmlMeasurements == null || xmlMeasurements.isEmpty()) {
+            return list;
+        }
+        XMLStreamReader reader = null;
+        try {
+            reader = xmlInputFactory.createXMLStreamReader(new StringReader(xmlMeasurements));
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String element = reader.getLocalName();
+                if ("Dir".equals(element)) {
+                    String path = reader.getAttributeValue(null, "Path");
+                    HashMap<String,String> moduleInfo = new HashMap<>();
+                    moduleInfo.put("Type", DirectoryMeasurementType.class.getSimpleName());
+                    moduleInfo.put("Include", reader.getAttributeValue(null, "Include"));
+                    moduleInfo.put("Exclude", reader.getAttributeValue(null, "Exclude"));
+                    String value = reader.getElementText().trim(); // moves the reader to the end element
+                    log.trace("Directory details {} - {} - {} - {}", path, value, moduleInfo.get("Exclude"), moduleInfo.get("Include"));
+                    list.add(new MeasurementSha1(Sha1Digest.valueOfHex(value), path, moduleInfo));
+                }
+                else if ("File".equals(element)) {
+                    String path = reader.getAttributeValue(null, "Path");
+                    HashMap<String,String> moduleInfo = new HashMap<>();
+                    moduleInfo.put("Type", FileMeasurementType.class.getSimpleName());
+                    String value = reader.getElementText().trim();
+                    log.trace("File details {} - {}", path, value);
+                    list.add(new MeasurementSha1(Sha1Digest.valueOfHex(value), path, moduleInfo));
                 }
-                
-            } catch (    IOException | JAXBException | XMLStreamException ex) {
-                Logger.getLogger(XmlMeasurementLog.class.getName()).log(Level.SEVERE, null, ex);
             }
-        }        
+        } catch (XMLStreamException ex) {
+            log.error("Cannot parse measurement log", ex);
+            list.clear();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    log.debug("Cannot close measurement log reader", ex);
+                }
+            }
+        }
+        return list;
     }
     
     public PcrIndex getPcrIndex() { return pcrIndex; }
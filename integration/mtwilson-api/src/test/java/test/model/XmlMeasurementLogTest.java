@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package test.model;
+
+import com.intel.mtwilson.model.Measurement;
+import com.intel.mtwilson.model.PcrIndex;
+import com.intel.mtwilson.model.PcrManifest;
+import com.intel.mtwilson.model.XmlMeasurementLog;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class XmlMeasurementLogTest {
+    private static final String MEASUREMENTS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<Measurements xmlns=\"mtwilson:trustdirector:measurements:1.1\" DigestAlg=\"sha1\">\n"
+            + "    <Dir Path=\"/boot\">1a39a3ee5e6b4b0d3255bfef95601890afd80709</Dir>\n"
+            + "    <File Path=\"/boot/grub/stage1\">2a39a3ee5e6b4b0d3255bfef95601890afd80709</File>\n"
+            + "    <File Path=\"/boot/vmlinuz-3.0.0-12-virtual\">8a39a3ee5e6b4b0d3255bfef95601890afd80709</File>\n"
+            + "    <Dir Path=\"/path/to/directory\" Include=\"^include.regex.here$\" Exclude=\"^exclude.regex.here$\">9a39a3ee5e6b4b0d3255bfef95601890afd80709</Dir>\n"
+            + "</Measurements>";
+
+    @Test
+    public void testParseMeasurements() {
+        List<Measurement> measurements = new XmlMeasurementLog(PcrIndex.PCR19, MEASUREMENTS).getMeasurements();
+        assertEquals(4, measurements.size());
+        assertEquals("/boot", measurements.get(0).getLabel());
+        assertEquals("1a39a3ee5e6b4b0d3255bfef95601890afd80709", measurements.get(0).getValue().toString());
+        assertEquals("DirectoryMeasurementType", measurements.get(0).getInfo().get("Type"));
+        assertNull(measurements.get(0).getInfo().get("Include"));
+        assertEquals("/boot/grub/stage1", measurements.get(1).getLabel());
+        assertEquals("FileMeasurementType", measurements.get(1).getInfo().get("Type"));
+        assertEquals("/boot/vmlinuz-3.0.0-12-virtual", measurements.get(2).getLabel());
+        assertEquals("^include.regex.here$", measurements.get(3).getInfo().get("Include"));
+        assertEquals("^exclude.regex.here$", measurements.get(3).getInfo().get("Exclude"));
+        assertEquals("9a39a3ee5e6b4b0d3255bfef95601890afd80709", measurements.get(3).getValue().toString());
+    }
+
+    @Test
+    public void testParseInvalidMeasurements() {
+        assertTrue(XmlMeasurementLog.parseMeasurements(null).isEmpty());
+        assertTrue(XmlMeasurementLog.parseMeasurements("").isEmpty());
+        assertTrue(XmlMeasurementLog.parseMeasurements("<Measurements><File Path=\"/boot\">1a39a3ee5e6b4b0d3255bfef95601890afd80709</File>").isEmpty());
+        assertTrue(XmlMeasurementLog.parseMeasurements("<!DOCTYPE Measurements [<!ENTITY x SYSTEM \"file:///etc/passwd\">]><Measurements><File Path=\"&x;\">1a39a3ee5e6b4b0d3255bfef95601890afd80709</File></Measurements>").isEmpty());
+    }
+
+    @Test
+    public void testPcrManifestParsesOnce() {
+        PcrManifest pcrManifest = new PcrManifest();
+        assertTrue(pcrManifest.getMeasurementXmlLog().isEmpty());
+        pcrManifest.setMeasurementXml(MEASUREMENTS);
+        List<Measurement> measurements = pcrManifest.getMeasurementXmlLog();
+        assertEquals(4, measurements.size());
+        assertSame(measurements, pcrManifest.getMeasurementXmlLog());
+        try {
+            measurements.clear();
+            fail("measurement log is modifiable");
+        } catch (UnsupportedOperationException e) {
+        }
+        pcrManifest.setMeasurementXml("");
+        assertTrue(pcrManifest.getMeasurementXmlLog().isEmpty());
+    }
+}
@@ -29,6 +29,7 @@ public class My {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(My.class);
     private static final Object init = new Object();
+    public static final String DATA_ENCRYPTION_AUTHENTICATED = "mtwilson.data.encryption.authenticated";
     private static MyConfiguration config = null;
 //    private static MtWilson client = null;
     private static MyClient client = null;
@@ -49,13 +50,23 @@ public class My {
                 if (dekBase64 == null || dekBase64.isEmpty()) {
                     log.error("Cannot start server, data encryption key is not defined");
                 }
-                return new Aes128DataCipher(new Aes128(Base64.decodeBase64(dekBase64)));
+                return new Aes128DataCipher(createAes128(dekBase64));
             } catch (CryptographyException e) {
                 throw new IllegalStateException("Cannot initialize data encryption cipher", e);
             }
         }
     }
 
+    /**
+     * New data is encrypted with AES-GCM when
+     * mtwilson.data.encryption.authenticated is true (requires Java 8),
+     * otherwise with AES-CBC; data encrypted with either mode can be read.
+     */
+    private static Aes128 createAes128(String dekBase64) throws CryptographyException {
+        boolean authenticated = My.configuration().getConfiguration().getBoolean(DATA_ENCRYPTION_AUTHENTICATED, false);
+        return new Aes128(Base64.decodeBase64(dekBase64), authenticated);
+    }
+
     public static void initDataEncryptionKey() {
         log.debug("Initializing encryption key");        
 //        ASDataCipher.cipher = DataCipherHolder.dataCipher;
@@ -64,7 +75,7 @@ public class My {
                 if (dekBase64 == null || dekBase64.isEmpty()) {
                     log.error("Cannot start server, data encryption key is not defined");
                 }
-                ASDataCipher.cipher = new Aes128DataCipher(new Aes128(Base64.decodeBase64(dekBase64)));
+                ASDataCipher.cipher = new Aes128DataCipher(createAes128(dekBase64));
          }
          catch(CryptographyException e) {
          throw new IllegalArgumentException("Cannot initialize data encryption cipher", e);
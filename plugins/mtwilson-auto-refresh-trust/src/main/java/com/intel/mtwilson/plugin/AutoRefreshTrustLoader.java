@@ -4,17 +4,22 @@
  */
 package com.intel.mtwilson.plugin;
 
+import com.intel.mtwilson.Folders;
 import com.intel.mtwilson.My;
+import java.io.File;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
+import org.apache.commons.configuration.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Starts the {@link TrustRefreshScheduler}, or the {@link AutoRefreshTrust}
+ * polling loop when mtwilson.auto.refresh.trust.polling=true
  *
  * @author jbuhacoff
  */
@@ -27,14 +32,25 @@ public class AutoRefreshTrustLoader implements ServletContextListener {
     private Thread mainThread;
     private AutoRefreshTrust art = null;
     private ScheduledFuture<?> future = null;
+    private TrustRefreshScheduler scheduler = null;
     
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         log.info("AutoRefreshTrust: About to start the thread");
         My.initDataEncryptionKey();
-        long sleepInterval = My.configuration().getConfiguration().getLong("mtwilson.auto.refresh.trust.interval.seconds", DEFAULT_AUTO_REFRESH_TRUST_INTERVAL);
+        Configuration configuration = My.configuration().getConfiguration();
+        long sleepInterval = configuration.getLong("mtwilson.auto.refresh.trust.interval.seconds", DEFAULT_AUTO_REFRESH_TRUST_INTERVAL);
         if (sleepInterval == 0) {
             log.debug("mtwilson.auto.refresh.trust.interval.seconds=0, skipping AutoRefreshTrust");
+        } else if (!configuration.getBoolean("mtwilson.auto.refresh.trust.polling", false)) {
+            scheduler = new TrustRefreshScheduler(
+                    My.configuration().getSamlValidityTimeInSeconds(),
+                    configuration.getLong("mtwilson.auto.refresh.trust.before.expiry.seconds", 300),
+                    configuration.getLong("mtwilson.auto.refresh.trust.jitter.seconds", 120),
+                    sleepInterval, TimeUnit.SECONDS,
+                    configuration.getInt("mtwilson.auto.refresh.trust.concurrency", 8),
+                    new File(Folders.repository() + File.separator + "auto-refresh-trust.properties"));
+            scheduler.start();
         } else {
             art = new AutoRefreshTrust(sleepInterval, TimeUnit.SECONDS);
             future = executor.scheduleWithFixedDelay(art, sleepInterval, sleepInterval, TimeUnit.SECONDS);
@@ -45,6 +61,10 @@ public class AutoRefreshTrustLoader implements ServletContextListener {
 
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
+        if (scheduler != null) {
+            log.info("AutoRefreshTrust: About to stop the scheduler");
+            scheduler.stop();
+        }
         if (art != null) {
             log.info("AutoRefreshTrust: About to end the thread");
             art.cancel();
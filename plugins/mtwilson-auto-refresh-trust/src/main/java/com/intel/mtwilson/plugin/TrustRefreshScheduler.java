@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.plugin;
+
+import com.intel.mtwilson.My;
+import com.intel.mtwilson.as.business.trust.HostTrustBO;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes the trust status of each host shortly before its latest SAML
+ * assertion expires, instead of polling for all expired hosts and refreshing
+ * them in one bulk request.
+ *
+ * Hosts are kept in a queue ordered by when they are due. A host is due
+ * {@code refreshBeforeExpiry} before its SAML expires, minus a random jitter
+ * so hosts registered or refreshed together spread out over time. At most
+ * {@code concurrency} hosts are refreshed at once, and each host is
+ * rescheduled on its own when its refresh completes; failed refreshes are
+ * retried with exponential backoff.
+ *
+ * The queue is reconciled with the database every {@code syncInterval} to
+ * pick up added and deleted hosts and hosts refreshed by other requests.
+ * The schedule is saved to the state file after every reconciliation and on
+ * shutdown, so a restart continues where it left off instead of refreshing
+ * every host at once.
+ */
+public class TrustRefreshScheduler {
+    private static final Logger log = LoggerFactory.getLogger(TrustRefreshScheduler.class);
+
+    private final long validityMillis;
+    private final long refreshBeforeExpiryMillis;
+    private final long jitterMillis;
+    private final long syncIntervalMillis;
+    private final int concurrency;
+    private final File stateFile;
+    private long minBackoffMillis = TimeUnit.MINUTES.toMillis(1);
+    private long maxBackoffMillis = TimeUnit.HOURS.toMillis(1);
+    private final Random random = new Random();
+    private final DelayQueue<ScheduledRefresh> queue = new DelayQueue<>();
+    private final ConcurrentHashMap<String, ScheduledRefresh> scheduled = new ConcurrentHashMap<>();
+    private final Set<String> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Semaphore permits;
+    private final AtomicLong refreshed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long lagMillis = 0;
+    private volatile long maxLagMillis = 0;
+    private volatile boolean running = false;
+    private Map<String, ScheduledRefresh> restored = null;
+    private Thread dispatcher = null;
+    private ExecutorService workers = null;
+    private ScheduledExecutorService sync = null;
+
+    /**
+     * A host's next refresh; entries replaced by a later {@link #schedule}
+     * stay in the queue until due and are then ignored.
+     */
+    private static class ScheduledRefresh implements Delayed {
+        private final String hostname;
+        private final long due;
+        private final int failures;
+
+        private ScheduledRefresh(String hostname, long due, int failures) {
+            this.hostname = hostname;
+            this.due = due;
+            this.failures = failures;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            long other = ((ScheduledRefresh) o).due;
+            return due < other ? -1 : (due > other ? 1 : 0);
+        }
+    }
+
+    /**
+     * @param validity how long a new SAML assertion is valid
+     * @param refreshBeforeExpiry how long before expiry a host is due for refresh
+     * @param jitter maximum random amount by which a refresh is moved earlier, or later for hosts without a valid assertion
+     * @param syncInterval how often to reconcile the queue with the database
+     * @param unit of the above
+     * @param concurrency maximum number of hosts to refresh at the same time
+     * @param stateFile where to save the schedule, or null
+     */
+    public TrustRefreshScheduler(long validity, long refreshBeforeExpiry, long jitter, long syncInterval, TimeUnit unit, int concurrency, File stateFile) {
+        this.validityMillis = unit.toMillis(validity);
+        this.refreshBeforeExpiryMillis = unit.toMillis(refreshBeforeExpiry);
+        this.jitterMillis = unit.toMillis(jitter);
+        this.syncIntervalMillis = unit.toMillis(syncInterval);
+        this.concurrency = concurrency;
+        this.permits = new Semaphore(concurrency);
+        this.stateFile = stateFile;
+    }
+
+    public void setBackoff(long minBackoff, long maxBackoff, TimeUnit unit) {
+        this.minBackoffMillis = unit.toMillis(minBackoff);
+        this.maxBackoffMillis = unit.toMillis(maxBackoff);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        restored = loadState();
+        workers = Executors.newFixedThreadPool(concurrency);
+        sync = Executors.newSingleThreadScheduledExecutor();
+        sync.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                } catch (Exception e) {
+                    log.error("AutoRefreshTrust: Cannot reconcile refresh schedule", e);
+                }
+            }
+        }, 0, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "AutoRefreshTrust");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        log.info("AutoRefreshTrust: Started with concurrency {} and refresh {} seconds before SAML expiry", concurrency, TimeUnit.MILLISECONDS.toSeconds(refreshBeforeExpiryMillis));
+    }
+
+    public void stop() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+        sync.shutdownNow();
+        dispatcher.interrupt();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(60, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        saveState();
+        log.info("AutoRefreshTrust: Stopped with {} hosts scheduled", scheduled.size());
+    }
+
+    /**
+     * @return the hostnames and latest SAML expiry, or null if none, of all registered hosts
+     */
+    protected Map<String, Date> findHostnamesWithSamlExpiry() throws IOException {
+        return My.jpa().mwSamlAssertion().findHostnamesWithSamlExpiry();
+    }
+
+    /**
+     * Attests the host and creates a new SAML assertion for it.
+     *
+     * @param hostname
+     * @throws Exception if the host cannot be attested
+     */
+    protected void refresh(String hostname) throws Exception {
+        new HostTrustBO().getTrustWithSaml(hostname, true);
+    }
+
+    /**
+     * Schedules new hosts, removes deleted hosts, and moves hosts whose
+     * assertion was created or expired outside of this scheduler.
+     */
+    public void reconcile() throws IOException {
+        Map<String, Date> expiries = findHostnamesWithSamlExpiry();
+        long now = System.currentTimeMillis();
+        scheduled.keySet().retainAll(expiries.keySet());
+        int added = 0, moved = 0;
+        for (Map.Entry<String, Date> host : expiries.entrySet()) {
+            String hostname = host.getKey();
+            if (inFlight.contains(hostname)) {
+                continue;
+            }
+            long expiry = host.getValue() == null ? 0 : host.getValue().getTime();
+            ScheduledRefresh current = scheduled.get(hostname);
+            if (current == null) {
+                ScheduledRefresh previous = restored == null ? null : restored.get(hostname);
+                if (previous != null) {
+                    schedule(hostname, Math.max(previous.due, now + random(jitterMillis)), previous.failures);
+                } else {
+                    schedule(hostname, dueFor(expiry, now), 0);
+                }
+                added++;
+                continue;
+            }
+            // refreshed by another request after it was scheduled
+            boolean early = current.due < expiry - refreshBeforeExpiryMillis - jitterMillis;
+            // assertion expires before the scheduled refresh, for example after the validity was shortened
+            boolean late = current.failures == 0 && current.due > Math.max(expiry - refreshBeforeExpiryMillis, now + jitterMillis);
+            if (early || late) {
+                schedule(hostname, dueFor(expiry, now), 0);
+                moved++;
+            }
+        }
+        restored = null;
+        log.info("AutoRefreshTrust: {} hosts scheduled ({} added, {} moved), {} refreshing, lag {} ms", scheduled.size(), added, moved, inFlight.size(), lagMillis);
+        saveState();
+    }
+
+    private long dueFor(long expiry, long now) {
+        long due = expiry - refreshBeforeExpiryMillis - random(jitterMillis);
+        if (due <= now) {
+            // no valid assertion; spread the refreshes over the jitter window
+            due = now + random(jitterMillis);
+        }
+        return due;
+    }
+
+    private long random(long max) {
+        if (max <= 0) {
+            return 0;
+        }
+        synchronized (random) {
+            return (long) (random.nextDouble() * max);
+        }
+    }
+
+    private void schedule(String hostname, long due, int failures) {
+        ScheduledRefresh entry = new ScheduledRefresh(hostname, due, failures);
+        scheduled.put(hostname, entry);
+        queue.add(entry);
+    }
+
+    private void dispatch() {
+        while (running) {
+            ScheduledRefresh entry;
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                permits.release();
+                break;
+            }
+            if (!scheduled.remove(entry.hostname, entry)) {
+                permits.release(); // replaced or host deleted
+                continue;
+            }
+            long lag = System.currentTimeMillis() - entry.due;
+            lagMillis = lag;
+            if (lag > maxLagMillis) {
+                maxLagMillis = lag;
+            }
+            inFlight.add(entry.hostname);
+            try {
+                workers.execute(new Refresh(entry));
+            } catch (RejectedExecutionException e) {
+                // stopped
+                inFlight.remove(entry.hostname);
+                schedule(entry.hostname, entry.due, entry.failures);
+                permits.release();
+                break;
+            }
+        }
+    }
+
+    private class Refresh implements Runnable {
+        private final ScheduledRefresh entry;
+
+        private Refresh(ScheduledRefresh entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public void run() {
+            long due;
+            int failures;
+            try {
+                log.debug("AutoRefreshTrust: Refreshing {}", entry.hostname);
+                refresh(entry.hostname);
+                refreshed.incrementAndGet();
+                long now = System.currentTimeMillis();
+                due = dueFor(now + validityMillis, now);
+                failures = 0;
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                failures = entry.failures + 1;
+                long backoff = Math.min(maxBackoffMillis, minBackoffMillis << Math.min(failures - 1, 20));
+                log.warn("AutoRefreshTrust: Cannot refresh {}, retry in {} seconds: {}", entry.hostname, TimeUnit.MILLISECONDS.toSeconds(backoff), e.toString());
+                due = System.currentTimeMillis() + backoff;
+            }
+            // if the schedule was reconciled meanwhile this replaces the entry it added
+            inFlight.remove(entry.hostname);
+            schedule(entry.hostname, due, failures);
+            permits.release();
+        }
+    }
+
+    private Map<String, ScheduledRefresh> loadState() {
+        HashMap<String, ScheduledRefresh> state = new HashMap<>();
+        if (stateFile == null || !stateFile.exists()) {
+            return state;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(stateFile)) {
+            properties.load(in);
+            for (String hostname : properties.stringPropertyNames()) {
+                String[] value = properties.getProperty(hostname).split(",");
+                state.put(hostname, new ScheduledRefresh(hostname, Long.parseLong(value[0]), Integer.parseInt(value[1])));
+            }
+            log.debug("AutoRefreshTrust: Loaded schedule of {} hosts from {}", state.size(), stateFile.getAbsolutePath());
+        } catch (IOException | RuntimeException e) {
+            log.warn("AutoRefreshTrust: Cannot load schedule from {}: {}", stateFile.getAbsolutePath(), e.toString());
+        }
+        return state;
+    }
+
+    private synchronized void saveState() {
+        if (stateFile == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (ScheduledRefresh entry : scheduled.values()) {
+            properties.setProperty(entry.hostname, entry.due + "," + entry.failures);
+        }
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, "hostname=next refresh time in milliseconds,failed attempts");
+        } catch (IOException e) {
+            log.warn("AutoRefreshTrust: Cannot save schedule to {}: {}", stateFile.getAbsolutePath(), e.toString());
+            return;
+        }
+        if (!tmp.renameTo(stateFile)) {
+            log.warn("AutoRefreshTrust: Cannot save schedule to {}", stateFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * @param hostname
+     * @return when the host is due for refresh, or null if it is not scheduled
+     */
+    public Date getNextRefresh(String hostname) {
+        ScheduledRefresh entry = scheduled.get(hostname);
+        return entry == null ? null : new Date(entry.due);
+    }
+
+    public int getQueueDepth() {
+        return scheduled.size();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return how long after its due time the most recent refresh started
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis;
+    }
+
+    public long getRefreshedCount() {
+        return refreshed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+}
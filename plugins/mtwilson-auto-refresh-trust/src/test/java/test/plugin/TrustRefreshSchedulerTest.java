@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package test.plugin;
+
+import com.intel.mtwilson.plugin.TrustRefreshScheduler;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrustRefreshSchedulerTest {
+    private File stateFile;
+
+    /**
+     * Uses an in-memory host table instead of the database and records
+     * refreshes instead of attesting
+     */
+    private static class TestScheduler extends TrustRefreshScheduler {
+        private final Map<String, Date> hosts = Collections.synchronizedMap(new HashMap<String, Date>());
+        private final Map<String, AtomicInteger> refreshes = new ConcurrentHashMap<>();
+        private final Set<String> unreachable = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final AtomicInteger running = new AtomicInteger();
+        private volatile int maxRunning = 0;
+
+        public TestScheduler(int concurrency, File stateFile) {
+            // assertions valid for 10 seconds, refreshed 2 seconds before expiry with up to 500 ms jitter
+            super(10000, 2000, 500, 200, TimeUnit.MILLISECONDS, concurrency, stateFile);
+            setBackoff(300, 1000, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected Map<String, Date> findHostnamesWithSamlExpiry() throws IOException {
+            synchronized (hosts) {
+                return new HashMap<>(hosts);
+            }
+        }
+
+        @Override
+        protected void refresh(String hostname) throws Exception {
+            int now = running.incrementAndGet();
+            if (now > maxRunning) {
+                maxRunning = now;
+            }
+            try {
+                Thread.sleep(50);
+                if (!refreshes.containsKey(hostname)) {
+                    refreshes.put(hostname, new AtomicInteger());
+                }
+                refreshes.get(hostname).incrementAndGet();
+                if (unreachable.contains(hostname)) {
+                    throw new IOException("unreachable");
+                }
+                hosts.put(hostname, new Date(System.currentTimeMillis() + 10000));
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        public int refreshes(String hostname) {
+            AtomicInteger count = refreshes.get(hostname);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    private void waitFor(TestScheduler scheduler, String hostname, int refreshes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.refreshes(hostname) < refreshes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(refreshes, scheduler.refreshes(hostname));
+    }
+
+    @Before
+    public void createStateFile() throws IOException {
+        stateFile = File.createTempFile("auto-refresh-trust", ".properties");
+        assertTrue(stateFile.delete());
+    }
+
+    @After
+    public void deleteStateFile() {
+        stateFile.delete();
+    }
+
+    @Test
+    public void testRefreshBeforeExpiry() throws Exception {
+        TestScheduler scheduler = new TestScheduler(2, null);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            scheduler.hosts.put("expired" + i, i % 2 == 0 ? null : new Date(now - 1000));
+        }
+        scheduler.hosts.put("valid", new Date(now + 4000));
+        scheduler.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                waitFor(scheduler, "expired" + i, 1);
+            }
+            assertEquals(0, scheduler.refreshes("valid"));
+            // due 2 seconds before expiry
+            waitFor(scheduler, "valid", 1);
+            assertTrue(System.currentTimeMillis() - now < 3000);
+            assertTrue(scheduler.maxRunning <= 2);
+            assertEquals(11, scheduler.getRefreshedCount());
+            assertEquals(11, scheduler.getQueueDepth());
+            // next refresh is due 2 seconds before the new assertion expires
+            Date next = scheduler.getNextRefresh("valid");
+            assertTrue(next.getTime() > System.currentTimeMillis() + 7000);
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        TestScheduler scheduler = new TestScheduler(1, null);
+        scheduler.hosts.put("host", null);
+        scheduler.unreachable.add("host");
+        scheduler.start();
+        try {
+            waitFor(scheduler, "host", 1);
+            Thread.sleep(100);
+            assertEquals(1, scheduler.getFailedCount());
+            assertTrue(scheduler.getNextRefresh("host").getTime() > System.currentTimeMillis() + 100);
+            waitFor(scheduler, "host", 2);
+            scheduler.unreachable.remove("host");
+            waitFor(scheduler, "host", 3);
+            Thread.sleep(100);
+            assertTrue(scheduler.getNextRefresh("host").getTime() > System.currentTimeMillis() + 7000);
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testReconcile() throws Exception {
+        TestScheduler scheduler = new TestScheduler(1, null);
+        long now = System.currentTimeMillis();
+        scheduler.hosts.put("deleted", new Date(now + 9000));
+        scheduler.hosts.put("refreshed", new Date(now + 3000));
+        scheduler.reconcile();
+        assertEquals(2, scheduler.getQueueDepth());
+        // the host is deleted and the other host is refreshed by a user request
+        scheduler.hosts.remove("deleted");
+        scheduler.hosts.put("refreshed", new Date(now + 10000));
+        scheduler.reconcile();
+        assertNull(scheduler.getNextRefresh("deleted"));
+        assertTrue(scheduler.getNextRefresh("refreshed").getTime() >= now + 7500);
+    }
+
+    @Test
+    public void testRestoreSchedule() throws Exception {
+        TestScheduler scheduler = new TestScheduler(1, stateFile);
+        long now = System.currentTimeMillis();
+        scheduler.hosts.put("host", null);
+        scheduler.start();
+        waitFor(scheduler, "host", 1);
+        Thread.sleep(100);
+        Date next = scheduler.getNextRefresh("host");
+        scheduler.stop();
+        assertTrue(stateFile.exists());
+
+        // the assertion in the database expired meanwhile but the saved schedule is used
+        TestScheduler restarted = new TestScheduler(1, stateFile);
+        restarted.hosts.put("host", new Date(now - 1000));
+        restarted.start();
+        try {
+            Thread.sleep(100);
+            assertEquals(next, restarted.getNextRefresh("host"));
+            assertEquals(0, restarted.refreshes("host"));
+        } finally {
+            restarted.stop();
+        }
+    }
+}
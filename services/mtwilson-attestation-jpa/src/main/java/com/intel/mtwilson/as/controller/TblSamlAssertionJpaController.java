@@ -16,7 +16,9 @@ import com.intel.mtwilson.as.data.TblSamlAssertion;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import org.slf4j.Logger;
@@ -281,4 +283,22 @@ public class TblSamlAssertionJpaController implements Serializable {
             em.close();
         }
     }
+
+    /**
+     * @return the latest SAML expiry of every host, or null for hosts without any SAML assertion
+     */
+    public Map<String, Date> findHostnamesWithSamlExpiry() {
+        EntityManager em = getEntityManager();
+        try {
+            Query query = em.createNativeQuery("SELECT h.Name, MAX(t.expiry_ts) FROM mw_hosts as h LEFT JOIN mw_saml_assertion as t ON h.ID = t.host_id GROUP BY h.Name");
+            List<Object[]> results = query.getResultList();
+            LinkedHashMap<String, Date> expiries = new LinkedHashMap<>();
+            for (Object[] result : results) {
+                expiries.put((String) result[0], result[1] == null ? null : new Date(((Date) result[1]).getTime()));
+            }
+            return expiries;
+        } finally {
+            em.close();
+        }
+    }
 }
@@ -7,6 +7,8 @@ package com.intel.mtwilson.as.rest.v2.repository;
 import com.intel.dcsg.cpg.io.UUID;
 import com.intel.dcsg.cpg.x509.X509Util;
 import com.intel.mtwilson.My;
+import com.intel.mtwilson.agent.HostAgentFactory;
+import com.intel.mtwilson.as.business.trust.TrustStatusCache;
 import com.intel.mtwilson.as.controller.TblHostsJpaController;
 import com.intel.mtwilson.as.data.TblHosts;
 import com.intel.mtwilson.as.rest.v2.model.HostAikCertificate;
@@ -89,6 +91,8 @@ public class HostAikCertificateRepository implements DocumentRepository<HostAikC
 //                Sha1Digest aikSha1 = Sha1Digest.valueOf(item.getCertificate());
                 
                 jpaController.edit(obj);
+                TrustStatusCache.getInstance().invalidate(obj.getName());
+                HostAgentFactory.invalidateHostInfo(obj.getName());
             }
         } catch (Exception ex) {
             log.error("AikCertificate:Create - Error during aik update for the host.", ex);
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.rest.v2.resource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.dcsg.cpg.validation.ValidationUtil;
+import com.intel.mountwilson.as.common.ASConfig;
+import com.intel.mountwilson.as.common.ASException;
+import com.intel.mtwilson.as.business.trust.BulkHostTrustBO;
+import com.intel.mtwilson.datatypes.HostTrust;
+import com.intel.mtwilson.i18n.ErrorCode;
+import com.intel.mtwilson.launcher.ws.ext.V2;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+
+/**
+ * Streams the trust status of many hosts as JSON lines, writing each host's
+ * result as soon as its attestation completes instead of waiting for the
+ * whole batch like /AttestationService/resources/hosts/bulk/trust.
+ *
+ * Example request:
+ * <pre>
+ * GET /mtwilson/v2/bulk-host-attestations?hosts=host1,host2&force_verify=true&timeout=600&host_timeout=60
+ * Accept: application/x-json-stream
+ * </pre>
+ *
+ * Example response, one line per host:
+ * <pre>
+ * {"error_code":"OK","error_message":"OK","host_name":"host2","vmm_status":1,"bios_status":1}
+ * {"error_code":"AS_ASYNC_TIMEOUT","error_message":"Exceeded timeout of 60 seconds","host_name":"host1","vmm_status":null,"bios_status":null}
+ * </pre>
+ *
+ * If the client disconnects, the attestations that have not completed are
+ * cancelled.
+ */
+@V2
+@Path("/bulk-host-attestations")
+public class BulkHostAttestations {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BulkHostAttestations.class);
+    public static final String APPLICATION_JSON_STREAM = "application/x-json-stream";
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @GET
+    @Produces(APPLICATION_JSON_STREAM)
+    @RequiresPermissions("host_attestations:create,retrieve")
+    public Response streamHostAttestations(
+            @QueryParam("hosts") String hosts,
+            @QueryParam("force_verify") @DefaultValue("false") final Boolean forceVerify,
+            @QueryParam("timeout") Integer timeout,
+            @QueryParam("host_timeout") Integer hostTimeout) {
+        ValidationUtil.validate(hosts);
+        if (hosts == null || hosts.isEmpty()) {
+            throw new ASException(ErrorCode.AS_MISSING_INPUT, "hosts");
+        }
+        final Set<String> hostSet = new HashSet<>();
+        for (String host : hosts.split(",")) {
+            if (!host.trim().isEmpty()) {
+                hostSet.add(host.trim());
+            }
+        }
+        if (timeout == null) {
+            timeout = ASConfig.getConfiguration().getInt("com.intel.mountwilson.as.attestation.hostTimeout", 600);
+        }
+        final int perHostTimeout = hostTimeout == null ? timeout : hostTimeout;
+        final BulkHostTrustBO bulkHostTrustBO = new BulkHostTrustBO(timeout);
+        log.debug("Streaming attestation of {} hosts with timeout {} and host timeout {}", hostSet.size(), timeout, perHostTimeout);
+        StreamingOutput stream = new StreamingOutput() {
+            @Override
+            public void write(final OutputStream out) throws IOException, WebApplicationException {
+                try {
+                    bulkHostTrustBO.streamBulkTrustJson(hostSet, forceVerify, null, perHostTimeout, new BulkHostTrustBO.HostTrustHandler() {
+                        @Override
+                        public void handle(HostTrust result) throws IOException {
+                            out.write(mapper.writeValueAsBytes(result));
+                            out.write('\n');
+                            out.flush();
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for host attestations", e);
+                } catch (IOException e) {
+                    log.debug("Stopped streaming host attestations: {}", e.getMessage());
+                    throw e;
+                }
+            }
+        };
+        return Response.ok(stream, APPLICATION_JSON_STREAM).build();
+    }
+}
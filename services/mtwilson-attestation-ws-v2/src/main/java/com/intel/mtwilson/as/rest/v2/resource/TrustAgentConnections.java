@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.rest.v2.resource;
+
+import com.intel.mtwilson.agent.intel.IntelHostAgentFactory;
+import com.intel.mtwilson.launcher.ws.ext.V2;
+import com.intel.mtwilson.trustagent.client.jaxrs.TrustAgentClientPool;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+
+/**
+ * Reports the counters of the pool of trust agent v2 clients, for example to
+ * check how many attestations reused an open connection to the trust agent.
+ */
+@V2
+@Path("/trust-agent-connections")
+public class TrustAgentConnections {
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @RequiresPermissions("hosts:search")
+    public TrustAgentClientPool.Statistics getStatistics() {
+        return IntelHostAgentFactory.getTrustAgentClientPool().getStatistics();
+    }
+}
@@ -11,6 +11,7 @@ import com.intel.mtwilson.datatypes.TxtHostRecordList;
 import com.intel.mtwilson.datatypes.TxtHostRecordList;
 import com.intel.mtwilson.launcher.ws.ext.RPC;
 import com.intel.mtwilson.ms.business.HostBO;
+import com.intel.mtwilson.ms.business.HostRegistrationListener;
 import java.util.List;
 import org.apache.shiro.authz.annotation.RequiresPermissions;
 
@@ -50,7 +51,21 @@ public class RegisterHostsRunnable implements Runnable{
     @RequiresPermissions({"hosts:create,store"})
     public void run() {
         log.debug("Got request to register # {} of servers.", hosts.getHostRecords().size());
-        result = new HostBO().registerHosts(hosts);
+        result = new HostBO().registerHosts(hosts, new HostRegistrationListener() {
+            @Override
+            public void hostInspected(String hostName, boolean success, int completed, int total) {
+                // log every host at debug level, and about every 10 percent at info level for large requests
+                log.debug("Retrieved details of server {} with status {} ({} of {})", hostName, success, completed, total);
+                if (completed == total || completed % Math.max(1, total / 10) == 0) {
+                    log.info("Retrieved details of {} of {} servers", completed, total);
+                }
+            }
+
+            @Override
+            public void hostsRegistered(int registered, int total) {
+                log.info("Registered {} of {} servers", registered, total);
+            }
+        });
         List<HostConfigResponse> hostRecords = result.getHostRecords();
         for (HostConfigResponse hcr : hostRecords) {
             log.debug("Processed server {} with status {}.", hcr.getHostName(), hcr.getStatus());
@@ -8,6 +8,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intel.mtwilson.i18n.ErrorCode;
 import com.intel.mountwilson.as.common.ASException;
 import com.intel.mtwilson.My;
+import com.intel.mtwilson.policy.TrustPolicyCache;
+import com.intel.mtwilson.as.business.trust.TrustStatusCache;
 import com.intel.mtwilson.agent.HostAgent;
 import com.intel.mtwilson.agent.HostAgentFactory;
 import com.intel.mtwilson.as.controller.TblHostSpecificManifestJpaController;
@@ -35,6 +37,7 @@ import com.intel.mtwilson.datatypes.*;
 import com.intel.mtwilson.model.*;
 import com.intel.mtwilson.model.PcrIndex;
 import com.intel.mtwilson.tls.policy.TlsPolicyChoice;
+import com.intel.mtwilson.tls.policy.factory.TlsPolicyCache;
 import com.intel.mtwilson.tls.policy.factory.impl.TblHostsTlsPolicyFactory;
 import com.intel.mtwilson.tls.policy.jdbi.TlsPolicyDAO;
 import com.intel.mtwilson.tls.policy.jdbi.TlsPolicyJdbiFactory;
@@ -361,6 +364,7 @@ public class HostBO {
                     tblHostSpecificManifest.setHostID(tblHosts.getId());
                     My.jpa().mwHostSpecificManifest().create(tblHostSpecificManifest);
             }
+            TrustPolicyCache.getInstance().invalidateHost(tblHosts.getId());
         }
     }
 
@@ -368,6 +372,7 @@ public class HostBO {
         try(TlsPolicyDAO tlsPolicyDao = TlsPolicyJdbiFactory.tlsPolicyDAO()) {
             tlsPolicyDao.deletePrivateTlsPolicyByHostId(target.getUuid_hex());
         }        
+        TlsPolicyCache.getInstance().invalidateAll();
     }
 
         private void setTlsPolicyFields(TblHosts target, TxtHost from) throws IOException {
@@ -415,6 +420,7 @@ public class HostBO {
                     JsonTlsPolicyWriter tlsPolicyWriter = new JsonTlsPolicyWriter();
                     newTlsPolicy.setContent(tlsPolicyWriter.write(target.getTlsPolicyDescriptor()));
                     tlsPolicyDao.insertTlsPolicy(newTlsPolicy);
+                    TlsPolicyCache.getInstance().invalidateAll();
                     target.setTlsPolicyId(newTlsPolicy.getId().toString()); // automatically clears the old tls policy name and tls keystore fields as well as the new tls policy descriptor field
                 }
                 else {
@@ -424,6 +430,7 @@ public class HostBO {
                     JsonTlsPolicyWriter tlsPolicyWriter = new JsonTlsPolicyWriter();
                     existingTlsPolicy.setContent(tlsPolicyWriter.write(target.getTlsPolicyDescriptor()));
                     tlsPolicyDao.updateTlsPolicy(existingTlsPolicy);
+                    TlsPolicyCache.getInstance().invalidateAll();
                     target.setTlsPolicyId(existingTlsPolicy.getId().toString()); // automatically clears the old tls policy name and tls keystore fields as well as the new tls policy descriptor field
                 }
             }
@@ -584,6 +591,8 @@ public class HostBO {
                         
 			My.jpa().mwHosts().edit(tblHosts);
 			log.info("Updated host: {}", tblHosts.getName());
+                        TrustStatusCache.getInstance().invalidate(tblHosts.getName());
+                        HostAgentFactory.invalidateHostInfo(tblHosts.getName());
                         
                         if(tblHostSpecificManifests != null){
                             log.debug("Updating Host Specific Manifest in database");
@@ -634,6 +643,8 @@ public class HostBO {
 
                         My.jpa().mwHosts().destroy(tblHosts.getId());
                         log.info("Deleted host: {}", hostName.toString());
+                        TrustStatusCache.getInstance().invalidate(tblHosts.getName());
+                        HostAgentFactory.invalidateHostInfo(tblHosts.getName());
                         
                         // Now that the host is deleted, we need to remove any asset tag certificate mapped to this host
                         unmapAssetTagCertFromHost(tblHosts.getId(), tblHosts.getName());
@@ -696,6 +707,7 @@ public class HostBO {
                         }
                     }
                 }
+                TrustPolicyCache.getInstance().invalidateHost(tblHosts.getId());
         }
 
         private void deleteTALogs(Integer hostId) throws IllegalOrphanException, IOException {
@@ -906,6 +918,7 @@ public class HostBO {
                 //          tblHosts.getIPAddress() + ", loc=" + tblHosts.getLocation() + ", name=" + tblHosts.getName() + ", tls=" + tblHosts.getTlsPolicyName() + ", port=" + tblHosts.getPort());
                 try {
                     My.jpa().mwHosts().create(tblHosts);
+                    HostAgentFactory.invalidateHostInfo(tblHosts.getName());
                 }catch (Exception e){
                     log.debug("SaveHostInDatabase caught ex!");
                     e.printStackTrace();
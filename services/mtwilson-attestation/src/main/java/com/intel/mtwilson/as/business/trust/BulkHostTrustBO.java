@@ -10,11 +10,17 @@ import com.intel.mtwilson.i18n.ErrorCode;
 import com.intel.mtwilson.datatypes.HostTrust;
 import com.intel.mtwilson.model.Nonce;
 import com.intel.mtwilson.threads.Attestation;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang.StringUtils;
@@ -84,60 +90,113 @@ public class BulkHostTrustBO {
 
     public BulkHostTrustResponse getBulkTrustJson(Set<String> hosts, boolean forceVerify, Nonce challenge) {
         try {
+            final BulkHostTrustResponse report = new BulkHostTrustResponse();
+            streamBulkTrustJson(hosts, forceVerify, challenge, timeout, new HostTrustHandler() {
+                @Override
+                public void handle(HostTrust result) {
+                    report.getHosts().add(result);
+                }
+            });
+            return report;
+        } catch (Exception ex) {
+            // throw new ASException(ex);
+            // Bug: 1038 - prevent leaks in error messages to client
+            log.error("Error during bulk host trust retrieval.", ex);
+            throw new ASException(ErrorCode.AS_BULK_HOST_TRUST_ERROR, ex.getClass().getSimpleName());
+        }
+    }
 
-            Set<HostQuoteJson> tasks = new HashSet<HostQuoteJson>();
-//            ExecutorService scheduler = Executors.newFixedThreadPool(maxThreads);
-            ArrayList<Future<?>> taskStatus = new ArrayList<Future<?>>();
-
-            List<HostTrust> results = new ArrayList<HostTrust>();
+    /**
+     * Receives each host's trust status as soon as it is available.
+     */
+    public static interface HostTrustHandler {
+        /**
+         * @param result
+         * @throws IOException to stop, for example when the client disconnected; the hosts that are still pending are cancelled
+         */
+        void handle(HostTrust result) throws IOException;
+    }
 
+    /**
+     * Attests the hosts in parallel and passes each result to the handler in
+     * the order they complete. Hosts that are not done within the bulk
+     * timeout, or within hostTimeout seconds after their attestation
+     * started, are cancelled and reported with AS_ASYNC_TIMEOUT. A cancelled
+     * attestation is interrupted unless another request is waiting for it.
+     *
+     * @param hosts
+     * @param forceVerify
+     * @param challenge may be null
+     * @param hostTimeout maximum seconds for each host
+     * @param handler
+     * @throws IOException if the handler throws it
+     * @throws InterruptedException
+     */
+    public void streamBulkTrustJson(Set<String> hosts, boolean forceVerify, Nonce challenge, int hostTimeout, HostTrustHandler handler) throws IOException, InterruptedException {
+        long hostTimeoutMillis = TimeUnit.SECONDS.toMillis(hostTimeout);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        CompletionService<HostQuoteJson> completionService = new ExecutorCompletionService<>(Attestation.getExecutor());
+        HashMap<Future<HostQuoteJson>, HostQuoteJson> pending = new HashMap<>();
+        long lastCheck = System.currentTimeMillis();
+        try {
             for (String host : hosts) {
                 HostQuoteJson task = new HostQuoteJson(host, forceVerify, challenge);
-                tasks.add(task);
-                Future<?> status = Attestation.getExecutor().submit(task);
-                taskStatus.add(status);
+                pending.put(completionService.submit(task, task), task);
             }
-
-            for (Future<?> status : taskStatus) {
-                try {
-                    status.get(timeout, TimeUnit.SECONDS); // return value will always be null because we submitted "Runnable" tasks
-                } catch (Exception e) {
-                    log.error("Error while waiting for task to complete: {}", e);
+            while (!pending.isEmpty()) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    break;
                 }
-            }
-
-//            scheduler.shutdown();
-
-//            if( scheduler.awaitTermination(timeout, TimeUnit.SECONDS) ) {
-//                log.info("All tasks completed on time");
-//            }
-//            else {
-//                log.info("Timeout reached before all tasks completed"); // should set the error code ErrorCode.AS_ASYNC_TIMEOUT on the ones that timed out (no result available)
-//            }
-
-
-            for (HostQuoteJson task : tasks) {
-                if (task.getResult() == null) {
-                    results.add(task.getTimeoutResult());
-                } else if (task.isError()) {
-                    results.add(task.getResult()); // already in error format
-                } else {
-                    results.add(task.getResult());
+                // check host deadlines at least once a second while waiting for results
+                Future<HostQuoteJson> done = completionService.poll(Math.min(deadline - now, 1000), TimeUnit.MILLISECONDS);
+                if (done != null) {
+                    HostQuoteJson task = pending.remove(done);
+                    if (task != null) { // cancelled tasks are also returned and were already reported
+                        handler.handle(task.getResult() == null ? task.getTimeoutResult() : task.getResult());
+                    }
+                }
+                now = System.currentTimeMillis();
+                if (now - lastCheck < 1000) {
+                    continue;
+                }
+                lastCheck = now;
+                Iterator<Map.Entry<Future<HostQuoteJson>, HostQuoteJson>> it = pending.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Future<HostQuoteJson>, HostQuoteJson> entry = it.next();
+                    long started = entry.getValue().getStarted();
+                    if (started > 0 && now - started >= hostTimeoutMillis) {
+                        log.debug("streamBulkTrustJson host timeout for {}", entry.getValue().getHostname());
+                        cancel(entry.getKey(), entry.getValue());
+                        it.remove();
+                        handler.handle(entry.getValue().getTimeoutResult(hostTimeout));
+                    }
                 }
             }
-
-            BulkHostTrustResponse report = new BulkHostTrustResponse();
-            for (HostTrust result : results) {
-                report.getHosts().add(result);
+            for (HostQuoteJson task : pending.values()) {
+                log.debug("streamBulkTrustJson timeout for {}", task.getHostname());
+                handler.handle(task.getTimeoutResult());
+            }
+        } finally {
+            // stop the tasks that timed out or that nobody is waiting for anymore
+            for (Map.Entry<Future<HostQuoteJson>, HostQuoteJson> entry : pending.entrySet()) {
+                cancel(entry.getKey(), entry.getValue());
             }
+        }
+    }
 
-            return report;
-        } catch (Exception ex) {
-            // throw new ASException(ex);
-            // Bug: 1038 - prevent leaks in error messages to client
-            log.error("Error during bulk host trust retrieval.", ex);
-            throw new ASException(ErrorCode.AS_BULK_HOST_TRUST_ERROR, ex.getClass().getSimpleName());
+    /**
+     * Tasks that did not start yet are not started. A running task is
+     * interrupted to free its executor thread, unless its attestation is
+     * shared by HostAttestationSingleFlight with another request that is
+     * waiting for it; interrupting it would fail that request too.
+     */
+    private void cancel(Future<HostQuoteJson> future, HostQuoteJson task) {
+        boolean interrupt = HostAttestationSingleFlight.getInstance().abandon(task.getScope());
+        if (!interrupt) {
+            log.debug("Attestation of {} is shared with another request, not interrupting it", task.getHostname());
         }
+        future.cancel(interrupt);
     }
 
     private class HostQuoteSaml implements Runnable, Callable<String> {
@@ -204,9 +263,11 @@ public class BulkHostTrustBO {
 
         private String hostname = null; // example: "10.1.71.174"
         private boolean forceVerify;
-        private HostTrust result = null;
-        private boolean isError = false;
+        private volatile HostTrust result = null;
+        private volatile boolean isError = false;
         private Nonce challenge = null;
+        private volatile long started = 0;
+        private final HostAttestationSingleFlight.Scope scope = new HostAttestationSingleFlight.Scope();
 
         public HostQuoteJson(String hostname, boolean forceVerify, Nonce challenge) {
             this.hostname = hostname;
@@ -219,6 +280,8 @@ public class BulkHostTrustBO {
             if (isError()) {
                 return;
             } // avoid clobbering previous error
+            started = System.currentTimeMillis();
+            HostAttestationSingleFlight.enter(scope);
             try {
                 HostTrustBO hostTrustBO = new HostTrustBO();
 //                HostBO hostBO = new HostBO();
@@ -232,6 +295,8 @@ public class BulkHostTrustBO {
             } catch (Exception e) {
                 isError = true;
                 result = new HostTrust(ErrorCode.AS_HOST_TRUST_ERROR, String.format(ErrorCode.AS_HOST_TRUST_ERROR.getMessage(), e.getClass().getSimpleName()), hostname, null, null);
+            } finally {
+                HostAttestationSingleFlight.exit();
             }
         }
 
@@ -247,8 +312,23 @@ public class BulkHostTrustBO {
             return hostname;
         }
 
+        /**
+         * @return when the attestation started, or zero if it has not started
+         */
+        public long getStarted() {
+            return started;
+        }
+
+        public HostAttestationSingleFlight.Scope getScope() {
+            return scope;
+        }
+
         public HostTrust getTimeoutResult() {
-            return new HostTrust(ErrorCode.AS_ASYNC_TIMEOUT, "Exceeded timeout of " + timeout + " seconds", hostname, null, null);
+            return getTimeoutResult(timeout);
+        }
+
+        public HostTrust getTimeoutResult(int seconds) {
+            return new HostTrust(ErrorCode.AS_ASYNC_TIMEOUT, "Exceeded timeout of " + seconds + " seconds", hostname, null, null);
         }
     }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.mountwilson.as.common.ASException;
+import com.intel.mtwilson.as.rest.v2.model.HostAttestation;
+import com.intel.mtwilson.i18n.ErrorCode;
+import com.intel.mtwilson.model.Nonce;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent attestations of the same host so that only one of
+ * them contacts the trust agent, verifies the quote and records the result.
+ * Attestations are keyed by host name and, when a challenge is supplied, by
+ * the challenge too, since a quote over one nonce cannot answer another.
+ * A caller that needs the attestation to be recorded with a specific id,
+ * such as a v2 client that chose the attestation id, supplies that id and
+ * is only coalesced with callers that supplied the same id.
+ *
+ * The first caller for a key runs the attestation on its own thread; callers
+ * that arrive while it is in flight wait for it and receive the same
+ * {@link HostAttestation}, or the same exception. Nothing is cached after
+ * the attestation completes.
+ *
+ * A caller that may give up on its attestation, such as a bulk request task
+ * with a per-host deadline, runs inside a {@link Scope}. {@link #abandon}
+ * then reports whether the attestations that scope started are still shared
+ * with other callers; if not, they are no longer offered to new callers and
+ * the scope's thread may be interrupted without failing anyone else.
+ *
+ * Usage:
+ * <pre>
+ * HostAttestation result = HostAttestationSingleFlight.getInstance().execute(hostname, challenge, new Callable&lt;HostAttestation&gt;() {
+ *     public HostAttestation call() throws Exception {
+ *         return attest(tblHosts, challenge);
+ *     }
+ * });
+ * </pre>
+ */
+public class HostAttestationSingleFlight {
+    private static final Logger log = LoggerFactory.getLogger(HostAttestationSingleFlight.class);
+    private static final HostAttestationSingleFlight instance = new HostAttestationSingleFlight();
+
+    private static final ThreadLocal<Scope> currentScope = new ThreadLocal<>();
+
+    /**
+     * Identifies the attestations started by one abandonable task.
+     */
+    public static class Scope {
+        private boolean abandoned = false; // guarded by the single flight's inflight map
+    }
+
+    private static class Flight {
+        private final FutureTask<HostAttestation> task;
+        private final Scope scope;
+        private int waiters = 0;
+        private boolean abandoned = false;
+
+        private Flight(FutureTask<HostAttestation> task, Scope scope) {
+            this.task = task;
+            this.scope = scope;
+        }
+    }
+
+    private final HashMap<String, Flight> inflight = new HashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public static HostAttestationSingleFlight getInstance() {
+        return instance;
+    }
+
+    /**
+     * Runs the attestations started by the current thread in the scope until
+     * {@link #exit()} is called.
+     *
+     * @param scope
+     */
+    public static void enter(Scope scope) {
+        currentScope.set(scope);
+    }
+
+    public static void exit() {
+        currentScope.remove();
+    }
+
+    /**
+     * Abandons the scope's attestations if no other caller is waiting for any
+     * of them. An abandoned attestation is not shared with later callers and
+     * the scope cannot start new ones, so its thread may be interrupted.
+     *
+     * @param scope
+     * @return true if the scope was abandoned, false if another caller is waiting for one of its attestations
+     */
+    public boolean abandon(Scope scope) {
+        synchronized (inflight) {
+            for (Flight flight : inflight.values()) {
+                if (flight.scope == scope && flight.waiters > 0) {
+                    return false;
+                }
+            }
+            scope.abandoned = true;
+            for (Flight flight : inflight.values()) {
+                if (flight.scope == scope) {
+                    flight.abandoned = true;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Same as execute(hostname, challenge, null, attestation).
+     */
+    public HostAttestation execute(String hostname, Nonce challenge, Callable<HostAttestation> attestation) throws IOException {
+        return execute(hostname, challenge, null, attestation);
+    }
+
+    /**
+     * @param hostname
+     * @param challenge may be null
+     * @param attestationUuid the id the attestation must be recorded with, or null if the result of a concurrent caller is acceptable
+     * @param attestation performs the attestation; called at most once for all concurrent callers with the same key
+     * @return the result of this or of a concurrent caller's attestation
+     * @throws IOException if the attestation threw an IOException, the wait was interrupted, or the current scope was abandoned
+     */
+    public HostAttestation execute(String hostname, Nonce challenge, String attestationUuid, Callable<HostAttestation> attestation) throws IOException {
+        String key = challenge == null ? hostname : hostname + "#" + challenge.toString();
+        if (attestationUuid != null) {
+            key = key + "@" + attestationUuid;
+        }
+        Flight flight;
+        boolean owner;
+        synchronized (inflight) {
+            flight = inflight.get(key);
+            owner = flight == null || flight.abandoned;
+            if (owner) {
+                Scope scope = currentScope.get();
+                if (scope != null && scope.abandoned) {
+                    throw new InterruptedIOException("Attestation of " + hostname + " was abandoned");
+                }
+                flight = new Flight(new FutureTask<>(attestation), scope);
+                inflight.put(key, flight);
+            } else {
+                flight.waiters++;
+            }
+        }
+        if (owner) {
+            executed.incrementAndGet();
+            try {
+                flight.task.run();
+            } finally {
+                synchronized (inflight) {
+                    if (inflight.get(key) == flight) {
+                        inflight.remove(key);
+                    }
+                }
+            }
+        } else {
+            coalesced.incrementAndGet();
+            log.debug("Waiting for attestation of {} already in progress", hostname);
+        }
+        try {
+            return flight.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for attestation of " + hostname);
+            interrupted.initCause(e);
+            throw interrupted;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new ASException(cause, ErrorCode.AS_HOST_TRUST_ERROR, cause.getClass().getSimpleName());
+        } finally {
+            if (!owner) {
+                synchronized (inflight) {
+                    flight.waiters--;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of attestations currently in progress
+     */
+    public int getInflightCount() {
+        synchronized (inflight) {
+            return inflight.size();
+        }
+    }
+
+    /**
+     * @return number of attestations actually performed
+     */
+    public long getExecutedCount() {
+        return executed.get();
+    }
+
+    /**
+     * @return number of callers that shared another caller's attestation
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+}
@@ -82,6 +82,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response.Status;
 import javax.xml.crypto.MarshalException;
@@ -292,7 +293,7 @@ public class HostTrustBO {
                     }
                     
                     Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForMLEVerification(tblHosts, tblHosts.getName()); 
-                    PolicyEngine policyEngine = new PolicyEngine();
+                    PolicyEngine policyEngine = new PolicyEngine(false, true); // only the marker result is used
                     TrustReport trustReport = policyEngine.apply(hostReport, trustPolicy);
 
                     // Let us update the TxtHostRecord object with the details. We will use that object for host registration later                        
@@ -374,7 +375,7 @@ public class HostTrustBO {
                     }
 
                     Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForMLEVerification(tblHosts, tblHosts.getName()); 
-                    PolicyEngine policyEngine = new PolicyEngine();
+                    PolicyEngine policyEngine = new PolicyEngine(false, true); // only the marker result is used
                     TrustReport trustReport = policyEngine.apply(hostReport, trustPolicy);
 
                     // Let us update the TxtHostRecord object with the details. We will use it for host registration later                        
@@ -528,7 +529,7 @@ public class HostTrustBO {
                         Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForHost(tblHosts, tblHosts.getName()); 
                         long t1 = System.currentTimeMillis();
                         log.trace("performance: hostTrustPolicyFactory.loadTrustPolicyForHost: {}ms", t1-t0);
-                        PolicyEngine policyEngine = new PolicyEngine();
+                        PolicyEngine policyEngine = new PolicyEngine(false, true); // only the marker result is used
                         TrustReport tempTrustReport = policyEngine.apply(hostReport, trustPolicy);
                        long t2 = System.currentTimeMillis();
                         log.trace("performance: policyEngine.apply: {}ms", t2-t1);
@@ -611,7 +612,7 @@ public class HostTrustBO {
                         tblHosts.setVmmMleId(vmmMLE);
 
                         Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForMLEVerification(tblHosts, tblHosts.getName()); 
-                        PolicyEngine policyEngine = new PolicyEngine();
+                        PolicyEngine policyEngine = new PolicyEngine(false, true); // only the marker result is used
                         TrustReport tempTrustReport = policyEngine.apply(hostReport, trustPolicy);
 
                         if (tempTrustReport != null && tempTrustReport.isTrustedForMarker(TrustMarker.VMM.name())) {
@@ -783,9 +784,18 @@ public class HostTrustBO {
         // bug #538 first check if the host supports tpm
         HostAgentFactory factory = new HostAgentFactory();
         long getAgentStart = System.currentTimeMillis(); 
-        HostAgent agent = factory.getHostAgent(tblHosts);
+        HostAgent agent = factory.getHostAgentForAttestation(tblHosts);
         long getAgentStop = System.currentTimeMillis();
         log.trace("performance: getHostAgent: {}ms", getAgentStop-getAgentStart);
+        try {
+            return getTrustReportForHost(tblHosts, hostId, challenge, factory, agent);
+        }
+        finally {
+            HostAgentFactory.close(agent);
+        }
+    }
+
+    private TrustReport getTrustReportForHost(TblHosts tblHosts, String hostId, Nonce challenge, HostAgentFactory factory, HostAgent agent) throws IOException {
         if( !agent.isTpmEnabled() || !agent.isIntelTxtEnabled() ) {
             throw new ASException(ErrorCode.AS_INTEL_TXT_NOT_ENABLED, hostId);
         }
@@ -848,6 +858,7 @@ public class HostTrustBO {
         log.trace("performance: loadTrustPolicyForHost: {}ms", getTrustPolicyStop-getTrustPolicyStart);
 //        trustPolicy.setName(policy for hostId) // do we even need a name? or is that just a management thing for the app?
         PolicyEngine policyEngine = new PolicyEngine();
+        policyEngine.setParallel(configuration.getBoolean("mtwilson.policy.engine.parallel", false));
         long applyPolicyStart = System.currentTimeMillis();
         TrustReport trustReport = policyEngine.apply(hostReport, trustPolicy);
         long applyPolicyStop = System.currentTimeMillis();
@@ -988,6 +999,7 @@ public class HostTrustBO {
             TblTaLogJpaController talog = My.jpa().mwTaLog();
             
             talog.create(taLog); // overall status
+            TrustStatusCache.getInstance().recordStatus(host, status, getCacheExpiry(today));
     /*        
             // bios
             TblTaLog taLogBios = new TblTaLog();
@@ -1945,6 +1957,7 @@ public class HostTrustBO {
             tblSamlAssertion.setTrustReport(mapper.writeValueAsString(hostTrustReport));
                 
             My.jpa().mwSamlAssertion().create(tblSamlAssertion);
+            TrustStatusCache.getInstance().recordSaml(tblHosts, host.isBiosTrusted(), host.isVmmTrusted(), samlAssertion.assertion, samlAssertion.expiry_ts);
 
             return buildHostAttestation(tblHosts, tblSamlAssertion);
         } catch (ASException e) {
@@ -1968,7 +1981,7 @@ public class HostTrustBO {
 
     private SamlGenerator getSamlGenerator() throws UnknownHostException, ConfigurationException, IOException, GeneralSecurityException {
 //        String issuer = conf.getString("saml.issuer", defaultIssuer);
-        SamlGenerator saml = new SamlGenerator(Attestation.getIssuerConfiguration());
+        SamlGenerator saml = new SamlGenerator(Attestation.getIssuerConfiguration(), Attestation.getSamlSignature());
         return saml;
     }
     
@@ -1979,6 +1992,13 @@ public class HostTrustBO {
         }
         log.debug("getTrustWithSamlByAik calling getHostByAik for aik {}", aik.toString());
         TblHosts tblHosts = getHostByAik(aik);
+        if( !forceVerify ) {
+            String saml = TrustStatusCache.getInstance().getSaml(tblHosts);
+            if( saml != null ) {
+                log.debug("Found assertion for aik {} in memory cache", aik.toString());
+                return saml;
+            }
+        }
         log.debug("getTrustWithSamlByAik calling getTrustWithSaml for host {} aik {}", tblHosts.getName(), aik.toString());
         return getTrustWithSaml(tblHosts, aik.toString(), forceVerify);
     }
@@ -1993,6 +2013,13 @@ public class HostTrustBO {
             My.initDataEncryptionKey();
         }
         TblHosts tblHosts = getHostByName(new Hostname((host)));
+        if( !forceVerify ) {
+            String saml = TrustStatusCache.getInstance().getSaml(tblHosts);
+            if( saml != null ) {
+                log.debug("Found assertion for {} in memory cache", host);
+                return saml;
+            }
+        }
         return getTrustWithSaml(tblHosts, tblHosts.getName(), forceVerify, challenge);
     }
 
@@ -2016,14 +2043,24 @@ public class HostTrustBO {
     public String getTrustWithSaml(TblHosts tblHosts, String hostId, boolean forceVerify, Nonce challenge) throws IOException {
         String hostAttestationUuid = new UUID().toString();
         log.debug("Generating new UUID for saml assertion record 1: {}", hostAttestationUuid);
-        return getTrustWithSaml(tblHosts, hostId, hostAttestationUuid, forceVerify, challenge).getSaml();
+        return getTrustWithSaml(tblHosts, hostId, hostAttestationUuid, false, forceVerify, challenge).getSaml();
     }
 
     public HostAttestation getTrustWithSaml(TblHosts tblHosts, String hostId, String hostAttestationUuid, boolean forceVerify) throws IOException {
         return getTrustWithSaml(tblHosts, hostId, hostAttestationUuid, forceVerify, null);
     }
     
+    /**
+     * @param hostAttestationUuid the id of the attestation record to create; the returned attestation has this id
+     */
     public HostAttestation getTrustWithSaml(TblHosts tblHosts, String hostId, String hostAttestationUuid, boolean forceVerify, Nonce challenge) throws IOException {
+        return getTrustWithSaml(tblHosts, hostId, hostAttestationUuid, true, forceVerify, challenge);
+    }
+
+    /**
+     * @param uuidRequested true if the caller needs the attestation to be recorded with hostAttestationUuid; false if the uuid was generated and a concurrent attestation of the same host may be returned instead
+     */
+    private HostAttestation getTrustWithSaml(final TblHosts tblHosts, final String hostId, final String hostAttestationUuid, boolean uuidRequested, boolean forceVerify, final Nonce challenge) throws IOException {
         log.debug("getTrustWithSaml: Getting trust for host: " + tblHosts.getName() + " Force verify flag: " + forceVerify);
         // Bug: 702: For host not supporting TXT, we need to return back a proper error
         // make sure the DEK is set for this thread
@@ -2048,6 +2085,7 @@ public class HostTrustBO {
             if(tblSamlAssertion != null){
                 if(tblSamlAssertion.getErrorMessage() == null|| tblSamlAssertion.getErrorMessage().isEmpty()) {
                     log.debug("Found assertion in cache. Expiry time : " + tblSamlAssertion.getExpiryTs());
+                    TrustStatusCache.getInstance().putSaml(tblHosts, tblSamlAssertion.getBiosTrust(), tblSamlAssertion.getVmmTrust(), tblSamlAssertion.getSaml(), tblSamlAssertion.getExpiryTs());
                     return buildHostAttestation(tblHosts, tblSamlAssertion);
                 } else {
                     log.debug("Found assertion in cache with error set, returning that.");
@@ -2058,6 +2096,17 @@ public class HostTrustBO {
         
         log.debug("Getting trust and saml assertion from host.");
         
+        // concurrent requests for the same host and challenge share one attestation instead of each requesting a quote and recording a result,
+        // unless the caller asked for the attestation to be recorded with its own uuid
+        return HostAttestationSingleFlight.getInstance().execute(tblHosts.getName(), challenge, uuidRequested ? hostAttestationUuid : null, new Callable<HostAttestation>() {
+            @Override
+            public HostAttestation call() {
+                return getTrustWithSamlFromHost(tblHosts, hostId, hostAttestationUuid, challenge);
+            }
+        });
+    }
+    
+    private HostAttestation getTrustWithSamlFromHost(TblHosts tblHosts, String hostId, String hostAttestationUuid, Nonce challenge) {
         try {
 //            return getTrustWithSaml(tblHosts, hostId);
                 return getTrustWithSaml(tblHosts, hostId, hostAttestationUuid, challenge); // issue #4978 use specified nonce, if available
@@ -2094,6 +2143,7 @@ public class HostTrustBO {
                 // Bug fix for 1038
                 tblSamlAssertion.setErrorMessage(e.getClass().getSimpleName());
                 My.jpa().mwSamlAssertion().create(tblSamlAssertion);
+                TrustStatusCache.getInstance().removeSaml(tblHosts.getName());
             }catch(Exception ex){
                 //log.debug("getTrustwithSaml caugh exception while generating error saml assertion");
                 log.error("getTrustwithSaml caugh exception while generating error saml assertion", ex);
@@ -2142,10 +2192,19 @@ public class HostTrustBO {
             if(forceVerify != true){
                 TblHosts tblHosts = getHostByName(new Hostname(host));
                 if(tblHosts != null){
+                    HostTrustStatus cached = TrustStatusCache.getInstance().getStatus(tblHosts);
+                    if(cached != null) {
+                        HostTrust hostTrust = new HostTrust(ErrorCode.OK,"");
+                        hostTrust.setBiosStatus(cached.bios ? 1 : 0);
+                        hostTrust.setVmmStatus(cached.vmm ? 1 : 0);
+                        hostTrust.setIpAddress(host);
+                        return hostTrust;
+                    }
                     TblTaLog tblTaLog = My.jpa().mwTaLog().getHostTALogEntryBefore(tblHosts.getId() , getCacheStaleAfter() );
 
                     // Bug 849: We need to ensure that we add the host name to the response as well. Otherwise it will just contain BIOS and VMM status.
                     if(tblTaLog != null) {
+                        TrustStatusCache.getInstance().putStatus(tblHosts, getHostTrustStatusObj(tblTaLog), getCacheExpiry(tblTaLog.getUpdatedOn()));
                         HostTrust hostTrust = getHostTrustObj(tblTaLog);
                         hostTrust.setIpAddress(host);
                         return hostTrust;
@@ -2189,11 +2248,16 @@ public class HostTrustBO {
             if(forceVerify != true){
                 TblHosts tblHosts = getHostByName(new Hostname(host));
                 if(tblHosts != null){
+                    HostTrustStatus cached = TrustStatusCache.getInstance().getStatus(tblHosts);
+                    if(cached != null) {
+                        return cached;
+                    }
                     TblTaLog tblTaLog = My.jpa().mwTaLog().getHostTALogEntryBefore(tblHosts.getId() , getCacheStaleAfter() );
 
                     // Bug 849: We need to ensure that we add the host name to the response as well. Otherwise it will just contain BIOS and VMM status.
                     if(tblTaLog != null) {
                         HostTrustStatus hts = getHostTrustStatusObj(tblTaLog);
+                        TrustStatusCache.getInstance().putStatus(tblHosts, hts, getCacheExpiry(tblTaLog.getUpdatedOn()));
                         return hts;
                     }
                 }else{
@@ -2219,6 +2283,14 @@ public class HostTrustBO {
     private Date getCacheStaleAfter(){
         return new DateTime().minusSeconds(Attestation.getIssuerConfiguration().getValiditySeconds()).toDate();
     }
+    
+    /**
+     * @param updatedOn when the mw_ta_log entry was written
+     * @return when getCacheStaleAfter() will stop returning the entry
+     */
+    private Date getCacheExpiry(Date updatedOn){
+        return new DateTime(updatedOn).plusSeconds(Attestation.getIssuerConfiguration().getValiditySeconds()).toDate();
+    }
     private HostTrust getHostTrustObj(TblTaLog tblTaLog) {
         HostTrust hostTrust = new HostTrust(ErrorCode.OK,"");
         
@@ -2362,7 +2434,7 @@ public class HostTrustBO {
                         tblHosts.setBiosMleId(biosMLE);
 
                         Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForMLEVerification(tblHosts, tblHosts.getName()); 
-                        PolicyEngine policyEngine = new PolicyEngine();
+                        PolicyEngine policyEngine = new PolicyEngine(false, true); // only the marker result is used
                         TrustReport trustReport = policyEngine.apply(hostReport, trustPolicy);
 
                         if (trustReport != null && trustReport.isTrustedForMarker(TrustMarker.BIOS.name())) {
@@ -2445,7 +2517,7 @@ public class HostTrustBO {
                         tblHosts.setVmmMleId(vmmMLE);
 
                         Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForMLEVerification(tblHosts, tblHosts.getName()); 
-                        PolicyEngine policyEngine = new PolicyEngine();
+                        PolicyEngine policyEngine = new PolicyEngine(false, true); // only the marker result is used
                         TrustReport trustReport = policyEngine.apply(hostReport, trustPolicy);
 
 
@@ -2553,6 +2625,7 @@ public class HostTrustBO {
             tblSamlAssertion.setCreatedTs(samlAssertion.created_ts);
                             
             My.jpa().mwSamlAssertion().create(tblSamlAssertion);
+            TrustStatusCache.getInstance().recordSaml(tblHosts, host.isBiosTrusted(), host.isVmmTrusted(), samlAssertion.assertion, samlAssertion.expiry_ts);
 
             return samlAssertion.assertion;
             
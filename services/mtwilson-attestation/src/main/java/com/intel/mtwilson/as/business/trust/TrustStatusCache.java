@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.dcsg.cpg.extensions.Extensions;
+import com.intel.mountwilson.as.common.ASConfig;
+import com.intel.mtwilson.as.data.TblHosts;
+import com.intel.mtwilson.datatypes.HostTrustStatus;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide cache of the latest trust status and SAML assertion of each
+ * host, so non-forced trust queries are answered without looking up the
+ * latest mw_ta_log or mw_saml_assertion row of the host.
+ *
+ * Entries are written by HostTrustBO whenever it records an attestation, and
+ * expire together with the database record they mirror: the status after
+ * the configured SAML validity, the assertion at its own expiry time.
+ *
+ * Entries are looked up with the current host record, so a deleted host is
+ * never found, and an entry is only used while the record still has the same
+ * id, uuid, AIK, MLEs, PCR bank, TPM version, and TLS policy as when it was
+ * cached. This also covers hosts that were changed through another node or
+ * by a module that cannot call this cache. Writers of mw_hosts that can call
+ * it do so through {@link #invalidate(String)} after they change a host.
+ *
+ * Every invalidation and every result this node records with
+ * {@link #recordStatus(TblHosts, HostTrustStatus, Date)} or
+ * {@link #recordSaml(TblHosts, boolean, boolean, String, Date)} is published
+ * to each registered {@link TrustStatusInvalidationBus}, so other nodes drop
+ * their entry for the host and read the new result from the database. Without a
+ * bus, a node can keep answering with its own cached result until it
+ * expires after another node attested the host again; nodes that share a
+ * database without a bus should set mtwilson.trust.status.cache.max to 0.
+ *
+ * Configuration:
+ * mtwilson.trust.status.cache.max (default 10000, 0 disables the cache)
+ */
+public class TrustStatusCache {
+    private static final Logger log = LoggerFactory.getLogger(TrustStatusCache.class);
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static volatile TrustStatusCache instance;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final List<TrustStatusInvalidationBus> buses;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class Entry {
+        private final String hostname;
+        private final String record;
+        private final Boolean bios;
+        private final Boolean vmm;
+        private final long statusExpires;
+        private final String saml;
+        private final long samlExpires;
+
+        private Entry(String hostname, String record, Boolean bios, Boolean vmm, long statusExpires, String saml, long samlExpires) {
+            this.hostname = hostname;
+            this.record = record;
+            this.bios = bios;
+            this.vmm = vmm;
+            this.statusExpires = statusExpires;
+            this.saml = saml;
+            this.samlExpires = samlExpires;
+        }
+
+        private boolean isExpired(long now) {
+            return statusExpires <= now && samlExpires <= now;
+        }
+    }
+
+    TrustStatusCache(int maxEntries) {
+        this(maxEntries, Collections.<TrustStatusInvalidationBus>emptyList());
+    }
+
+    TrustStatusCache(int maxEntries, List<TrustStatusInvalidationBus> buses) {
+        this.maxEntries = maxEntries;
+        this.buses = buses;
+    }
+
+    public static TrustStatusCache getInstance() {
+        if (instance == null) {
+            synchronized (TrustStatusCache.class) {
+                if (instance == null) {
+                    List<TrustStatusInvalidationBus> buses = Extensions.findAll(TrustStatusInvalidationBus.class);
+                    instance = new TrustStatusCache(ASConfig.getConfiguration().getInt("mtwilson.trust.status.cache.max", DEFAULT_MAX_ENTRIES),
+                            buses == null ? Collections.<TrustStatusInvalidationBus>emptyList() : buses);
+                    log.debug("Trust status cache holds up to {} hosts with {} invalidation buses", instance.maxEntries, instance.buses.size());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return the fields of the host record that the cached status depends on
+     */
+    private static String record(TblHosts host) {
+        return host.getId() + "|" + host.getUuid_hex() + "|" + host.getAikSha1()
+                + "|" + (host.getBiosMleId() == null ? null : host.getBiosMleId().getId())
+                + "|" + (host.getVmmMleId() == null ? null : host.getVmmMleId().getId())
+                + "|" + host.getPcrBank() + "|" + host.getTpmVersion() + "|" + host.getTlsPolicyId();
+    }
+
+    /**
+     * @return the entry for the host, or null if there is none or it was cached for a different host record
+     */
+    private Entry getEntry(TblHosts host) {
+        Entry entry = entries.get(host.getName());
+        if (entry != null && !entry.record.equals(record(host))) {
+            entries.remove(host.getName(), entry);
+            log.debug("Host record of {} changed since its trust status was cached", host.getName());
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @param host the current host record
+     * @return the cached trust status, or null if not cached or expired
+     */
+    public HostTrustStatus getStatus(TblHosts host) {
+        Entry entry = getEntry(host);
+        if (entry == null || entry.bios == null || entry.statusExpires <= System.currentTimeMillis()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        HostTrustStatus status = new HostTrustStatus();
+        status.bios = entry.bios;
+        status.vmm = entry.vmm;
+        return status;
+    }
+
+    /**
+     * @param host the current host record
+     * @return the cached SAML assertion, or null if not cached or expired
+     */
+    public String getSaml(TblHosts host) {
+        Entry entry = getEntry(host);
+        if (entry == null || entry.saml == null || entry.samlExpires <= System.currentTimeMillis()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.saml;
+    }
+
+    /**
+     * Records the overall status this node just wrote to mw_ta_log, and tells
+     * the other nodes to drop the status they have cached for the host.
+     *
+     * @param host
+     * @param status
+     * @param expires when the mw_ta_log row stops being used as a cached result
+     */
+    public void recordStatus(TblHosts host, HostTrustStatus status, Date expires) {
+        putStatus(host, status, expires);
+        publish(host.getName());
+    }
+
+    /**
+     * Caches the overall status read from the latest mw_ta_log row of the host.
+     *
+     * @param host
+     * @param status
+     * @param expires when the mw_ta_log row stops being used as a cached result
+     */
+    public void putStatus(TblHosts host, HostTrustStatus status, Date expires) {
+        Entry existing = getEntry(host);
+        String saml = existing == null ? null : existing.saml;
+        long samlExpires = existing == null ? 0 : existing.samlExpires;
+        put(new Entry(host.getName(), record(host), status.bios, status.vmm, expires.getTime(), saml, samlExpires));
+    }
+
+    /**
+     * Records a SAML assertion this node just wrote to mw_saml_assertion, and
+     * tells the other nodes to drop the assertion they have cached for the host.
+     *
+     * @param host
+     * @param bios
+     * @param vmm
+     * @param saml
+     * @param expires the expiry time of the assertion
+     */
+    public void recordSaml(TblHosts host, boolean bios, boolean vmm, String saml, Date expires) {
+        putSaml(host, bios, vmm, saml, expires);
+        publish(host.getName());
+    }
+
+    /**
+     * Caches the latest SAML assertion read from mw_saml_assertion, which also carries the host's current status.
+     *
+     * @param host
+     * @param bios
+     * @param vmm
+     * @param saml
+     * @param expires the expiry time of the assertion
+     */
+    public void putSaml(TblHosts host, boolean bios, boolean vmm, String saml, Date expires) {
+        Entry existing = getEntry(host);
+        long statusExpires = existing == null || existing.bios == null ? 0 : existing.statusExpires;
+        Boolean cachedBios = existing == null ? null : existing.bios;
+        Boolean cachedVmm = existing == null ? null : existing.vmm;
+        put(new Entry(host.getName(), record(host), cachedBios, cachedVmm, statusExpires, saml, expires.getTime()));
+    }
+
+    /**
+     * Forgets the cached SAML assertion of a host, for example after an
+     * attestation failed and an error assertion was recorded in its place;
+     * also notifies the other nodes.
+     *
+     * @param hostname
+     */
+    public void removeSaml(String hostname) {
+        Entry existing = entries.get(hostname);
+        if (existing != null) {
+            entries.replace(hostname, existing, new Entry(existing.hostname, existing.record, existing.bios, existing.vmm, existing.statusExpires, null, 0));
+        }
+        publish(hostname);
+    }
+
+    private void put(Entry entry) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        if (entries.size() >= maxEntries && !entries.containsKey(entry.hostname)) {
+            evict();
+        }
+        entries.put(entry.hostname, entry);
+    }
+
+    /**
+     * Removes expired entries, or one arbitrary entry if none have expired.
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Entry victim = null;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.isExpired(now)) {
+                it.remove();
+            } else if (victim == null) {
+                victim = entry;
+            }
+        }
+        if (entries.size() >= maxEntries && victim != null) {
+            entries.remove(victim.hostname, victim);
+        }
+    }
+
+    /**
+     * Call after a host record is updated or deleted; also notifies the other nodes.
+     *
+     * @param hostname
+     */
+    public void invalidate(String hostname) {
+        if (hostname == null) {
+            return;
+        }
+        invalidateLocal(hostname);
+        publish(hostname);
+    }
+
+    /**
+     * Removes the cached status of a host on this node only; called by
+     * {@link TrustStatusInvalidationBus} implementations when they receive
+     * an invalidation from another node.
+     *
+     * @param hostname
+     */
+    public void invalidateLocal(String hostname) {
+        if (hostname != null && entries.remove(hostname) != null) {
+            log.debug("Invalidated cached trust status of {}", hostname);
+        }
+    }
+
+    private void publish(String hostname) {
+        for (TrustStatusInvalidationBus bus : buses) {
+            try {
+                bus.publish(hostname);
+            } catch (RuntimeException e) {
+                log.error("Cannot publish trust status invalidation for {} to {}", hostname, bus.getClass().getName(), e);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+/**
+ * Carries trust status cache invalidations between Mt. Wilson nodes that
+ * share a database, so that a host updated, deleted, or attested through one
+ * node is not served from the cache of another.
+ *
+ * Implementations are registered as extensions and found with
+ * {@code Extensions.findAll(TrustStatusInvalidationBus.class)}. An
+ * implementation delivers each published host name to the other nodes,
+ * where it calls {@link TrustStatusCache#invalidateLocal(String)}. When no
+ * implementation is registered, each node only invalidates its own cache.
+ */
+public interface TrustStatusInvalidationBus {
+
+    /**
+     * Called after the local cache entry was removed or replaced with a new
+     * attestation result; must not block the caller for long.
+     *
+     * @param hostname the name of the host whose cached trust status is no longer valid
+     */
+    void publish(String hostname);
+}
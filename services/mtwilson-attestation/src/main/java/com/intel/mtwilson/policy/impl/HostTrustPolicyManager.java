@@ -9,6 +9,8 @@ import com.intel.mtwilson.as.business.AssetTagCertBO;
 import java.util.HashSet;
 import com.intel.mtwilson.as.data.MwAssetTagCertificate;
 import com.intel.mtwilson.as.data.TblHosts;
+import com.intel.mtwilson.as.data.TblMle;
+import com.intel.mtwilson.as.data.TblModuleManifest;
 import com.intel.mtwilson.model.Bios;
 import com.intel.mtwilson.model.Vmm;
 import com.intel.mtwilson.policy.*;
@@ -16,6 +18,7 @@ import com.intel.mtwilson.policy.impl.vendor.*;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.persistence.EntityManagerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +47,18 @@ public class HostTrustPolicyManager {
     private JpaPolicyReader reader;
 
     private Map<String,VendorHostTrustPolicyFactory> vendorFactoryMap = new HashMap<String,VendorHostTrustPolicyFactory>();
+    private final TrustPolicyCache cache = TrustPolicyCache.getInstance();
+    private boolean cacheEnabled = My.configuration().getConfiguration().getBoolean("mtwilson.policy.cache.enabled", true);
+    
+    static {
+        try {
+            TrustPolicyCache.getInstance().setMaxEntries(My.configuration().getConfiguration().getInt("mtwilson.policy.cache.max", TrustPolicyCache.DEFAULT_MAX_ENTRIES));
+            TrustPolicyCache.getInstance().setExpiresMillis(My.configuration().getConfiguration().getInt("mtwilson.policy.cache.seconds", TrustPolicyCache.DEFAULT_EXPIRES_SECONDS) * 1000L);
+        }
+        catch(RuntimeException e) {
+            LoggerFactory.getLogger(HostTrustPolicyManager.class).warn("Cannot load trust policy cache settings, using defaults: {}", e.getMessage());
+        }
+    }
     //private Logger log = LoggerFactory.getLogger(getClass());
     public HostTrustPolicyManager(EntityManagerFactory entityManagerFactory) {
         reader = new JpaPolicyReader(entityManagerFactory);
@@ -64,6 +79,8 @@ public class HostTrustPolicyManager {
      */
     public void setVendorFactoryMap(Map<String,VendorHostTrustPolicyFactory> map) {
         vendorFactoryMap = map;
+        // rules cached for the previous factories must not be returned for the new ones
+        cacheEnabled = false;
     }
         
     
@@ -106,18 +123,10 @@ public class HostTrustPolicyManager {
      * 
      */
     public Policy loadTrustPolicyForHost(TblHosts host, String hostId) {
-        VendorHostTrustPolicyFactory factory = getVendorHostTrustPolicyFactoryForHost(host);        
+        String vendorKey = getVendorKeyForHost(host);
+        VendorHostTrustPolicyFactory factory = vendorFactoryMap.get(vendorKey);
         HashSet<Rule> rules = new HashSet<>();
-        // only add bios policy if the host is linked with a bios mle
-        if( host.getBiosMleId() != null ) {
-            Bios bios = new Bios(host.getBiosMleId().getName(), host.getBiosMleId().getVersion(), host.getBiosMleId().getOemId().getName());
-            rules.addAll(factory.loadTrustRulesForBios(bios, host));
-        }
-        // only add vmm policy if the host is linked with a vmm mle
-        if( host.getVmmMleId() != null ) {
-            Vmm vmm = new Vmm(host.getVmmMleId().getName(), host.getVmmMleId().getVersion(), host.getVmmMleId().getOsId().getName(), host.getVmmMleId().getOsId().getVersion());
-            rules.addAll(factory.loadTrustRulesForVmm(vmm,host));
-        }
+        rules.addAll(loadWhitelistRulesForHost(vendorKey, factory, host));
          // only add location policy if the host is expected to be somewhere specific... otherwise, an empty location will result in a policy that can't be met
         //if( host.getLocation() != null && !host.getLocation().trim().isEmpty() ) {
         //    rules.addAll(factory.loadTrustRulesForLocation(host.getLocation(), host));
@@ -148,6 +157,63 @@ public class HostTrustPolicyManager {
         return policy;
     }
     
+    /**
+     * Returns the bios and vmm rules for the host from the trust policy cache,
+     * loading them from the database on a miss. Hosts linked to the same MLEs
+     * share the cached rules unless the MLEs have host-specific modules.
+     */
+    private Set<Rule> loadWhitelistRulesForHost(String vendorKey, VendorHostTrustPolicyFactory factory, TblHosts host) {
+        if( !cacheEnabled ) {
+            return loadWhitelistRulesForHost(factory, host);
+        }
+        long generation = cache.generation();
+        Integer biosMleId = host.getBiosMleId() == null ? null : host.getBiosMleId().getId();
+        Integer vmmMleId = host.getVmmMleId() == null ? null : host.getVmmMleId().getId();
+        boolean hostSpecific = host.getId() != null && host.getId() != 0 && (isHostSpecificMle(host.getBiosMleId(), generation) || isHostSpecificMle(host.getVmmMleId(), generation));
+        TrustPolicyCache.Key key = new TrustPolicyCache.Key(vendorKey, biosMleId, vmmMleId, host.getPcrBank(), hostSpecific ? host.getId() : null);
+        Set<Rule> cached = cache.get(key);
+        if( cached != null ) {
+            log.debug("Using cached trust policy {}", key);
+            return cached;
+        }
+        return cache.put(key, loadWhitelistRulesForHost(factory, host), generation);
+    }
+    
+    private Set<Rule> loadWhitelistRulesForHost(VendorHostTrustPolicyFactory factory, TblHosts host) {
+        HashSet<Rule> rules = new HashSet<>();
+        // only add bios policy if the host is linked with a bios mle
+        if( host.getBiosMleId() != null ) {
+            Bios bios = new Bios(host.getBiosMleId().getName(), host.getBiosMleId().getVersion(), host.getBiosMleId().getOemId().getName());
+            rules.addAll(factory.loadTrustRulesForBios(bios, host));
+        }
+        // only add vmm policy if the host is linked with a vmm mle
+        if( host.getVmmMleId() != null ) {
+            Vmm vmm = new Vmm(host.getVmmMleId().getName(), host.getVmmMleId().getVersion(), host.getVmmMleId().getOsId().getName(), host.getVmmMleId().getOsId().getVersion());
+            rules.addAll(factory.loadTrustRulesForVmm(vmm,host));
+        }
+        return rules;
+    }
+    
+    private boolean isHostSpecificMle(TblMle mle, long generation) {
+        if( mle == null ) {
+            return false;
+        }
+        Boolean hostSpecific = cache.isHostSpecificMle(mle.getId());
+        if( hostSpecific == null ) {
+            hostSpecific = false;
+            if( mle.getTblModuleManifestCollection() != null ) {
+                for(TblModuleManifest module : mle.getTblModuleManifestCollection()) {
+                    if( module.getUseHostSpecificDigestValue() != null && module.getUseHostSpecificDigestValue() ) {
+                        hostSpecific = true;
+                        break;
+                    }
+                }
+            }
+            cache.setHostSpecificMle(mle.getId(), hostSpecific, generation);
+        }
+        return hostSpecific;
+    }
+    
     public Policy loadTrustPolicyForMLEVerification(TblHosts host, String hostId) {
         VendorHostTrustPolicyFactory factory = getVendorHostTrustPolicyFactoryForHost(host);        
         HashSet<Rule> rules = new HashSet<Rule>();
@@ -199,6 +265,10 @@ public class HostTrustPolicyManager {
     }
     */
     protected VendorHostTrustPolicyFactory getVendorHostTrustPolicyFactoryForHost(TblHosts host) {
+        return vendorFactoryMap.get(getVendorKeyForHost(host));
+    }
+    
+    private String getVendorKeyForHost(TblHosts host) {
         if( host.getAddOnConnectionInfo() == null ) {
             throw new IllegalArgumentException("Connection info missing");
         }
@@ -210,9 +280,8 @@ public class HostTrustPolicyManager {
                 if(useDaMode) {
                     vendorKey += "-da";
                 }
-                VendorHostTrustPolicyFactory factory = vendorFactoryMap.get(vendorKey);
-                if( factory != null ) {
-                    return factory;
+                if( vendorFactoryMap.get(vendorKey) != null ) {
+                    return vendorKey;
                 }
             }
         }
@@ -36,6 +36,7 @@ import com.intel.mtwilson.model.PcrFactory;
 import com.intel.mtwilson.model.Vmm;
 import com.intel.mtwilson.model.XmlMeasurementLog;
 import com.intel.mtwilson.policy.Rule;
+import com.intel.mtwilson.policy.TrustPolicyCache;
 import com.intel.mtwilson.policy.rule.AssetTagMatches;
 import com.intel.mtwilson.policy.rule.PcrEventLogEqualsExcluding;
 import com.intel.mtwilson.policy.rule.PcrEventLogIncludes;
@@ -78,6 +79,7 @@ public class JpaPolicyReader {
     private TblModuleManifestJpaController moduleManifestJpaController;
     private TblLocationPcrJpaController locationPcrJpaController;
     private MwMeasurementXmlJpaController measurementXmlJpaController;
+    private boolean cacheEnabled = My.configuration().getConfiguration().getBoolean("mtwilson.policy.cache.enabled", true);
 
     public JpaPolicyReader(EntityManagerFactory entityManagerFactory) {
         this.entityManagerFactory = entityManagerFactory;
@@ -256,6 +258,29 @@ public class JpaPolicyReader {
         return rules;
     }
     
+    /**
+     * @return the parsed whitelist measurement log of the MLE, or null if the MLE does not have one
+     */
+    private XmlMeasurementLog loadXmlMeasurementLog(TblMle vmmMle) {
+        TrustPolicyCache cache = TrustPolicyCache.getInstance();
+        if( cacheEnabled ) {
+            XmlMeasurementLog cached = cache.getMeasurementLog(vmmMle.getId());
+            if( cached != null ) {
+                return cached;
+            }
+        }
+        long generation = cache.generation();
+        MwMeasurementXml xmlMeasurement = measurementXmlJpaController.findByMleId(vmmMle.getId());
+        if( xmlMeasurement == null || xmlMeasurement.getContent() == null || xmlMeasurement.getContent().isEmpty() ) {
+            return null;
+        }
+        XmlMeasurementLog xmlMeasurementLog = new XmlMeasurementLog(PcrIndex.PCR19, xmlMeasurement.getContent());
+        if( cacheEnabled ) {
+            cache.putMeasurementLog(vmmMle.getId(), xmlMeasurementLog, generation);
+        }
+        return xmlMeasurementLog;
+    }
+    
     public Measurement createMeasurementFromTblModuleManifest(TblModuleManifest moduleInfo, TblHosts host) {
         HashMap<String,String> info = new HashMap<String,String>();
         // info.put("EventType", manifest.getEventType()); 
@@ -447,13 +472,12 @@ public class JpaPolicyReader {
             }                    
         }
 
-        MwMeasurementXml xmlMeasurement = measurementXmlJpaController.findByMleId(vmmMle.getId());
+        XmlMeasurementLog xmlMeasurementLog = finalXmlWhitelistValue == null ? null : loadXmlMeasurementLog(vmmMle);
         
         // Ensure we have the final hash of measurement log and the measurement log itself is whitelisted before adding the
         // rules for verification
-        if (finalXmlWhitelistValue != null && xmlMeasurement != null && !xmlMeasurement.getContent().isEmpty()) {
+        if (finalXmlWhitelistValue != null && xmlMeasurementLog != null) {
             // First lets add the measurement log verification rule
-            XmlMeasurementLog xmlMeasurementLog = new XmlMeasurementLog(PcrIndex.PCR19, xmlMeasurement.getContent());
             XmlMeasurementLogEquals xmlMeasurementLogEqualsRule = new XmlMeasurementLogEquals(xmlMeasurementLog);
             xmlMeasurementLogEqualsRule.setMarkers(TrustMarker.VMM.name());
             list.add(xmlMeasurementLogEqualsRule);
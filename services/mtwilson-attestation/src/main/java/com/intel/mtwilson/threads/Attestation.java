@@ -9,7 +9,9 @@ import com.intel.mountwilson.as.common.ASConfig;
 import com.intel.mtwilson.My;
 import com.intel.mtwilson.as.business.trust.HostTrustBO;
 import com.intel.mtwilson.saml.IssuerConfiguration;
+import com.intel.mtwilson.saml.SAMLSignature;
 import com.intel.mtwilson.saml.SamlConfiguration;
+import com.intel.mtwilson.saml.SamlGenerator;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.security.GeneralSecurityException;
@@ -22,6 +24,7 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 import org.apache.commons.configuration.Configuration;
+import org.opensaml.xml.ConfigurationException;
 
 /**
  * Initializes the data encryption key and the SAML issuer configuration
@@ -34,6 +37,7 @@ public class Attestation implements ServletContextListener {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Attestation.class);
     private static ExecutorService executor;
+    private static volatile SAMLSignature samlSignature;
 
     @Override
     public void contextInitialized(ServletContextEvent sce) {
@@ -93,6 +97,27 @@ public class Attestation implements ServletContextListener {
     public static IssuerConfiguration getIssuerConfiguration() {
         return IssuerConfigurationHolder.samlIssuerConfiguration;
     }
+    
+    /**
+     * The signer is created on first use; if that fails the next call tries
+     * again, so a keystore that is fixed later does not require a restart.
+     *
+     * @return the signer for SAML assertions, shared by all threads
+     * @throws ConfigurationException if the signer cannot be created
+     */
+    public static SAMLSignature getSamlSignature() throws ConfigurationException {
+        SAMLSignature signature = samlSignature;
+        if (signature == null) {
+            synchronized (Attestation.class) {
+                signature = samlSignature;
+                if (signature == null) {
+                    signature = SamlGenerator.createSignatureGenerator(IssuerConfigurationHolder.samlIssuerConfiguration);
+                    samlSignature = signature;
+                }
+            }
+        }
+        return signature;
+    }
 
     public static class AttestationThreadFactory implements ThreadFactory {
 
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.mtwilson.as.rest.v2.model.HostAttestation;
+import com.intel.mtwilson.model.Nonce;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HostAttestationSingleFlightTest {
+
+    private static class SlowAttestation implements Callable<HostAttestation> {
+        private final AtomicInteger calls;
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+        private final Exception error;
+
+        SlowAttestation(AtomicInteger calls, CountDownLatch started, CountDownLatch release, Exception error) {
+            this.calls = calls;
+            this.started = started;
+            this.release = release;
+            this.error = error;
+        }
+
+        @Override
+        public HostAttestation call() throws Exception {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            if (error != null) {
+                throw error;
+            }
+            return new HostAttestation();
+        }
+    }
+
+    private List<Future<HostAttestation>> submit(ExecutorService executor, final HostAttestationSingleFlight singleFlight, final String hostname, final Nonce challenge, final Callable<HostAttestation> attestation, int count) {
+        ArrayList<Future<HostAttestation>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(new Callable<HostAttestation>() {
+                @Override
+                public HostAttestation call() throws Exception {
+                    return singleFlight.execute(hostname, challenge, attestation);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private void awaitWaiters(HostAttestationSingleFlight singleFlight, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.getCoalescedCount() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneAttestation() throws Exception {
+        HostAttestationSingleFlight singleFlight = new HostAttestationSingleFlight();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<HostAttestation>> futures = submit(executor, singleFlight, "host1", null, new SlowAttestation(calls, started, release, null), 8);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            awaitWaiters(singleFlight, 7);
+            assertEquals(1, singleFlight.getInflightCount());
+            release.countDown();
+            HostAttestation first = futures.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<HostAttestation> future : futures) {
+                assertSame(first, future.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+            assertEquals(1, singleFlight.getExecutedCount());
+            assertEquals(7, singleFlight.getCoalescedCount());
+            assertEquals(0, singleFlight.getInflightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDifferentChallengesAreNotShared() throws Exception {
+        HostAttestationSingleFlight singleFlight = new HostAttestationSingleFlight();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        SlowAttestation attestation = new SlowAttestation(calls, started, release, null);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<HostAttestation>> futures = new ArrayList<>();
+            futures.addAll(submit(executor, singleFlight, "host1", new Nonce(new byte[] { 1 }), attestation, 1));
+            futures.addAll(submit(executor, singleFlight, "host1", new Nonce(new byte[] { 2 }), attestation, 1));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            release.countDown();
+            assertNotSame(futures.get(0).get(5, TimeUnit.SECONDS), futures.get(1).get(5, TimeUnit.SECONDS));
+            assertEquals(2, calls.get());
+            assertEquals(0, singleFlight.getCoalescedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Future<HostAttestation> submit(ExecutorService executor, final HostAttestationSingleFlight singleFlight, final String hostname, final String attestationUuid, final Callable<HostAttestation> attestation) {
+        return executor.submit(new Callable<HostAttestation>() {
+            @Override
+            public HostAttestation call() throws Exception {
+                return singleFlight.execute(hostname, null, attestationUuid, attestation);
+            }
+        });
+    }
+
+    @Test
+    public void testRequestedAttestationIdsAreNotShared() throws Exception {
+        HostAttestationSingleFlight singleFlight = new HostAttestationSingleFlight();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(3);
+        CountDownLatch release = new CountDownLatch(1);
+        SlowAttestation attestation = new SlowAttestation(calls, started, release, null);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<HostAttestation> any = submit(executor, singleFlight, "host1", null, attestation);
+            Future<HostAttestation> id1 = submit(executor, singleFlight, "host1", "id1", attestation);
+            Future<HostAttestation> id2 = submit(executor, singleFlight, "host1", "id2", attestation);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(3, singleFlight.getInflightCount());
+            release.countDown();
+            assertNotSame(any.get(5, TimeUnit.SECONDS), id1.get(5, TimeUnit.SECONDS));
+            assertNotSame(id1.get(5, TimeUnit.SECONDS), id2.get(5, TimeUnit.SECONDS));
+            assertEquals(3, calls.get());
+            assertEquals(0, singleFlight.getCoalescedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Future<HostAttestation> submit(ExecutorService executor, final HostAttestationSingleFlight singleFlight, final HostAttestationSingleFlight.Scope scope, final String hostname, final Callable<HostAttestation> attestation) {
+        return executor.submit(new Callable<HostAttestation>() {
+            @Override
+            public HostAttestation call() throws Exception {
+                HostAttestationSingleFlight.enter(scope);
+                try {
+                    return singleFlight.execute(hostname, null, attestation);
+                } finally {
+                    HostAttestationSingleFlight.exit();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testUnsharedAttestationIsAbandoned() throws Exception {
+        HostAttestationSingleFlight singleFlight = new HostAttestationSingleFlight();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        HostAttestationSingleFlight.Scope scope = new HostAttestationSingleFlight.Scope();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<HostAttestation> abandoned = submit(executor, singleFlight, scope, "host1", new SlowAttestation(calls, started, release, null));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertTrue(singleFlight.abandon(scope));
+            // a later caller does not wait for the abandoned attestation
+            Future<HostAttestation> next = submit(executor, singleFlight, "host1", null, new SlowAttestation(calls, new CountDownLatch(1), new CountDownLatch(0), null), 1).get(0);
+            assertNotNull(next.get(5, TimeUnit.SECONDS));
+            assertEquals(2, calls.get());
+            assertEquals(0, singleFlight.getCoalescedCount());
+            abandoned.cancel(true);
+            // the abandoned scope cannot start another attestation
+            try {
+                submit(executor, singleFlight, scope, "host2", new SlowAttestation(calls, new CountDownLatch(1), new CountDownLatch(0), null)).get(5, TimeUnit.SECONDS);
+                fail("expected the abandoned scope to be rejected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertEquals(2, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSharedAttestationIsNotAbandoned() throws Exception {
+        HostAttestationSingleFlight singleFlight = new HostAttestationSingleFlight();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        HostAttestationSingleFlight.Scope scope = new HostAttestationSingleFlight.Scope();
+        SlowAttestation attestation = new SlowAttestation(calls, started, release, null);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<HostAttestation> first = submit(executor, singleFlight, scope, "host1", attestation);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<HostAttestation> waiting = submit(executor, singleFlight, "host1", null, attestation, 1).get(0);
+            awaitWaiters(singleFlight, 1);
+            assertFalse(singleFlight.abandon(scope));
+            release.countDown();
+            assertSame(first.get(5, TimeUnit.SECONDS), waiting.get(5, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+            // once nobody is waiting the scope can be abandoned
+            assertTrue(singleFlight.abandon(scope));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureIsSharedAndNotRemembered() throws Exception {
+        HostAttestationSingleFlight singleFlight = new HostAttestationSingleFlight();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<HostAttestation>> futures = submit(executor, singleFlight, "host1", null, new SlowAttestation(calls, started, release, new IOException("connection refused")), 3);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            awaitWaiters(singleFlight, 2);
+            release.countDown();
+            for (Future<HostAttestation> future : futures) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                    fail("expected the attestation error");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                    assertEquals("connection refused", e.getCause().getMessage());
+                }
+            }
+            assertEquals(1, calls.get());
+            // the next request attests again
+            CountDownLatch released = new CountDownLatch(0);
+            assertNotNull(singleFlight.execute("host1", null, new SlowAttestation(calls, new CountDownLatch(1), released, null)));
+            assertEquals(2, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.mtwilson.as.data.TblHosts;
+import com.intel.mtwilson.datatypes.HostTrustStatus;
+import com.intel.mtwilson.as.data.TblMle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TrustStatusCacheTest {
+
+    private TblHosts host(String name, String uuid, String aik) {
+        TblHosts host = new TblHosts();
+        host.setId(1);
+        host.setName(name);
+        host.setUuid_hex(uuid);
+        host.setAikSha1(aik);
+        return host;
+    }
+
+    private HostTrustStatus status(boolean bios, boolean vmm) {
+        HostTrustStatus status = new HostTrustStatus();
+        status.bios = bios;
+        status.vmm = vmm;
+        return status;
+    }
+
+    private Date inSeconds(int seconds) {
+        return new Date(System.currentTimeMillis() + seconds * 1000L);
+    }
+
+    @Test
+    public void testStatusAndSaml() {
+        TrustStatusCache cache = new TrustStatusCache(10);
+        TblHosts host = host("host1", "uuid1", "aik1");
+        assertNull(cache.getStatus(host));
+        cache.putStatus(host, status(true, false), inSeconds(60));
+        HostTrustStatus cached = cache.getStatus(host("host1", "uuid1", "aik1"));
+        assertTrue(cached.bios);
+        assertFalse(cached.vmm);
+        assertNull(cache.getSaml(host));
+        cache.putSaml(host, true, true, "<saml/>", inSeconds(60));
+        assertEquals("<saml/>", cache.getSaml(host));
+        // the assertion does not replace the status recorded in mw_ta_log
+        assertFalse(cache.getStatus(host).vmm);
+        cache.removeSaml("host1");
+        assertNull(cache.getSaml(host));
+        assertNotNull(cache.getStatus(host));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testChangedHostRecordIsNotFound() {
+        TrustStatusCache cache = new TrustStatusCache(10);
+        TblHosts host = host("host1", "uuid1", "aik1");
+        cache.putSaml(host, true, true, "<saml/>", inSeconds(60));
+        // host deleted and registered again with a new id
+        TblHosts registeredAgain = host("host1", "uuid1", "aik1");
+        registeredAgain.setId(2);
+        assertNull(cache.getSaml(registeredAgain));
+        assertEquals(0, cache.size());
+        cache.putSaml(host, true, true, "<saml/>", inSeconds(60));
+        assertNull(cache.getSaml(host("host1", "uuid1", "aik2")));
+        cache.putStatus(host, status(true, true), inSeconds(60));
+        TblHosts newMle = host("host1", "uuid1", "aik1");
+        TblMle bios = new TblMle();
+        bios.setId(7);
+        newMle.setBiosMleId(bios);
+        assertNull(cache.getStatus(newMle));
+        cache.putStatus(host, status(true, true), inSeconds(60));
+        TblHosts newTlsPolicy = host("host1", "uuid1", "aik1");
+        newTlsPolicy.setTlsPolicyId("policy1");
+        assertNull(cache.getStatus(newTlsPolicy));
+    }
+
+    @Test
+    public void testExpiry() {
+        TrustStatusCache cache = new TrustStatusCache(10);
+        TblHosts host = host("host1", "uuid1", "aik1");
+        cache.putStatus(host, status(true, true), inSeconds(-1));
+        cache.putSaml(host, true, true, "<saml/>", inSeconds(-1));
+        assertNull(cache.getStatus(host));
+        assertNull(cache.getSaml(host));
+    }
+
+    @Test
+    public void testInvalidate() {
+        TrustStatusCache cache = new TrustStatusCache(10);
+        TblHosts host = host("host1", "uuid1", "aik1");
+        cache.putSaml(host, true, true, "<saml/>", inSeconds(60));
+        cache.putStatus(host, status(true, true), inSeconds(60));
+        cache.invalidate("host1");
+        assertNull(cache.getSaml(host));
+        assertNull(cache.getStatus(host));
+        cache.invalidate(null);
+    }
+
+    @Test
+    public void testInvalidationBus() {
+        final List<String> published = new ArrayList<>();
+        final TrustStatusCache otherNode = new TrustStatusCache(10);
+        TrustStatusInvalidationBus bus = new TrustStatusInvalidationBus() {
+            @Override
+            public void publish(String hostname) {
+                published.add(hostname);
+                otherNode.invalidateLocal(hostname);
+            }
+        };
+        TrustStatusCache cache = new TrustStatusCache(10, Arrays.asList(bus));
+        TblHosts host = host("host1", "uuid1", "aik1");
+        // caching what was read from the database is not published
+        cache.putStatus(host, status(true, true), inSeconds(60));
+        cache.putSaml(host, true, true, "<saml/>", inSeconds(60));
+        assertTrue(published.isEmpty());
+        // a new result recorded on this node replaces the one cached on the other node
+        otherNode.putSaml(host, true, true, "<saml/>", inSeconds(60));
+        cache.recordSaml(host, false, false, "<saml2/>", inSeconds(60));
+        assertNull(otherNode.getSaml(host));
+        otherNode.putStatus(host, status(true, true), inSeconds(60));
+        cache.recordStatus(host, status(false, false), inSeconds(60));
+        assertNull(otherNode.getStatus(host));
+        assertFalse(cache.getStatus(host).bios);
+        otherNode.putStatus(host, status(true, true), inSeconds(60));
+        cache.invalidate("host1");
+        assertNull(otherNode.getStatus(host));
+        assertEquals(Arrays.asList("host1", "host1", "host1"), published);
+        // received invalidations are not published again
+        cache.invalidateLocal("host1");
+        assertEquals(3, published.size());
+    }
+
+    @Test
+    public void testBounded() {
+        TrustStatusCache cache = new TrustStatusCache(3);
+        TblHosts expired = host("expired", "uuid0", "aik0");
+        cache.putStatus(expired, status(true, true), inSeconds(-1));
+        for (int i = 1; i <= 5; i++) {
+            cache.putStatus(host("host" + i, "uuid" + i, "aik" + i), status(true, true), inSeconds(60));
+            assertTrue(cache.size() <= 3);
+        }
+        assertNotNull(cache.getStatus(host("host5", "uuid5", "aik5")));
+        assertNull(cache.getStatus(expired));
+        TrustStatusCache disabled = new TrustStatusCache(0);
+        TblHosts host = host("host1", "uuid1", "aik1");
+        disabled.putStatus(host, status(true, true), inSeconds(60));
+        assertNull(disabled.getStatus(host));
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.audit.api.worker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.mtwilson.Folders;
+import com.intel.mtwilson.audit.data.AuditLogEntry;
+import com.intel.mtwilson.audit.helper.AuditConfig;
+import com.intel.mtwilson.audit.helper.AuditPersistenceManager;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.apache.commons.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queues audit log entries in memory and writes them to mw_audit_log_entry
+ * from a background thread with JDBC batch inserts, so the request thread
+ * that triggered the audit event does not wait for the audit database.
+ *
+ * A batch is written when it reaches the flush size or when the flush
+ * interval has passed since its first entry was queued. When the queue is
+ * full the overflow policy decides whether the caller blocks, the oldest
+ * queued entry is dropped, or the new entry is appended to the spill file.
+ * Batches that fail to insert are also appended to the spill file, and the
+ * spill file is written to the database the next time the queue is idle.
+ *
+ * Configuration:
+ * <pre>
+ * mountwilson.audit.async.queue.size=10000
+ * mountwilson.audit.async.flush.size=100
+ * mountwilson.audit.async.flush.interval.ms=1000
+ * mountwilson.audit.async.overflow=block|drop-oldest|spill
+ * mountwilson.audit.async.spill.file=/opt/mtwilson/var/audit-spill.json
+ * </pre>
+ */
+public class AuditBatchWriter implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(AuditBatchWriter.class);
+    private static final String INSERT_SQL = "INSERT INTO mw_audit_log_entry (transaction_id, entity_id, create_dt, entity_type, finger_print, action, data) VALUES (?,?,?,?,?,?,?)";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final AuditPersistenceManager persistenceManager = new AuditPersistenceManager();
+    private static AuditBatchWriter instance = null;
+
+    public static enum OverflowPolicy {
+        BLOCK, DROP_OLDEST, SPILL;
+
+        public static OverflowPolicy valueOfConfig(String value) {
+            return OverflowPolicy.valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final BlockingQueue<AuditLogEntry> queue;
+    private final int flushSize;
+    private final long flushIntervalMillis;
+    private final OverflowPolicy overflowPolicy;
+    private final File spillFile;
+    private final Object spillLock = new Object();
+    /**
+     * Held for reading while an entry is queued and for writing while the
+     * writer is stopped, so no entry is queued after the final drain.
+     */
+    private final ReentrantReadWriteLock queueLock = new ReentrantReadWriteLock();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long lastFlushMillis = 0;
+    private volatile long maxFlushMillis = 0;
+    private volatile boolean running = false;
+    private Thread thread = null;
+    private Thread shutdownHook = null;
+
+    public AuditBatchWriter(int queueSize, int flushSize, long flushIntervalMillis, OverflowPolicy overflowPolicy, File spillFile) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.flushSize = flushSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.overflowPolicy = overflowPolicy;
+        this.spillFile = spillFile;
+    }
+
+    /**
+     * @return the started writer used by {@link AuditAsyncWorker}
+     */
+    public static synchronized AuditBatchWriter getInstance() {
+        if (instance == null) {
+            Configuration configuration = AuditConfig.getConfiguration();
+            instance = new AuditBatchWriter(
+                    configuration.getInt("mountwilson.audit.async.queue.size", 10000),
+                    configuration.getInt("mountwilson.audit.async.flush.size", 100),
+                    configuration.getLong("mountwilson.audit.async.flush.interval.ms", 1000),
+                    OverflowPolicy.valueOfConfig(configuration.getString("mountwilson.audit.async.overflow", "block")),
+                    new File(configuration.getString("mountwilson.audit.async.spill.file", Folders.repository() + File.separator + "audit-spill.json")));
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Writes everything still queued and stops the writer created by
+     * {@link #getInstance()}, if any.
+     *
+     * @param timeout
+     * @param unit
+     */
+    public static synchronized void shutdownInstance(long timeout, TimeUnit unit) {
+        if (instance != null) {
+            instance.shutdown(timeout, unit);
+            instance = null;
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "AuditBatchWriter");
+        thread.setDaemon(true);
+        thread.start();
+        // when not running in a servlet container nothing else drains the queue before the jvm exits
+        shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                shutdown(30, TimeUnit.SECONDS);
+            }
+        }, "AuditBatchWriter-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        log.debug("Started audit log writer with flush size {} interval {} ms overflow policy {}", flushSize, flushIntervalMillis, overflowPolicy);
+    }
+
+    /**
+     * Stops accepting queued entries and waits for the queue to be written.
+     * Entries added after shutdown are written synchronously.
+     *
+     * @param timeout
+     * @param unit
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        Thread writer;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            // waits for callers that are queueing an entry; with the BLOCK
+            // policy the writer is still running and makes room for them
+            queueLock.writeLock().lock();
+            try {
+                running = false;
+            } finally {
+                queueLock.writeLock().unlock();
+            }
+            writer = thread;
+            if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException e) {
+                    log.debug("JVM shutdown in progress: {}", e.getMessage());
+                }
+            }
+        }
+        log.debug("Draining {} queued audit log entries", queue.size());
+        writer.interrupt();
+        try {
+            writer.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            log.warn("Audit log writer did not finish within {} {}; {} entries still queued", timeout, unit, queue.size());
+        }
+    }
+
+    /**
+     * Queues the entry, applying the overflow policy if the queue is full.
+     *
+     * @param entry
+     * @throws InterruptedException if the overflow policy is BLOCK and the caller is interrupted while waiting
+     */
+    public void add(AuditLogEntry entry) throws InterruptedException {
+        queueLock.readLock().lock();
+        try {
+            if (running) {
+                enqueue(entry);
+                return;
+            }
+        } finally {
+            queueLock.readLock().unlock();
+        }
+        flush(Collections.singletonList(entry));
+    }
+
+    private void enqueue(AuditLogEntry entry) throws InterruptedException {
+        switch (overflowPolicy) {
+            case BLOCK:
+                queue.put(entry);
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(entry)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+            case SPILL:
+                if (!queue.offer(entry)) {
+                    spill(Collections.singletonList(entry));
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unsupported overflow policy: " + overflowPolicy);
+        }
+    }
+
+    @Override
+    public void run() {
+        ArrayList<AuditLogEntry> batch = new ArrayList<>(flushSize);
+        long deadline = 0;
+        long reportedDropped = 0;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            AuditLogEntry entry = null;
+            try {
+                if (running) {
+                    long wait = batch.isEmpty() ? flushIntervalMillis : Math.max(0, deadline - System.currentTimeMillis());
+                    entry = queue.poll(wait, TimeUnit.MILLISECONDS);
+                } else {
+                    entry = queue.poll();
+                }
+            } catch (InterruptedException e) {
+                log.debug("Audit log writer interrupted for shutdown");
+            }
+            if (entry != null) {
+                if (batch.isEmpty()) {
+                    deadline = System.currentTimeMillis() + flushIntervalMillis;
+                }
+                batch.add(entry);
+                queue.drainTo(batch, flushSize - batch.size());
+            }
+            if (batch.size() >= flushSize || (!batch.isEmpty() && (!running || System.currentTimeMillis() >= deadline))) {
+                flush(batch);
+                batch.clear();
+                long droppedTotal = dropped.get();
+                if (droppedTotal > reportedDropped) {
+                    log.warn("Audit log queue was full, dropped {} oldest entries", droppedTotal - reportedDropped);
+                    reportedDropped = droppedTotal;
+                }
+            } else if (entry == null && batch.isEmpty() && running) {
+                replaySpill();
+            }
+        }
+        replaySpill();
+        log.debug("Audit log writer stopped after writing {} entries", written.get());
+    }
+
+    private void flush(List<AuditLogEntry> batch) {
+        long start = System.currentTimeMillis();
+        try {
+            write(batch);
+            written.addAndGet(batch.size());
+        } catch (Exception e) {
+            failed.addAndGet(batch.size());
+            log.error("Cannot write {} audit log entries: {}", batch.size(), e.toString(), e);
+            spill(batch);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        lastFlushMillis = elapsed;
+        if (elapsed > maxFlushMillis) {
+            maxFlushMillis = elapsed;
+        }
+        log.debug("Flushed {} audit log entries in {} ms, {} queued", batch.size(), elapsed, queue.size());
+    }
+
+    /**
+     * Inserts the entries in one transaction with a JDBC batch.
+     *
+     * @param batch
+     * @throws SQLException
+     */
+    protected void write(List<AuditLogEntry> batch) throws SQLException {
+        EntityManager em = getEntityManagerFactory().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Connection connection = em.unwrap(Connection.class);
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_SQL)) {
+                for (AuditLogEntry entry : batch) {
+                    insert.setString(1, entry.getTransactionId());
+                    if (entry.getEntityId() == null) {
+                        insert.setNull(2, Types.INTEGER);
+                    } else {
+                        insert.setInt(2, entry.getEntityId());
+                    }
+                    insert.setTimestamp(3, new Timestamp(entry.getCreateDt().getTime()));
+                    insert.setString(4, entry.getEntityType());
+                    insert.setString(5, entry.getFingerPrint());
+                    insert.setString(6, entry.getAction());
+                    insert.setString(7, entry.getData());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private EntityManagerFactory getEntityManagerFactory() {
+        return persistenceManager.getEntityManagerFactory("AuditDataPU");
+    }
+
+    /**
+     * Appends the entries to the spill file, one json object per line.
+     */
+    private void spill(List<AuditLogEntry> entries) {
+        synchronized (spillLock) {
+            try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile, true), UTF8))) {
+                for (AuditLogEntry entry : entries) {
+                    LinkedHashMap<String, Object> record = new LinkedHashMap<>();
+                    record.put("transactionId", entry.getTransactionId());
+                    record.put("entityId", entry.getEntityId());
+                    record.put("createDt", entry.getCreateDt().getTime());
+                    record.put("entityType", entry.getEntityType());
+                    record.put("fingerPrint", entry.getFingerPrint());
+                    record.put("action", entry.getAction());
+                    record.put("data", entry.getData());
+                    out.write(mapper.writeValueAsString(record));
+                    out.newLine();
+                }
+                spilled.addAndGet(entries.size());
+            } catch (IOException e) {
+                dropped.addAndGet(entries.size());
+                log.error("Cannot write {} audit log entries to {}: {}", entries.size(), spillFile.getAbsolutePath(), e.toString());
+            }
+        }
+    }
+
+    /**
+     * Writes the entries in the spill file to the database. The file is
+     * renamed first so entries spilled meanwhile go to a new file; entries
+     * that still cannot be written are spilled again. Each replay uses a new
+     * file name, so a replay file left for manual recovery after it could not
+     * be read is never overwritten.
+     */
+    private void replaySpill() {
+        ArrayList<AuditLogEntry> entries = new ArrayList<>();
+        File replayFile;
+        synchronized (spillLock) {
+            if (!spillFile.exists()) {
+                return;
+            }
+            replayFile = new File(spillFile.getPath() + "." + System.currentTimeMillis() + ".replay");
+            if (replayFile.exists() || !spillFile.renameTo(replayFile)) {
+                return;
+            }
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(replayFile), UTF8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                Map<?, ?> record = mapper.readValue(line, Map.class);
+                AuditLogEntry entry = new AuditLogEntry();
+                entry.setTransactionId((String) record.get("transactionId"));
+                Number entityId = (Number) record.get("entityId");
+                entry.setEntityId(entityId == null ? null : entityId.intValue());
+                entry.setCreateDt(new Date(((Number) record.get("createDt")).longValue()));
+                entry.setEntityType((String) record.get("entityType"));
+                entry.setFingerPrint((String) record.get("fingerPrint"));
+                entry.setAction((String) record.get("action"));
+                entry.setData((String) record.get("data"));
+                entries.add(entry);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Cannot read spilled audit log entries from {}: {}", replayFile.getAbsolutePath(), e.toString());
+            return; // leave the replay file for manual recovery
+        }
+        log.debug("Writing {} spilled audit log entries", entries.size());
+        for (int i = 0; i < entries.size(); i += flushSize) {
+            flush(entries.subList(i, Math.min(i + flushSize, entries.size())));
+        }
+        if (!replayFile.delete()) {
+            log.warn("Cannot delete {}", replayFile.getAbsolutePath());
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of entries written to the spill file, including failed batches that were spilled again
+     */
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    public long getMaxFlushMillis() {
+        return maxFlushMillis;
+    }
+}
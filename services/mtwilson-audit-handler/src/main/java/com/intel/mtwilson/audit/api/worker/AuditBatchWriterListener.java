@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.audit.api.worker;
+
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Writes the queued audit log entries to the database before the
+ * application is undeployed.
+ */
+@WebListener
+public class AuditBatchWriterListener implements ServletContextListener {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AuditBatchWriterListener.class);
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        log.debug("Shutdown audit log writer");
+        AuditBatchWriter.shutdownInstance(60, TimeUnit.SECONDS);
+    }
+}
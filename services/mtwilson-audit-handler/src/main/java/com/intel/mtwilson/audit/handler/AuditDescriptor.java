@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.audit.handler;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.mtwilson.audit.annotations.AuditIgnore;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.persistence.Column;
+import javax.persistence.Id;
+
+/**
+ * The audited columns and primary key of an entity class, resolved once per
+ * class from its {@code @Column}, {@code @AuditIgnore} and {@code @Id}
+ * annotations.
+ *
+ * {@link #writeColumns(Object, Map, boolean, ObjectMapper)} writes the same
+ * json that serializing an {@code AuditTableData} with one
+ * {@code AuditColumnData} per column would produce, without creating them.
+ */
+public class AuditDescriptor {
+    private static final ConcurrentHashMap<Class<?>, AuditDescriptor> descriptors = new ConcurrentHashMap<>();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final List<AuditColumn> columns;
+    private final MethodHandle primaryKey;
+
+    private static class AuditColumn {
+        private final String fieldName;
+        private final String columnName;
+        private final MethodHandle getter;
+
+        private AuditColumn(String fieldName, String columnName, MethodHandle getter) {
+            this.fieldName = fieldName;
+            this.columnName = columnName;
+            this.getter = getter;
+        }
+    }
+
+    private AuditDescriptor(Class<?> clazz) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        ArrayList<AuditColumn> list = new ArrayList<>();
+        MethodHandle id = null;
+        try {
+            for (Field field : clazz.getDeclaredFields()) {
+                Column col = field.getAnnotation(Column.class);
+                boolean isId = field.isAnnotationPresent(Id.class);
+                if ((col == null || field.isAnnotationPresent(AuditIgnore.class)) && !isId) {
+                    continue;
+                }
+                field.setAccessible(true);
+                MethodHandle getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                if (col != null && !field.isAnnotationPresent(AuditIgnore.class)) {
+                    list.add(new AuditColumn(field.getName(), col.name(), getter));
+                }
+                if (isId) {
+                    id = getter;
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access audited fields of " + clazz.getName(), e);
+        }
+        this.columns = Collections.unmodifiableList(list);
+        this.primaryKey = id;
+    }
+
+    public static AuditDescriptor forClass(Class<?> clazz) {
+        AuditDescriptor descriptor = descriptors.get(clazz);
+        if (descriptor == null) {
+            descriptor = new AuditDescriptor(clazz);
+            AuditDescriptor existing = descriptors.putIfAbsent(clazz, descriptor);
+            if (existing != null) {
+                descriptor = existing;
+            }
+        }
+        return descriptor;
+    }
+
+    public List<String> getColumnNames() {
+        ArrayList<String> names = new ArrayList<>(columns.size());
+        for (AuditColumn column : columns) {
+            names.add(column.columnName);
+        }
+        return names;
+    }
+
+    /**
+     * @param table
+     * @return the value of the {@code @Id} field, or -1 if there is none
+     */
+    public Integer getPrimaryKey(Object table) {
+        if (primaryKey == null) {
+            return -1;
+        }
+        return (Integer) get(primaryKey, table);
+    }
+
+    /**
+     * @param table the entity
+     * @param changedColumns old values of the changed fields, by field name
+     * @param changedOnly true to write only the columns in changedColumns
+     * @param mapper used to write the column values
+     * @return json with the audited columns, or null if there are none to write
+     * @throws IOException
+     */
+    public String writeColumns(Object table, Map<String, Object> changedColumns, boolean changedOnly, ObjectMapper mapper) throws IOException {
+        StringWriter json = new StringWriter();
+        int count = 0;
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(json)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("columns");
+            for (AuditColumn column : columns) {
+                boolean updated = changedColumns.containsKey(column.fieldName);
+                if (changedOnly && !updated) {
+                    continue;
+                }
+                generator.writeStartObject();
+                generator.writeStringField("columnName", column.columnName);
+                generator.writeFieldName("value");
+                generator.writeObject(get(column.getter, table));
+                generator.writeBooleanField("isUpdated", updated);
+                generator.writeEndObject();
+                count++;
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return count > 0 ? json.toString() : null;
+    }
+
+    private static Object get(MethodHandle getter, Object table) {
+        try {
+            return (Object) getter.invokeExact(table);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
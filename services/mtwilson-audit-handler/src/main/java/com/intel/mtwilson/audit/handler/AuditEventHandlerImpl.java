@@ -4,21 +4,15 @@
  */
 package com.intel.mtwilson.audit.handler;
 
-import com.intel.mtwilson.audit.annotations.AuditIgnore;
 import com.intel.mtwilson.audit.api.AuditLogger;
 //import com.intel.mtwilson.audit.helper.AuditConfig;
 import com.intel.mtwilson.audit.helper.AuditEntryType;
 import com.intel.mtwilson.audit.helper.AuditHandlerException;
-import com.intel.mtwilson.audit.data.AuditColumnData;
 import com.intel.mtwilson.audit.data.AuditLog;
-import com.intel.mtwilson.audit.data.AuditTableData;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.List;
-import javax.persistence.Column;
-import javax.persistence.Id;
 
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -59,19 +53,6 @@ public class AuditEventHandlerImpl extends DescriptorEventAdapter  {
 
     private static ObjectMapper mapper = new ObjectMapper();
 
-    private AuditColumnData getAuditColumnData(Column col, Field field, Object table, HashMap<String, Object> changedColumns) throws IllegalAccessException, IllegalArgumentException, SecurityException {
-        AuditColumnData auditColumnData = new AuditColumnData();
-        log.trace("Column: " + col.name());
-        auditColumnData.setName(col.name());
-        log.trace("Field: " + field.getName());
-        field.setAccessible(true);
-        log.trace("Value: " + field.get(table));
-        auditColumnData.setValue(field.get(table));
-        field.setAccessible(false);
-        auditColumnData.setIsUpdated(changedColumns.containsKey(field.getName()));
-        return auditColumnData;
-    }
-
     @Override
     public void postDelete(DescriptorEvent event) {
 
@@ -110,27 +91,6 @@ public class AuditEventHandlerImpl extends DescriptorEventAdapter  {
         }
     }
 
-    private AuditTableData getTableData(DescriptorEvent event) throws IllegalAccessException, IllegalArgumentException, SecurityException {
-        AuditTableData auditTableData = new AuditTableData();
-        Object table = event.getObject();
-
-        HashMap<String, Object> changedColumns = getChangedColumns(event);
-
-        for (Field field : table.getClass().getDeclaredFields()) {
-            Column col;
-            log.trace("Is it required to log this column {}" , field.isAnnotationPresent(AuditIgnore.class));
-            if ((col = field.getAnnotation(Column.class)) != null && !field.isAnnotationPresent(AuditIgnore.class)){
-                
-                if(isUnchangedColumnsRequired || event.getEventCode() != 7){ // Log all columns
-                     auditTableData.getColumns().add(getAuditColumnData(col, field, table, changedColumns));
-                }else if(changedColumns.containsKey(field.getName())){ // log only changed colmuns
-                     auditTableData.getColumns().add(getAuditColumnData(col, field, table, changedColumns));
-                }
-            }
-        }
-        return auditTableData;
-    }
-
     private HashMap<String, Object> getChangedColumns(DescriptorEvent event) {
 
         HashMap<String, Object> changedColumns = new HashMap<String, Object>();
@@ -141,7 +101,7 @@ public class AuditEventHandlerImpl extends DescriptorEventAdapter  {
             List<ChangeRecord> changes = query.getObjectChangeSet().getChanges();
 
             for (ChangeRecord change : changes) {
-                log.debug("Change: " + change.getAttribute() + " " + change.getOldValue());
+                log.debug("Change: {} {}", change.getAttribute(), change.getOldValue());
 
                 changedColumns.put(change.getAttribute(), change.getOldValue());
             }
@@ -149,21 +109,21 @@ public class AuditEventHandlerImpl extends DescriptorEventAdapter  {
         return changedColumns;
     }
 
-    private AuditLog getAuditLog(DescriptorEvent event, String action) throws IllegalAccessException,
-		    IllegalArgumentException, 
-		    SecurityException, 
-		    JsonGenerationException, 
+    private AuditLog getAuditLog(DescriptorEvent event, String action) throws JsonGenerationException, 
 		    JsonMappingException, 
 		    IOException 
 		    {
         AuditLog auditLog = new AuditLog();
 
-        auditLog.setEntityType(event.getObject().getClass().getSimpleName());
-        AuditTableData auditTableData = getTableData(event);
+        Object table = event.getObject();
+        AuditDescriptor descriptor = AuditDescriptor.forClass(table.getClass());
+        auditLog.setEntityType(table.getClass().getSimpleName());
+        // log all columns unless this is an update and only the changed columns are required
+        String data = descriptor.writeColumns(table, getChangedColumns(event), !isUnchangedColumnsRequired && event.getEventCode() == 7, mapper);
         
-        if(auditTableData.getColumns().size() > 0){
-            auditLog.setData(mapper.writeValueAsString(auditTableData));
-            auditLog.setEntityId(getPrimaryKey(event));
+        if(data != null){
+            auditLog.setData(data);
+            auditLog.setEntityId(descriptor.getPrimaryKey(table));
             auditLog.setAction(action);
             return auditLog;
         }else{
@@ -171,20 +131,4 @@ public class AuditEventHandlerImpl extends DescriptorEventAdapter  {
             return null;
         }
     }
-
-    private Integer getPrimaryKey(DescriptorEvent event) throws  IllegalArgumentException, IllegalAccessException {
-        Integer pk = -1;
-        
-        Object table = event.getObject();
-        for (Field field : table.getClass().getDeclaredFields()) {
-            if ((field.getAnnotation(Id.class)) != null) {
-                log.trace("ID Column Field: " + field.getName());
-                field.setAccessible(true);
-                log.trace("ID Data Type :" + field.getType() +  "value: " + field.get(table));
-                pk = (Integer) field.get(table);
-                field.setAccessible(false);
-            }
-        }
-        return pk;
-    }
 }
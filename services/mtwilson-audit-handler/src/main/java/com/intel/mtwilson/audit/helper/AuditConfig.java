@@ -47,6 +47,10 @@ public class AuditConfig  {
         defaults.setProperty("mountwilson.audit.enabled", "true");
         defaults.setProperty("mountwilson.audit.logunchangedcolumns", "true");
         defaults.setProperty("mountwilson.audit.async", "false");
+        defaults.setProperty("mountwilson.audit.async.queue.size", "10000");
+        defaults.setProperty("mountwilson.audit.async.flush.size", "100");
+        defaults.setProperty("mountwilson.audit.async.flush.interval.ms", "1000");
+        defaults.setProperty("mountwilson.audit.async.overflow", "block");
         return defaults;
     }
 
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package test.audit;
+
+import com.intel.mtwilson.audit.api.worker.AuditBatchWriter;
+import com.intel.mtwilson.audit.data.AuditLogEntry;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AuditBatchWriterTest {
+    private File spillFile;
+
+    /**
+     * Records the batches instead of inserting them; fails while offline and
+     * waits for the gate to open before writing
+     */
+    private static class TestWriter extends AuditBatchWriter {
+        private final List<List<AuditLogEntry>> batches = Collections.synchronizedList(new ArrayList<List<AuditLogEntry>>());
+        private volatile boolean offline = false;
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+
+        public TestWriter(int queueSize, int flushSize, long flushIntervalMillis, OverflowPolicy overflowPolicy, File spillFile) {
+            super(queueSize, flushSize, flushIntervalMillis, overflowPolicy, spillFile);
+        }
+
+        @Override
+        protected void write(List<AuditLogEntry> batch) throws SQLException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (offline) {
+                throw new SQLException("offline");
+            }
+            batches.add(new ArrayList<>(batch));
+        }
+
+        public int written() {
+            int count = 0;
+            synchronized (batches) {
+                for (List<AuditLogEntry> batch : batches) {
+                    count += batch.size();
+                }
+            }
+            return count;
+        }
+    }
+
+    private AuditLogEntry entry(Integer entityId) {
+        AuditLogEntry entry = new AuditLogEntry();
+        entry.setTransactionId("test");
+        entry.setEntityId(entityId);
+        entry.setEntityType("TblHosts");
+        entry.setFingerPrint("admin");
+        entry.setAction("UPDATE");
+        entry.setCreateDt(new Date());
+        entry.setData("{}");
+        return entry;
+    }
+
+    private void waitForWritten(TestWriter writer, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writer.written() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, writer.written());
+    }
+
+    @Before
+    public void createSpillFile() throws IOException {
+        spillFile = File.createTempFile("audit-spill", ".json");
+        assertTrue(spillFile.delete());
+    }
+
+    @After
+    public void deleteSpillFile() {
+        spillFile.delete();
+        for (File replayFile : replayFiles()) {
+            replayFile.delete();
+        }
+    }
+
+    private List<File> replayFiles() {
+        ArrayList<File> replayFiles = new ArrayList<>();
+        for (File file : spillFile.getParentFile().listFiles()) {
+            if (file.getName().startsWith(spillFile.getName() + ".") && file.getName().endsWith(".replay")) {
+                replayFiles.add(file);
+            }
+        }
+        return replayFiles;
+    }
+
+    private void writeSpillFile(String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(spillFile)) {
+            out.write(content.getBytes("UTF-8"));
+        }
+    }
+
+    private void waitForReplay() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (spillFile.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void testFlushSizeAndInterval() throws Exception {
+        TestWriter writer = new TestWriter(1000, 10, 200, AuditBatchWriter.OverflowPolicy.BLOCK, spillFile);
+        writer.start();
+        for (int i = 0; i < 25; i++) {
+            writer.add(entry(i));
+        }
+        // two full batches right away and the rest after the flush interval
+        waitForWritten(writer, 25);
+        assertEquals(10, writer.batches.get(0).size());
+        assertEquals(0, (int) writer.batches.get(0).get(0).getEntityId());
+        assertEquals(24, (int) writer.batches.get(writer.batches.size() - 1).get(writer.batches.get(writer.batches.size() - 1).size() - 1).getEntityId());
+        assertEquals(0, writer.getQueueDepth());
+        writer.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testShutdownDrainsQueue() throws Exception {
+        TestWriter writer = new TestWriter(1000, 100, 60000, AuditBatchWriter.OverflowPolicy.BLOCK, spillFile);
+        writer.start();
+        for (int i = 0; i < 250; i++) {
+            writer.add(entry(i));
+        }
+        writer.shutdown(10, TimeUnit.SECONDS);
+        assertEquals(250, writer.written());
+        assertEquals(250, writer.getWrittenCount());
+        // after shutdown entries are written immediately
+        writer.add(entry(250));
+        assertEquals(251, writer.written());
+    }
+
+    @Test
+    public void testAddDuringShutdownIsWritten() throws Exception {
+        final TestWriter writer = new TestWriter(10, 10, 10, AuditBatchWriter.OverflowPolicy.BLOCK, spillFile);
+        writer.start();
+        final int threads = 4;
+        final int entries = 500;
+        final CountDownLatch started = new CountDownLatch(threads);
+        ArrayList<Thread> adders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread adder = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        for (int i = 0; i < entries; i++) {
+                            writer.add(entry(i));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            adder.start();
+            adders.add(adder);
+        }
+        started.await();
+        writer.shutdown(10, TimeUnit.SECONDS);
+        for (Thread adder : adders) {
+            adder.join(10000);
+        }
+        // every entry is either drained by the writer or written by the caller after shutdown
+        assertEquals(threads * entries, writer.written());
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        TestWriter writer = new TestWriter(5, 1, 10, AuditBatchWriter.OverflowPolicy.DROP_OLDEST, spillFile);
+        writer.gate = new CountDownLatch(1);
+        writer.start();
+        writer.add(entry(0));
+        // the writer is now blocked in write with the first entry
+        Thread.sleep(200);
+        for (int i = 1; i <= 10; i++) {
+            writer.add(entry(i));
+        }
+        assertEquals(5, writer.getQueueDepth());
+        assertEquals(5, writer.getDroppedCount());
+        writer.gate.countDown();
+        waitForWritten(writer, 6);
+        assertEquals(6, (int) writer.batches.get(1).get(0).getEntityId());
+        writer.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testSpillAndReplay() throws Exception {
+        TestWriter writer = new TestWriter(5, 1, 10, AuditBatchWriter.OverflowPolicy.SPILL, spillFile);
+        writer.gate = new CountDownLatch(1);
+        writer.start();
+        writer.add(entry(0));
+        Thread.sleep(200);
+        for (int i = 1; i <= 10; i++) {
+            writer.add(entry(i));
+        }
+        assertEquals(5, writer.getQueueDepth());
+        assertEquals(5, writer.getSpilledCount());
+        assertTrue(spillFile.exists());
+        writer.gate.countDown();
+        // the spilled entries are written once the queue is empty
+        waitForWritten(writer, 11);
+        assertFalse(spillFile.exists());
+        writer.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testFailedBatchIsSpilled() throws Exception {
+        TestWriter writer = new TestWriter(100, 10, 10, AuditBatchWriter.OverflowPolicy.BLOCK, spillFile);
+        writer.offline = true;
+        writer.start();
+        for (int i = 0; i < 3; i++) {
+            writer.add(entry(i));
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writer.getFailedCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(writer.getFailedCount() >= 3);
+        writer.offline = false;
+        waitForWritten(writer, 3);
+        assertEquals("TblHosts", writer.batches.get(0).get(0).getEntityType());
+        writer.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testNullEntityIdIsSpilledAndReplayed() throws Exception {
+        TestWriter writer = new TestWriter(100, 10, 10, AuditBatchWriter.OverflowPolicy.BLOCK, spillFile);
+        writer.offline = true;
+        writer.start();
+        writer.add(entry(null));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writer.getFailedCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(writer.getFailedCount() >= 1);
+        writer.offline = false;
+        waitForWritten(writer, 1);
+        assertNull(writer.batches.get(0).get(0).getEntityId());
+        writer.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testUnreadableReplayFileIsKept() throws Exception {
+        TestWriter writer = new TestWriter(100, 10, 10, AuditBatchWriter.OverflowPolicy.BLOCK, spillFile);
+        writeSpillFile("not json\n");
+        writer.start();
+        waitForReplay();
+        Thread.sleep(10);
+        writeSpillFile("still not json\n");
+        waitForReplay();
+        // both unreadable files are left for manual recovery
+        assertEquals(2, replayFiles().size());
+        assertEquals(0, writer.written());
+        writer.shutdown(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package test.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.mtwilson.audit.annotations.AuditIgnore;
+import com.intel.mtwilson.audit.data.AuditColumnData;
+import com.intel.mtwilson.audit.data.AuditTableData;
+import com.intel.mtwilson.audit.handler.AuditDescriptor;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import javax.persistence.Column;
+import javax.persistence.Id;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class AuditDescriptorTest {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static class TestEntity {
+        @Id
+        @Column(name = "ID")
+        private Integer id;
+        @Column(name = "Name")
+        private String name;
+        @AuditIgnore
+        @Column(name = "AIK_Certificate")
+        private String aikCertificate;
+        private String notAColumn;
+        @Column(name = "Created")
+        private Date created;
+        @Column(name = "Port")
+        private int port;
+
+        public TestEntity(Integer id, String name) {
+            this.id = id;
+            this.name = name;
+            this.aikCertificate = "secret";
+            this.notAColumn = "ignored";
+            this.created = new Date(1450000000000L);
+            this.port = 9999;
+        }
+    }
+
+    private AuditColumnData column(String name, Object value, boolean updated) {
+        AuditColumnData column = new AuditColumnData();
+        column.setName(name);
+        column.setValue(value);
+        column.setIsUpdated(updated);
+        return column;
+    }
+
+    @Test
+    public void testColumns() {
+        AuditDescriptor descriptor = AuditDescriptor.forClass(TestEntity.class);
+        assertEquals(Arrays.asList("ID", "Name", "Created", "Port"), descriptor.getColumnNames());
+        assertSame(descriptor, AuditDescriptor.forClass(TestEntity.class));
+        assertEquals(Integer.valueOf(42), descriptor.getPrimaryKey(new TestEntity(42, "host")));
+        assertEquals(Integer.valueOf(-1), AuditDescriptor.forClass(String.class).getPrimaryKey("no id"));
+    }
+
+    /**
+     * The json must be the same as what was written by serializing AuditTableData
+     */
+    @Test
+    public void testSameJsonAsAuditTableData() throws Exception {
+        TestEntity entity = new TestEntity(42, "host");
+        AuditDescriptor descriptor = AuditDescriptor.forClass(TestEntity.class);
+        Map<String, Object> changed = new HashMap<>();
+        changed.put("name", "old name");
+
+        AuditTableData all = new AuditTableData();
+        all.getColumns().add(column("ID", 42, false));
+        all.getColumns().add(column("Name", "host", true));
+        all.getColumns().add(column("Created", entity.created, false));
+        all.getColumns().add(column("Port", 9999, false));
+        assertEquals(mapper.readTree(mapper.writeValueAsString(all)), mapper.readTree(descriptor.writeColumns(entity, changed, false, mapper)));
+
+        AuditTableData changedOnly = new AuditTableData();
+        changedOnly.getColumns().add(column("Name", "host", true));
+        assertEquals(mapper.readTree(mapper.writeValueAsString(changedOnly)), mapper.readTree(descriptor.writeColumns(entity, changed, true, mapper)));
+
+        assertNull(descriptor.writeColumns(entity, Collections.<String, Object>emptyMap(), true, mapper));
+    }
+}
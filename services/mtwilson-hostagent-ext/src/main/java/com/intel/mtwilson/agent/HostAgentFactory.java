@@ -11,6 +11,7 @@ import com.intel.dcsg.cpg.extensions.Plugins;
 import com.intel.mtwilson.model.InternetAddress;
 import com.intel.dcsg.cpg.tls.policy.TlsPolicy;
 import com.intel.mtwilson.tls.policy.factory.TlsPolicyFactory;
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Map;
 import org.slf4j.Logger;
@@ -85,6 +86,55 @@ public class HostAgentFactory {
         
         return getHostAgent(convert(host));
     }
+
+    /**
+     * Same as getHostAgent(TblHosts) but the agent may reuse the AIK
+     * certificate and host information that the host reported before, as
+     * long as that AIK is still the one registered for the host. Only
+     * attestation should use this; registering or updating a host must
+     * read the current information from the host.
+     */
+    public HostAgent getHostAgentForAttestation(TblHosts host) {
+        HostAgent ha = getHostAgent(host);
+        if( ha instanceof RegisteredAikAware ) {
+            ((RegisteredAikAware)ha).setRegisteredAikSha1(host.getAikSha1());
+        }
+        return ha;
+    }
+
+    /**
+     * Discards any information kept about the host by the vendor host
+     * agents; call after a host is registered, updated, or deleted.
+     *
+     * @param hostname the host name or IP address of the host record
+     */
+    public static void invalidateHostInfo(String hostname) {
+        if( hostname == null ) { return; }
+        List<VendorHostAgentFactory> factories = Extensions.findAll(VendorHostAgentFactory.class);
+        if( factories == null ) { return; }
+        for(VendorHostAgentFactory factory : factories) {
+            if( factory instanceof HostInfoCacheAware ) {
+                ((HostInfoCacheAware)factory).invalidateHostInfo(hostname);
+            }
+        }
+    }
+    
+    /**
+     * Releases what the agent holds between requests, such as a pooled
+     * trust agent client; call when done with an agent from this factory.
+     *
+     * @param agent may be null
+     */
+    public static void close(HostAgent agent) {
+        if( agent instanceof Closeable ) {
+            try {
+                ((Closeable)agent).close();
+            }
+            catch(IOException e) {
+                LoggerFactory.getLogger(HostAgentFactory.class).debug("Cannot close host agent: {}", e.getMessage());
+            }
+        }
+    }
     
     public HostAgent getHostAgent(TxtHostRecord host) {
 //        // debug only
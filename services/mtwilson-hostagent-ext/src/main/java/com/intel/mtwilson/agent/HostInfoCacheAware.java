@@ -0,0 +1,18 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent;
+
+/**
+ * Implemented by vendor host agent factories whose agents keep information
+ * reported by a host, such as its AIK certificate and TPM version, between
+ * connections. HostAgentFactory.invalidateHostInfo calls it when a host is
+ * registered, updated, or deleted.
+ */
+public interface HostInfoCacheAware {
+    /**
+     * @param hostAddress the host name or IP address used to connect to the host
+     */
+    void invalidateHostInfo(String hostAddress);
+}
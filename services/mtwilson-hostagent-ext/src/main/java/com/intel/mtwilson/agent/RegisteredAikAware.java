@@ -0,0 +1,19 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent;
+
+/**
+ * Implemented by host agents that can reuse the AIK and host information
+ * from a previous connection to the same host instead of requesting them
+ * again. HostAgentFactory.getHostAgentForAttestation sets the AIK SHA1 from
+ * the host record so the agent only reuses an AIK that matches the
+ * registered one; agents for which it is not set always ask the host.
+ */
+public interface RegisteredAikAware {
+    /**
+     * @param aikSha1 SHA1 of the registered AIK certificate in hex, or null if the host does not have one
+     */
+    void setRegisteredAikSha1(String aikSha1);
+}
@@ -7,6 +7,7 @@ package com.intel.mtwilson.agent.intel;
 import com.intel.dcsg.cpg.io.UUID;
 import com.intel.mtwilson.trustagent.model.HostInfo;
 import com.intel.mtwilson.agent.HostAgent;
+import com.intel.mtwilson.agent.RegisteredAikAware;
 import com.intel.mtwilson.datatypes.TxtHostRecord;
 import com.intel.mtwilson.model.Aik;
 import com.intel.mtwilson.model.InternetAddress;
@@ -18,6 +19,7 @@ import com.intel.mtwilson.trustagent.client.jaxrs.TrustAgentClient;
 import com.intel.mtwilson.trustagent.model.VMAttestationRequest;
 import com.intel.mtwilson.trustagent.model.VMAttestationResponse;
 import com.intel.mtwilson.trustagent.model.VMQuoteResponse;
+import java.io.Closeable;
 import java.io.IOException;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
@@ -31,7 +33,7 @@ import org.slf4j.LoggerFactory;
  * Instances of VmwareAgent should be created by the VmwareAgentFactory
  * @author jbuhacoff
  */
-public class IntelHostAgent2 implements HostAgent {
+public class IntelHostAgent2 implements HostAgent, RegisteredAikAware, Closeable {
     private transient Logger log = LoggerFactory.getLogger(getClass());
     private transient final TrustAgentClient client;
 //    private final String hostname;
@@ -40,6 +42,9 @@ public class IntelHostAgent2 implements HostAgent {
     private String vendorHostReport = null;
     private String vmmName = null;
     private PcrManifest pcrManifest = null;
+    private String registeredAikSha1 = null;
+    private transient final TrustAgentHostInfoCache hostInfoCache = TrustAgentHostInfoCache.getInstance();
+    private boolean clientReturned = false;
 
     public IntelHostAgent2(TrustAgentClient client, InternetAddress hostAddress) throws Exception {
         this.client = client;
@@ -47,6 +52,29 @@ public class IntelHostAgent2 implements HostAgent {
 //        this.hostname = hostname;
     }
 
+    /**
+     * Returns the trust agent client to the TrustAgentClientPool, so the pool
+     * can close it once it is evicted; the agent must not be used afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if( !clientReturned ) {
+            clientReturned = true;
+            IntelHostAgentFactory.getTrustAgentClientPool().returnClient(client);
+        }
+    }
+
+    /**
+     * When set, the AIK certificate and host info are reused from
+     * TrustAgentHostInfoCache if the cached AIK matches; otherwise they are
+     * always requested from the trust agent.
+     * 
+     * @param aikSha1 the AIK SHA1 from the host record, or null
+     */
+    @Override
+    public void setRegisteredAikSha1(String aikSha1) {
+        this.registeredAikSha1 = aikSha1;
+    }
 
 
     @Override
@@ -83,9 +111,15 @@ public class IntelHostAgent2 implements HostAgent {
 
     @Override
     public X509Certificate getAikCertificate() {
+        X509Certificate cachedAik = hostInfoCache.getAik(hostAddress.toString(), registeredAikSha1);
+        if( cachedAik != null ) {
+            isTpmAvailable = true;
+            return cachedAik;
+        }
         try {
             X509Certificate aik = client.getAik();
             isTpmAvailable = true;
+            hostInfoCache.putAik(hostAddress.toString(), aik);
             return aik;
         }
         catch(Exception e) {
@@ -138,7 +172,11 @@ public class IntelHostAgent2 implements HostAgent {
         if( pcrManifest == null ) {
             try {
                 TAHelper helper = new TAHelper(getHostDetails());
-                pcrManifest = helper.getQuoteInformationForHost(hostAddress.toString(), client, challenge); 
+                X509Certificate cachedAik = hostInfoCache.getAik(hostAddress.toString(), registeredAikSha1);
+                pcrManifest = helper.getQuoteInformationForHost(hostAddress.toString(), client, challenge, cachedAik); 
+                if( helper.getQuoteAik() != cachedAik ) {
+                    hostInfoCache.putAik(hostAddress.toString(), helper.getQuoteAik());
+                }
             }
             catch(Exception e) {
                 throw new IOException("Cannot retrieve PCR Manifest from "+hostAddress.toString(), e);
@@ -149,7 +187,11 @@ public class IntelHostAgent2 implements HostAgent {
 
     @Override
     public TxtHostRecord getHostDetails() throws IOException {
-        HostInfo hostInfo = client.getHostInfo();
+        HostInfo hostInfo = hostInfoCache.getHostInfo(hostAddress.toString(), registeredAikSha1);
+        if( hostInfo == null ) {
+            hostInfo = client.getHostInfo();
+            hostInfoCache.putHostInfo(hostAddress.toString(), hostInfo);
+        }
         TxtHostRecord host = new TxtHostRecord();
         host.BIOS_Name = hostInfo.getBiosOem().trim();
         host.BIOS_Oem = hostInfo.getBiosOem().trim();
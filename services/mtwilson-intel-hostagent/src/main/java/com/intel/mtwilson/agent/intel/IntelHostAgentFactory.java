@@ -5,6 +5,7 @@
 package com.intel.mtwilson.agent.intel;
 
 import com.intel.mtwilson.agent.HostAgent;
+import com.intel.mtwilson.agent.HostInfoCacheAware;
 import com.intel.mtwilson.agent.VendorHostAgentFactory;
 import com.intel.mtwilson.model.InternetAddress;
 import com.intel.dcsg.cpg.tls.policy.TlsConnection;
@@ -13,7 +14,9 @@ import com.intel.mtwilson.My;
 import com.intel.mtwilson.as.data.MwHostPreRegistrationDetails;
 import com.intel.mtwilson.datatypes.ConnectionString;
 import com.intel.mtwilson.datatypes.Vendor;
+import com.intel.mtwilson.tls.policy.factory.TlsPolicyCache;
 import com.intel.mtwilson.trustagent.client.jaxrs.TrustAgentClient;
+import com.intel.mtwilson.trustagent.client.jaxrs.TrustAgentClientPool;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Properties;
@@ -26,12 +29,62 @@ import org.slf4j.LoggerFactory;
  * not create instances of IntelClient. It uses the IntelClientFactory to do that.
  * @author jbuhacoff
  */
-public class IntelHostAgentFactory implements VendorHostAgentFactory {
+public class IntelHostAgentFactory implements VendorHostAgentFactory, HostInfoCacheAware {
     private Logger log = LoggerFactory.getLogger(getClass());
     private String intelVendorConnectionString = "";
     
+    private static class TrustAgentClientPoolHolder {
+        private static final TrustAgentClientPool instance = createInstance();
+        
+        private static TrustAgentClientPool createInstance() {
+            int maxPerRoute = 5; // same as the default http.maxConnections keep-alive limit per host
+            int maxTotal = 200;
+            int maxHosts = 10000;
+            int idleSeconds = 60;
+            int leaseTimeoutSeconds = 60;
+            try {
+                maxPerRoute = My.configuration().getConfiguration().getInt("mtwilson.trustagent.client.pool.max.per.host", maxPerRoute);
+                maxTotal = My.configuration().getConfiguration().getInt("mtwilson.trustagent.client.pool.max.total", maxTotal);
+                maxHosts = My.configuration().getConfiguration().getInt("mtwilson.trustagent.client.pool.max.hosts", maxHosts);
+                idleSeconds = My.configuration().getConfiguration().getInt("mtwilson.trustagent.client.pool.idle.seconds", idleSeconds);
+                leaseTimeoutSeconds = My.configuration().getConfiguration().getInt("mtwilson.trustagent.client.pool.timeout.seconds", leaseTimeoutSeconds);
+            }
+            catch(RuntimeException e) {
+                LoggerFactory.getLogger(IntelHostAgentFactory.class).warn("Cannot load trust agent client pool settings, using defaults: {}", e.getMessage());
+            }
+            return new TrustAgentClientPool(maxPerRoute, maxTotal, maxHosts, idleSeconds * 1000L, leaseTimeoutSeconds * 1000L);
+        }
+    }
+    
+    /**
+     * @return the pool of trust agent v2 clients shared by all IntelHostAgent2 instances
+     */
+    public static TrustAgentClientPool getTrustAgentClientPool() {
+        return TrustAgentClientPoolHolder.instance;
+    }
+    
+    /**
+     * Only a TLS policy kept in TlsPolicyCache is the same instance the next
+     * time the host is attested, so a client for any other policy, such as
+     * TRUST_FIRST_CERTIFICATE or a policy from the request, is not pooled.
+     */
+    static TrustAgentClient getTrustAgentClient(Properties properties, TlsConnection tlsConnection) throws Exception {
+        if( TlsPolicyCache.getInstance().contains(tlsConnection.getTlsPolicy()) ) {
+            return getTrustAgentClientPool().getClient(properties, tlsConnection);
+        }
+        return new TrustAgentClient(properties, tlsConnection);
+    }
+    
     @Override
     public String getVendorProtocol() { return "intel"; }
+
+    /**
+     * The host info cache is shared by the intel and microsoft host agents.
+     */
+    @Override
+    public void invalidateHostInfo(String hostAddress) {
+        TrustAgentHostInfoCache.getInstance().invalidate(hostAddress);
+    }
     
     @Override
     public HostAgent getHostAgent(InternetAddress hostAddress, String vendorConnectionString, TlsPolicy tlsPolicy) throws IOException {
@@ -80,7 +133,7 @@ public class IntelHostAgentFactory implements VendorHostAgentFactory {
                     log.debug("Rewritten intel host url: {}", url.toExternalForm());
                 }
                 
-                TrustAgentClient client = new TrustAgentClient(properties, new TlsConnection(url, tlsPolicy));
+                TrustAgentClient client = getTrustAgentClient(properties, new TlsConnection(url, tlsPolicy));
                 return new IntelHostAgent2(client, hostAddress);
             }
             else /*if( url.getPort() == 9999 )*/ {
@@ -82,7 +82,7 @@ public class MicrosoftHostAgentFactory implements VendorHostAgentFactory {
                     log.debug("Rewritten intel host url: {}", url.toExternalForm());
                 }
                 
-                TrustAgentClient client = new TrustAgentClient(properties, new TlsConnection(url, tlsPolicy));
+                TrustAgentClient client = IntelHostAgentFactory.getTrustAgentClient(properties, new TlsConnection(url, tlsPolicy));
                 return new IntelHostAgent2(client, hostAddress);
             }
             else /*if( url.getPort() == 9999 )*/ {
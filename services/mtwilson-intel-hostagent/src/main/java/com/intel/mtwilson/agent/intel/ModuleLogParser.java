@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent.intel;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.crypto.Sha1Digest;
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.mtwilson.model.Measurement;
+import com.intel.mtwilson.model.MeasurementSha1;
+import com.intel.mtwilson.model.MeasurementSha256;
+import com.intel.mtwilson.model.PcrEventLog;
+import com.intel.mtwilson.model.PcrEventLogFactory;
+import com.intel.mtwilson.model.PcrIndex;
+import com.intel.mtwilson.model.PcrManifest;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Adds the modules of the trust agent's module log to a PCR manifest in
+ * one pass over the XML:
+ * <pre>
+ * &lt;modules&gt;
+ * &lt;module&gt;&lt;pcrBank&gt;SHA1&lt;/pcrBank&gt;&lt;pcrNumber&gt;17&lt;/pcrNumber&gt;&lt;name&gt;tb_policy&lt;/name&gt;&lt;value&gt;9704353630674bfe21b86b64a7b0f99c297cf902&lt;/value&gt;&lt;/module&gt;
+ * &lt;module&gt;&lt;pcrNumber&gt;19&lt;/pcrNumber&gt;&lt;name&gt;vmlinuz&lt;/name&gt;&lt;value&gt;d3f525b0dc6f7d7c9a3af165bcf6c3e3e02b2599&lt;/value&gt;&lt;/module&gt;
+ * &lt;/modules&gt;
+ * </pre>
+ * The pcrBank element is optional; a module without it is in the same bank
+ * as the previous module, and the first one is SHA1.
+ * 
+ * The measurements are collected in one list per PCR bank and index, and
+ * each event log is added to the manifest once at the end instead of
+ * looking it up for every module. Module names that appear more than once
+ * share one String, and the info map copied into each measurement is
+ * reused.
+ * 
+ * An instance is used for one log only.
+ */
+class ModuleLogParser {
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    private static final int PCR_COUNT = 24;
+
+    private final ArrayList<Measurement>[] sha1 = newLists();
+    private final ArrayList<Measurement>[] sha256 = newLists();
+    private final HashMap<String, String> names = new HashMap<>();
+    private final HashMap<String, String> info = new HashMap<>();
+
+    ModuleLogParser() {
+        info.put("EventName", "OpenSource.EventName");  // For OpenSource since we do not have any events associated, we are creating a dummy one.
+        info.put("PackageName", "");
+        info.put("PackageVendor", "");
+        info.put("PackageVersion", "");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayList<Measurement>[] newLists() {
+        return new ArrayList[PCR_COUNT];
+    }
+
+    /**
+     * @param pcrManifest the manifest to add the modules to
+     * @param eventLog the module log xml
+     * @throws XMLStreamException if the log is not valid
+     * @throws UnsupportedOperationException if a module is in a PCR bank other than SHA1 or SHA256
+     */
+    void addPcrEventLogs(PcrManifest pcrManifest, Reader eventLog) throws XMLStreamException {
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(eventLog);
+        try {
+            String pcrBank = "SHA1";
+            int pcrNumber = -1;
+            String name = "";
+            String value = "";
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if (element.equalsIgnoreCase("pcrBank")) {
+                        pcrBank = reader.getElementText().toUpperCase();
+                    } else if (element.equalsIgnoreCase("pcrNumber")) {
+                        pcrNumber = Integer.parseInt(reader.getElementText());
+                    } else if (element.equalsIgnoreCase("name")) {
+                        name = intern(reader.getElementText());
+                    } else if (element.equalsIgnoreCase("value")) {
+                        value = reader.getElementText();
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equalsIgnoreCase("module")) {
+                    if (pcrNumber < 0 || pcrNumber >= PCR_COUNT) {
+                        throw new XMLStreamException("Invalid PCR number: " + pcrNumber, reader.getLocation());
+                    }
+                    add(pcrBank, pcrNumber, name, value);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        addTo(pcrManifest, DigestAlgorithm.SHA1, sha1);
+        addTo(pcrManifest, DigestAlgorithm.SHA256, sha256);
+    }
+
+    private String intern(String name) {
+        String shared = names.get(name);
+        if (shared == null) {
+            names.put(name, name);
+            return name;
+        }
+        return shared;
+    }
+
+    private void add(String pcrBank, int pcrNumber, String name, String value) {
+        info.put("ComponentName", name);
+        switch (pcrBank) {
+            case "SHA1":
+                list(sha1, pcrNumber).add(new MeasurementSha1(new Sha1Digest(value), name, info));
+                break;
+            case "SHA256":
+                list(sha256, pcrNumber).add(new MeasurementSha256(new Sha256Digest(value), name, info));
+                break;
+            default:
+                throw new UnsupportedOperationException("PCRBank: " + pcrBank + " not supported");
+        }
+    }
+
+    private static ArrayList<Measurement> list(ArrayList<Measurement>[] lists, int pcrNumber) {
+        if (lists[pcrNumber] == null) {
+            lists[pcrNumber] = new ArrayList<>();
+        }
+        return lists[pcrNumber];
+    }
+
+    private static void addTo(PcrManifest pcrManifest, DigestAlgorithm bank, ArrayList<Measurement>[] lists) {
+        for (int i = 0; i < PCR_COUNT; i++) {
+            if (lists[i] == null) {
+                continue;
+            }
+            PcrEventLog pcrEventLog = pcrManifest.getPcrEventLog(bank, i);
+            if (pcrEventLog != null) {
+                pcrEventLog.getEventLog().addAll(lists[i]);
+            } else {
+                pcrManifest.setPcrEventLog(PcrEventLogFactory.newInstance(bank, PcrIndex.valueOf(i), lists[i]));
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.util.HashMap;
 import java.util.List;
@@ -40,15 +41,11 @@ import com.intel.mtwilson.model.PcrEventLog;
 import com.intel.mtwilson.model.PcrIndex;
 import com.intel.mtwilson.model.PcrManifest;
 import com.intel.dcsg.cpg.crypto.Sha1Digest;
-import com.intel.dcsg.cpg.crypto.Sha256Digest;
 import com.intel.dcsg.cpg.io.Platform;
 import com.intel.mtwilson.Folders;
 import com.intel.mtwilson.My;
 import com.intel.mtwilson.datatypes.TxtHostRecord;
-import com.intel.mtwilson.model.MeasurementSha1;
-import com.intel.mtwilson.model.MeasurementSha256;
 import com.intel.mtwilson.model.Nonce;
-import com.intel.mtwilson.model.PcrEventLogFactory;
 import com.intel.mtwilson.model.PcrFactory;
 import com.intel.mtwilson.tls.policy.factory.V1TlsPolicyFactory;
 import com.intel.mtwilson.trustagent.client.jaxrs.TrustAgentClient;
@@ -67,11 +64,8 @@ import java.util.ArrayList;
 import java.util.Map;
 import javax.xml.bind.PropertyException;
 import javax.xml.stream.FactoryConfigurationError;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.shiro.util.StringUtils;
@@ -107,8 +101,8 @@ public class TAHelper {
     private String aikverifyCmd;
     private Pattern pcrNumberPattern = Pattern.compile("[0-9]|[0-1][0-9]|2[0-3]"); // integer 0-23 with optional zero-padding (00, 01, ...)
     private Pattern pcrValuePattern = Pattern.compile("[0-9a-fA-F]+"); // 40-character hex string
-    private String pcrNumberUntaint = "[^0-9]";
-    private String pcrValueUntaint = "[^0-9a-fA-F]";
+    private Pattern pcrNumberUntaint = Pattern.compile("[^0-9]");
+    private Pattern pcrValueUntaint = Pattern.compile("[^0-9a-fA-F]");
     private boolean quoteWithIPAddress = true; // to fix issue #1038 we use this secure default
 //	private EntityManagerFactory entityManagerFactory;
     private String trustedAik = null; // host's AIK in PEM format, for use in verifying quotes (caller retrieves it from database and provides it to us)
@@ -116,6 +110,9 @@ public class TAHelper {
     private String[] openSourceHostSpecificModules = {"initrd","vmlinuz"};
     private TxtHostRecord host = null;
     boolean isHostWindows = false;
+    private boolean nativeQuoteVerifier = false; // when true quotes are verified by forking aikqverify instead of in-process
+    private static final TpmQuoteVerifier quoteVerifier = new TpmQuoteVerifier();
+    private X509Certificate quoteAik = null; // AIK certificate used to verify the last v2 quote
 
 
     public TAHelper(/*EntityManagerFactory entityManagerFactory*/) throws IOException {
@@ -140,23 +137,9 @@ public class TAHelper {
             aikverifyCmd = aikverifyhomeBin + File.separator + config.getString("com.intel.mountwilson.as.aikqverify.cmd", "aikqverify.exe");
         }
         quoteWithIPAddress = My.configuration().getConfiguration().getBoolean("mtwilson.tpm.quote.ipv4", true); // issue #1038
-        boolean foundAllRequiredFiles = true;
-        String required[] = new String[]{aikverifyCmd, aikverifyhomeData};
-        for (String filename : required) {
-            File file = new File(filename);
-            if (!file.exists()) {
-                log.warn(String.format("Invalid service configuration: Cannot find %s", filename));
-                foundAllRequiredFiles = false;
-            }
-        }
-        if (!foundAllRequiredFiles) {
-            throw new ASException(ErrorCode.AS_CONFIGURATION_ERROR, "Cannot find aikverify files");
-        }
-
-        // we must be able to write to the data folder in order to save certificates, nones, public keys, etc.
-        File datafolder = new File(aikverifyhomeData);
-        if (!datafolder.canWrite()) {
-            throw new ASException(ErrorCode.AS_CONFIGURATION_ERROR, String.format(" Cannot write to %s", aikverifyhomeData));
+        nativeQuoteVerifier = My.configuration().getConfiguration().getBoolean("mtwilson.tpm.quote.verify.native", false);
+        if (nativeQuoteVerifier) {
+            checkAikqverifyFiles();
         }
 
         //        this.setEntityManagerFactory(entityManagerFactory);
@@ -207,6 +190,16 @@ public class TAHelper {
             aikverifyCmd = aikverifyhomeBin + File.separator + config.getString("com.intel.mountwilson.as.aikqverify.cmd", "aikqverify.exe");
         }
         quoteWithIPAddress = My.configuration().getConfiguration().getBoolean("mtwilson.tpm.quote.ipv4", true); // issue #1038
+        // the windows quote format is only supported by aikqverifywin and aikqverifywin2
+        nativeQuoteVerifier = isHostWindows || My.configuration().getConfiguration().getBoolean("mtwilson.tpm.quote.verify.native", false);
+        if (nativeQuoteVerifier) {
+            checkAikqverifyFiles();
+        }
+
+        //        this.setEntityManagerFactory(entityManagerFactory);
+    }
+
+    private void checkAikqverifyFiles() {
         boolean foundAllRequiredFiles = true;
         String required[] = new String[]{aikverifyCmd, aikverifyhomeData};
         for (String filename : required) {
@@ -225,8 +218,6 @@ public class TAHelper {
         if (!datafolder.canWrite()) {
             throw new ASException(ErrorCode.AS_CONFIGURATION_ERROR, String.format(" Cannot write to %s", aikverifyhomeData));
         }
-
-        //        this.setEntityManagerFactory(entityManagerFactory);
     }
     
     public void setTrustedAik(String pem) {
@@ -385,10 +376,6 @@ public class TAHelper {
     public PcrManifest getQuoteInformationForHost(String hostname, TrustAgentSecureClient client, Nonce challenge) throws NoSuchAlgorithmException, PropertyException, JAXBException,
             UnknownHostException, IOException, KeyManagementException, CertificateException, XMLStreamException {
         //  BUG #497  START CODE SNIPPET MOVED TO INTEL HOST AGENT
-        File q;
-        File n;
-        File c;
-        File r;
         byte[] nonce;
         if( challenge == null ) {
             nonce = generateNonce(); // 20 random bytes
@@ -408,9 +395,6 @@ public class TAHelper {
             }
             verifyNonce = ByteArray.concat(ByteArray.subarray(nonce, 0, 16), ipaddress);
         }
-        String verifyNonceBase64 = Base64.encodeBase64String(verifyNonce);
-
-        String sessionId = generateSessionId();
 
         // FIrst let us ensure that we have an AIK cert created on the host before trying to retrieve the quote. The trust agent
         // would verify if a AIK is already present or not. If not it will create a new one.
@@ -424,29 +408,15 @@ public class TAHelper {
         String quote = clientRequestType.getQuote();
         log.debug("extracted quote from response: " + quote);
 
-        q = saveQuote(quote, sessionId);
-        log.debug("saved quote with session id: " + sessionId);
-
-        // we only need to save the certificate when registring the host ... when we are just getting a quote we need to verify it using the previously saved AIK.
+        // we only need to use the certificate from the response when registring the host ... when we are just getting a quote we need to verify it using the previously saved AIK.
+        String aikCertificate;
         if (trustedAik == null) {
-            String aikCertificate = clientRequestType.getAikcert();
+            aikCertificate = clientRequestType.getAikcert();
             log.debug("extracted aik cert from response: " + aikCertificate);
-
-            c = saveCertificate(aikCertificate, sessionId);
-            log.debug("saved host-provided AIK certificate with session id: " + sessionId);
         } else {
-            c = saveCertificate(trustedAik, sessionId);
-            log.debug("saved database-provided trusted AIK certificate with session id: " + sessionId);
+            aikCertificate = trustedAik;
         }
 
-        n = saveNonce(verifyNonceBase64, sessionId);
-
-        log.debug("saved nonce with session id: " + sessionId);
-
-        r = createRSAKeyFile(sessionId);
-
-        log.debug("created RSA key file for session id: " + sessionId);
-
         // Verify if there is TCBMeasurement Data. This data would be available if we are extending the root of trust to applications and data on the OS
         String tcbMeasurementString = clientRequestType.getTcbMeasurement();
         log.debug("TCB Measurement XML is {}", tcbMeasurementString);
@@ -454,9 +424,10 @@ public class TAHelper {
         log.debug("Event log: {}", clientRequestType.getEventLog()); // issue #879
         byte[] eventLogBytes = Base64.decodeBase64(clientRequestType.getEventLog());// issue #879
         log.debug("Decoded event log length: {}", eventLogBytes == null ? null : eventLogBytes.length);// issue #879
+        String decodedEventLog = null;
         if (eventLogBytes != null) { // issue #879
-            String decodedEventLog = new String(eventLogBytes);
-            log.debug("Event log retrieved from the host consists of: " + decodedEventLog);
+            decodedEventLog = new String(eventLogBytes);
+            log.debug("Event log retrieved from the host consists of: {}", decodedEventLog);
 
             /*
              * Example output:
@@ -465,37 +436,18 @@ public class TAHelper {
              *          * </pre>
              *
              */
-
-            // Since we need to add the event log details into the pcrManifest, we will pass in that information to the below function
-            PcrManifest pcrManifest = verifyQuoteAndGetPcr(sessionId, decodedEventLog);
-            log.info("Got PCR map");
-            if (tcbMeasurementString != null && !tcbMeasurementString.isEmpty())
-                pcrManifest.setMeasurementXml(tcbMeasurementString);
-
-            //log.log(Level.INFO, "PCR map = "+pcrMap); // need to untaint this first
-            if (deleteTemporaryFiles) {
-                q.delete();
-                n.delete();
-                c.delete();
-                r.delete();
-            }
-            return pcrManifest;
-        } else {
-            PcrManifest pcrManifest = verifyQuoteAndGetPcr(sessionId, null); // verify the quote but don't add any event log info to the PcrManifest. // issue #879
-            log.info("Got PCR map");
-            if (tcbMeasurementString != null && !tcbMeasurementString.isEmpty())
-                pcrManifest.setMeasurementXml(tcbMeasurementString);
-
-            //log.log(Level.INFO, "PCR map = "+pcrMap); // need to untaint this first
-            if (deleteTemporaryFiles) {
-                q.delete();
-                n.delete();
-                c.delete();
-                r.delete();
-            }
-            return pcrManifest;
         }
 
+        // Since we need to add the event log details into the pcrManifest, we will pass in that information to the below function
+        // if there is no event log we verify the quote but don't add any event log info to the PcrManifest. // issue #879
+        PcrManifest pcrManifest = verifyQuoteAndGetPcr("1.2", verifyNonce, Base64.decodeBase64(quote), aikCertificate, decodedEventLog);
+        log.info("Got PCR map");
+        if (tcbMeasurementString != null && !tcbMeasurementString.isEmpty())
+            pcrManifest.setMeasurementXml(tcbMeasurementString);
+
+        //log.log(Level.INFO, "PCR map = "+pcrMap); // need to untaint this first
+        return pcrManifest;
+
     }
 
     public PcrManifest getQuoteInformationForHost(String hostname, TrustAgentClient client) throws NoSuchAlgorithmException, PropertyException, JAXBException,
@@ -508,11 +460,22 @@ public class TAHelper {
     //        with the ip address like the v1 does)
     public PcrManifest getQuoteInformationForHost(String hostname, TrustAgentClient client, Nonce challenge) throws NoSuchAlgorithmException, PropertyException, JAXBException,
             UnknownHostException, IOException, KeyManagementException, CertificateException, XMLStreamException {
+        return getQuoteInformationForHost(hostname, client, challenge, null);
+    }
+
+    /**
+     * Same as getQuoteInformationForHost(hostname, client, challenge) but
+     * with the host's AIK certificate from a previous request, so that only
+     * the quote is requested from the trust agent. If the quote response
+     * does not include the same AIK certificate, the AIK may have changed
+     * on the host and it is requested again.
+     * 
+     * @param cachedAik optional; may be null to request the AIK certificate from the trust agent
+     * @see #getQuoteAik() 
+     */
+    public PcrManifest getQuoteInformationForHost(String hostname, TrustAgentClient client, Nonce challenge, X509Certificate cachedAik) throws NoSuchAlgorithmException, PropertyException, JAXBException,
+            UnknownHostException, IOException, KeyManagementException, CertificateException, XMLStreamException {
         //  BUG #497  START CODE SNIPPET MOVED TO INTEL HOST AGENT
-        File q;
-        File n;
-        File c;
-        File r;
         byte[] nonce;        
         if( challenge == null ) {
             nonce = generateNonce(); // 20 random bytes
@@ -532,34 +495,31 @@ public class TAHelper {
             }
             verifyNonce = Sha1Digest.digestOf(nonce).extend(ipaddress).toByteArray();
         }
-//        String verifyNonceBase64 = Base64.encodeBase64String(verifyNonce);
-
-        String sessionId = generateSessionId();
 
         // FIrst let us ensure that we have an AIK cert created on the host before trying to retrieve the quote. The trust agent
         // would verify if a AIK is already present or not. If not it will create a new one.
-        trustedAik = X509Util.encodePemCertificate(client.getAik());
+        // A cached AIK from a previous request means the host already has one.
+        quoteAik = cachedAik == null ? client.getAik() : cachedAik;
 
         // to fix issue #1038 trust agent relay we send 20 random bytes nonce to the host (base64-encoded) but if mtwilson.tpm.quote.ipaddress is enabled then in our copy we replace the last 4 bytes with the host's ip address, and when the host generates the quote it does the same thing, and we can verify it later
         // we select best PCR bank but we will change to all PCR banks once it's supported
         TpmQuoteResponse tpmQuoteResponse = client.getTpmQuote(nonce, new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23}, host.PcrBanks); // pcrList used to be a comma-separated list passed to this method... but now we are returning a quote with ALL the PCR's ALL THE TIME.
         log.debug("got response from server [" + hostname + "] ");
+        if (cachedAik != null && (tpmQuoteResponse.aik == null || !cachedAik.equals(tpmQuoteResponse.aik))) {
+            log.debug("AIK certificate in quote response from {} is missing or different from the cached AIK certificate", hostname);
+            quoteAik = client.getAik();
+        }
+        trustedAik = X509Util.encodePemCertificate(quoteAik);
 
         log.debug("extracted quote from response: {}", Base64.encodeBase64String(tpmQuoteResponse.quote));
 
-        q = saveQuote(tpmQuoteResponse.quote, sessionId);
-        log.debug("saved quote with session id: " + sessionId);
-
-        // we only need to save the certificate when registring the host ... when we are just getting a quote we need to verify it using the previously saved AIK.
+        // we only need to use the certificate from the response when registring the host ... when we are just getting a quote we need to verify it using the previously saved AIK.
+        String aikCertificate;
         if (trustedAik == null) {
-            String aikCertificate = X509Util.encodePemCertificate(tpmQuoteResponse.aik);
+            aikCertificate = X509Util.encodePemCertificate(tpmQuoteResponse.aik);
             log.debug("extracted aik cert from response: " + aikCertificate);
-
-            c = saveCertificate(aikCertificate, sessionId);
-            log.debug("saved host-provided AIK certificate with session id: " + sessionId);
         } else {
-            c = saveCertificate(trustedAik, sessionId);
-            log.debug("saved database-provided trusted AIK certificate with session id: " + sessionId);
+            aikCertificate = trustedAik;
         }
 
         // for Windows host, we generate a new nonce by sha1(nonce | tag)
@@ -568,14 +528,6 @@ public class TAHelper {
             log.debug("tpmQuoteResponse.isTagProvisioned is true");
             verifyNonce = Sha1Digest.digestOf(verifyNonce).extend(tpmQuoteResponse.assetTag).toByteArray();
         }
-        
-        n = saveNonce(verifyNonce, sessionId);
-
-        log.debug("saved nonce with session id: " + sessionId);
-
-        r = createRSAKeyFile(sessionId);
-
-        log.debug("created RSA key file for session id: " + sessionId);
 
         // Verify if there is TCBMeasurement Data. This data would be available if we are extending the root of trust to applications and data on the OS
         String tcbMeasurementString = tpmQuoteResponse.tcbMeasurement;
@@ -584,41 +536,29 @@ public class TAHelper {
         log.debug("Event log: {}", tpmQuoteResponse.eventLog); // issue #879
         byte[] eventLogBytes = Base64.decodeBase64(tpmQuoteResponse.eventLog);// issue #879
         log.debug("Decoded event log length: {}", eventLogBytes == null ? null : eventLogBytes.length);// issue #879
+        String decodedEventLog = null;
         if (eventLogBytes != null) { // issue #879
-            String decodedEventLog = new String(eventLogBytes);
-            log.debug("Event log retrieved from the host consists of: " + decodedEventLog);
-
-            // Since we need to add the event log details into the pcrManifest, we will pass in that information to the below function
-            PcrManifest pcrManifest = verifyQuoteAndGetPcr(sessionId, decodedEventLog);
-            if (tcbMeasurementString != null && !tcbMeasurementString.isEmpty())
-                pcrManifest.setMeasurementXml(tcbMeasurementString);
-            log.info("Got PCR map");
-            //log.log(Level.INFO, "PCR map = "+pcrMap); // need to untaint this first
-            if (deleteTemporaryFiles) {
-                q.delete();
-                n.delete();
-                c.delete();
-                r.delete();
-            }
-            pcrManifest.setProvisionedTag(tpmQuoteResponse.assetTag);
-            return pcrManifest;
-        } else {
-            PcrManifest pcrManifest = verifyQuoteAndGetPcr(sessionId, null); // verify the quote but don't add any event log info to the PcrManifest. // issue #879
-            log.info("Got PCR map");
-            if (tcbMeasurementString != null && !tcbMeasurementString.isEmpty())
-                pcrManifest.setMeasurementXml(tcbMeasurementString);
-
-            //log.log(Level.INFO, "PCR map = "+pcrMap); // need to untaint this first
-            if (deleteTemporaryFiles) {
-                q.delete();
-                n.delete();
-                c.delete();
-                r.delete();
-            }
-            pcrManifest.setProvisionedTag(tpmQuoteResponse.assetTag);
-            return pcrManifest;
+            decodedEventLog = new String(eventLogBytes);
+            log.debug("Event log retrieved from the host consists of: {}", decodedEventLog);
         }
 
+        // Since we need to add the event log details into the pcrManifest, we will pass in that information to the below function
+        // if there is no event log we verify the quote but don't add any event log info to the PcrManifest. // issue #879
+        PcrManifest pcrManifest = verifyQuoteAndGetPcr(host.TpmVersion, verifyNonce, tpmQuoteResponse.quote, aikCertificate, decodedEventLog);
+        if (tcbMeasurementString != null && !tcbMeasurementString.isEmpty())
+            pcrManifest.setMeasurementXml(tcbMeasurementString);
+        log.info("Got PCR map");
+        //log.log(Level.INFO, "PCR map = "+pcrMap); // need to untaint this first
+        pcrManifest.setProvisionedTag(tpmQuoteResponse.assetTag);
+        return pcrManifest;
+
+    }
+
+    /**
+     * @return the AIK certificate used to verify the quote in the last call to the v2 getQuoteInformationForHost, or null
+     */
+    public X509Certificate getQuoteAik() {
+        return quoteAik;
     }
 
     // hostName == internetAddress.toString() or Hostname.toString() or IPAddress.toString()
@@ -807,24 +747,11 @@ public class TAHelper {
         }
     }
 
-    private File saveQuote(String quote, String sessionId) throws IOException {
-//          byte[] quoteBytes = new BASE64Decoder().decodeBuffer(quote);
-        byte[] quoteBytes = Base64.decodeBase64(quote);
-        File file = saveFile(getQuoteFileName(sessionId), quoteBytes);
-        return file;
-    }
-
     private File saveQuote(byte[] quoteBytes, String sessionId) throws IOException {
         File file = saveFile(getQuoteFileName(sessionId), quoteBytes);
         return file;
     }
 
-    private File saveNonce(String nonce, String sessionId) throws IOException {
-        byte[] nonceBytes = Base64.decodeBase64(nonce);
-        File file = saveFile(getNonceFileName(sessionId), nonceBytes);
-        return file;
-    }
-
     private File saveNonce(byte[] nonceBytes, String sessionId) throws IOException {
         File file = saveFile(getNonceFileName(sessionId), nonceBytes);
         return file;
@@ -854,6 +781,58 @@ public class TAHelper {
         return "rsapubkey_" + sessionId + ".key";
     }
 
+    /**
+     * Verifies the quote and returns the quoted PCR values, with the event
+     * log entries (if any) attached to their PCRs.
+     * 
+     * The quote is verified in-process by {@link TpmQuoteVerifier} unless
+     * mtwilson.tpm.quote.verify.native is enabled or the host is running
+     * Windows, in which case the nonce, quote, and AIK are saved to the
+     * aikqverify data directory and verified with the aikqverify tool.
+     * 
+     * @param tpmVersion "1.2" or "2.0"
+     * @param verifyNonce the nonce the quote must cover
+     * @param quote
+     * @param aikCertificate PEM-encoded AIK certificate
+     * @param eventLog the module event log xml, or null if not available
+     * @return 
+     */
+    private PcrManifest verifyQuoteAndGetPcr(String tpmVersion, byte[] verifyNonce, byte[] quote, String aikCertificate, String eventLog) throws NoSuchAlgorithmException, IOException, CertificateException {
+        if (nativeQuoteVerifier) {
+            String sessionId = generateSessionId();
+            File q = saveQuote(quote, sessionId);
+            log.debug("saved quote with session id: " + sessionId);
+            File c = saveCertificate(aikCertificate, sessionId);
+            log.debug("saved AIK certificate with session id: " + sessionId);
+            File n = saveNonce(verifyNonce, sessionId);
+            log.debug("saved nonce with session id: " + sessionId);
+            File r = createRSAKeyFile(sessionId);
+            log.debug("created RSA key file for session id: " + sessionId);
+            try {
+                return verifyQuoteAndGetPcr(sessionId, eventLog);
+            } finally {
+                if (deleteTemporaryFiles) {
+                    q.delete();
+                    n.delete();
+                    c.delete();
+                    r.delete();
+                }
+            }
+        }
+        X509Certificate aikcert = X509Util.decodePemCertificate(aikCertificate);
+        PcrManifest pcrManifest;
+        try {
+            pcrManifest = quoteVerifier.verifyQuote(tpmVersion, verifyNonce, quote, aikcert.getPublicKey());
+        } catch (GeneralSecurityException | IllegalArgumentException ex) {
+            throw new IllegalStateException("Cannot verify TPM quote", ex);
+        }
+        for (Pcr pcr : pcrManifest.getPcrs()) {
+            log.debug("Result PCR {} {}: {}", pcr.getPcrBank(), pcr.getIndex(), pcr.getValue());
+        }
+        addPcrEventLog(pcrManifest, eventLog);
+        return pcrManifest;
+    }
+
     private PcrManifest verifyQuoteAndGetPcr(String sessionId, String eventLog) {
 //        HashMap<String,PcrManifest> pcrMp = new HashMap<String,PcrManifest>();        
         PcrManifest pcrManifest = new PcrManifest();
@@ -882,13 +861,13 @@ public class TAHelper {
                  * in case of SHA256 or other algorithms, the format is "pcrNumber_SHA256"
                  */
                 String[] pcrIndexParts = parts[0].trim().split("_");
-                String pcrNumber = pcrIndexParts[0].trim().replaceAll(pcrNumberUntaint, "").replaceAll("\n", "");
+                String pcrNumber = pcrNumberUntaint.matcher(pcrIndexParts[0]).replaceAll(""); // also removes whitespace
                 String pcrBank;
                 if (pcrIndexParts.length ==2)
                     pcrBank = pcrIndexParts[1].trim();
                 else
                     pcrBank = "SHA1";
-                String pcrValue = parts[1].trim().replaceAll(pcrValueUntaint, "").replaceAll("\n", "");
+                String pcrValue = pcrValueUntaint.matcher(parts[1]).replaceAll(""); // also removes whitespace
 
                 boolean validPcrNumber = pcrNumberPattern.matcher(pcrNumber).matches();
                 boolean validPcrValue = pcrValuePattern.matcher(pcrValue).matches();
@@ -913,6 +892,12 @@ public class TAHelper {
              */
         }
 
+        addPcrEventLog(pcrManifest, eventLog);
+        return pcrManifest;
+
+    }
+
+    private void addPcrEventLog(PcrManifest pcrManifest, String eventLog) {
         // Now that we captured the PCR details, we need to capture the module information also into the PcrManifest object
         // Sample Format:
         // <modules>
@@ -923,96 +908,15 @@ public class TAHelper {
         //</modules>
         if (eventLog != null) { // issue #879
             try {
-                XMLInputFactory xif = XMLInputFactory.newInstance();
-                //FileInputStream fis = new FileInputStream("c:\\temp\\nbtest.txt");
-                StringReader sr = new StringReader(eventLog);
-                XMLStreamReader reader = xif.createXMLStreamReader(sr);
-
-                int extendedToPCR = -1;
-                String digestValue = "";
-                String componentName = "";
-                String pcrBank = "SHA1";
-
-                while (reader.hasNext()) {
-                    if (reader.getEventType() == XMLStreamConstants.START_ELEMENT
-                            && reader.getLocalName().equalsIgnoreCase("module")) {
-                        reader.next();
-                        
-                        if(reader.getLocalName().equalsIgnoreCase("pcrBank")) {
-                            pcrBank = reader.getElementText().toUpperCase();
-                            reader.next();
-                        }                       
-                        
-                        // Get the PCR Number to which the module is extended to
-                        if (reader.getLocalName().equalsIgnoreCase("pcrNumber")) {
-                            extendedToPCR = Integer.parseInt(reader.getElementText());
-                        }
-
-                        reader.next();
-                        // Get the Module name
-                        if (reader.getLocalName().equalsIgnoreCase("name")) {                            
-                            componentName = reader.getElementText();
-                        }
-
-                        reader.next();
-                        // Get the Module hash value
-                        if (reader.getLocalName().equalsIgnoreCase("value")) {
-                            digestValue = reader.getElementText();
-                        }                                                
-
-                        log.debug("Process module " + componentName + " getting extended to " + extendedToPCR);
-
-                        // Attach the PcrEvent logs to the corresponding pcr indexes.
-                        // Note: Since we will not be processing the even logs for 17 & 18, we will ignore them for now.                        
-                        Measurement m = convertHostTpmEventLogEntryToMeasurement(extendedToPCR, componentName, digestValue, pcrBank);
-                        if (pcrManifest.containsPcrEventLog(pcrBank, PcrIndex.valueOf(extendedToPCR))) {
-                            pcrManifest.getPcrEventLog(pcrBank, extendedToPCR).getEventLog().add(m);
-                        } else {
-                            ArrayList<Measurement> list = new ArrayList<Measurement>();
-                            list.add(m);
-                            pcrManifest.setPcrEventLog(PcrEventLogFactory.newInstance(pcrBank, PcrIndex.valueOf(extendedToPCR), list));
-                        }
-                    }
-                    reader.next();
-                }
+                new ModuleLogParser().addPcrEventLogs(pcrManifest, new StringReader(eventLog));
             } catch (FactoryConfigurationError | XMLStreamException | NumberFormatException ex) {
                 // bug #2171 we need to throw an exception to prevent the host from being registered with an error manifest
                 //log.error(ex.getMessage(), ex);
                 throw new IllegalStateException("Invalid measurement log", ex);
             }
         }
-
-        return pcrManifest;
-
     }
 
-    /**
-     * Helper method to create the Measurement Object.
-     *
-     * @param extendedToPcr
-     * @param moduleName
-     * @param moduleHash
-     * @return
-     */
-    private static Measurement convertHostTpmEventLogEntryToMeasurement(int extendedToPcr, String moduleName, String moduleHash, String pcrBank) {
-        HashMap<String, String> info = new HashMap<String, String>();
-        info.put("EventName", "OpenSource.EventName");  // For OpenSource since we do not have any events associated, we are creating a dummy one.
-        // Removing the prefix of "OpenSource" as it is being captured in the event type
-        info.put("ComponentName", moduleName);
-        info.put("PackageName", "");
-        info.put("PackageVendor", "");
-        info.put("PackageVersion", "");
-
-        DigestAlgorithm da = DigestAlgorithm.valueOf(pcrBank);        
-        switch(da) {
-            case SHA1:
-                return new MeasurementSha1(new Sha1Digest(moduleHash), moduleName, info);                
-            case SHA256:                
-                return new MeasurementSha256(new Sha256Digest(moduleHash), moduleName, info);                
-            default:
-                throw new UnsupportedOperationException("PCRBank: " + pcrBank + " not supported");
-        }        
-    }
     /*
      public EntityManagerFactory getEntityManagerFactory() {
      return entityManagerFactory;
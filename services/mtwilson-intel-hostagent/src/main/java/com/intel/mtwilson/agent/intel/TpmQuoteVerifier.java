@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent.intel;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.model.PcrFactory;
+import com.intel.mtwilson.model.PcrIndex;
+import com.intel.mtwilson.model.PcrManifest;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies a TPM quote issued by an AIK and returns the quoted PCR values.
+ *
+ * This is a Java implementation of the aikqverify (TPM 1.2) and aikqverify2
+ * (TPM 2.0) tools that works on byte arrays in memory, so the attestation
+ * service does not need to write the nonce, quote and public key to the
+ * aikqverify data directory and fork a process for every quote. The quote
+ * formats are the same ones those tools accept:
+ *
+ * TPM 1.2: TPM_PCR_COMPOSITE (select size, select bitmap, pcr values size,
+ * pcr values) followed by the RSA signature over TPM_QUOTE_INFO.
+ *
+ * TPM 2.0: TPM2B_ATTEST (size in host byte order, TPMS_ATTEST), TPMT_SIGNATURE
+ * (algorithm, hash algorithm and size in host byte order, signature), and
+ * the selected pcr values of each bank, in selection order.
+ *
+ * Instances are stateless and safe to share between threads.
+ */
+public class TpmQuoteVerifier {
+    private static final Logger log = LoggerFactory.getLogger(TpmQuoteVerifier.class);
+    private static final byte[] TPM_QUOTE_INFO_HEADER = new byte[] { 1, 1, 0, 0, 'Q', 'U', 'O', 'T' };
+    private static final int TPM_ALG_SHA1 = 0x0004;
+    private static final int TPM_ALG_SHA256 = 0x000B;
+    private static final int TPM_ALG_RSASSA = 0x0014;
+    private static final int MAX_PCR_BANKS = 3;
+
+    /**
+     * Verifies a TPM 1.2 or TPM 2.0 quote.
+     *
+     * @param tpmVersion "1.2" or "2.0"; null is treated as "1.2"
+     * @param nonce the challenge that the quote must cover, after any ip address or asset tag has been extended into it
+     * @param quote the quote as returned by the trust agent
+     * @param aik the host's AIK public key
+     * @return a PcrManifest containing the quoted pcr values
+     * @throws GeneralSecurityException if the signature, nonce, or pcr digest does not verify
+     * @throws IllegalArgumentException if the quote is malformed
+     */
+    public PcrManifest verifyQuote(String tpmVersion, byte[] nonce, byte[] quote, PublicKey aik) throws GeneralSecurityException {
+        if ("2.0".equals(tpmVersion)) {
+            return verifyTpm20Quote(nonce, quote, aik);
+        }
+        return verifyTpm12Quote(nonce, quote, aik);
+    }
+
+    /**
+     * Equivalent to aikqverify.
+     *
+     * @param nonce
+     * @param quote
+     * @param aik
+     * @return a PcrManifest containing the quoted SHA1 pcr values
+     * @throws GeneralSecurityException if the signature does not verify
+     * @throws IllegalArgumentException if the quote is malformed
+     */
+    public PcrManifest verifyTpm12Quote(byte[] nonce, byte[] quote, PublicKey aik) throws GeneralSecurityException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(quote).order(ByteOrder.BIG_ENDIAN);
+            int selectLength = buffer.getShort() & 0xFFFF;
+            byte[] select = new byte[selectLength];
+            buffer.get(select);
+            long pcrLength = buffer.getInt() & 0xFFFFFFFFL;
+            int compositeLength = 2 + selectLength + 4;
+            if (compositeLength + pcrLength + 20 > quote.length) {
+                throw new IllegalArgumentException("Input AIK quote incorrect format");
+            }
+            int pcrOffset = compositeLength;
+            compositeLength += (int) pcrLength;
+
+            // TPM_QUOTE_INFO is the fixed header, the digest of the TPM_PCR_COMPOSITE, and the digest of the challenge
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            sha1.update(quote, 0, compositeLength);
+            byte[] compositeDigest = sha1.digest();
+            byte[] challengeDigest = nonce == null ? new byte[20] : sha1.digest(nonce);
+            byte[] quoteInfo = concat(TPM_QUOTE_INFO_HEADER, compositeDigest, challengeDigest);
+
+            Signature signature = Signature.getInstance("SHA1withRSA");
+            signature.initVerify(aik);
+            signature.update(quoteInfo);
+            if (!signature.verify(quote, compositeLength, quote.length - compositeLength)) {
+                throw new SignatureException("Bad RSA signature in quote");
+            }
+
+            PcrManifest pcrManifest = new PcrManifest();
+            int pcrCount = 0;
+            for (int pcr = 0; pcr < 8 * selectLength; pcr++) {
+                if ((select[pcr / 8] & (1 << (pcr % 8))) != 0) {
+                    if ((pcrCount + 1) * 20 > pcrLength) {
+                        throw new IllegalArgumentException("Input AIK quote incorrect format");
+                    }
+                    int offset = pcrOffset + 20 * pcrCount;
+                    setPcr(pcrManifest, DigestAlgorithm.SHA1, pcr, Arrays.copyOfRange(quote, offset, offset + 20));
+                    pcrCount++;
+                }
+            }
+            return pcrManifest;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Input AIK quote incorrect format", e);
+        }
+    }
+
+    /**
+     * Equivalent to aikqverify2.
+     *
+     * @param nonce
+     * @param quote
+     * @param aik
+     * @return a PcrManifest containing the quoted pcr values for each selected bank
+     * @throws GeneralSecurityException if the nonce, signature, or pcr digest does not verify
+     * @throws IllegalArgumentException if the quote is malformed
+     */
+    public PcrManifest verifyTpm20Quote(byte[] nonce, byte[] quote, PublicKey aik) throws GeneralSecurityException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(quote);
+            // the TPM2B_ATTEST size and the TPMT_SIGNATURE fields are in host byte order (little endian), everything inside TPMS_ATTEST is in network byte order
+            int quotedInfoLength = buffer.order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF;
+            int quotedInfoOffset = buffer.position();
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            buffer.position(buffer.position() + 6); // skip magic and type
+            int qualifiedSignerLength = buffer.getShort() & 0xFFFF;
+            buffer.position(buffer.position() + qualifiedSignerLength);
+            int extraDataLength = buffer.getShort() & 0xFFFF;
+            byte[] extraData = new byte[extraDataLength];
+            buffer.get(extraData);
+            if (nonce != null && !MessageDigest.isEqual(extraData, nonce)) {
+                throw new GeneralSecurityException("Received nonce does not match the challenge");
+            }
+            buffer.position(buffer.position() + 17 + 8); // skip TPMS_CLOCK_INFO and firmware version
+            int pcrBankCount = buffer.getInt();
+            if (pcrBankCount < 0 || pcrBankCount > MAX_PCR_BANKS) {
+                throw new IllegalArgumentException(String.format("Number of PCR selection array in the quote is greater than %d", MAX_PCR_BANKS));
+            }
+            int[] hashAlg = new int[pcrBankCount];
+            byte[][] select = new byte[pcrBankCount][];
+            for (int i = 0; i < pcrBankCount; i++) {
+                hashAlg[i] = buffer.getShort() & 0xFFFF;
+                select[i] = new byte[buffer.get() & 0xFF];
+                buffer.get(select[i]);
+            }
+            byte[] pcrDigest = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(pcrDigest);
+
+            buffer.position(quotedInfoOffset + quotedInfoLength);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int signatureAlg = buffer.getShort() & 0xFFFF;
+            int signatureHashAlg = buffer.getShort() & 0xFFFF;
+            int signatureLength = buffer.getShort() & 0xFFFF;
+            int signatureOffset = buffer.position();
+            int pcrOffset = signatureOffset + signatureLength;
+            if (pcrOffset >= quote.length) {
+                throw new IllegalArgumentException("No PCR values included in quote");
+            }
+            if (signatureAlg != TPM_ALG_RSASSA) {
+                log.debug("Quote signature algorithm {} is not RSASSA, verifying as RSASSA", String.format("%04x", signatureAlg));
+            }
+
+            Signature signature = Signature.getInstance(signatureHashAlg == TPM_ALG_SHA1 ? "SHA1withRSA" : "SHA256withRSA");
+            signature.initVerify(aik);
+            signature.update(quote, quotedInfoOffset, quotedInfoLength);
+            if (!signature.verify(quote, signatureOffset, signatureLength)) {
+                throw new SignatureException("Bad RSA signature in quote");
+            }
+
+            // the pcr values follow the signature in the same order as the selection; their digest must match the one in the signed structure
+            PcrManifest pcrManifest = new PcrManifest();
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            int position = pcrOffset;
+            int pcrCount = 0;
+            for (int i = 0; i < pcrBankCount; i++) {
+                DigestAlgorithm bank = toDigestAlgorithm(hashAlg[i]);
+                int pcrSize = bank == DigestAlgorithm.SHA256 ? 32 : 20;
+                for (int pcr = 0; pcr < 8 * select[i].length; pcr++) {
+                    if ((select[i][pcr / 8] & (1 << (pcr % 8))) != 0) {
+                        if (position + pcrSize > quote.length) {
+                            throw new IllegalArgumentException("Input AIK quote incorrect format");
+                        }
+                        sha256.update(quote, position, pcrSize);
+                        setPcr(pcrManifest, bank, pcr, Arrays.copyOfRange(quote, position, position + pcrSize));
+                        position += pcrSize;
+                        pcrCount++;
+                    }
+                }
+            }
+            if (pcrCount < 1) {
+                throw new IllegalArgumentException("No PCRs selected for quote");
+            }
+            if (!MessageDigest.isEqual(sha256.digest(), pcrDigest)) {
+                throw new GeneralSecurityException("Concatenated PCR digest does not match the digest in quote");
+            }
+            return pcrManifest;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Input AIK quote incorrect format", e);
+        }
+    }
+
+    private DigestAlgorithm toDigestAlgorithm(int tpmAlgId) throws NoSuchAlgorithmException {
+        switch (tpmAlgId) {
+            case TPM_ALG_SHA1:
+                return DigestAlgorithm.SHA1;
+            case TPM_ALG_SHA256:
+                return DigestAlgorithm.SHA256;
+            default:
+                throw new NoSuchAlgorithmException(String.format("Not supported PCR bank (%02x) in quote", tpmAlgId));
+        }
+    }
+
+    private void setPcr(PcrManifest pcrManifest, DigestAlgorithm bank, int pcr, byte[] value) {
+        if (pcr > PcrIndex.MAX_VALUE) {
+            log.warn("Ignoring quoted PCR {} out of range", pcr);
+            return;
+        }
+        pcrManifest.setPcr(PcrFactory.newInstance(bank, PcrIndex.valueOf(pcr), value));
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        int length = 0;
+        for (byte[] array : arrays) {
+            length += array.length;
+        }
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] array : arrays) {
+            System.arraycopy(array, 0, result, offset, array.length);
+            offset += array.length;
+        }
+        return result;
+    }
+}
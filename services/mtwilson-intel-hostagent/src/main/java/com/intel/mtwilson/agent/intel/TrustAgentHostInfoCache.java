@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent.intel;
+
+import com.intel.dcsg.cpg.crypto.Sha1Digest;
+import com.intel.mtwilson.My;
+import com.intel.mtwilson.trustagent.model.HostInfo;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the AIK certificate and host info (including TPM version and PCR
+ * banks) that trust agent v2 hosts reported, so that attesting a host only
+ * needs the quote request instead of also requesting /host and /aik twice.
+ *
+ * A cached entry is only used when the host record has an AIK SHA1 and it
+ * is the SHA1 of the cached AIK certificate, so a host that was registered
+ * again with a different AIK, or one that was not registered yet, gets
+ * its AIK and host info from the trust agent. Entries expire after
+ * mtwilson.trustagent.host.info.cache.seconds (default 3600), and the
+ * IntelHostAgent2 replaces the entry when the AIK in a quote response is
+ * missing or different from the cached one.
+ *
+ * Only agents created with HostAgentFactory.getHostAgentForAttestation read
+ * the cache; registering or updating a host always asks the trust agent and
+ * stores the new answer. The entry of a host is also removed through
+ * HostAgentFactory.invalidateHostInfo when the host is registered, updated,
+ * or deleted.
+ */
+public class TrustAgentHostInfoCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TrustAgentHostInfoCache.class);
+    public static final String HOST_INFO_CACHE_MAX = "mtwilson.trustagent.host.info.cache.max";
+    public static final String HOST_INFO_CACHE_SECONDS = "mtwilson.trustagent.host.info.cache.seconds";
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long expiresMillis;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class Entry {
+        private final X509Certificate aik;
+        private final String aikSha1;
+        private final HostInfo hostInfo;
+        private final long expires;
+
+        private Entry(X509Certificate aik, String aikSha1, HostInfo hostInfo, long expires) {
+            this.aik = aik;
+            this.aikSha1 = aikSha1;
+            this.hostInfo = hostInfo;
+            this.expires = expires;
+        }
+    }
+
+    private static class TrustAgentHostInfoCacheHolder {
+        private static final TrustAgentHostInfoCache instance = createInstance();
+
+        private static TrustAgentHostInfoCache createInstance() {
+            int maxEntries = 10000;
+            int seconds = 3600;
+            try {
+                maxEntries = My.configuration().getConfiguration().getInt(HOST_INFO_CACHE_MAX, maxEntries);
+                seconds = My.configuration().getConfiguration().getInt(HOST_INFO_CACHE_SECONDS, seconds);
+            } catch (RuntimeException e) {
+                log.warn("Cannot load trust agent host info cache settings, using defaults: {}", e.getMessage());
+            }
+            return new TrustAgentHostInfoCache(maxEntries, seconds * 1000L);
+        }
+    }
+
+    /**
+     * @param maxEntries maximum number of hosts; 0 disables the cache
+     * @param expiresMillis how long to keep an entry
+     */
+    TrustAgentHostInfoCache(int maxEntries, long expiresMillis) {
+        this.maxEntries = maxEntries;
+        this.expiresMillis = expiresMillis;
+    }
+
+    public static TrustAgentHostInfoCache getInstance() {
+        return TrustAgentHostInfoCacheHolder.instance;
+    }
+
+    /**
+     * @param host
+     * @param registeredAikSha1 AIK SHA1 from the host record, may be null
+     * @return the entry if it is not expired and its AIK matches the registered AIK SHA1, otherwise null
+     */
+    private Entry get(String host, String registeredAikSha1) {
+        Entry entry = entries.get(host);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires <= System.currentTimeMillis()) {
+            entries.remove(host, entry);
+            return null;
+        }
+        if (registeredAikSha1 == null || entry.aikSha1 == null || !entry.aikSha1.equalsIgnoreCase(registeredAikSha1)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @param host
+     * @param registeredAikSha1 AIK SHA1 from the host record, may be null
+     * @return the cached AIK certificate if it matches the registered AIK SHA1, or null
+     */
+    X509Certificate getAik(String host, String registeredAikSha1) {
+        Entry entry = get(host, registeredAikSha1);
+        if (entry == null || entry.aik == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.aik;
+    }
+
+    /**
+     * @param host
+     * @param registeredAikSha1 AIK SHA1 from the host record, may be null
+     * @return the cached host info if the cached AIK matches the registered AIK SHA1, or null
+     */
+    HostInfo getHostInfo(String host, String registeredAikSha1) {
+        Entry entry = get(host, registeredAikSha1);
+        if (entry == null || entry.hostInfo == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.hostInfo;
+    }
+
+    /**
+     * Stores the AIK certificate reported by the host; if it is different
+     * from the cached AIK the cached host info is discarded too.
+     */
+    void putAik(String host, X509Certificate aik) {
+        if (maxEntries <= 0 || aik == null) {
+            return;
+        }
+        String aikSha1;
+        try {
+            aikSha1 = Sha1Digest.valueOf(aik.getEncoded()).toString();
+        } catch (CertificateEncodingException e) {
+            log.debug("Cannot compute SHA1 of AIK certificate for host {}", host, e);
+            return;
+        }
+        Entry entry = entries.get(host);
+        if (entry != null && entry.expires > System.currentTimeMillis() && (entry.aikSha1 == null || entry.aikSha1.equalsIgnoreCase(aikSha1))) {
+            put(host, new Entry(aik, aikSha1, entry.hostInfo, entry.expires));
+        } else {
+            put(host, new Entry(aik, aikSha1, null, System.currentTimeMillis() + expiresMillis));
+        }
+    }
+
+    void putHostInfo(String host, HostInfo hostInfo) {
+        if (maxEntries <= 0 || hostInfo == null) {
+            return;
+        }
+        Entry entry = entries.get(host);
+        if (entry != null && entry.expires > System.currentTimeMillis()) {
+            put(host, new Entry(entry.aik, entry.aikSha1, hostInfo, entry.expires));
+        } else {
+            put(host, new Entry(null, null, hostInfo, System.currentTimeMillis() + expiresMillis));
+        }
+    }
+
+    private void put(String host, Entry entry) {
+        if (entries.size() >= maxEntries && !entries.containsKey(host)) {
+            log.debug("Trust agent host info cache is full with {} entries; clearing", entries.size());
+            entries.clear();
+        }
+        entries.put(host, entry);
+    }
+
+    public void invalidate(String host) {
+        entries.remove(host);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
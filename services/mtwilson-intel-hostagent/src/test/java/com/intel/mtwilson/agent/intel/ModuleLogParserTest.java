@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent.intel;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.model.Measurement;
+import com.intel.mtwilson.model.PcrEventLog;
+import com.intel.mtwilson.model.PcrManifest;
+import java.io.StringReader;
+import java.util.List;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the module log parser, including with a log of 20000 modules, about
+ * the size of the log of a host with a large initrd.
+ */
+public class ModuleLogParserTest {
+
+    private String moduleLog(int count) {
+        StringBuilder xml = new StringBuilder("<modules>\n");
+        for (int i = 0; i < count; i++) {
+            boolean sha1 = i % 2 == 0;
+            xml.append("<module>")
+                    .append("<pcrBank>").append(sha1 ? "SHA1" : "SHA256").append("</pcrBank>")
+                    .append("<pcrNumber>").append(17 + i % 3).append("</pcrNumber>")
+                    .append("<name>module").append(i % 500).append("</name>")
+                    .append("<value>").append(String.format(sha1 ? "%040x" : "%064x", i)).append("</value>")
+                    .append("</module>\n");
+        }
+        return xml.append("</modules>").toString();
+    }
+
+    @Test
+    public void testModulesByBankAndPcr() throws Exception {
+        String xml = "<modules>"
+                + "<module><pcrNumber>17</pcrNumber><name>tb_policy</name><value>9704353630674bfe21b86b64a7b0f99c297cf902</value></module>"
+                + "<module><pcrNumber>19</pcrNumber><name>vmlinuz</name><value>d3f525b0dc6f7d7c9a3af165bcf6c3e3e02b2599</value></module>"
+                + "<module><pcrNumber>19</pcrNumber><name>initrd</name><value>3dfa5762c78623ccfc778498ab4cb7136bb3f5ab</value></module>"
+                + "<module><pcrBank>sha256</pcrBank><pcrNumber>19</pcrNumber><name>vmlinuz</name><value>" + String.format("%064x", 1) + "</value></module>"
+                + "</modules>";
+        PcrManifest pcrManifest = new PcrManifest();
+        new ModuleLogParser().addPcrEventLogs(pcrManifest, new StringReader(xml));
+        assertEquals(1, pcrManifest.getPcrEventLog(DigestAlgorithm.SHA1, 17).getEventLog().size());
+        List<Measurement> pcr19 = pcrManifest.getPcrEventLog(DigestAlgorithm.SHA1, 19).getEventLog();
+        assertEquals(2, pcr19.size());
+        assertEquals("vmlinuz", pcr19.get(0).getLabel());
+        assertEquals("initrd", pcr19.get(1).getInfo().get("ComponentName"));
+        assertEquals("OpenSource.EventName", pcr19.get(1).getInfo().get("EventName"));
+        assertEquals(1, pcrManifest.getPcrEventLog(DigestAlgorithm.SHA256, 19).getEventLog().size());
+        assertNull(pcrManifest.getPcrEventLog(DigestAlgorithm.SHA256, 17));
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void testInvalidPcrNumber() throws Exception {
+        String xml = "<modules><module><pcrNumber>24</pcrNumber><name>vmlinuz</name><value>d3f525b0dc6f7d7c9a3af165bcf6c3e3e02b2599</value></module></modules>";
+        new ModuleLogParser().addPcrEventLogs(new PcrManifest(), new StringReader(xml));
+    }
+
+    @Test
+    public void testLargeModuleLog() throws Exception {
+        PcrManifest pcrManifest = new PcrManifest();
+        new ModuleLogParser().addPcrEventLogs(pcrManifest, new StringReader(moduleLog(20000)));
+        int modules = 0;
+        for (DigestAlgorithm bank : new DigestAlgorithm[]{DigestAlgorithm.SHA1, DigestAlgorithm.SHA256}) {
+            for (PcrEventLog pcrEventLog : pcrManifest.getPcrEventLogs(bank)) {
+                modules += pcrEventLog.getEventLog().size();
+            }
+        }
+        assertEquals(20000, modules);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent.intel;
+
+import com.intel.dcsg.cpg.crypto.Sha1Digest;
+import com.intel.mtwilson.trustagent.model.HostInfo;
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks when the cached AIK and host info of a trust agent host are used.
+ */
+public class TrustAgentHostInfoCacheTest {
+
+    private X509Certificate readCertificate(String name) throws Exception {
+        try (InputStream in = getClass().getResourceAsStream(name)) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        }
+    }
+
+    private String sha1(X509Certificate certificate) throws Exception {
+        return Sha1Digest.valueOf(certificate.getEncoded()).toString();
+    }
+
+    @Test
+    public void testUsedOnlyWithRegisteredAik() throws Exception {
+        X509Certificate aik = readCertificate("/aik1.pem");
+        HostInfo hostInfo = new HostInfo();
+        TrustAgentHostInfoCache cache = new TrustAgentHostInfoCache(10, 60000);
+        cache.putHostInfo("host1", hostInfo);
+        cache.putAik("host1", aik);
+        assertSame(aik, cache.getAik("host1", sha1(aik)));
+        assertSame(hostInfo, cache.getHostInfo("host1", sha1(aik).toUpperCase()));
+        // a host that is not registered yet, or registered with another AIK
+        assertNull(cache.getAik("host1", null));
+        assertNull(cache.getHostInfo("host1", sha1(readCertificate("/aik2.pem"))));
+        assertNull(cache.getAik("host2", sha1(aik)));
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testNewAikDiscardsHostInfo() throws Exception {
+        X509Certificate aik1 = readCertificate("/aik1.pem");
+        X509Certificate aik2 = readCertificate("/aik2.pem");
+        TrustAgentHostInfoCache cache = new TrustAgentHostInfoCache(10, 60000);
+        cache.putAik("host1", aik1);
+        cache.putHostInfo("host1", new HostInfo());
+        cache.putAik("host1", aik2);
+        assertSame(aik2, cache.getAik("host1", sha1(aik2)));
+        assertNull(cache.getHostInfo("host1", sha1(aik2)));
+        assertNull(cache.getAik("host1", sha1(aik1)));
+    }
+
+    @Test
+    public void testExpiredAndDisabled() throws Exception {
+        X509Certificate aik = readCertificate("/aik1.pem");
+        TrustAgentHostInfoCache expired = new TrustAgentHostInfoCache(10, 0);
+        expired.putAik("host1", aik);
+        assertNull(expired.getAik("host1", sha1(aik)));
+        assertEquals(0, expired.size());
+        TrustAgentHostInfoCache disabled = new TrustAgentHostInfoCache(0, 60000);
+        disabled.putAik("host1", aik);
+        assertEquals(0, disabled.size());
+    }
+}
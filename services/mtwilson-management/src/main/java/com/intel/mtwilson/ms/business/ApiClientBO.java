@@ -29,6 +29,7 @@ import com.intel.mtwilson.ms.data.ApiClientX509;
 import com.intel.mtwilson.ms.data.ApiRoleX509;
 import com.intel.mtwilson.ms.data.ApiRoleX509PK;
 import com.intel.mtwilson.ms.data.MwPortalUser;
+import com.intel.mtwilson.shiro.jdbi.LoginCache;
 import com.intel.mtwilson.shiro.jdbi.LoginDAO;
 import com.intel.mtwilson.shiro.jdbi.MyJdbi;
 import com.intel.mtwilson.user.management.rest.v2.model.Status;
@@ -256,6 +257,7 @@ public class ApiClientBO {
                 user.setComment("");
                 user.setUsername(getSimpleNameFromCert(x509Certificate));
                 loginDAO.insertUser(user.getId(), user.getUsername(), null, user.getComment());
+                LoginCache.getInstance().clear();
             }
             log.debug("Looking for existing certificate");
             UserLoginCertificate userLoginCertificate = loginDAO.findUserLoginCertificateByUsername(getSimpleNameFromCert(x509Certificate));
@@ -275,6 +277,7 @@ public class ApiClientBO {
                 loginDAO.insertUserLoginCertificate(userLoginCertificate.getId(), userLoginCertificate.getUserId(), userLoginCertificate.getCertificate(), 
                         userLoginCertificate.getSha1Hash(), userLoginCertificate.getSha256Hash(), userLoginCertificate.getExpires(), 
                         userLoginCertificate.isEnabled(), userLoginCertificate.getStatus(), userLoginCertificate.getComment());
+                LoginCache.getInstance().clear();
                 log.debug("Created user login certificate with sha256 {}", Sha256Digest.valueOf(userLoginCertificate.getSha256Hash()).toHexString());
             }
             
@@ -312,6 +315,7 @@ public class ApiClientBO {
                     userLoginCertificate.setComment(apiClientUpdateRequest.comment);
                 loginDAO.updateUserLoginCertificateById(userLoginCertificate.getId(), userLoginCertificate.isEnabled(), 
                         userLoginCertificate.getStatus(), userLoginCertificate.getComment());
+                LoginCache.getInstance().clear();
             }
             log.debug("Looking up user {}", userName);
             User user = loginDAO.findUserByName(userName);
@@ -323,6 +327,7 @@ public class ApiClientBO {
                 if (user.getLocale() != null)
                     localeTag = LocaleUtil.toLanguageTag(user.getLocale());
                 loginDAO.updateUser(user.getId(), localeTag, user.getComment());
+                LoginCache.getInstance().clear();
             }
             
             log.debug("Update request roles: {}", (Object[])apiClientUpdateRequest.roles);
@@ -334,6 +339,7 @@ public class ApiClientBO {
                 for (com.intel.mtwilson.user.management.rest.v2.model.Role roleMapping : rolesByUserLoginCertificateId) {
                     log.debug("Removing role {} from user {}", roleMapping.getRoleName(), userName);
                     loginDAO.deleteUserLoginCertificateRole(userLoginCertificate.getId(), roleMapping.getId());
+                    LoginCache.getInstance().clear();
                 }
                 
                 // Let us add the new roles
@@ -345,6 +351,7 @@ public class ApiClientBO {
                     if (findRoleByName != null) {
                         log.debug("Adding role {} to user {}", findRoleByName.getRoleName(), userName);
                         loginDAO.insertUserLoginCertificateRole(userLoginCertificate.getId(), findRoleByName.getId());
+                        LoginCache.getInstance().clear();
                     }
                 }
                 
@@ -556,10 +563,12 @@ public class ApiClientBO {
                     for (com.intel.mtwilson.user.management.rest.v2.model.Role roleMapping : rolesByUserLoginCertificateId) {
                         log.debug("Removing role {} from user {}", roleMapping.getRoleName(), userName);
                         loginDAO.deleteUserLoginCertificateRole(userLoginCertificate.getId(), roleMapping.getId());
+                        LoginCache.getInstance().clear();
                     }
 
                     log.debug("ApiClientBO:Delete - About to delete the user login certificate entry for {}.", userName);
                     loginDAO.deleteUserLoginCertificateById(userLoginCertificate.getId());
+                    LoginCache.getInstance().clear();
                     log.info("ApiClientBO:Delete - Deleted the user login certificate entry for user {}.", userName);
                 }
 
@@ -568,6 +577,7 @@ public class ApiClientBO {
                 if (user != null) {
                     log.debug("Found user {}", user.getId());
                     loginDAO.deleteUser(user.getId());
+                    LoginCache.getInstance().clear();
                     log.info("ApiClientBO:Delete - Deleted the user {} successfully.", userName);
                 }
 
@@ -43,7 +43,9 @@ import static com.intel.mtwilson.datatypes.HostWhiteListTarget.VMM_GLOBAL;
 import static com.intel.mtwilson.datatypes.HostWhiteListTarget.VMM_HOST;
 import static com.intel.mtwilson.datatypes.HostWhiteListTarget.VMM_OEM;
 import com.intel.mtwilson.model.*;
+import com.intel.mtwilson.ms.common.MSConfig;
 import com.intel.mtwilson.ms.common.MSException;
+import com.intel.mtwilson.policy.TrustPolicyCache;
 import com.intel.mtwilson.util.ResourceFinder;
 import com.intel.mtwilson.wlm.business.MleBO;
 import com.intel.mtwilson.wlm.business.OemBO;
@@ -67,6 +69,15 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.persistence.EntityManager;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
@@ -94,6 +105,100 @@ public class HostBO {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(HostBO.class);
 
+    /**
+     * Thread pool for retrieving the host details during bulk host registration, separate from the bulk
+     * registration and attestation thread pools so that a large registration request cannot starve them.
+     */
+    private static class InspectionPoolHolder {
+        private static final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, MSConfig.getConfiguration().getInt("mtwilson.ms.registration.inspection.threads.max", 32)));
+        private static final long timeoutMillis = Math.max(1, MSConfig.getConfiguration().getInt("mtwilson.ms.registration.inspection.timeout", 120)) * 1000L;
+    }
+
+    /**
+     * Private class to check if a host is already configured and retrieve its MLE details, for bulk host registration.
+     */
+    private class HostInspection implements Callable<HostConfigData> {
+
+        private final HostConfigData hostConfigObj;
+        private final AtomicInteger completed;
+        private final int total;
+        private final HostRegistrationListener listener;
+        private final AtomicBoolean reported = new AtomicBoolean();
+        private Future<HostConfigData> future;
+        private volatile long started;
+        private boolean configured;
+
+        public HostInspection(HostConfigData hostConfigObj, AtomicInteger completed, int total, HostRegistrationListener listener) {
+            this.hostConfigObj = hostConfigObj;
+            this.completed = completed;
+            this.total = total;
+            this.listener = listener;
+        }
+
+        @Override
+        public HostConfigData call() {
+            started = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                TxtHostRecord hostObj = hostConfigObj.getTxtHostRecord();
+                configured = isHostConfigured(hostObj);
+                if (configured) {
+                    log.debug(String.format("Since '%s' is already configured, we will update the host with the new MLEs.", hostObj.HostName));
+                } else {
+                    log.debug(String.format("Host '%s' is currently not configured. Host will be registered.", hostObj.HostName));
+                }
+                HostConfigData result = getHostMLEDetails(hostConfigObj);
+                success = true;
+                return result;
+            } finally {
+                report(success);
+            }
+        }
+
+        private void report(boolean success) {
+            if (reported.compareAndSet(false, true)) {
+                int count = completed.incrementAndGet();
+                if (listener != null) {
+                    listener.hostInspected(hostConfigObj.getTxtHostRecord().HostName, success, count, total);
+                }
+            }
+        }
+
+        /**
+         * Waits for the inspection to complete; the timeout starts when the inspection starts, so hosts that
+         * are waiting for a thread are not timed out.
+         *
+         * @return the host configuration with the MLE details
+         */
+        public HostConfigData await() {
+            long timeoutMillis = InspectionPoolHolder.timeoutMillis;
+            try {
+                while (true) {
+                    long wait = started == 0 ? timeoutMillis : started + timeoutMillis - System.currentTimeMillis();
+                    try {
+                        return future.get(Math.max(0, wait), TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        if (started != 0 && started + timeoutMillis <= System.currentTimeMillis()) {
+                            future.cancel(true);
+                            report(false);
+                            log.error("Exceeded timeout of {} seconds while retrieving the details of host {}", timeoutMillis / 1000, hostConfigObj.getTxtHostRecord().HostName);
+                            throw new MSException(ErrorCode.MS_HOST_COMMUNICATION_ERROR, e.getClass().getSimpleName());
+                        }
+                    }
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof MSException) {
+                    throw (MSException) e.getCause();
+                }
+                log.error("Unexpected errror during retrieval of host MLE information. ", e.getCause());
+                throw new MSException(ErrorCode.MS_MLE_ERROR, e.getCause().getClass().getSimpleName());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MSException(ErrorCode.MS_BULK_REGISTRATION_ERROR, e.getClass().getSimpleName());
+            }
+        }
+    }
+
     /**
      * Private class to support multithreading to retrieve the attestation report from the target host.
      */
@@ -329,8 +434,6 @@ public class HostBO {
     private HostConfigData getHostMLEDetails(HostConfigData hostConfigObj) {
 
         try {
-            My.initDataEncryptionKey();
-
             TxtHostRecord hostObj = hostConfigObj.getTxtHostRecord();
             TblHosts tblHosts = new TblHosts();
             // Since the connection string passed in by the caller may not be complete (including the vendor), we need to parse it
@@ -465,6 +568,17 @@ public class HostBO {
      * @return
      */
     public HostConfigResponseList registerHosts(TxtHostRecordList hostRecords) {
+        return registerHosts(hostRecords, null);
+    }
+
+    /**
+     * Function that supports bulk host registration. If the user has just specified the host details to be registered, then we would use the default white list target of OEM for both BIOS and VMM.
+     *
+     * @param hostRecords
+     * @param listener : Receives the progress of the registration, may be null.
+     * @return
+     */
+    public HostConfigResponseList registerHosts(TxtHostRecordList hostRecords, HostRegistrationListener listener) {
         HostConfigDataList hostList = new HostConfigDataList();
         HostConfigResponseList hostResponseList;
 
@@ -486,7 +600,7 @@ public class HostBO {
 
             }
 
-            hostResponseList = registerHosts(hostList);
+            hostResponseList = registerHosts(hostList, listener);
             return hostResponseList;
 
         } catch (MSException me) {
@@ -507,51 +621,60 @@ public class HostBO {
      * @return
      */
     public HostConfigResponseList registerHosts(HostConfigDataList hostRecords) {
+        return registerHosts(hostRecords, null);
+    }
+
+    /**
+     * Bulk host registration/update function. The hosts are checked and their details are retrieved in parallel, using
+     * at most mtwilson.ms.registration.inspection.threads.max (default 32) threads for all requests, and a host that does not
+     * respond within mtwilson.ms.registration.inspection.timeout seconds (default 120) is reported as an error.
+     *
+     * @param hostRecords : List of hosts to be updated or newly registered.
+     * @param listener : Receives the progress of the registration, may be null.
+     * @return
+     */
+    public HostConfigResponseList registerHosts(HostConfigDataList hostRecords, HostRegistrationListener listener) {
         HostConfigDataList hostsToBeAddedList = new HostConfigDataList();
         HostConfigDataList hostsToBeUpdatedList = new HostConfigDataList();
         HostConfigResponseList results = new HostConfigResponseList();
+        ArrayList<HostInspection> inspections = new ArrayList<>();
 
         try {
             //TblHostsJpaController hostsJpaController = My.jpa().mwHosts();// new TblHostsJpaController(getASEntityManagerFactory());
-            log.debug("About to start processing {} the hosts", hostRecords.getHostRecords().size());
-
-            // We first need to check if the hosts are already registered or not. Accordingly we will create 2 separate TxtHostRecordLists
-            // One will be for the new hosts that need to be registered and the other one would be for the existing hosts that
-            // need to be updated.
-            for (HostConfigData hostConfigObj : hostRecords.getHostRecords()) {                
-                TxtHostRecord hostObj = hostConfigObj.getTxtHostRecord();                
-                if (isHostConfigured(hostObj)) {
-                    log.debug(String.format("Since '%s' is already configured, we will update the host with the new MLEs.", hostObj.HostName));
-                    // Retrieve the details of the MLEs for the host. If we get any exception that we will not process that host and 
-                    // return back the same error to the user
-                    try {
+            int total = hostRecords.getHostRecords().size();
+            log.debug("About to start processing {} the hosts", total);
 
-                        hostConfigObj = getHostMLEDetails(hostConfigObj);
-                        hostsToBeUpdatedList.getHostRecords().add(hostConfigObj);
+            // We first need to check if the hosts are already registered or not and retrieve the details of the MLEs for the hosts.
+            // Since this needs a call to each of the hosts, all the hosts are processed in parallel. The data encryption key is
+            // initialized once here because it replaces the shared cipher, which the inspection threads use.
+            My.initDataEncryptionKey();
+            AtomicInteger completed = new AtomicInteger();
+            for (HostConfigData hostConfigObj : hostRecords.getHostRecords()) {
+                HostInspection inspection = new HostInspection(hostConfigObj, completed, total, listener);
+                inspection.future = InspectionPoolHolder.pool.submit(inspection);
+                inspections.add(inspection);
+            }
 
-                    } catch (MSException mse) {
-                        HostConfigResponse error = new HostConfigResponse();
-                        error.setHostName(hostObj.HostName);
-                        error.setStatus("false");
-                        error.setErrorMessage(mse.getErrorMessage() + "[" + mse.getErrorCode().toString() + "]");
-                        // add this to the final result list
-                        results.getHostRecords().add(error);
-                    }
-                } else {
-                    log.debug(String.format("Host '%s' is currently not configured. Host will be registered.", hostObj.HostName));
-                    try {
+            // Accordingly we will create 2 separate TxtHostRecordLists. One will be for the new hosts that need to be registered and
+            // the other one would be for the existing hosts that need to be updated. If we get any exception for a host we will not
+            // process that host and return back the same error to the user
+            for (HostInspection inspection : inspections) {
+                try {
 
-                        hostConfigObj = getHostMLEDetails(hostConfigObj);
+                    HostConfigData hostConfigObj = inspection.await();
+                    if (inspection.configured) {
+                        hostsToBeUpdatedList.getHostRecords().add(hostConfigObj);
+                    } else {
                         hostsToBeAddedList.getHostRecords().add(hostConfigObj);
-
-                    } catch (MSException mse) {
-                        HostConfigResponse error = new HostConfigResponse();
-                        error.setHostName(hostObj.HostName);
-                        error.setStatus("false");
-                        error.setErrorMessage(mse.getErrorMessage() + "[" + mse.getErrorCode().toString() + "]");
-                        // add this to the final result list
-                        results.getHostRecords().add(error);
                     }
+
+                } catch (MSException mse) {
+                    HostConfigResponse error = new HostConfigResponse();
+                    error.setHostName(inspection.hostConfigObj.getTxtHostRecord().HostName);
+                    error.setStatus("false");
+                    error.setErrorMessage(mse.getErrorMessage() + "[" + mse.getErrorCode().toString() + "]");
+                    // add this to the final result list
+                    results.getHostRecords().add(error);
                 }
             }
 
@@ -571,6 +694,16 @@ public class HostBO {
                 }
             }
 
+            if (listener != null) {
+                int registered = 0;
+                for (HostConfigResponse hcr : results.getHostRecords()) {
+                    if (Boolean.parseBoolean(hcr.getStatus())) {
+                        registered++;
+                    }
+                }
+                listener.hostsRegistered(registered, total);
+            }
+
             return results;
 
         } catch (MSException me) {
@@ -579,6 +712,11 @@ public class HostBO {
         } catch (Exception ex) {
             log.error("Unexpected errror during bulk host registration. ", ex);
             throw new MSException(ErrorCode.MS_BULK_REGISTRATION_ERROR, ex.getClass().getSimpleName());
+        } finally {
+            // stop retrieving the details of any hosts that are left if the request failed
+            for (HostInspection inspection : inspections) {
+                inspection.future.cancel(true);
+            }
         }
     }
 
@@ -593,6 +731,7 @@ public class HostBO {
         try {
             log.debug("Starting to process the registration for host: " + hostConfigObj.getTxtHostRecord().HostName);
 
+            My.initDataEncryptionKey();
             hostConfigObj = getHostMLEDetails(hostConfigObj);
 
             new HostTrustBO().getTrustStatusOfHostNotInDBAndRegister(hostConfigObj);
@@ -1391,6 +1530,7 @@ public class HostBO {
                     mxJpa.edit(measurementXml);
                     log.debug("Succesfully updated the measurement xml log for Mle {}", tblMleObj.getName());
                 }
+                TrustPolicyCache.getInstance().invalidateMle(tblMleObj.getId());
             }
         } catch (MSException me) {
             log.error("Error during measurement xml log configuration. " + me.getErrorCode() + " :" + me.getErrorMessage());
@@ -1540,6 +1680,8 @@ public class HostBO {
 
         List<String> biosPCRList = Arrays.asList(hostConfigObj.getBiosPCRs().split(","));
         List<String> vmmPCRList = Arrays.asList(hostConfigObj.getVmmPCRs().split(","));
+        // The module white lists are collected while reading the report and then added or updated together
+        ArrayList<ModuleWhiteList> modulesToWhiteList = new ArrayList<>();
 
         try {
 
@@ -1643,19 +1785,10 @@ public class HostBO {
                                 boolean addModuleToVmm = moduleObj.getUseHostSpecificDigest() && hostConfigObj.addVmmWhiteList();
                                 
                                 if(addModuleToBios || addModuleToVmm){
-                                    mleBO.addModuleWhiteList(moduleObj, emt, null, null);
-                                    log.debug("Successfully created a new module manifest for : " + hostObj.VMM_Name + ":" + moduleObj.getComponentName());
+                                    modulesToWhiteList.add(moduleObj);
                                 }
                             } else {
-                                try {
-                                    mleBO.updateModuleWhiteList(moduleObj, emt, null);
-                                    log.debug("Successfully updated the module manifest for : " + hostObj.VMM_Name + ":" + moduleObj.getComponentName());
-                                } catch (ASException ae) {
-                                    if (ae.getErrorCode() == ErrorCode.WS_MODULE_WHITELIST_DOES_NOT_EXIST) {
-                                        mleBO.addModuleWhiteList(moduleObj, emt, null, null);
-                                        log.debug("Successfully created a new module manifest for : " + hostObj.VMM_Name + ":" + moduleObj.getComponentName());
-                                    }
-                                }
+                                modulesToWhiteList.add(moduleObj);
                             }
 
                         }
@@ -1750,8 +1883,13 @@ public class HostBO {
                 }
                 reader.next();
             }
+            if (!modulesToWhiteList.isEmpty()) {
+                mleBO.importModuleWhiteLists(modulesToWhiteList, hostConfigObj.getOverWriteWhiteList(), emt);
+                log.debug("Successfully added or updated {} module manifests for : {}", modulesToWhiteList.size(), hostObj.VMM_Name);
+            }
             emt.getTransaction().commit();
             emt.close();
+            mleBO.invalidatePendingTrustPolicies();
 
         } catch (MSException me) {
             log.error("Error during white list upload to database. " + me.getErrorCode() + " :" + me.getErrorMessage());
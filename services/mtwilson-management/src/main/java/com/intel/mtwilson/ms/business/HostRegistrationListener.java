@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.ms.business;
+
+/**
+ * Receives the progress of a bulk host registration. The methods are called
+ * from the threads that inspect the hosts, so an implementation must be
+ * thread safe and should return quickly.
+ */
+public interface HostRegistrationListener {
+
+    /**
+     * Called after the host details were retrieved from the host, or the
+     * retrieval failed or timed out.
+     *
+     * @param hostName
+     * @param success true if the host details were retrieved and the MLEs are configured
+     * @param completed number of hosts inspected so far, including this one
+     * @param total number of hosts in the request
+     */
+    void hostInspected(String hostName, boolean success, int completed, int total);
+
+    /**
+     * Called once after the inspected hosts were added or updated in the database.
+     *
+     * @param registered number of hosts that were registered or updated
+     * @param total number of hosts in the request
+     */
+    void hostsRegistered(int registered, int total);
+}
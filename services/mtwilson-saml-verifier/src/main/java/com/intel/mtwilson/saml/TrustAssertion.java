@@ -32,6 +32,7 @@ import org.opensaml.saml2.core.Statement;
 import org.opensaml.saml2.core.SubjectConfirmation;
 import org.opensaml.saml2.core.SubjectConfirmationData;
 import org.opensaml.xml.Configuration;
+import org.opensaml.xml.ConfigurationException;
 import org.opensaml.xml.XMLObject;
 import org.opensaml.xml.io.Unmarshaller;
 import org.opensaml.xml.io.UnmarshallerFactory;
@@ -52,6 +53,11 @@ import org.xml.sax.SAXException;
  * getStringAttribute(), etc. If isValid() returns false, you can call error()
  * to get the Exception object that describes the validation error.
  *
+ * Assertions that were already verified with the same trusted signers are
+ * found in a VerifiedAssertionCache and read without verifying the signature
+ * again or building the OpenSAML object graph; getAssertion() builds it on
+ * demand.
+ *
  * See also http://ws.apache.org/wss4j/config.html
  *
  * @author jbuhacoff
@@ -59,7 +65,12 @@ import org.xml.sax.SAXException;
 public class TrustAssertion {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
+    private static boolean bootstrapped = false;
+    private final String xml;
     private Assertion assertion;
+    private String issuer;
+    private Date issueInstant;
+    private Date notAfter;
     private HashMap<String, HostTrustAssertion> hostAssertionMap; //   host ->  Map of assertions about the host
 //    private HashMap<String,String> assertionMap;
     private boolean isValid;
@@ -85,7 +96,33 @@ public class TrustAssertion {
      * @throws KeyStoreException
      */
     public TrustAssertion(X509Certificate[] trustedSigners, String xml) {
+        this(trustedSigners, xml, VerifiedAssertionCache.getInstance());
+    }
+
+    /**
+     * @param trustedSigners keystore with at least one trusted certificate with
+     * the "(saml)" tag in its alias
+     * @param xml returned from attestation service
+     * @param cache of assertions already verified, or null to always verify the signature
+     * @since 2.2
+     */
+    public TrustAssertion(X509Certificate[] trustedSigners, String xml, VerifiedAssertionCache cache) {
+        this.xml = xml;
         try {
+            if (cache != null && cache.isVerified(xml, trustedSigners)) {
+                log.debug("Signature in xml document was already validated");
+                TrustAssertionReader reader = new TrustAssertionReader(xml); // XMLStreamException
+                issuer = reader.getIssuer();
+                issueInstant = reader.getIssueInstant();
+                notAfter = reader.getNotAfter();
+                hostAssertionMap = new HashMap<String, HostTrustAssertion>();
+                for (HashMap<String, String> assertionMap : reader.getAttributeStatements()) {
+                    hostAssertionMap.put(assertionMap.get("Host_Name"), new HostTrustAssertion(issuer, issueInstant, assertionMap));
+                }
+                isValid = true;
+                error = null;
+                return;
+            }
             // is the xml signed by a trusted signer?
             Element document = readXml(xml);
             SamlUtil verifier = new SamlUtil(); // ClassNotFoundException, InstantiationException, IllegalAccessException
@@ -93,13 +130,19 @@ public class TrustAssertion {
             if (isVerified) {
                 log.info("Validated signature in xml document");
                 // populate assertions map
-                DefaultBootstrap.bootstrap(); // required to load default configs that ship with opensaml that specify how to build and parse the xml (if you don't do this you will get a null unmarshaller when you try to parse xml)
+                bootstrap();
                 assertion = readAssertion(document); // ParserConfigurationException, SAXException, IOException, UnmarshallingException
+                issuer = assertion.getIssuer() == null ? null : assertion.getIssuer().getValue();
+                issueInstant = assertion.getIssueInstant() == null ? null : assertion.getIssueInstant().toDate();
+                notAfter = readNotAfter(assertion);
 //                assertionMap = new HashMap<String,String>();        
                 hostAssertionMap = new HashMap<String, HostTrustAssertion>();
                 populateAssertionMap();
                 isValid = true;
                 error = null;
+                if (cache != null) {
+                    cache.add(xml, trustedSigners, notAfter);
+                }
             } else {
                 throw new IllegalArgumentException("Cannot verify XML signature");
             }
@@ -113,6 +156,19 @@ public class TrustAssertion {
         }
     }
 
+    /**
+     * Loads the default configs that ship with opensaml that specify how to
+     * build and parse the xml (if you don't do this you will get a null
+     * unmarshaller when you try to parse xml). They only need to be loaded
+     * once.
+     */
+    private static synchronized void bootstrap() throws ConfigurationException {
+        if (!bootstrapped) {
+            DefaultBootstrap.bootstrap();
+            bootstrapped = true;
+        }
+    }
+
     public boolean isValid() {
         return isValid;
     }
@@ -130,7 +186,16 @@ public class TrustAssertion {
      *
      * @return the OpenSAML Assertion object, or null if there was an error
      */
-    public Assertion getAssertion() {
+    public synchronized Assertion getAssertion() {
+        if (assertion == null && isValid) {
+            // the signature was verified when the assertion was cached
+            try {
+                bootstrap();
+                assertion = readAssertion(readXml(xml));
+            } catch (ConfigurationException | ParserConfigurationException | SAXException | IOException | UnmarshallingException e) {
+                log.error("Cannot read trust assertion", e);
+            }
+        }
         return assertion;
     }
 
@@ -139,7 +204,7 @@ public class TrustAssertion {
      * @since 0.5.3
      */
     public Date getDate() {
-        return assertion.getIssueInstant().toDate();
+        return issueInstant;
     }
 
     /**
@@ -148,6 +213,13 @@ public class TrustAssertion {
      * included in the saml report, OR null if no such date was found
      */
     public Date getNotAfter() {
+        return notAfter;
+    }
+
+    private static Date readNotAfter(Assertion assertion) {
+        if (assertion.getSubject() == null) {
+            return null;
+        }
         List<SubjectConfirmation> subjectConfirmations = assertion.getSubject().getSubjectConfirmations();
         Date notAfter = null;
         if (subjectConfirmations != null) {
@@ -178,11 +250,17 @@ public class TrustAssertion {
     public static class HostTrustAssertion {
 
         private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(HostTrustAssertion.class);
-        private Assertion assertion;
+        private String issuer;
+        private Date issueInstant;
         private Map<String, String> assertionMap; // attributes for a single host
 
         public HostTrustAssertion(Assertion assertion, Map<String, String> assertionMap) {
-            this.assertion = assertion;
+            this(assertion.getIssuer() == null ? null : assertion.getIssuer().getValue(), assertion.getIssueInstant() == null ? null : assertion.getIssueInstant().toDate(), assertionMap);
+        }
+
+        HostTrustAssertion(String issuer, Date issueInstant, Map<String, String> assertionMap) {
+            this.issuer = issuer;
+            this.issueInstant = issueInstant;
             this.assertionMap = assertionMap;
         }
 
@@ -191,7 +269,7 @@ public class TrustAssertion {
          * @since 0.5.3
          */
         public Date getDate() {
-            return assertion.getIssueInstant().toDate();
+            return issueInstant;
         }
 
         /**
@@ -220,7 +298,7 @@ public class TrustAssertion {
          * @throws NullPointerException if isValid() == false
          */
         public String getIssuer() {
-            return assertion.getIssuer().getValue();
+            return issuer;
         }
 
         /**
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.saml;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.joda.time.DateTime;
+
+/**
+ * Reads the issuer, issue instant, earliest subject confirmation
+ * NotOnOrAfter, and attribute statements of a trust assertion in a single
+ * StAX pass, without building a DOM or the OpenSAML object graph.
+ *
+ * This does not verify anything, so it is only used for assertions that
+ * VerifiedAssertionCache reports as already verified. Attribute values are
+ * read the same way as TrustAssertion reads them from the OpenSAML objects:
+ * only xs:string and xs:anyType values, with surrounding whitespace trimmed,
+ * and the last value wins when an attribute has more than one.
+ */
+class TrustAssertionReader {
+    private static final String SAML2_ASSERTION_NS = "urn:oasis:names:tc:SAML:2.0:assertion";
+    private static final XMLInputFactory factory = createInputFactory();
+
+    private String issuer;
+    private Date issueInstant;
+    private Date notAfter;
+    private final ArrayList<HashMap<String, String>> attributeStatements = new ArrayList<>();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return inputFactory;
+    }
+
+    TrustAssertionReader(String xml) throws XMLStreamException {
+        XMLStreamReader reader = factory.createXMLStreamReader(new StringReader(xml));
+        try {
+            read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void read(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 0;
+        HashMap<String, String> attributes = null; // current attribute statement
+        String attributeName = null;
+        boolean inAttribute = false;
+        String attributeValue = null; // last string value of the current attribute
+        StringBuilder text = null; // content of the current Issuer or string AttributeValue
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String name = SAML2_ASSERTION_NS.equals(reader.getNamespaceURI()) ? reader.getLocalName() : null;
+                if (depth == 1) {
+                    issueInstant = parseDate(reader.getAttributeValue(null, "IssueInstant"));
+                } else if (depth == 2 && "Issuer".equals(name)) {
+                    text = new StringBuilder();
+                } else if (depth == 2 && "AttributeStatement".equals(name)) {
+                    attributes = new HashMap<>();
+                } else if (depth == 3 && attributes != null && "Attribute".equals(name)) {
+                    inAttribute = true;
+                    attributeName = reader.getAttributeValue(null, "Name");
+                    attributeValue = null;
+                } else if (depth == 4 && inAttribute && "AttributeValue".equals(name) && isStringType(reader)) {
+                    text = new StringBuilder();
+                } else if ("SubjectConfirmationData".equals(name)) {
+                    Date subjectNotOnOrAfter = parseDate(reader.getAttributeValue(null, "NotOnOrAfter"));
+                    if (subjectNotOnOrAfter != null && (notAfter == null || notAfter.after(subjectNotOnOrAfter))) {
+                        notAfter = subjectNotOnOrAfter;
+                    }
+                }
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                if (text != null) {
+                    text.append(reader.getText());
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == 2 && attributes != null) {
+                    attributeStatements.add(attributes);
+                    attributes = null;
+                } else if (depth == 2 && text != null) {
+                    issuer = trimToNull(text);
+                    text = null;
+                } else if (depth == 3 && inAttribute) {
+                    attributes.put(attributeName, attributeValue);
+                    inAttribute = false;
+                } else if (depth == 4 && text != null) {
+                    attributeValue = trimToNull(text);
+                    text = null;
+                }
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * An AttributeValue without xsi:type is read by OpenSAML as xs:anyType.
+     */
+    private static boolean isStringType(XMLStreamReader reader) {
+        String type = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type");
+        if (type == null) {
+            return true;
+        }
+        String prefix = "";
+        String localName = type.trim();
+        int colon = localName.indexOf(':');
+        if (colon >= 0) {
+            prefix = localName.substring(0, colon);
+            localName = localName.substring(colon + 1);
+        }
+        NamespaceContext namespaces = reader.getNamespaceContext();
+        return XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(namespaces.getNamespaceURI(prefix))
+                && ("string".equals(localName) || "anyType".equals(localName));
+    }
+
+    private static Date parseDate(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return new DateTime(value).toDate();
+    }
+
+    private static String trimToNull(StringBuilder text) {
+        String value = text.toString().trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    String getIssuer() {
+        return issuer;
+    }
+
+    Date getIssueInstant() {
+        return issueInstant;
+    }
+
+    Date getNotAfter() {
+        return notAfter;
+    }
+
+    /**
+     * @return attribute name to value for each attribute statement, in document order
+     */
+    List<HashMap<String, String>> getAttributeStatements() {
+        return attributeStatements;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.saml;
+
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import java.nio.charset.Charset;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which assertions have already passed signature verification, so
+ * that a TrustAssertion created again for the same assertion (for example on
+ * every refresh of a page that shows host trust) does not verify the XML
+ * signature and build the OpenSAML object graph again.
+ *
+ * An entry is keyed by the SHA-256 digest of the assertion xml and of each
+ * trusted signer certificate, so any change to the assertion or to the
+ * trusted signers is a miss. An entry is kept until the assertion's
+ * NotOnOrAfter; assertions without one are not cached.
+ */
+public class VerifiedAssertionCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(VerifiedAssertionCache.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final ConcurrentHashMap<String, Long> verified = new ConcurrentHashMap<>(); // key -> NotOnOrAfter in milliseconds
+    private final int maxEntries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class VerifiedAssertionCacheHolder {
+        private static final VerifiedAssertionCache instance = new VerifiedAssertionCache(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries maximum number of verified assertions to remember; 0 disables the cache
+     */
+    public VerifiedAssertionCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return the cache used by TrustAssertion when no other cache is specified
+     */
+    public static VerifiedAssertionCache getInstance() {
+        return VerifiedAssertionCacheHolder.instance;
+    }
+
+    /**
+     * @param xml
+     * @param trustedSigners
+     * @return true if the same xml was verified with the same trusted signers and has not expired yet
+     */
+    boolean isVerified(String xml, X509Certificate[] trustedSigners) {
+        if (maxEntries <= 0) {
+            return false;
+        }
+        String key = key(xml, trustedSigners);
+        Long notAfter = key == null ? null : verified.get(key);
+        if (notAfter == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+        if (notAfter <= currentTimeMillis()) {
+            verified.remove(key, notAfter);
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Call only after the signature on the xml was verified with the trusted signers.
+     *
+     * @param xml
+     * @param trustedSigners
+     * @param notAfter the assertion's NotOnOrAfter, or null if it does not have one
+     */
+    void add(String xml, X509Certificate[] trustedSigners, Date notAfter) {
+        if (maxEntries <= 0 || notAfter == null || notAfter.getTime() <= currentTimeMillis()) {
+            return;
+        }
+        String key = key(xml, trustedSigners);
+        if (key == null) {
+            return;
+        }
+        if (verified.size() >= maxEntries) {
+            evict();
+        }
+        verified.put(key, notAfter.getTime());
+    }
+
+    /**
+     * Removes the expired entries, and if the cache is still full, the
+     * entries that expire first until there is room for one more.
+     */
+    private void evict() {
+        long now = currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> it = verified.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue() <= now) {
+                it.remove();
+            }
+        }
+        if (verified.size() >= maxEntries) {
+            Long[] expires = verified.values().toArray(new Long[0]);
+            if (expires.length >= maxEntries) {
+                Arrays.sort(expires);
+                long threshold = expires[expires.length - maxEntries];
+                it = verified.entrySet().iterator();
+                while (it.hasNext()) {
+                    if (it.next().getValue() <= threshold) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        verified.clear();
+    }
+
+    public int size() {
+        return verified.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private static String key(String xml, X509Certificate[] trustedSigners) {
+        if (xml == null || trustedSigners == null) {
+            return null;
+        }
+        String[] signers = new String[trustedSigners.length];
+        try {
+            for (int i = 0; i < trustedSigners.length; i++) {
+                signers[i] = Sha256Digest.digestOf(trustedSigners[i].getEncoded()).toHexString();
+            }
+        } catch (CertificateEncodingException | RuntimeException e) {
+            log.debug("Cannot compute digest of trusted signer certificate", e);
+            return null;
+        }
+        Arrays.sort(signers); // the same signers in a different order verify the same assertions
+        StringBuilder key = new StringBuilder(Sha256Digest.digestOf(xml.getBytes(UTF8)).toHexString());
+        for (String signer : signers) {
+            key.append(':').append(signer);
+        }
+        return key.toString();
+    }
+}
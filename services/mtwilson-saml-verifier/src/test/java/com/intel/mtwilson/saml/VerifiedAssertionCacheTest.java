@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.saml;
+
+import com.intel.dcsg.cpg.x509.X509Util;
+import com.intel.mtwilson.saml.TrustAssertion.HostTrustAssertion;
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.HashMap;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.junit.Ignore;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares trust assertions read from a verified assertion cache hit with the
+ * same assertions verified and read with OpenSAML, and times both (the
+ * "performance:" lines in the test output).
+ */
+public class VerifiedAssertionCacheTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(VerifiedAssertionCacheTest.class);
+
+    private String getResource(String name) throws Exception {
+        try (InputStream in = getClass().getResourceAsStream(name)) {
+            return IOUtils.toString(in);
+        }
+    }
+
+    private X509Certificate[] getTrustedSigners() throws Exception {
+        return new X509Certificate[] { X509Util.decodePemCertificate(getResource("/saml.crt.pem")) };
+    }
+
+    private Date tomorrow() {
+        return new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000L);
+    }
+
+    private void assertSameTrustAssertion(TrustAssertion expected, TrustAssertion actual) {
+        assertTrue(actual.isValid());
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(expected.getNotAfter(), actual.getNotAfter());
+        assertEquals(expected.getHosts(), actual.getHosts());
+        for (String hostname : expected.getHosts()) {
+            HostTrustAssertion expectedHost = expected.getTrustAssertion(hostname);
+            HostTrustAssertion actualHost = actual.getTrustAssertion(hostname);
+            assertEquals(expectedHost.getIssuer(), actualHost.getIssuer());
+            assertEquals(expectedHost.getDate(), actualHost.getDate());
+            assertEquals(expectedHost.getAttributeNames(), actualHost.getAttributeNames());
+            for (String attributeName : expectedHost.getAttributeNames()) {
+                assertEquals(expectedHost.getStringAttribute(attributeName), actualHost.getStringAttribute(attributeName));
+            }
+        }
+    }
+
+    @Test
+    public void testCachedAssertionSameAsVerified() throws Exception {
+        String saml = getResource("/saml.xml");
+        X509Certificate[] trustedSigners = getTrustedSigners();
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(10);
+        TrustAssertion verified = new TrustAssertion(trustedSigners, saml, cache);
+        assertTrue(verified.isValid());
+        assertEquals(0, cache.size()); // this assertion does not have a NotOnOrAfter
+        cache.add(saml, trustedSigners, tomorrow());
+        TrustAssertion cached = new TrustAssertion(trustedSigners, saml, cache);
+        assertEquals(1, cache.getHitCount());
+        assertSameTrustAssertion(verified, cached);
+        assertNotNull(cached.getAssertion());
+        assertEquals(verified.getAssertion().getID(), cached.getAssertion().getID());
+    }
+
+    @Test
+    public void testModifiedAssertionIsVerifiedAgain() throws Exception {
+        String saml = getResource("/saml.xml");
+        X509Certificate[] trustedSigners = getTrustedSigners();
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(10);
+        cache.add(saml, trustedSigners, tomorrow());
+        String modified = saml.replace(">true<", ">false<");
+        assertFalse(saml.equals(modified));
+        TrustAssertion trustAssertion = new TrustAssertion(trustedSigners, modified, cache);
+        assertEquals(0, cache.getHitCount());
+        assertFalse(trustAssertion.isValid());
+        // a different set of trusted signers is also a miss
+        assertFalse(cache.isVerified(saml, new X509Certificate[0]));
+        assertTrue(cache.isVerified(saml, trustedSigners));
+    }
+
+    @Test
+    public void testExpiredAssertionIsRemoved() throws Exception {
+        String saml = getResource("/saml.xml");
+        X509Certificate[] trustedSigners = getTrustedSigners();
+        final long[] now = new long[] { System.currentTimeMillis() };
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(10) {
+            @Override
+            protected long currentTimeMillis() {
+                return now[0];
+            }
+        };
+        cache.add(saml, trustedSigners, new Date(now[0] + 1000));
+        assertTrue(cache.isVerified(saml, trustedSigners));
+        now[0] += 1000;
+        assertFalse(cache.isVerified(saml, trustedSigners));
+        assertEquals(0, cache.size());
+        cache.add(saml, trustedSigners, new Date(now[0] - 1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testReadNotAfter() throws Exception {
+        TrustAssertionReader reader = new TrustAssertionReader(getResource("/saml2.xml"));
+        assertEquals(new DateTime("2015-03-24T22:24:25.937Z").toDate(), reader.getNotAfter());
+        assertEquals(1, reader.getAttributeStatements().size());
+        HashMap<String, String> attributes = reader.getAttributeStatements().get(0);
+        assertEquals("true", attributes.get("Trusted"));
+        assertTrue(attributes.get("AIK_Certificate").startsWith("-----BEGIN CERTIFICATE-----"));
+    }
+
+    /**
+     * Timing comparison of cached and verified assertions; run with
+     * -Dtest=VerifiedAssertionCacheTest#testPerformance and look at the log output
+     */
+    @Ignore
+    @Test
+    public void testPerformance() throws Exception {
+        String saml = getResource("/saml.xml");
+        X509Certificate[] trustedSigners = getTrustedSigners();
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(10);
+        int count = 200;
+        new TrustAssertion(trustedSigners, saml, null); // warm up
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            assertTrue(new TrustAssertion(trustedSigners, saml, null).isValid());
+        }
+        long cold = System.nanoTime() - start;
+        cache.add(saml, trustedSigners, tomorrow());
+        new TrustAssertion(trustedSigners, saml, cache); // warm up
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            assertTrue(new TrustAssertion(trustedSigners, saml, cache).isValid());
+        }
+        long warm = System.nanoTime() - start;
+        log.info("performance: verified {} assertions in {}ms", count, cold / 1000000);
+        log.info("performance: read {} cached assertions in {}ms", count, warm / 1000000);
+    }
+}
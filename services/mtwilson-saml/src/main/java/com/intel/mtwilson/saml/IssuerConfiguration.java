@@ -33,6 +33,7 @@ public class IssuerConfiguration {
     private final String issuerServiceName; // for example "AttestationService"
     private final String jsr105provider;
     private final Integer validitySeconds;
+    private final String signatureAlgorithm;
 
     public IssuerConfiguration(PrivateKey privateKey, Certificate certificate, Configuration configuration) {
         this.privateKey = privateKey;
@@ -42,6 +43,7 @@ public class IssuerConfiguration {
         issuerServiceName = "Cloud Integrity Technology";
         jsr105provider = saml.getJsr105Provider(); // conf.getString(JSR105_PROVIDER, "org.jcp.xml.dsig.internal.dom.XMLDSigRI");
         validitySeconds = saml.getSamlValiditySeconds();
+        signatureAlgorithm = saml.getSamlSignatureAlgorithm();
     }
 
     public IssuerConfiguration(Configuration configuration) throws FileNotFoundException, IOException, KeyStoreException, CertificateException, NoSuchAlgorithmException, UnrecoverableEntryException {
@@ -61,6 +63,7 @@ public class IssuerConfiguration {
         issuerServiceName = "Cloud Integrity Technology";
         jsr105provider = saml.getJsr105Provider(); // conf.getString(JSR105_PROVIDER, "org.jcp.xml.dsig.internal.dom.XMLDSigRI");
         validitySeconds = saml.getSamlValiditySeconds();
+        signatureAlgorithm = saml.getSamlSignatureAlgorithm();
     }
 
     public PrivateKey getPrivateKey() {
@@ -87,6 +90,10 @@ public class IssuerConfiguration {
         return validitySeconds;
     }
 
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
     /**
      * Get a KeyStore object given the keystore filename and password.
      */
@@ -3,6 +3,8 @@ package com.intel.mtwilson.saml;
 import java.io.*;
 import java.security.*;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.xml.crypto.MarshalException;
 import javax.xml.crypto.dsig.CanonicalizationMethod;
 import javax.xml.crypto.dsig.DigestMethod;
@@ -32,10 +34,19 @@ import org.w3c.dom.NodeList;
  * http://capcourse.com/Library/OpenSAML
  */
 public class SAMLSignature {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SAMLSignature.class);
+    public static final String RSA_SHA1 = "RSA-SHA1";
+    public static final String RSA_SHA256 = "RSA-SHA256";
+    public static final String ECDSA_SHA256 = "ECDSA-SHA256";
+    private static final String SIGNATURE_RSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+    private static final String SIGNATURE_ECDSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha256";
+    private static final ConcurrentHashMap<String, Provider> providers = new ConcurrentHashMap<>();
 
     private final XMLSignatureFactory factory;
     private final IssuerConfiguration issuerConfiguration;
     private final KeyInfo keyInfo;
+    private final DigestMethod digestMethod;
+    private final String signatureMethodAlgorithm;
 
     /**
      * Loads a keystore and builds a stock key-info structure for use by base
@@ -46,14 +57,71 @@ public class SAMLSignature {
      * @throws java.io.IOException when reading configuration files from disk
      */
     public SAMLSignature(IssuerConfiguration issuerConfiguration) throws ReflectiveOperationException, GeneralSecurityException, IOException {
+        this(issuerConfiguration, issuerConfiguration.getSignatureAlgorithm());
+    }
+
+    /**
+     * The provider, key info, and digest method are the same for every
+     * assertion, so they are created once here. The signature method and
+     * transforms keep state from the document they were last used with, so
+     * they are created for each signature. An instance is safe to share
+     * between threads and should be kept for as long as the issuer
+     * configuration does not change.
+     *
+     * @param issuerConfiguration with the private key, issuer certificate, and JSR105 provider
+     * @param signatureAlgorithm one of {@link #RSA_SHA1}, {@link #RSA_SHA256}, or {@link #ECDSA_SHA256}; the private key must be of the matching type
+     * @throws java.lang.ReflectiveOperationException could be ClassNotFoundException, IllegalAccessException, or IntantiationException
+     * @throws java.security.GeneralSecurityException if the algorithm is not supported or does not match the private key
+     * @throws java.io.IOException when reading configuration files from disk
+     */
+    public SAMLSignature(IssuerConfiguration issuerConfiguration, String signatureAlgorithm) throws ReflectiveOperationException, GeneralSecurityException, IOException {
         this.issuerConfiguration = issuerConfiguration;
         
-        String providerName = issuerConfiguration.getJsr105Provider();
-        factory = XMLSignatureFactory.getInstance("DOM", (Provider) Class.forName(providerName).newInstance());
-
+        factory = XMLSignatureFactory.getInstance("DOM", getProvider(issuerConfiguration.getJsr105Provider()));
 
         KeyInfoFactory kFactory = factory.getKeyInfoFactory();
         keyInfo = kFactory.newKeyInfo(Collections.singletonList(kFactory.newX509Data(Collections.singletonList(issuerConfiguration.getCertificate()))));
+
+        String keyAlgorithm;
+        if( signatureAlgorithm == null || RSA_SHA1.equalsIgnoreCase(signatureAlgorithm) ) {
+            signatureMethodAlgorithm = SignatureMethod.RSA_SHA1;
+            digestMethod = factory.newDigestMethod(DigestMethod.SHA1, null);
+            keyAlgorithm = "RSA";
+        }
+        else if( RSA_SHA256.equalsIgnoreCase(signatureAlgorithm) ) {
+            signatureMethodAlgorithm = SIGNATURE_RSA_SHA256;
+            digestMethod = factory.newDigestMethod(DigestMethod.SHA256, null);
+            keyAlgorithm = "RSA";
+        }
+        else if( ECDSA_SHA256.equalsIgnoreCase(signatureAlgorithm) ) {
+            signatureMethodAlgorithm = SIGNATURE_ECDSA_SHA256;
+            digestMethod = factory.newDigestMethod(DigestMethod.SHA256, null);
+            keyAlgorithm = "EC";
+        }
+        else {
+            throw new NoSuchAlgorithmException("Unsupported SAML signature algorithm: " + signatureAlgorithm);
+        }
+        PrivateKey privateKey = issuerConfiguration.getPrivateKey();
+        if( privateKey != null && !keyAlgorithm.equals(privateKey.getAlgorithm()) ) {
+            throw new InvalidKeyException("SAML signature algorithm " + signatureAlgorithm + " requires an " + keyAlgorithm + " key but the SAML key is " + privateKey.getAlgorithm());
+        }
+        factory.newSignatureMethod(signatureMethodAlgorithm, null); // fail here instead of on the first assertion if the provider does not support it
+        log.debug("SAML signature algorithm {}", signatureMethodAlgorithm);
+    }
+
+    /**
+     * Instantiates each JSR105 provider class once instead of once per signer.
+     */
+    private static Provider getProvider(String providerName) throws ReflectiveOperationException {
+        Provider provider = providers.get(providerName);
+        if( provider == null ) {
+            provider = (Provider) Class.forName(providerName).newInstance();
+            Provider existing = providers.putIfAbsent(providerName, provider);
+            if( existing != null ) {
+                provider = existing;
+            }
+        }
+        return provider;
     }
 
     /**
@@ -61,6 +129,9 @@ public class SAMLSignature {
      * signature element so that it is in the correct position according to the
      * SAML assertion and protocol schema: it must immediately follow any Issuer
      * and precede everything else.
+     * 
+     * Multiple threads may sign different elements at the same time.
+     * 
      * @param target the XML element to sign, generally the entire document
      * @throws java.security.GeneralSecurityException on failure to use the private key
      * @throws javax.xml.crypto.dsig.XMLSignatureException for invalid document structure
@@ -68,18 +139,16 @@ public class SAMLSignature {
      */
     public void signSAMLObject(Element target)
             throws GeneralSecurityException, XMLSignatureException, MarshalException {
-        Reference ref = factory.newReference("#" + target.getAttribute("ID"),
-                factory.newDigestMethod(DigestMethod.SHA1, null),
-                Collections.singletonList(factory.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null)),
-                null,
-                null);
-
-        SignedInfo signedInfo = factory.newSignedInfo(factory.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE_WITH_COMMENTS,
-                (C14NMethodParameterSpec) null),
-                factory.newSignatureMethod(SignatureMethod.RSA_SHA1, null),
-                Collections.singletonList(ref));
-
-        XMLSignature signature = factory.newXMLSignature(signedInfo, keyInfo);
+        XMLSignature signature;
+        // the factory methods are not required to be thread-safe; what they return is only used by this thread
+        synchronized(factory) {
+            List<Transform> transforms = Collections.singletonList(factory.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null));
+            Reference ref = factory.newReference("#" + target.getAttribute("ID"), digestMethod, transforms, null, null);
+            CanonicalizationMethod canonicalizationMethod = factory.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE_WITH_COMMENTS, (C14NMethodParameterSpec) null);
+            SignatureMethod signatureMethod = factory.newSignatureMethod(signatureMethodAlgorithm, null);
+            SignedInfo signedInfo = factory.newSignedInfo(canonicalizationMethod, signatureMethod, Collections.singletonList(ref));
+            signature = factory.newXMLSignature(signedInfo, keyInfo);
+        }
         DOMSignContext signContext = new DOMSignContext(issuerConfiguration.getPrivateKey(), target);
         signature.sign(signContext);
 
@@ -30,6 +30,7 @@ public class SamlConfiguration {
     public static final String SAML_KEY_PASSWORD = "saml.key.password";
     public static final String SAML_ISSUER = "saml.issuer"; // saml.certificate.dn 
     public static final String SAML_VALIDITY_SECONDS = "saml.validity.seconds";
+    public static final String SAML_SIGNATURE_ALGORITHM = "saml.signature.algorithm"; // RSA-SHA1 (default), RSA-SHA256, or ECDSA-SHA256
     private org.apache.commons.configuration.Configuration conf;
     private File keystoreFile;
 
@@ -50,6 +51,10 @@ public class SamlConfiguration {
         return conf.getInteger(SAML_VALIDITY_SECONDS, 3600);
     }
 
+    public String getSamlSignatureAlgorithm() {
+        return conf.getString(SAML_SIGNATURE_ALGORITHM, "RSA-SHA1");
+    }
+
     public String getSamlKeyAlias() {
         return conf.getString(SAML_KEY_ALIAS);
     }
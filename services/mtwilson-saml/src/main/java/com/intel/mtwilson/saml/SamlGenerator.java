@@ -62,6 +62,7 @@ public class SamlGenerator {
     
     private static class XMLObjectBuilderFactoryHolder {
         private static final XMLObjectBuilderFactory builderFactory = createBuilderFactory();
+        private static final AssertionMarshaller assertionMarshaller = new AssertionMarshaller(); // OpenSAML marshallers are thread-safe; created after the bootstrap above
         
         private static XMLObjectBuilderFactory createBuilderFactory() {
             try {
@@ -92,14 +93,21 @@ public class SamlGenerator {
      * @throws ConfigurationException 
      */
     public SamlGenerator(IssuerConfiguration issuerConfiguration) throws ConfigurationException {
+        this(issuerConfiguration, createSignatureGenerator(issuerConfiguration));
+    }
+    
+    /**
+     * A SamlGenerator keeps the assertion being generated, so each thread
+     * needs its own; the signature generator is thread-safe and is expensive
+     * to create, so it should be shared by all of them.
+     * 
+     * @param issuerConfiguration
+     * @param signatureGenerator created with the same issuer configuration
+     */
+    public SamlGenerator(IssuerConfiguration issuerConfiguration, SAMLSignature signatureGenerator) {
         this.issuerConfiguration = issuerConfiguration;
         this.builderFactory = XMLObjectBuilderFactoryHolder.builderFactory;
-        try {
-            signatureGenerator = new SAMLSignature(issuerConfiguration);
-        } catch (ReflectiveOperationException | GeneralSecurityException | IOException ex) {
-            log.error("Cannot load SAML signature generator: "+ex.getMessage(), ex);
-            throw new ConfigurationException("Failed to initialize SAML signature generator", ex);
-        }
+        this.signatureGenerator = signatureGenerator;
         //setValiditySeconds(Integer.valueOf(configuration.get("saml.validity.seconds", "3600")));
         this.validitySeconds = issuerConfiguration.getValiditySeconds();
         log.debug("IssuerConfiguration validitySeconds: {}", this.validitySeconds);
@@ -107,6 +115,15 @@ public class SamlGenerator {
     }
     
     
+    public static SAMLSignature createSignatureGenerator(IssuerConfiguration issuerConfiguration) throws ConfigurationException {
+        try {
+            return new SAMLSignature(issuerConfiguration);
+        } catch (ReflectiveOperationException | GeneralSecurityException | IOException ex) {
+            log.error("Cannot load SAML signature generator: "+ex.getMessage(), ex);
+            throw new ConfigurationException("Failed to initialize SAML signature generator", ex);
+        }
+    }
+    
     /*
     public void setKeystoreResource(Resource keystoreResource) {
         this.keystoreResource = keystoreResource;
@@ -130,7 +147,7 @@ public class SamlGenerator {
         Assertion assertion = createAssertion(host, tagCertificate, vmMetaData);
 
         log.debug("Generating XML elements for assertion");
-        AssertionMarshaller marshaller = new AssertionMarshaller();
+        AssertionMarshaller marshaller = XMLObjectBuilderFactoryHolder.assertionMarshaller;
         Element plaintextElement = marshaller.marshall(assertion);
         
         log.debug("Generating XML text for assertion");
@@ -162,7 +179,7 @@ public class SamlGenerator {
             samlAssertion = new SamlAssertion();
             Assertion assertion = createAssertion(hosts);
 
-            AssertionMarshaller marshaller = new AssertionMarshaller();
+            AssertionMarshaller marshaller = XMLObjectBuilderFactoryHolder.assertionMarshaller;
             Element plaintextElement = marshaller.marshall(assertion);
 
             String originalAssertionString = XMLHelper.nodeToString(plaintextElement);
@@ -551,7 +568,7 @@ public class SamlGenerator {
         assertion.setSubject(subject);
         assertion.getAttributeStatements().add(createVMAttributes(host, vmMetaData));
 
-        AssertionMarshaller marshaller = new AssertionMarshaller();
+        AssertionMarshaller marshaller = XMLObjectBuilderFactoryHolder.assertionMarshaller;
         Element plaintextElement = marshaller.marshall(assertion);
 
         String originalAssertionString = XMLHelper.nodeToString(plaintextElement);
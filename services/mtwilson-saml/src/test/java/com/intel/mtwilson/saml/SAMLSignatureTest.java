@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.saml;
+
+import com.intel.dcsg.cpg.configuration.PropertiesConfiguration;
+import com.intel.dcsg.cpg.crypto.RsaUtil;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Signs a minimal assertion with each supported signature algorithm and
+ * verifies the result with the issuer public key.
+ */
+public class SAMLSignatureTest {
+    private static final String SAML_NS = "urn:oasis:names:tc:SAML:2.0:assertion";
+
+    private IssuerConfiguration createIssuerConfiguration(KeyPair signingKey) throws Exception {
+        PropertiesConfiguration configuration = new PropertiesConfiguration();
+        configuration.set("saml.issuer", "junit-test");
+        // the certificate is only copied into the key info; the signature is verified below with the signing public key
+        KeyPair issuerKey = RsaUtil.generateRsaKeyPair(1024); // weak key for testing only
+        X509Certificate issuerCert = RsaUtil.generateX509Certificate("CN=test", issuerKey, 1); // test cert valid for 1 day
+        return new IssuerConfiguration(signingKey.getPrivate(), issuerCert, configuration);
+    }
+
+    private KeyPair generateKeyPair(String algorithm, int size) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        generator.initialize(size);
+        return generator.generateKeyPair();
+    }
+
+    private Element createAssertion() throws Exception {
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        Document document = documentBuilderFactory.newDocumentBuilder().newDocument();
+        Element assertion = document.createElementNS(SAML_NS, "saml2:Assertion");
+        assertion.setAttribute("ID", "MapAssertion");
+        assertion.setIdAttribute("ID", true);
+        Element issuer = document.createElementNS(SAML_NS, "saml2:Issuer");
+        issuer.setTextContent("junit-test");
+        assertion.appendChild(issuer);
+        Element subject = document.createElementNS(SAML_NS, "saml2:Subject");
+        subject.setTextContent("host");
+        assertion.appendChild(subject);
+        document.appendChild(assertion);
+        return assertion;
+    }
+
+    private void signAndVerify(String signatureAlgorithm, KeyPair signingKey, String expectedSignatureMethod) throws Exception {
+        SAMLSignature samlSignature = new SAMLSignature(createIssuerConfiguration(signingKey), signatureAlgorithm);
+        Element assertion = createAssertion();
+        samlSignature.signSAMLObject(assertion);
+
+        NodeList signatures = assertion.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+        assertEquals(1, signatures.getLength());
+        Node signatureElement = signatures.item(0);
+        // the signature must immediately follow the issuer
+        assertEquals("Issuer", signatureElement.getPreviousSibling().getLocalName());
+        assertEquals("Subject", signatureElement.getNextSibling().getLocalName());
+
+        XMLSignature signature = verify(signatureElement, signingKey.getPublic());
+        assertEquals(expectedSignatureMethod, signature.getSignedInfo().getSignatureMethod().getAlgorithm());
+
+        // any change to the signed content must invalidate the signature
+        assertion.getElementsByTagNameNS(SAML_NS, "Subject").item(0).setTextContent("other host");
+        DOMValidateContext context = validateContext(signatureElement, signingKey.getPublic());
+        assertFalse(XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(context).validate(context));
+    }
+
+    private DOMValidateContext validateContext(Node signatureElement, PublicKey publicKey) {
+        DOMValidateContext context = new DOMValidateContext(publicKey, signatureElement);
+        context.setIdAttributeNS((Element) signatureElement.getParentNode(), null, "ID");
+        context.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.FALSE); // newer JDKs reject RSA-SHA1 by default
+        return context;
+    }
+
+    private XMLSignature verify(Node signatureElement, PublicKey publicKey) throws Exception {
+        DOMValidateContext context = validateContext(signatureElement, publicKey);
+        XMLSignature signature = XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(context);
+        assertTrue(signature.validate(context));
+        return signature;
+    }
+
+    @Test
+    public void testSignRsaSha1() throws Exception {
+        signAndVerify(SAMLSignature.RSA_SHA1, generateKeyPair("RSA", 1024), "http://www.w3.org/2000/09/xmldsig#rsa-sha1");
+    }
+
+    @Test
+    public void testSignDefaultIsRsaSha1() throws Exception {
+        signAndVerify(null, generateKeyPair("RSA", 1024), "http://www.w3.org/2000/09/xmldsig#rsa-sha1");
+    }
+
+    @Test
+    public void testSignRsaSha256() throws Exception {
+        signAndVerify(SAMLSignature.RSA_SHA256, generateKeyPair("RSA", 1024), "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256");
+    }
+
+    @Test
+    public void testSignEcdsaSha256() throws Exception {
+        signAndVerify(SAMLSignature.ECDSA_SHA256, generateKeyPair("EC", 256), "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha256");
+    }
+
+    @Test(expected = InvalidKeyException.class)
+    public void testEcdsaWithRsaKeyIsRejected() throws Exception {
+        new SAMLSignature(createIssuerConfiguration(generateKeyPair("RSA", 1024)), SAMLSignature.ECDSA_SHA256);
+    }
+
+    @Test(expected = InvalidKeyException.class)
+    public void testRsaWithEcKeyIsRejected() throws Exception {
+        new SAMLSignature(createIssuerConfiguration(generateKeyPair("EC", 256)), SAMLSignature.RSA_SHA256);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.jdbi;
+
+import com.intel.mtwilson.shiro.RequestLogEntry;
+import java.util.Date;
+
+/**
+ * Remembers the digests of signed requests so that a request which was
+ * already received can be rejected. The store is selected with
+ * mtwilson.anti.replay.store: "memory" (default) keeps the digests in this
+ * process, and "jdbc" keeps them in the mw_request_log table so that all
+ * nodes of a cluster sharing the database reject a request that was
+ * received by any of them.
+ */
+public interface AntiReplayStore {
+    
+    /**
+     * Requests dated before this time must be rejected because the store
+     * can no longer tell whether they were already received.
+     * 
+     * @return the start of the anti-replay window, or null if the store has no requests yet
+     * @throws Exception if the store is not available
+     */
+    Date getWindowStart() throws Exception;
+    
+    /**
+     * @param requestLogEntry with the digest of the request
+     * @return true if the request was added, false if a request with the same digest was already received
+     * @throws Exception if the store is not available, or for the jdbc store also when the digest is a duplicate
+     */
+    boolean add(RequestLogEntry requestLogEntry) throws Exception;
+    
+    /**
+     * Forgets requests received before the given time.
+     * 
+     * @param notBefore
+     * @throws Exception if the store is not available
+     */
+    void deleteEarlierThan(Date notBefore) throws Exception;
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.jdbi;
+
+import com.intel.mtwilson.My;
+
+/**
+ * Creates the anti-replay store configured with mtwilson.anti.replay.store,
+ * "memory" (default) or "jdbc". The memory store divides the configured
+ * anti-replay protection window into mtwilson.anti.replay.store.buckets
+ * (default 60) buckets. When the configuration cannot be loaded the jdbc
+ * store is used.
+ */
+public class AntiReplayStoreFactory {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AntiReplayStoreFactory.class);
+    public static final String ANTI_REPLAY_STORE = "mtwilson.anti.replay.store";
+    public static final String ANTI_REPLAY_STORE_BUCKETS = "mtwilson.anti.replay.store.buckets";
+
+    private static class AntiReplayStoreHolder {
+        private static final AntiReplayStore instance = createInstance();
+
+        private static AntiReplayStore createInstance() {
+            try {
+                String store = My.configuration().getConfiguration().getString(ANTI_REPLAY_STORE, "memory");
+                if ("jdbc".equalsIgnoreCase(store)) {
+                    log.debug("Using database anti-replay store");
+                    return new JdbcAntiReplayStore();
+                }
+                if (!"memory".equalsIgnoreCase(store)) {
+                    log.warn("Unknown anti-replay store {}, using memory", store);
+                }
+                int windowMillis = My.configuration().getAntiReplayProtectionWindowMilliseconds();
+                int buckets = My.configuration().getConfiguration().getInt(ANTI_REPLAY_STORE_BUCKETS, 60);
+                log.debug("Using memory anti-replay store with window {} ms and {} buckets", windowMillis, buckets);
+                return new MemoryAntiReplayStore(windowMillis, buckets);
+            } catch (RuntimeException e) {
+                log.warn("Cannot load anti-replay store settings, using database: {}", e.getMessage());
+                return new JdbcAntiReplayStore();
+            }
+        }
+    }
+
+    public static AntiReplayStore getInstance() {
+        return AntiReplayStoreHolder.instance;
+    }
+}
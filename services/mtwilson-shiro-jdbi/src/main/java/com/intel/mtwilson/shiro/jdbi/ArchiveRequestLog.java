@@ -6,8 +6,6 @@ package com.intel.mtwilson.shiro.jdbi;
 
 import com.intel.mtwilson.My;
 import com.intel.mtwilson.launcher.ext.annotations.Background;
-import java.io.IOException;
-import java.sql.SQLException;
 import java.util.Calendar;
 import java.util.Date;
 import org.apache.commons.lang3.time.DurationFormatUtils;
@@ -23,14 +21,14 @@ public class ArchiveRequestLog implements Runnable {
 
     @Override
     public void run() {
-        try (LoginDAO dao = MyJdbi.authz()) {
+        try {
             // get the configured window size (in time) 
             int expiresAfter = My.configuration().getAntiReplayProtectionWindowMilliseconds(); 
             Calendar expirationTime = Calendar.getInstance();
             expirationTime.add(Calendar.MILLISECOND, -expiresAfter);
             // delete requests older than the expiration time
-            dao.deleteRequestLogEntriesEarlierThan(expirationTime.getTime());
-        } catch (IOException | SQLException e) {
+            AntiReplayStoreFactory.getInstance().deleteEarlierThan(expirationTime.getTime());
+        } catch (Exception e) {
             log.error("Error while archiving old requests", e);
         }
     }
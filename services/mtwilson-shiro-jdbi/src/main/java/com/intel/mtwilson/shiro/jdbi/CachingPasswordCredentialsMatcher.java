@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.jdbi;
+
+import com.intel.mtwilson.crypto.password.HashedPassword;
+import com.intel.mtwilson.shiro.authc.password.PasswordCredentialsMatcher;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.authc.credential.CredentialsMatcher;
+
+/**
+ * Verifies passwords with the PasswordCredentialsMatcher and remembers in
+ * the LoginCache which username and password matched which stored password
+ * hash, so the iterated password hash is not computed again for each
+ * request of the same client.
+ * 
+ * The cache key is an HMAC of the username, the password, and the stored
+ * hash, salt, iterations, and algorithm, with a random key that is created
+ * when the server starts; the password is not kept, and a password that was
+ * changed since it was verified does not match a cached entry.
+ */
+public class CachingPasswordCredentialsMatcher implements CredentialsMatcher {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CachingPasswordCredentialsMatcher.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final CredentialsMatcher delegate;
+    private final LoginCache loginCache;
+    private final byte[] hmacKey = new byte[32];
+
+    public CachingPasswordCredentialsMatcher() {
+        this(new PasswordCredentialsMatcher(), LoginCache.getInstance());
+    }
+
+    CachingPasswordCredentialsMatcher(CredentialsMatcher delegate, LoginCache loginCache) {
+        this.delegate = delegate;
+        this.loginCache = loginCache;
+        new SecureRandom().nextBytes(hmacKey);
+    }
+
+    @Override
+    public boolean doCredentialsMatch(AuthenticationToken token, AuthenticationInfo info) {
+        String key = key(token, info);
+        if (key != null && loginCache.get(key, Boolean.class) != null) {
+            return true;
+        }
+        boolean match = delegate.doCredentialsMatch(token, info);
+        if (match && key != null) {
+            loginCache.put(key, Boolean.TRUE);
+        }
+        return match;
+    }
+
+    /**
+     * @return the cache key, or null if the token or credentials are not a username and password
+     */
+    private String key(AuthenticationToken token, AuthenticationInfo info) {
+        if (!(token instanceof UsernamePasswordToken) || !(info.getCredentials() instanceof HashedPassword)) {
+            return null;
+        }
+        UsernamePasswordToken upToken = (UsernamePasswordToken) token;
+        HashedPassword hashedPassword = (HashedPassword) info.getCredentials();
+        if (upToken.getUsername() == null || upToken.getPassword() == null || hashedPassword.getPasswordHash() == null) {
+            return null;
+        }
+        byte[] password = null;
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(hmacKey, "HmacSHA256"));
+            update(mac, upToken.getUsername().getBytes(UTF8));
+            ByteBuffer passwordBuffer = UTF8.encode(CharBuffer.wrap(upToken.getPassword()));
+            password = new byte[passwordBuffer.remaining()];
+            passwordBuffer.get(password);
+            update(mac, password);
+            update(mac, hashedPassword.getPasswordHash());
+            update(mac, hashedPassword.getSalt() == null ? new byte[0] : hashedPassword.getSalt());
+            update(mac, String.valueOf(hashedPassword.getIterations()).getBytes(UTF8));
+            update(mac, String.valueOf(hashedPassword.getAlgorithm()).getBytes(UTF8));
+            return "verified-password:" + Hex.encodeHexString(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            log.debug("Cannot compute verified password cache key", e);
+            return null;
+        } finally {
+            if (password != null) {
+                Arrays.fill(password, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Adds the length before the value so that different fields cannot run
+     * into each other.
+     */
+    private void update(Mac mac, byte[] value) {
+        mac.update(ByteBuffer.allocate(4).putInt(value.length).array());
+        mac.update(value);
+    }
+}
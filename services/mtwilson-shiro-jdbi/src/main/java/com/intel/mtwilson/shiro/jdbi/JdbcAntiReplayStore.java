@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.jdbi;
+
+import com.intel.mtwilson.shiro.RequestLogEntry;
+import java.util.Date;
+
+/**
+ * Keeps the request digests in the mw_request_log table; the unique index
+ * on the digest column rejects a duplicate request received by any node
+ * that shares the database.
+ */
+public class JdbcAntiReplayStore implements AntiReplayStore {
+
+    @Override
+    public Date getWindowStart() throws Exception {
+        try (LoginDAO dao = MyJdbi.authz()) {
+            RequestLogEntry earliest = dao.findRequestLogEntryByEarliestDate();
+            return earliest == null ? null : earliest.getReceived();
+        }
+    }
+
+    @Override
+    public boolean add(RequestLogEntry requestLogEntry) throws Exception {
+        try (LoginDAO dao = MyJdbi.authz()) {
+            dao.insertRequestLogEntry(requestLogEntry);
+            return true;
+        }
+    }
+
+    @Override
+    public void deleteEarlierThan(Date notBefore) throws Exception {
+        try (LoginDAO dao = MyJdbi.authz()) {
+            dao.deleteRequestLogEntriesEarlierThan(notBefore);
+        }
+    }
+}
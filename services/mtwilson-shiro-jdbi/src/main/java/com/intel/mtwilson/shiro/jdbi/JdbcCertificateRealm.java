@@ -19,10 +19,12 @@ import com.intel.mtwilson.user.management.rest.v2.model.Role;
 import com.intel.mtwilson.user.management.rest.v2.model.RolePermission;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginCertificate;
 import com.intel.mtwilson.user.management.rest.v2.model.User;
+import java.io.IOException;
 import java.net.SocketException;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
@@ -50,6 +52,18 @@ public class JdbcCertificateRealm extends AuthorizingRealm {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(JdbcCertificateRealm.class);
     private String localAddress;
+    
+    private static class CertificateLogin {
+        private final UserLoginCertificate userLoginCertificate;
+        private final User user;
+        private final X509Certificate certificate;
+
+        private CertificateLogin(UserLoginCertificate userLoginCertificate, User user, X509Certificate certificate) {
+            this.userLoginCertificate = userLoginCertificate;
+            this.user = user;
+            this.certificate = certificate;
+        }
+    }
 
     public JdbcCertificateRealm() {
         super();
@@ -93,27 +107,14 @@ public class JdbcCertificateRealm extends AuthorizingRealm {
         for (Username username : usernames) {
             log.debug("doGetAuthorizationInfo for username: {}", username.getUsername());
         }
-        try (LoginDAO dao = MyJdbi.authz()) {
-            log.debug("doGetAuthorizationInfo got DAO instance: {}", dao);
+        try {
             Collection<LoginCertificateId> loginCertificateIds = pc.byType(LoginCertificateId.class);
             for (LoginCertificateId loginCertificateId : loginCertificateIds) {
                 log.debug("doGetAuthorizationInfo for login certificate id: {}", loginCertificateId.getLoginCertificateId());
                 
-                
-                List<Role> roles = dao.findRolesByUserLoginCertificateId(loginCertificateId.getLoginCertificateId());
-                HashSet<String> roleIds = new HashSet<>();
-                for (Role role : roles) {
-                    log.debug("doGetAuthorizationInfo found role: {}", role.getRoleName());
-                    roleIds.add(role.getId().toString());
-                    authzInfo.addRole(role.getRoleName());
-                }
-                if (!roleIds.isEmpty()) {
-                    List<RolePermission> permissions = dao.findRolePermissionsByCertificateRoleIds(roleIds);
-                    for (RolePermission permission : permissions) {
-                        log.debug("doGetAuthorizationInfo found permission: {} {} {}", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection());
-                        authzInfo.addStringPermission(String.format("%s:%s:%s", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection()));
-                    }
-                }
+                LoginCache.Authorization authorization = getAuthorization(loginCertificateId);
+                authzInfo.addRoles(authorization.getRoles());
+                authzInfo.addStringPermissions(authorization.getPermissions());
                 
             }
         } catch (Exception e) {
@@ -124,84 +125,138 @@ public class JdbcCertificateRealm extends AuthorizingRealm {
         return authzInfo;
     }
     
+    private LoginCache.Authorization getAuthorization(LoginCertificateId loginCertificateId) throws SQLException, IOException {
+        String key = "certificate-authorization:" + loginCertificateId.getLoginCertificateId();
+        LoginCache.Authorization authorization = LoginCache.getInstance().get(key, LoginCache.Authorization.class);
+        if (authorization != null) {
+            return authorization;
+        }
+        long generation = LoginCache.getInstance().generation();
+        HashSet<String> roleNames = new HashSet<>();
+        HashSet<String> stringPermissions = new HashSet<>();
+        try (LoginDAO dao = MyJdbi.authz()) {
+            log.debug("doGetAuthorizationInfo got DAO instance: {}", dao);
+            List<Role> roles = dao.findRolesByUserLoginCertificateId(loginCertificateId.getLoginCertificateId());
+            HashSet<String> roleIds = new HashSet<>();
+            for (Role role : roles) {
+                log.debug("doGetAuthorizationInfo found role: {}", role.getRoleName());
+                roleIds.add(role.getId().toString());
+                roleNames.add(role.getRoleName());
+            }
+            if (!roleIds.isEmpty()) {
+                List<RolePermission> permissions = dao.findRolePermissionsByCertificateRoleIds(roleIds);
+                for (RolePermission permission : permissions) {
+                    log.debug("doGetAuthorizationInfo found permission: {} {} {}", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection());
+                    stringPermissions.add(String.format("%s:%s:%s", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection()));
+                }
+            }
+        }
+        authorization = new LoginCache.Authorization(roleNames, stringPermissions);
+        LoginCache.getInstance().put(key, authorization, generation);
+        return authorization;
+    }
+    
     @Override
     protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
         X509AuthenticationToken xToken = (X509AuthenticationToken) token;
-        UserLoginCertificate userLoginCertificate = null;
-        User user = null;
+        CertificateLogin login = null;
         if( xToken.getPrincipal() instanceof Fingerprint ) {
             Fingerprint fingerprint = (Fingerprint)xToken.getPrincipal();
             log.debug("doGetAuthenticationInfo for fingerprint {}", fingerprint.getHex());
-            try (LoginDAO dao = MyJdbi.authz()) {
-                // anti-replay protection: check the database to see if we have already received a request with this signature
-                // it should not affect legitimate clients because if they send the same logical request twice, the timestamp and
-                // nonce would be different which would result in a different digest and signature and thus would still have be unique
-                Credential credential = (Credential)xToken.getCredentials();
-                RequestLogEntry requestLogEntry = new RequestLogEntry();
-                requestLogEntry.setDigest(Base64.encodeBase64String(credential.getDigest()));
-                requestLogEntry.setSource(xToken.getHost());
-                requestLogEntry.setInstance(localAddress);
-                requestLogEntry.setReceived(new Date());
-                requestLogEntry.setContent(xToken.getSignatureInput().toString());
-                try {
-                    // first, look at the date header in the request and compare to our current time; if it's earlier than
-                    // the earliest entry in the request log, then we have to reject it in order to prevent replay attacks
-                    // of messages that we already deleted from the request log.
-                    // clients MUST include a date header in the request and cover it with the signature.
-                    // clients SHOULD synchronize their clocks (at least for the requests) with our server clock to avoid rejecting messages unnecessarily
-                    if( xToken.getSignatureInput().headers == null || !xToken.getSignatureInput().headers.containsKey("Date") ) {
-                        log.debug("request does not include date header");
-                        return null;
-                    }
-                    // second, check if the user has specified an expiration time for the request and enforce it
-                    if( xToken.getSignatureInput().headers.containsKey("Expires") ) {
-                        Date expires = Rfc822Date.parse(xToken.getSignatureInput().headers.get("Expires"));
-                        if( requestLogEntry.getReceived().after(expires) ) {
-                            log.debug("request has expired; must be rejected");
-                            return null;
-                        }
-                    }
-                    // third, ensure that the request is not earlier than the start of our anti-replay protection window (represented by the earliest request received in the request log) 
-                    Date requestDate = Rfc822Date.parse(xToken.getSignatureInput().headers.get("Date"));
-                    RequestLogEntry earliest = dao.findRequestLogEntryByEarliestDate();
-                    if( earliest != null && requestDate.before(earliest.getReceived()) ) {
-                        log.debug("request date is before anti-replay window; must be rejected");
+            // anti-replay protection: check the anti-replay store to see if we have already received a request with this signature
+            // it should not affect legitimate clients because if they send the same logical request twice, the timestamp and
+            // nonce would be different which would result in a different digest and signature and thus would still have be unique
+            Credential credential = (Credential)xToken.getCredentials();
+            RequestLogEntry requestLogEntry = new RequestLogEntry();
+            requestLogEntry.setDigest(Base64.encodeBase64String(credential.getDigest()));
+            requestLogEntry.setSource(xToken.getHost());
+            requestLogEntry.setInstance(localAddress);
+            requestLogEntry.setReceived(new Date());
+            requestLogEntry.setContent(xToken.getSignatureInput().toString());
+            try {
+                // first, look at the date header in the request and compare to our current time; if it's earlier than
+                // the earliest entry in the request log, then we have to reject it in order to prevent replay attacks
+                // of messages that we already deleted from the request log.
+                // clients MUST include a date header in the request and cover it with the signature.
+                // clients SHOULD synchronize their clocks (at least for the requests) with our server clock to avoid rejecting messages unnecessarily
+                if( xToken.getSignatureInput().headers == null || !xToken.getSignatureInput().headers.containsKey("Date") ) {
+                    log.debug("request does not include date header");
+                    return null;
+                }
+                // second, check if the user has specified an expiration time for the request and enforce it
+                if( xToken.getSignatureInput().headers.containsKey("Expires") ) {
+                    Date expires = Rfc822Date.parse(xToken.getSignatureInput().headers.get("Expires"));
+                    if( requestLogEntry.getReceived().after(expires) ) {
+                        log.debug("request has expired; must be rejected");
                         return null;
                     }
-                    // fourth, try to insert the request into the log - it will fail if there is already a request with the same digest
-                    log.debug("inserting request log entry with digest {} from source {} received at {} by {}", requestLogEntry.getDigest(), requestLogEntry.getSource(), requestLogEntry.getReceived(), requestLogEntry.getInstance());
-                    dao.insertRequestLogEntry(requestLogEntry);
-                    // so at this point, we have inserted a new request into the request log 
-                    // and it's protected from replay because the request digest is in the log so
-                    // if a duplicate request comes in then it won't be able to insert (above)
                 }
-                catch(Exception e) {
-                    log.debug("Cannot insert request log entry", e); // probably a duplicate, but could also be database connection issue
+                // third, ensure that the request is not earlier than the start of our anti-replay protection window (represented by the earliest request the store still remembers) 
+                Date requestDate = Rfc822Date.parse(xToken.getSignatureInput().headers.get("Date"));
+                AntiReplayStore antiReplayStore = AntiReplayStoreFactory.getInstance();
+                Date windowStart = antiReplayStore.getWindowStart();
+                if( windowStart != null && requestDate.before(windowStart) ) {
+                    log.debug("request date is before anti-replay window; must be rejected");
                     return null;
                 }
-                
-                if( Sha256Digest.isValid(fingerprint.getBytes())) {
-                    userLoginCertificate = dao.findUserLoginCertificateBySha256(fingerprint.getBytes()); 
+                // fourth, try to add the request to the store - it will fail if there is already a request with the same digest
+                log.debug("inserting request log entry with digest {} from source {} received at {} by {}", requestLogEntry.getDigest(), requestLogEntry.getSource(), requestLogEntry.getReceived(), requestLogEntry.getInstance());
+                if( !antiReplayStore.add(requestLogEntry) ) {
+                    log.debug("request digest was already received; must be rejected");
+                    return null;
+                }
+                // so at this point, we have inserted a new request into the request log 
+                // and it's protected from replay because the request digest is in the log so
+                // if a duplicate request comes in then it won't be able to insert (above)
+            }
+            catch(Exception e) {
+                log.debug("Cannot insert request log entry", e); // probably a duplicate, but could also be database connection issue
+                return null;
+            }
+            String key = "certificate-login:" + fingerprint.getHex();
+            login = LoginCache.getInstance().get(key, CertificateLogin.class);
+            if( login == null ) {
+                long generation = LoginCache.getInstance().generation();
+                UserLoginCertificate userLoginCertificate = null;
+                User user = null;
+                try (LoginDAO dao = MyJdbi.authz()) {
+                    if( Sha256Digest.isValid(fingerprint.getBytes())) {
+                        userLoginCertificate = dao.findUserLoginCertificateBySha256(fingerprint.getBytes()); 
+                    }
+                    else if( Sha1Digest.isValid(fingerprint.getBytes())) {
+                        userLoginCertificate = dao.findUserLoginCertificateBySha1(fingerprint.getBytes()); 
+                    }
+                    else {
+                        log.error("Unsupported digest length {}", fingerprint.getBytes().length);
+                    }
+                    if(userLoginCertificate != null && userLoginCertificate.isEnabled() ) {
+                        user = dao.findUserById(userLoginCertificate.getUserId());
+                    }
+        //            xToken.
+        //            userLoginCertificate = dao.findUserLoginCertificateByUsername(username);
+                } catch (Exception e) {
+                    log.debug("doGetAuthenticationInfo error", e);
+                    throw new AuthenticationException("Internal server error", e); 
                 }
-                else if( Sha1Digest.isValid(fingerprint.getBytes())) {
-                    userLoginCertificate = dao.findUserLoginCertificateBySha1(fingerprint.getBytes()); 
+                if (userLoginCertificate == null || user == null) {
+                    return null;
                 }
-                else {
-                    log.error("Unsupported digest length {}", fingerprint.getBytes().length);
+                try {
+                    X509Certificate decodeDerCertificate = X509Util.decodeDerCertificate(userLoginCertificate.getCertificate());
+                    log.trace("Decoded DER certificate public key is {}", decodeDerCertificate.getPublicKey().toString());
+                    login = new CertificateLogin(userLoginCertificate, user, decodeDerCertificate);
                 }
-                if(userLoginCertificate != null && userLoginCertificate.isEnabled() ) {
-                    user = dao.findUserById(userLoginCertificate.getUserId());
+                catch(CertificateException e) {
+                    throw new AuthenticationException("Invalid certificate", e); 
                 }
-    //            xToken.
-    //            userLoginCertificate = dao.findUserLoginCertificateByUsername(username);
-            } catch (Exception e) {
-                log.debug("doGetAuthenticationInfo error", e);
-                throw new AuthenticationException("Internal server error", e); 
+                LoginCache.getInstance().put(key, login, generation);
             }
         }
-        if (userLoginCertificate == null || user == null) {
+        if (login == null) {
             return null;
         }
+        UserLoginCertificate userLoginCertificate = login.userLoginCertificate;
+        User user = login.user;
         
         
         log.debug("doGetAuthenticationInfo found user login certificate id {}", userLoginCertificate.getId());
@@ -212,14 +267,7 @@ public class JdbcCertificateRealm extends AuthorizingRealm {
         // should we add the Fingerprint principal?  or is it enough to use LoginCertificateId ?
         X509AuthenticationInfo info = new X509AuthenticationInfo();
         info.setPrincipals(principals);
-        try {
-            X509Certificate decodeDerCertificate = X509Util.decodeDerCertificate(userLoginCertificate.getCertificate());
-            log.trace("Decoded DER certificate public key is {}", decodeDerCertificate.getPublicKey().toString());
-            info.setCredentials(X509Util.decodeDerCertificate(userLoginCertificate.getCertificate()));
-        }
-        catch(CertificateException e) {
-            throw new AuthenticationException("Invalid certificate", e); 
-        }
+        info.setCredentials(login.certificate);
 
         return info;
     }
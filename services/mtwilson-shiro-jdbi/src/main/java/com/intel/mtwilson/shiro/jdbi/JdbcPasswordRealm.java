@@ -14,6 +14,8 @@ import com.intel.mtwilson.user.management.rest.v2.model.Role;
 import com.intel.mtwilson.user.management.rest.v2.model.RolePermission;
 import com.intel.mtwilson.user.management.rest.v2.model.User;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginPassword;
+import java.io.IOException;
+import java.sql.SQLException;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -35,6 +37,16 @@ import org.apache.shiro.subject.SimplePrincipalCollection;
 public class JdbcPasswordRealm extends AuthorizingRealm {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(JdbcPasswordRealm.class);
+    
+    private static class PasswordLogin {
+        private final UserLoginPassword userLoginPassword;
+        private final User user;
+
+        private PasswordLogin(UserLoginPassword userLoginPassword, User user) {
+            this.userLoginPassword = userLoginPassword;
+            this.user = user;
+        }
+    }
 
     @Override
     public boolean supports(AuthenticationToken token) {
@@ -56,27 +68,15 @@ public class JdbcPasswordRealm extends AuthorizingRealm {
         for (Username username : usernames) {
             log.debug("doGetAuthorizationInfo for username: {}", username.getUsername());
         }
-        try (LoginDAO dao = MyJdbi.authz()) {
+        try {
             
             Collection<LoginPasswordId> loginPasswordIds = pc.byType(LoginPasswordId.class);
             for (LoginPasswordId loginPasswordId : loginPasswordIds) {
                 log.debug("doGetAuthorizationInfo for login password id: {}", loginPasswordId.getLoginPasswordId());
                 
-                
-                List<Role> roles = dao.findRolesByUserLoginPasswordId(loginPasswordId.getLoginPasswordId());
-                HashSet<String> roleIds = new HashSet<>();
-                for (Role role : roles) {
-                    log.debug("doGetAuthorizationInfo found role: {}", role.getRoleName());
-                    roleIds.add(role.getId().toString());
-                    authzInfo.addRole(role.getRoleName());
-                }
-                if (!roleIds.isEmpty()) {
-                    List<RolePermission> permissions = dao.findRolePermissionsByPasswordRoleIds(roleIds);
-                    for (RolePermission permission : permissions) {
-                        log.debug("doGetAuthorizationInfo found permission: {} {} {}", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection());
-                        authzInfo.addStringPermission(String.format("%s:%s:%s", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection()));
-                    }
-                }
+                LoginCache.Authorization authorization = getAuthorization(loginPasswordId);
+                authzInfo.addRoles(authorization.getRoles());
+                authzInfo.addStringPermissions(authorization.getPermissions());
                 
             }
         } catch (Exception e) {
@@ -87,6 +87,36 @@ public class JdbcPasswordRealm extends AuthorizingRealm {
         return authzInfo;
     }
     
+    private LoginCache.Authorization getAuthorization(LoginPasswordId loginPasswordId) throws SQLException, IOException {
+        String key = "password-authorization:" + loginPasswordId.getLoginPasswordId();
+        LoginCache.Authorization authorization = LoginCache.getInstance().get(key, LoginCache.Authorization.class);
+        if (authorization != null) {
+            return authorization;
+        }
+        long generation = LoginCache.getInstance().generation();
+        HashSet<String> roleNames = new HashSet<>();
+        HashSet<String> stringPermissions = new HashSet<>();
+        try (LoginDAO dao = MyJdbi.authz()) {
+            List<Role> roles = dao.findRolesByUserLoginPasswordId(loginPasswordId.getLoginPasswordId());
+            HashSet<String> roleIds = new HashSet<>();
+            for (Role role : roles) {
+                log.debug("doGetAuthorizationInfo found role: {}", role.getRoleName());
+                roleIds.add(role.getId().toString());
+                roleNames.add(role.getRoleName());
+            }
+            if (!roleIds.isEmpty()) {
+                List<RolePermission> permissions = dao.findRolePermissionsByPasswordRoleIds(roleIds);
+                for (RolePermission permission : permissions) {
+                    log.debug("doGetAuthorizationInfo found permission: {} {} {}", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection());
+                    stringPermissions.add(String.format("%s:%s:%s", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection()));
+                }
+            }
+        }
+        authorization = new LoginCache.Authorization(roleNames, stringPermissions);
+        LoginCache.getInstance().put(key, authorization, generation);
+        return authorization;
+    }
+    
     @Override
     protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
         UsernamePasswordToken upToken = (UsernamePasswordToken) token;
@@ -96,51 +126,47 @@ public class JdbcPasswordRealm extends AuthorizingRealm {
             throw new AccountException("Username must be provided");
         }
         log.debug("doGetAuthenticationInfo for username {}", username);
-        UserLoginPassword userLoginPassword;
-        User user;
-        UsernameWithPermissions usernameWithPermissions = null;
-        try (LoginDAO dao = MyJdbi.authz()) {
-            userLoginPassword = dao.findUserLoginPasswordByUsernameEnabled(username, true);
-            if( userLoginPassword != null && userLoginPassword.isEnabled() ) {
-                user = dao.findUserById(userLoginPassword.getUserId());
-                
-                // now get the permissions and associate with the username
-                HashSet<String> stringPermissions = new HashSet<>();
-                List<Role> roles = dao.findRolesByUserLoginPasswordId(userLoginPassword.getId());
-                if (!roles.isEmpty()) {
-                    HashSet<String> roleIds = new HashSet<>();
-                    for(Role role : roles) {
-                        roleIds.add(role.getId().toString());
-                    }
-                    List<RolePermission> permissions = dao.findRolePermissionsByPasswordRoleIds(roleIds);
-                    for (RolePermission permission : permissions) {
-                        log.debug("doGetAuthorizationInfo found permission: {} {} {}", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection());
-                        stringPermissions.add(String.format("%s:%s:%s", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection()));
-                    }
+        String key = "password-login:" + username;
+        PasswordLogin login = LoginCache.getInstance().get(key, PasswordLogin.class);
+        if (login == null) {
+            long generation = LoginCache.getInstance().generation();
+            UserLoginPassword userLoginPassword;
+            User user = null;
+            try (LoginDAO dao = MyJdbi.authz()) {
+                userLoginPassword = dao.findUserLoginPasswordByUsernameEnabled(username, true);
+                if( userLoginPassword != null && userLoginPassword.isEnabled() ) {
+                    user = dao.findUserById(userLoginPassword.getUserId());
                 }
-                
-                usernameWithPermissions = new UsernameWithPermissions(user.getUsername(), stringPermissions);
-                
-                
-            } else {
-                user = null;
+            } catch (Exception e) {
+                log.debug("doGetAuthenticationInfo error", e);
+                throw new AuthenticationException("Internal server error", e);
+            }
+            if (userLoginPassword == null || user == null ) {
+                return null;
             }
+            login = new PasswordLogin(userLoginPassword, user);
+            LoginCache.getInstance().put(key, login, generation);
+        }
+        UserLoginPassword userLoginPassword = login.userLoginPassword;
+        User user = login.user;
+        LoginPasswordId loginPasswordId = new LoginPasswordId(user.getUsername(), userLoginPassword.getUserId(), userLoginPassword.getId());
+        
+        // now get the permissions and associate with the username
+        UsernameWithPermissions usernameWithPermissions;
+        try {
+            LoginCache.Authorization authorization = getAuthorization(loginPasswordId);
+            usernameWithPermissions = new UsernameWithPermissions(user.getUsername(), new HashSet<>(authorization.getPermissions()));
         } catch (Exception e) {
             log.debug("doGetAuthenticationInfo error", e);
             throw new AuthenticationException("Internal server error", e);
         }
-        if (userLoginPassword == null || user == null ) {
-            return null;
-        }
 
         log.debug("doGetAuthenticationInfo found user login password id {}", userLoginPassword.getId());
         SimplePrincipalCollection principals = new SimplePrincipalCollection();
         principals.add(new UserId(userLoginPassword.getUserId()), getName());
 //        principals.add(new Username(username), getName());
-        if( usernameWithPermissions != null ) {
-            principals.add(usernameWithPermissions, getName());
-        }
-        principals.add(new LoginPasswordId(user.getUsername(), userLoginPassword.getUserId(), userLoginPassword.getId()), getName());
+        principals.add(usernameWithPermissions, getName());
+        principals.add(loginPasswordId, getName());
 
         //HashedPassword hashedPassword = new HashedPassword();
         
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.jdbi;
+
+import com.intel.mtwilson.My;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps what the JDBC realms looked up for a login (the login record, the
+ * user, and the roles and permissions) and which passwords were recently
+ * verified, so that clients sending many requests with the same identity
+ * do not need the database and the password hash for each request.
+ * 
+ * Entries expire after mtwilson.shiro.login.cache.seconds (default 60) and
+ * at most mtwilson.shiro.login.cache.max (default 1000) are kept; 0
+ * disables the cache. The user management repositories clear the cache
+ * whenever they change users, logins, roles, or permissions; changes made
+ * by another node or directly in the database are seen when the entries
+ * expire.
+ *
+ * A value read from the database is cached with
+ * {@link #put(String, Object, long)} and the {@link #generation()} captured
+ * before the read, so a value read before the cache was cleared is not
+ * cached after it.
+ */
+public class LoginCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LoginCache.class);
+    public static final String LOGIN_CACHE_MAX = "mtwilson.shiro.login.cache.max";
+    public static final String LOGIN_CACHE_SECONDS = "mtwilson.shiro.login.cache.seconds";
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long expiresMillis;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+
+    private static class Entry {
+        private final Object value;
+        private final long expires;
+
+        private Entry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * The role names and permission strings of a login.
+     */
+    static class Authorization {
+        private final Set<String> roles;
+        private final Set<String> permissions;
+
+        Authorization(Set<String> roles, Set<String> permissions) {
+            this.roles = Collections.unmodifiableSet(roles);
+            this.permissions = Collections.unmodifiableSet(permissions);
+        }
+
+        Set<String> getRoles() {
+            return roles;
+        }
+
+        Set<String> getPermissions() {
+            return permissions;
+        }
+    }
+
+    private static class LoginCacheHolder {
+        private static final LoginCache instance = createInstance();
+
+        private static LoginCache createInstance() {
+            int maxEntries = 1000;
+            int seconds = 60;
+            try {
+                maxEntries = My.configuration().getConfiguration().getInt(LOGIN_CACHE_MAX, maxEntries);
+                seconds = My.configuration().getConfiguration().getInt(LOGIN_CACHE_SECONDS, seconds);
+            } catch (RuntimeException e) {
+                log.warn("Cannot load login cache settings, using defaults: {}", e.getMessage());
+            }
+            return new LoginCache(maxEntries, seconds * 1000L);
+        }
+    }
+
+    /**
+     * @param maxEntries maximum number of entries; 0 disables the cache
+     * @param expiresMillis how long to keep an entry
+     */
+    LoginCache(int maxEntries, long expiresMillis) {
+        this.maxEntries = maxEntries;
+        this.expiresMillis = expiresMillis;
+    }
+
+    public static LoginCache getInstance() {
+        return LoginCacheHolder.instance;
+    }
+
+    /**
+     * @param key
+     * @param type
+     * @return the cached value if it is not expired and has the given type, otherwise null
+     */
+    public <T> T get(String key, Class<T> type) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (entry.expires <= System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            misses.incrementAndGet();
+            return null;
+        }
+        if (!type.isInstance(entry.value)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return type.cast(entry.value);
+    }
+
+    /**
+     * @return the current generation; capture it before reading a value from the database and pass it to {@link #put(String, Object, long)}
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Caches a value that does not depend on what {@link #clear()} invalidates,
+     * such as a value whose key includes everything it was computed from.
+     */
+    public void put(String key, Object value) {
+        putEntry(key, value);
+    }
+
+    /**
+     * Caches a value read from the database unless the cache was cleared since
+     * {@code loadGeneration}.
+     *
+     * @param key
+     * @param value
+     * @param loadGeneration value of {@link #generation()} before the value was read
+     */
+    public void put(String key, Object value, long loadGeneration) {
+        Entry entry = putEntry(key, value);
+        // a clear may have happened while we were reading a database snapshot that did not yet include the change
+        if (entry != null && generation.get() != loadGeneration) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private Entry putEntry(String key, Object value) {
+        if (maxEntries <= 0 || value == null) {
+            return null;
+        }
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            log.debug("Login cache is full with {} entries; clearing", entries.size());
+            entries.clear();
+        }
+        Entry entry = new Entry(value, System.currentTimeMillis() + expiresMillis);
+        entries.put(key, entry);
+        return entry;
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.jdbi;
+
+import com.intel.mtwilson.shiro.RequestLogEntry;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps the request digests of the anti-replay window in this process, so
+ * checking a request does not need the database. Each digest is also listed
+ * in the time bucket in which it was received; when the window slides past
+ * a bucket, all of the bucket's digests are removed together.
+ * 
+ * The window starts when the store is created, so requests dated before the
+ * server started are rejected, like requests dated before the window.
+ * Nodes of a cluster do not share this store; a cluster should use the
+ * jdbc store.
+ */
+public class MemoryAntiReplayStore implements AntiReplayStore {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MemoryAntiReplayStore.class);
+    private static final int CONCURRENCY_LEVEL = 64;
+    
+    private final ConcurrentHashMap<String, Long> digests = new ConcurrentHashMap<>(1024, 0.75f, CONCURRENCY_LEVEL);
+    private final ConcurrentHashMap<Long, ConcurrentLinkedQueue<String>> buckets = new ConcurrentHashMap<>();
+    private final long windowMillis;
+    private final long bucketMillis;
+    private final long created;
+    private volatile long nextExpiry;
+
+    /**
+     * @param windowMillis how long to remember a request
+     * @param bucketCount number of buckets in the window; a request is remembered for up to one more bucket than the window
+     */
+    MemoryAntiReplayStore(long windowMillis, int bucketCount) {
+        this.windowMillis = windowMillis;
+        this.bucketMillis = Math.max(1, windowMillis / Math.max(1, bucketCount));
+        this.created = System.currentTimeMillis();
+        this.nextExpiry = created + bucketMillis;
+    }
+
+    @Override
+    public Date getWindowStart() {
+        return new Date(Math.max(created, System.currentTimeMillis() - windowMillis));
+    }
+
+    @Override
+    public boolean add(RequestLogEntry requestLogEntry) {
+        long now = System.currentTimeMillis();
+        if (now >= nextExpiry) {
+            nextExpiry = now + bucketMillis;
+            deleteEarlierThan(now - windowMillis);
+        }
+        long received = requestLogEntry.getReceived() == null ? now : requestLogEntry.getReceived().getTime();
+        if (digests.putIfAbsent(requestLogEntry.getDigest(), received) != null) {
+            return false;
+        }
+        Long bucketId = received / bucketMillis;
+        ConcurrentLinkedQueue<String> bucket = buckets.get(bucketId);
+        if (bucket == null) {
+            ConcurrentLinkedQueue<String> newBucket = new ConcurrentLinkedQueue<>();
+            bucket = buckets.putIfAbsent(bucketId, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+        bucket.add(requestLogEntry.getDigest());
+        return true;
+    }
+
+    /**
+     * Removes the buckets that end at or before the given time; a bucket
+     * that only partly precedes it is kept until the next time.
+     */
+    @Override
+    public void deleteEarlierThan(Date notBefore) {
+        deleteEarlierThan(notBefore.getTime());
+    }
+
+    private void deleteEarlierThan(long notBefore) {
+        long lastExpiredBucketId = notBefore / bucketMillis - 1;
+        int removed = 0;
+        Iterator<Map.Entry<Long, ConcurrentLinkedQueue<String>>> it = buckets.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, ConcurrentLinkedQueue<String>> entry = it.next();
+            if (entry.getKey() <= lastExpiredBucketId) {
+                it.remove();
+                for (String digest : entry.getValue()) {
+                    digests.remove(digest);
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            log.debug("Removed {} request digests received before {}", removed, notBefore);
+        }
+    }
+
+    public int size() {
+        return digests.size();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.jdbi;
+
+import com.intel.mtwilson.crypto.password.HashedPassword;
+import java.util.Arrays;
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authc.SimpleAuthenticationInfo;
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.authc.credential.CredentialsMatcher;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks when a verified password is taken from the login cache.
+ */
+public class CachingPasswordCredentialsMatcherTest {
+
+    /**
+     * Accepts the password "password" and counts how often it is called.
+     */
+    private static class CountingMatcher implements CredentialsMatcher {
+        private int count = 0;
+
+        @Override
+        public boolean doCredentialsMatch(AuthenticationToken token, AuthenticationInfo info) {
+            count++;
+            return Arrays.equals("password".toCharArray(), ((UsernamePasswordToken) token).getPassword());
+        }
+    }
+
+    private AuthenticationInfo info(byte[] passwordHash) {
+        HashedPassword hashedPassword = new HashedPassword();
+        hashedPassword.setAlgorithm("SHA256");
+        hashedPassword.setSalt(new byte[]{1, 2, 3, 4});
+        hashedPassword.setIterations(1000);
+        hashedPassword.setPasswordHash(passwordHash);
+        return new SimpleAuthenticationInfo("admin", hashedPassword, "test");
+    }
+
+    @Test
+    public void testVerifiedPasswordCached() {
+        CountingMatcher delegate = new CountingMatcher();
+        CachingPasswordCredentialsMatcher matcher = new CachingPasswordCredentialsMatcher(delegate, new LoginCache(10, 60000));
+        AuthenticationInfo info = info(new byte[]{1, 1, 1});
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("admin", "password"), info));
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("admin", "password"), info));
+        assertEquals(1, delegate.count);
+        // a wrong password is checked every time
+        assertFalse(matcher.doCredentialsMatch(new UsernamePasswordToken("admin", "wrong"), info));
+        assertFalse(matcher.doCredentialsMatch(new UsernamePasswordToken("admin", "wrong"), info));
+        assertEquals(3, delegate.count);
+    }
+
+    @Test
+    public void testChangedPasswordHashNotCached() {
+        CountingMatcher delegate = new CountingMatcher();
+        CachingPasswordCredentialsMatcher matcher = new CachingPasswordCredentialsMatcher(delegate, new LoginCache(10, 60000));
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("admin", "password"), info(new byte[]{1, 1, 1})));
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("admin", "password"), info(new byte[]{2, 2, 2})));
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("other", "password"), info(new byte[]{2, 2, 2})));
+        assertEquals(3, delegate.count);
+    }
+
+    @Test
+    public void testDisabledCache() {
+        CountingMatcher delegate = new CountingMatcher();
+        LoginCache loginCache = new LoginCache(0, 60000);
+        CachingPasswordCredentialsMatcher matcher = new CachingPasswordCredentialsMatcher(delegate, loginCache);
+        AuthenticationInfo info = info(new byte[]{1, 1, 1});
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("admin", "password"), info));
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("admin", "password"), info));
+        assertEquals(2, delegate.count);
+        assertEquals(0, loginCache.size());
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.jdbi;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a login read before the cache was cleared is not cached.
+ */
+public class LoginCacheTest {
+
+    @Test
+    public void testValueReadBeforeClearIsNotCached() {
+        LoginCache loginCache = new LoginCache(10, 60000);
+        long generation = loginCache.generation();
+        // the user management repositories change a login while it is being read
+        loginCache.clear();
+        loginCache.put("password-login:admin", "stale", generation);
+        assertNull(loginCache.get("password-login:admin", String.class));
+        assertEquals(0, loginCache.size());
+    }
+
+    @Test
+    public void testValueReadAfterClearIsCached() {
+        LoginCache loginCache = new LoginCache(10, 60000);
+        loginCache.clear();
+        long generation = loginCache.generation();
+        loginCache.put("password-login:admin", "current", generation);
+        assertEquals("current", loginCache.get("password-login:admin", String.class));
+        loginCache.clear();
+        assertNull(loginCache.get("password-login:admin", String.class));
+    }
+}
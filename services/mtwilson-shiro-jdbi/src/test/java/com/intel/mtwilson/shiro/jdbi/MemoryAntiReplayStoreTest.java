@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.jdbi;
+
+import com.intel.mtwilson.shiro.RequestLogEntry;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the memory anti-replay store rejects duplicate digests and
+ * forgets requests after the window.
+ */
+public class MemoryAntiReplayStoreTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MemoryAntiReplayStoreTest.class);
+
+    private RequestLogEntry request(String digest, long received) {
+        RequestLogEntry requestLogEntry = new RequestLogEntry();
+        requestLogEntry.setDigest(digest);
+        requestLogEntry.setReceived(new Date(received));
+        return requestLogEntry;
+    }
+
+    @Test
+    public void testDuplicateRejected() {
+        MemoryAntiReplayStore store = new MemoryAntiReplayStore(60000, 60);
+        long now = System.currentTimeMillis();
+        assertTrue(store.add(request("digest1", now)));
+        assertFalse(store.add(request("digest1", now + 10)));
+        assertTrue(store.add(request("digest2", now + 10)));
+        assertEquals(2, store.size());
+        assertFalse(store.getWindowStart().after(new Date()));
+    }
+
+    @Test
+    public void testExpiredBucketsRemoved() {
+        MemoryAntiReplayStore store = new MemoryAntiReplayStore(60000, 60);
+        long now = System.currentTimeMillis();
+        store.add(request("old", now - 120000));
+        store.add(request("recent", now - 30000));
+        store.deleteEarlierThan(new Date(now - 60000));
+        assertEquals(1, store.size());
+        assertTrue(store.add(request("old", now)));
+        assertFalse(store.add(request("recent", now)));
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        final MemoryAntiReplayStore store = new MemoryAntiReplayStore(300000, 60);
+        final int requests = 100000;
+        final AtomicInteger accepted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        // every thread sends the same digests, so each one is accepted only once
+                        for (int i = 0; i < requests; i++) {
+                            if (store.add(request("digest" + i, System.currentTimeMillis()))) {
+                                accepted.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            log.debug("Checked {} requests in {} ms", 8 * requests, elapsed / 1000000.0);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(requests, accepted.get());
+        assertEquals(requests, store.size());
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.tls.policy.factory;
+
+import com.intel.dcsg.cpg.tls.policy.TlsPolicy;
+import com.intel.mtwilson.My;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the TLS policy resolved for each host so that refreshing the trust
+ * status of a host does not walk the TLS policy providers, load the policy
+ * from mw_tls_policy, and create new trust managers every time.
+ *
+ * An entry is only used while the global, default, and allowed TLS policy
+ * settings are the same as when it was resolved. Any change to the
+ * mw_tls_policy table must call {@link #invalidateAll()}, and entries also
+ * expire after mtwilson.tls.policy.cache.seconds (default 300) in case the
+ * table was changed by another server.
+ *
+ * A cached TlsPolicy is the same instance every time the host is attested,
+ * so clients that keep state per TlsPolicy, such as the trust agent client
+ * pool, can use {@link #contains(TlsPolicy)} to find out if their state would
+ * ever be reused.
+ */
+public class TlsPolicyCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TlsPolicyCache.class);
+    public static final String TLS_POLICY_CACHE_MAX = "mtwilson.tls.policy.cache.max";
+    public static final String TLS_POLICY_CACHE_SECONDS = "mtwilson.tls.policy.cache.seconds";
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<PolicyReference, Boolean> policies = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long expiresMillis;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong(); // incremented by invalidateAll
+
+    static class Entry {
+        private final String settings;
+        private final long expires;
+        private final TlsPolicyChoiceReport report;
+        private final TlsPolicy tlsPolicy;
+
+        private Entry(String settings, long expires, TlsPolicyChoiceReport report, TlsPolicy tlsPolicy) {
+            this.settings = settings;
+            this.expires = expires;
+            this.report = report;
+            this.tlsPolicy = tlsPolicy;
+        }
+
+        public TlsPolicyChoiceReport getReport() {
+            return report;
+        }
+
+        public TlsPolicy getTlsPolicy() {
+            return tlsPolicy;
+        }
+    }
+
+    /**
+     * Compares TLS policies by identity, because a new policy created from the
+     * same descriptor does not share the state of the cached one.
+     */
+    private static class PolicyReference {
+        private final TlsPolicy tlsPolicy;
+
+        private PolicyReference(TlsPolicy tlsPolicy) {
+            this.tlsPolicy = tlsPolicy;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof PolicyReference && ((PolicyReference) obj).tlsPolicy == tlsPolicy;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(tlsPolicy);
+        }
+    }
+
+    private static class TlsPolicyCacheHolder {
+        private static final TlsPolicyCache instance = createInstance();
+
+        private static TlsPolicyCache createInstance() {
+            int maxEntries = 10000;
+            int seconds = 300;
+            try {
+                maxEntries = My.configuration().getConfiguration().getInt(TLS_POLICY_CACHE_MAX, maxEntries);
+                seconds = My.configuration().getConfiguration().getInt(TLS_POLICY_CACHE_SECONDS, seconds);
+            } catch (RuntimeException e) {
+                log.warn("Cannot load TLS policy cache settings, using defaults: {}", e.getMessage());
+            }
+            return new TlsPolicyCache(maxEntries, seconds * 1000L);
+        }
+    }
+
+    /**
+     * @param maxEntries maximum number of hosts; 0 disables the cache
+     * @param expiresMillis how long to keep an entry
+     */
+    TlsPolicyCache(int maxEntries, long expiresMillis) {
+        this.maxEntries = maxEntries;
+        this.expiresMillis = expiresMillis;
+    }
+
+    public static TlsPolicyCache getInstance() {
+        return TlsPolicyCacheHolder.instance;
+    }
+
+    /**
+     * @param key from {@link TlsPolicyFactory#getCacheKey()}
+     * @param settings the current global, default, and allowed TLS policy settings
+     * @return the resolved policy, or null if it is not cached, is expired, or was resolved with different settings
+     */
+    Entry get(String key, String settings) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (entry.expires <= System.currentTimeMillis() || !entry.settings.equals(settings)) {
+            remove(key, entry);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * @return a value to pass to put; read it before resolving the policy
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param key from {@link TlsPolicyFactory#getCacheKey()}
+     * @param settings the global, default, and allowed TLS policy settings used to resolve the policy
+     * @param generation from {@link #getGeneration()} before the policy was resolved, so that a policy resolved from data that was changed in the meantime is not kept
+     * @param report
+     * @param tlsPolicy
+     */
+    void put(String key, String settings, long generation, TlsPolicyChoiceReport report, TlsPolicy tlsPolicy) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            log.debug("TLS policy cache is full with {} entries; clearing", entries.size());
+            clear();
+        }
+        Entry entry = new Entry(settings, System.currentTimeMillis() + expiresMillis, report, tlsPolicy);
+        if (tlsPolicy != null) {
+            policies.put(new PolicyReference(tlsPolicy), Boolean.TRUE);
+        }
+        Entry replaced = entries.put(key, entry);
+        if (replaced != null && replaced.tlsPolicy != null && replaced.tlsPolicy != tlsPolicy) {
+            policies.remove(new PolicyReference(replaced.tlsPolicy));
+        }
+        if (this.generation.get() != generation) {
+            remove(key, entry);
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        if (entries.remove(key, entry) && entry.tlsPolicy != null) {
+            policies.remove(new PolicyReference(entry.tlsPolicy));
+        }
+    }
+
+    private void clear() {
+        entries.clear();
+        policies.clear();
+    }
+
+    /**
+     * @param tlsPolicy
+     * @return true if the policy is the cached instance for a host, so the same instance will be used for the next attestation of that host
+     */
+    public boolean contains(TlsPolicy tlsPolicy) {
+        return tlsPolicy != null && policies.containsKey(new PolicyReference(tlsPolicy));
+    }
+
+    /**
+     * Must be called after any change to the mw_tls_policy table, because a
+     * policy may be shared by any number of hosts.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
@@ -27,6 +27,7 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 import org.apache.commons.codec.binary.Base64;
 
 /**
@@ -51,7 +52,8 @@ import org.apache.commons.codec.binary.Base64;
  * or getTlsPolicyChoiceReport again you will get newly generated TlsPolicy and
  * TlsPolicyChoiceReport instances.  If you want to re-use those instances you
  * should cache them because creating the TlsPolicy may involve database access
- * to load stored policies.
+ * to load stored policies. Subclasses that return a key from getCacheKey
+ * have the TlsPolicy from getTlsPolicy cached for them in TlsPolicyCache.
  * 
  * The default strategy looks in the following locations, in order:
  * 
@@ -84,15 +86,61 @@ public abstract class TlsPolicyFactory {
         return providers;
     }
     
+    /**
+     * Subclasses can override this method to allow the TlsPolicy for their
+     * subject to be kept in TlsPolicyCache. The key must include every
+     * field of the subject that the providers use to choose the policy.
+     * 
+     * @return a key for the subject, or null if the policy must be resolved every time
+     */
+    protected String getCacheKey() {
+        return null;
+    }
+    
+    /**
+     * Subclasses that override createTlsPolicy to update the subject with
+     * the chosen policy should override this method to do the same when
+     * the TlsPolicy comes from the cache instead.
+     * 
+     * @param report the report the cached TlsPolicy was created from
+     */
+    protected void useCachedTlsPolicy(TlsPolicyChoiceReport report) {
+    }
+    
     public TlsPolicy getTlsPolicy() {
+        String cacheKey = getCacheKey();
+        TlsPolicyCache cache = TlsPolicyCache.getInstance();
+        String settings = null;
+        long generation = 0;
+        if( cacheKey != null ) {
+            settings = getTlsPolicySettings();
+            TlsPolicyCache.Entry cached = cache.get(cacheKey, settings);
+            if( cached != null ) {
+                log.debug("Using cached TLS policy for host {}", getHostDescriptor().getInternetAddress());
+                useCachedTlsPolicy(cached.getReport());
+                return cached.getTlsPolicy();
+            }
+            generation = cache.getGeneration();
+        }
         TlsPolicyChoiceReport tlsPolicyChoiceReport = getTlsPolicyChoiceReport();
         if( tlsPolicyChoiceReport == null ) {
             throw new TlsPolicyNotFoundException(getHostDescriptor().getInternetAddress()); 
         }
         TlsPolicy tlsPolicy = createTlsPolicy(tlsPolicyChoiceReport); // throws illegal argument exception if cannot create it
+        // TRUST_FIRST_CERTIFICATE policies remember the first certificate they see, so they are not shared
+        if( cacheKey != null && !TRUST_FIRST_CERTIFICATE.equals(getTlsPolicyType(tlsPolicyChoiceReport)) ) {
+            cache.put(cacheKey, settings, generation, tlsPolicyChoiceReport, tlsPolicy);
+        }
         return tlsPolicy;
     }
     
+    /**
+     * @return the configuration settings that affect the choice of policy for every host
+     */
+    private String getTlsPolicySettings() {
+        return My.configuration().getGlobalTlsPolicyId() + "|" + My.configuration().getDefaultTlsPolicyId() + "|" + new TreeSet<>(My.configuration().getTlsPolicyAllow());
+    }
+    
     public TlsPolicyChoiceReport getTlsPolicyChoiceReport() {
 //        TlsPolicyChoiceReport report = new TlsPolicyChoiceReport();
         // find out which policy types are allowed
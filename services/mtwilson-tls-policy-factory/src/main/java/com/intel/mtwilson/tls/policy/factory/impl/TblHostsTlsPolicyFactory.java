@@ -27,6 +27,7 @@ import java.net.MalformedURLException;
 public class TblHostsTlsPolicyFactory extends TlsPolicyFactory {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TblHostsTlsPolicyFactory.class);
+    private TblHosts tblHosts;
     private TblHostsObjectTlsPolicy objectTlsPolicyProvider;
     private StoredTlsPolicyProvider.HostDescriptor hostDescriptor;
     private StoredVendorTlsPolicyProvider.VendorDescriptor vendorDescriptor;
@@ -49,6 +50,7 @@ public class TblHostsTlsPolicyFactory extends TlsPolicyFactory {
 //            log.warn("Cannot write debug log", e);
 //        }
 //        this.txtHostRecord = txtHostRecord;
+        this.tblHosts = tblHosts;
         this.objectTlsPolicyProvider = new TblHostsObjectTlsPolicy(tblHosts);
         this.hostDescriptor = new TblHostsHostDescriptor(tblHosts);
         this.vendorDescriptor = new TblHostsVendorDescriptor(tblHosts);
@@ -61,6 +63,28 @@ public class TblHostsTlsPolicyFactory extends TlsPolicyFactory {
         objectTlsPolicyProvider.setTlsPolicyChoice(report.getChoice());
         return super.createTlsPolicy(report);
     }
+
+    /**
+     * A host record with a tls policy descriptor or a Mt Wilson 1.x policy
+     * name is being registered or migrated, so its policy is not cached.
+     * Otherwise the policy is chosen by the policy id on the record, or by
+     * the stored record and vendor for the same host, or by the
+     * configuration which TlsPolicyFactory checks separately.
+     */
+    @Override
+    protected String getCacheKey() {
+        boolean hasTlsPolicyId = tblHosts.getTlsPolicyId() != null && !tblHosts.getTlsPolicyId().isEmpty();
+        boolean hasTlsPolicyName = tblHosts.getTlsPolicyName() != null && !tblHosts.getTlsPolicyName().isEmpty();
+        if (tblHosts.getTlsPolicyDescriptor() != null || (!hasTlsPolicyId && hasTlsPolicyName)) {
+            return null;
+        }
+        return "TblHosts|" + hostDescriptor.getHostId() + "|" + hostDescriptor.getInternetAddress().toString() + "|" + vendorDescriptor.getVendorProtocol() + "|" + (hasTlsPolicyId ? tblHosts.getTlsPolicyId() : "");
+    }
+
+    @Override
+    protected void useCachedTlsPolicy(TlsPolicyChoiceReport report) {
+        objectTlsPolicyProvider.setTlsPolicyChoice(report.getChoice());
+    }
     
     /*
      @Override
@@ -23,6 +23,7 @@ import com.intel.mtwilson.tls.policy.jdbi.TlsPolicyJdbiFactory;
 import com.intel.mtwilson.tls.policy.jdbi.TlsPolicyRecord;
 import com.intel.mtwilson.tls.policy.codec.impl.JsonTlsPolicyWriter;
 import com.intel.mtwilson.tls.policy.factory.TlsPolicyFactoryUtil;
+import com.intel.mtwilson.tls.policy.factory.TlsPolicyCache;
 import java.io.IOException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -181,6 +182,7 @@ public class StoredTlsPolicyProvider implements TlsPolicyProvider {
                 tlsPolicyRecord.setContent(writer.write(tlsPolicyDescriptor));
                 tlsPolicyRecord.setComment("automatic migration");
                 dao.insertTlsPolicy(tlsPolicyRecord);
+                TlsPolicyCache.getInstance().invalidateAll();
                 hostRecord.setTlsPolicyId(tlsPolicyRecord.getId().toString());
                 try {
                     My.jpa().mwHosts().edit(hostRecord);
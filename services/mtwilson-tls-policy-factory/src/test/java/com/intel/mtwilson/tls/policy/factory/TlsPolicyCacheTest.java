@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.tls.policy.factory;
+
+import com.intel.dcsg.cpg.tls.policy.TlsPolicy;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks when a cached TLS policy is used; the policy itself is not
+ * needed for that so most of these tests do not create one.
+ */
+public class TlsPolicyCacheTest {
+
+    private TlsPolicy createTlsPolicy() {
+        return (TlsPolicy) Proxy.newProxyInstance(TlsPolicy.class.getClassLoader(), new Class<?>[] { TlsPolicy.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                }
+                if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testCachedWhileSettingsUnchanged() {
+        TlsPolicyCache cache = new TlsPolicyCache(10, 60000);
+        TlsPolicyChoiceReport report = new TlsPolicyChoiceReport();
+        cache.put("host1", "global|default|[certificate]", cache.getGeneration(), report, null);
+        assertSame(report, cache.get("host1", "global|default|[certificate]").getReport());
+        assertNull(cache.get("host2", "global|default|[certificate]"));
+        assertEquals(1, cache.getHitCount());
+        // a different global policy replaces the cached choice
+        assertNull(cache.get("host1", "other|default|[certificate]"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        TlsPolicyCache cache = new TlsPolicyCache(10, 60000);
+        cache.put("host1", "settings", cache.getGeneration(), new TlsPolicyChoiceReport(), null);
+        cache.invalidateAll();
+        assertNull(cache.get("host1", "settings"));
+        // a policy resolved before the invalidation is not kept
+        long generation = cache.getGeneration();
+        cache.invalidateAll();
+        cache.put("host1", "settings", generation, new TlsPolicyChoiceReport(), null);
+        assertNull(cache.get("host1", "settings"));
+    }
+
+    @Test
+    public void testExpiredAndDisabled() {
+        TlsPolicyCache expired = new TlsPolicyCache(10, 0);
+        expired.put("host1", "settings", expired.getGeneration(), new TlsPolicyChoiceReport(), null);
+        assertNull(expired.get("host1", "settings"));
+        TlsPolicyCache disabled = new TlsPolicyCache(0, 60000);
+        disabled.put("host1", "settings", disabled.getGeneration(), new TlsPolicyChoiceReport(), null);
+        assertEquals(0, disabled.size());
+    }
+
+    @Test
+    public void testContains() {
+        TlsPolicyCache cache = new TlsPolicyCache(10, 60000);
+        TlsPolicy tlsPolicy = createTlsPolicy();
+        cache.put("host1", "settings", cache.getGeneration(), new TlsPolicyChoiceReport(), tlsPolicy);
+        assertTrue(cache.contains(tlsPolicy));
+        assertFalse(cache.contains(createTlsPolicy()));
+        assertFalse(cache.contains(null));
+        // a policy resolved again for the same host replaces the cached instance
+        TlsPolicy replacement = createTlsPolicy();
+        cache.put("host1", "settings", cache.getGeneration(), new TlsPolicyChoiceReport(), replacement);
+        assertFalse(cache.contains(tlsPolicy));
+        assertTrue(cache.contains(replacement));
+        cache.invalidateAll();
+        assertFalse(cache.contains(replacement));
+    }
+}
@@ -7,43 +7,153 @@ package com.intel.mtwilson.policy;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Applies rules to a host report.
+ * 
+ * By default rules are applied one at a time in iteration order. Two optional
+ * modes are available:
+ * 
+ * Parallel: rules are applied concurrently on a shared fork/join pool. Rules
+ * are required to be reusable and not keep state (see {@link Rule}) so they
+ * are independent of each other. Results are returned in the same order as
+ * in sequential mode.
+ * 
+ * Fail-fast: once a rule has failed, remaining rules whose markers have all
+ * already failed are skipped and have no result in the report. The
+ * result of isTrustedForMarker is the same as without fail-fast, but
+ * the report does not list every fault, so only use it when the caller
+ * just needs the trust status.
+ * 
  * @author jbuhacoff
  */
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
 @JsonIgnoreProperties(ignoreUnknown=true)
 public class PolicyEngine {
     private Logger log = LoggerFactory.getLogger(getClass());
+    private static final ForkJoinPool pool = new ForkJoinPool();
+    private boolean parallel = false;
+    private boolean failFast = false;
+    
+    public PolicyEngine() { }
+    
+    public PolicyEngine(boolean parallel, boolean failFast) {
+        this.parallel = parallel;
+        this.failFast = failFast;
+    }
+    
+    public boolean isParallel() { return parallel; }
+    public void setParallel(boolean parallel) { this.parallel = parallel; }
+    public boolean isFailFast() { return failFast; }
+    public void setFailFast(boolean failFast) { this.failFast = failFast; }
     
     // this is the normal case - given a list of policies, apply them all, and combine the results into one report.
     public List<RuleResult> applyAll(HostReport hostReport, Rule... rules) {
         log.debug("PolicyEngine.applyAll(... {} rules)", rules.length);
-        ArrayList<RuleResult> list = new ArrayList<RuleResult>();
-        for(Rule rule : rules) {
-            log.debug("Applying rule {}", rule.getClass().getName());
-            RuleResult result = rule.apply(hostReport);
-            list.add(result);
-        }
-        return list;
+        return applyRules(hostReport, Arrays.asList(rules));
     }
     
     public List<RuleResult> applyAll(HostReport hostReport, Set<Rule> rules) {
         log.debug("PolicyEngine.applyAll(set of {} rules)", rules.size());
+        return applyRules(hostReport, rules);
+    }
+    
+    private List<RuleResult> applyRules(HostReport hostReport, Collection<Rule> rules) {
+        if( parallel && rules.size() > 1 ) {
+            return applyRulesParallel(hostReport, rules);
+        }
         ArrayList<RuleResult> list = new ArrayList<RuleResult>();
+        Set<String> failedMarkers = new HashSet<String>();
         for(Rule rule : rules) {
+            if( failFast && isDecided(rule, failedMarkers) ) {
+                log.debug("Skipping rule {}, markers already failed", rule.getClass().getName());
+                continue;
+            }
             log.debug("Applying rule {}", rule.getClass().getName());
             RuleResult result = rule.apply(hostReport);
             list.add(result);
+            if( failFast ) {
+                addFailedMarkers(result, failedMarkers);
+            }
         }
         return list;
     }
     
+    private List<RuleResult> applyRulesParallel(final HostReport hostReport, Collection<Rule> rules) {
+        final Set<String> failedMarkers = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+        ArrayList<Callable<RuleResult>> tasks = new ArrayList<Callable<RuleResult>>(rules.size());
+        for(final Rule rule : rules) {
+            tasks.add(new Callable<RuleResult>() {
+                @Override
+                public RuleResult call() {
+                    if( failFast && isDecided(rule, failedMarkers) ) {
+                        return null;
+                    }
+                    RuleResult result = rule.apply(hostReport);
+                    if( failFast ) {
+                        addFailedMarkers(result, failedMarkers);
+                    }
+                    return result;
+                }
+            });
+        }
+        ArrayList<RuleResult> list = new ArrayList<RuleResult>(tasks.size());
+        try {
+            // invokeAll returns the futures in the same order as the tasks
+            for(Future<RuleResult> future : pool.invokeAll(tasks)) {
+                RuleResult result = future.get();
+                if( result != null ) {
+                    list.add(result);
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while applying rules", e);
+        }
+        catch(ExecutionException e) {
+            // same exception the rule would have thrown in sequential mode
+            if( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException)e.getCause();
+            }
+            if( e.getCause() instanceof Error ) {
+                throw (Error)e.getCause();
+            }
+            throw new IllegalStateException("Cannot apply rule", e.getCause());
+        }
+        log.debug("Applied {} of {} rules in parallel", list.size(), tasks.size());
+        return list;
+    }
+    
+    /**
+     * @return true if the rule has markers and every one of them has already failed
+     */
+    private boolean isDecided(Rule rule, Set<String> failedMarkers) {
+        String[] markers = rule.getMarkers();
+        return markers != null && markers.length > 0 && failedMarkers.containsAll(Arrays.asList(markers));
+    }
+    
+    private void addFailedMarkers(RuleResult result, Set<String> failedMarkers) {
+        String[] markers = result.getRule().getMarkers();
+        if( !result.isTrusted() && markers != null ) {
+            failedMarkers.addAll(Arrays.asList(markers));
+        }
+    }
+    
     // this was formerly called "applyAny" because if ANY ONE of the policies says isTrusted then it's fine. 
     // however,  this is not the right spot to check that... so where do we check it ??? in the app?? that
     // would then be a feature of the app. which is fine.
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.policy;
+
+import com.intel.mtwilson.model.XmlMeasurementLog;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide cache of the whitelist rules compiled from the database for
+ * a bios and vmm MLE pair, so hosts sharing the same whitelist share the same
+ * immutable rule set instead of querying the MLE, pcr manifest, module
+ * manifest and measurement xml tables on every attestation.
+ *
+ * Rules are required to be reusable (see {@link Rule}), so sharing them
+ * between hosts and threads is safe.
+ *
+ * The whitelist service calls {@link #invalidateMle(Integer)} after it
+ * commits a change to an MLE or anything linked to it, and the host service
+ * calls {@link #invalidateHost(Integer)} after it changes or deletes a host's
+ * host-specific manifests. Loads that start before an invalidation are not
+ * cached when they complete (see {@link #generation()}). An invalidation only
+ * reaches the cache of the server that made the change, and a change that was
+ * not committed yet when it was invalidated can still be cached by a load in
+ * between, so every entry also expires after a configurable time (default
+ * {@value #DEFAULT_EXPIRES_SECONDS} seconds, see {@link #setExpiresMillis(long)}).
+ *
+ * Usage:
+ * <pre>
+ * TrustPolicyCache cache = TrustPolicyCache.getInstance();
+ * TrustPolicyCache.Key key = new TrustPolicyCache.Key("intel", biosMleId, vmmMleId, "SHA1", null);
+ * Set&lt;Rule&gt; rules = cache.get(key);
+ * if( rules == null ) {
+ *     long generation = cache.generation();
+ *     rules = cache.put(key, loadRules(), generation);
+ * }
+ * </pre>
+ */
+public class TrustPolicyCache {
+    private static final Logger log = LoggerFactory.getLogger(TrustPolicyCache.class);
+    private static final TrustPolicyCache instance = new TrustPolicyCache();
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final int DEFAULT_EXPIRES_SECONDS = 300;
+
+    private final ConcurrentHashMap<Key,Cached<Set<Rule>>> rules = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer,Cached<Boolean>> hostSpecificMle = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer,Cached<XmlMeasurementLog>> measurementLogs = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private volatile long expiresMillis = DEFAULT_EXPIRES_SECONDS * 1000L;
+
+    private static class Cached<T> {
+        private final T value;
+        private final long expires;
+
+        private Cached(T value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        private boolean isExpired() {
+            return expires <= System.currentTimeMillis();
+        }
+    }
+
+    public static TrustPolicyCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Identifies a compiled whitelist. The host id is only part of the key
+     * when one of the MLEs has host-specific modules; otherwise it must be
+     * null so all hosts on the same whitelist share one entry.
+     */
+    public static class Key {
+        private final String vendor;
+        private final Integer biosMleId;
+        private final Integer vmmMleId;
+        private final String pcrBank;
+        private final Integer hostId;
+
+        public Key(String vendor, Integer biosMleId, Integer vmmMleId, String pcrBank, Integer hostId) {
+            this.vendor = vendor;
+            this.biosMleId = biosMleId;
+            this.vmmMleId = vmmMleId;
+            this.pcrBank = pcrBank;
+            this.hostId = hostId;
+        }
+
+        public String getVendor() { return vendor; }
+        public Integer getBiosMleId() { return biosMleId; }
+        public Integer getVmmMleId() { return vmmMleId; }
+        public String getPcrBank() { return pcrBank; }
+        public Integer getHostId() { return hostId; }
+
+        @Override
+        public boolean equals(Object obj) {
+            if( this == obj ) { return true; }
+            if( !(obj instanceof Key) ) { return false; }
+            Key other = (Key)obj;
+            return equal(vendor, other.vendor) && equal(biosMleId, other.biosMleId) && equal(vmmMleId, other.vmmMleId)
+                    && equal(pcrBank, other.pcrBank) && equal(hostId, other.hostId);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + (vendor == null ? 0 : vendor.hashCode());
+            hash = 31 * hash + (biosMleId == null ? 0 : biosMleId.hashCode());
+            hash = 31 * hash + (vmmMleId == null ? 0 : vmmMleId.hashCode());
+            hash = 31 * hash + (pcrBank == null ? 0 : pcrBank.hashCode());
+            hash = 31 * hash + (hostId == null ? 0 : hostId.hashCode());
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("vendor=%s bios=%s vmm=%s bank=%s host=%s", vendor, biosMleId, vmmMleId, pcrBank, hostId);
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * @param maxEntries maximum number of compiled whitelists to keep; zero disables caching
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param expiresMillis how long to keep an entry; applies to entries cached after the call
+     */
+    public void setExpiresMillis(long expiresMillis) {
+        this.expiresMillis = expiresMillis;
+    }
+
+    private <T> Cached<T> cached(T value) {
+        return new Cached<>(value, System.currentTimeMillis() + expiresMillis);
+    }
+
+    /**
+     * @return the cached value, or null if there is none or it expired
+     */
+    private static <K,T> T get(ConcurrentHashMap<K,Cached<T>> map, K key) {
+        Cached<T> entry = map.get(key);
+        if( entry == null ) {
+            return null;
+        }
+        if( entry.isExpired() ) {
+            map.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * @return the current generation; capture it before loading rules from the database and pass it to {@link #put(Key, Set, long)}
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * @param key
+     * @return an unmodifiable set of rules, or null if not cached
+     */
+    public Set<Rule> get(Key key) {
+        return get(rules, key);
+    }
+
+    /**
+     * Caches the rules unless an invalidation happened since {@code loadGeneration}
+     * or the cache is full.
+     *
+     * @param key
+     * @param loaded the rules loaded from the database
+     * @param loadGeneration value of {@link #generation()} before the rules were loaded
+     * @return an unmodifiable set of rules to use for the key; this is the cached set if another thread loaded it first
+     */
+    public Set<Rule> put(Key key, Set<Rule> loaded, long loadGeneration) {
+        Set<Rule> ruleset = Collections.unmodifiableSet(new HashSet<>(loaded));
+        if( rules.size() >= maxEntries ) {
+            log.debug("Trust policy cache is full, not caching {}", key);
+            return ruleset;
+        }
+        Cached<Set<Rule>> entry = cached(ruleset);
+        Cached<Set<Rule>> existing = rules.putIfAbsent(key, entry);
+        if( existing != null ) {
+            if( !existing.isExpired() || !rules.replace(key, existing, entry) ) {
+                return existing.value;
+            }
+        }
+        // an invalidation may have removed entries while we were loading from a database snapshot that did not yet include the change
+        if( generation.get() != loadGeneration ) {
+            rules.remove(key, entry);
+        }
+        return ruleset;
+    }
+
+    /**
+     * @param mleId
+     * @return whether the MLE has host-specific modules, or null if not known yet
+     */
+    public Boolean isHostSpecificMle(Integer mleId) {
+        return get(hostSpecificMle, mleId);
+    }
+
+    public void setHostSpecificMle(Integer mleId, boolean hostSpecific, long loadGeneration) {
+        Cached<Boolean> entry = cached(hostSpecific);
+        hostSpecificMle.put(mleId, entry);
+        if( generation.get() != loadGeneration ) {
+            hostSpecificMle.remove(mleId, entry);
+        }
+    }
+
+    /**
+     * The parsed whitelist measurement log of an MLE is shared by every
+     * policy that includes the MLE, including the ones built for MLE
+     * verification which are not cached as rule sets.
+     * 
+     * @param mleId
+     * @return the parsed measurement log, or null if not cached; callers must not modify it
+     */
+    public XmlMeasurementLog getMeasurementLog(Integer mleId) {
+        return get(measurementLogs, mleId);
+    }
+
+    public void putMeasurementLog(Integer mleId, XmlMeasurementLog measurementLog, long loadGeneration) {
+        if( measurementLogs.size() >= maxEntries ) {
+            return;
+        }
+        Cached<XmlMeasurementLog> entry = cached(measurementLog);
+        measurementLogs.put(mleId, entry);
+        if( generation.get() != loadGeneration ) {
+            measurementLogs.remove(mleId, entry);
+        }
+    }
+
+    /**
+     * Call after committing any change to the MLE record or to its pcr
+     * manifests, module manifests, or measurement xml.
+     * @param mleId
+     */
+    public void invalidateMle(Integer mleId) {
+        generation.incrementAndGet();
+        hostSpecificMle.remove(mleId);
+        measurementLogs.remove(mleId);
+        Iterator<Key> it = rules.keySet().iterator();
+        while(it.hasNext()) {
+            Key key = it.next();
+            if( mleId.equals(key.biosMleId) || mleId.equals(key.vmmMleId) ) {
+                it.remove();
+            }
+        }
+        log.debug("Invalidated cached trust policies for MLE {}", mleId);
+    }
+
+    /**
+     * Call after any change to a host's host-specific manifests or when the host is deleted.
+     * @param hostId
+     */
+    public void invalidateHost(Integer hostId) {
+        generation.incrementAndGet();
+        Iterator<Key> it = rules.keySet().iterator();
+        while(it.hasNext()) {
+            if( hostId.equals(it.next().hostId) ) {
+                it.remove();
+            }
+        }
+        log.debug("Invalidated cached trust policies for host {}", hostId);
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        hostSpecificMle.clear();
+        measurementLogs.clear();
+        rules.clear();
+        log.debug("Invalidated all cached trust policies");
+    }
+}
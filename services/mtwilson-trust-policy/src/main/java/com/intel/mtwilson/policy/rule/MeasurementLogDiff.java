@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.policy.rule;
+
+import com.intel.mtwilson.model.Measurement;
+import com.intel.mtwilson.model.VmMeasurement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Compares an actual measurement log to a whitelist in time proportional to
+ * their combined size, for the rules that check a log for unexpected,
+ * missing and modified entries.
+ *
+ * Measurements are equal when their digests are equal, so the unexpected and
+ * missing lists are the same as {@code ArrayList.removeAll} would produce in
+ * each direction, in the same order and with the same duplicates, but are
+ * found with a hash lookup per entry instead of a scan of the other list.
+ *
+ * When a labeler is given, an unexpected entry and a missing entry with the
+ * same label (ignoring case) are reported as a modified entry instead, and
+ * removed from the unexpected and missing lists, in the same way as the
+ * nested label comparison the rules used to perform.
+ *
+ * @param <T> Measurement or VmMeasurement
+ */
+public class MeasurementLogDiff<T> {
+
+    /**
+     * Provides the label of a measurement; the measurement types do not share an interface for it.
+     *
+     * @param <T>
+     */
+    public static interface Labeler<T> {
+        String getLabel(T measurement);
+    }
+
+    public static final Labeler<Measurement> MEASUREMENT_LABEL = new Labeler<Measurement>() {
+        @Override
+        public String getLabel(Measurement measurement) {
+            return measurement.getLabel();
+        }
+    };
+
+    public static final Labeler<VmMeasurement> VM_MEASUREMENT_LABEL = new Labeler<VmMeasurement>() {
+        @Override
+        public String getLabel(VmMeasurement measurement) {
+            return measurement.getLabel();
+        }
+    };
+
+    /**
+     * An actual entry whose label matches a whitelist entry with a different digest.
+     *
+     * @param <T>
+     */
+    public static class Modified<T> {
+        private final T actual;
+        private final T expected;
+
+        public Modified(T actual, T expected) {
+            this.actual = actual;
+            this.expected = expected;
+        }
+
+        public T getActual() {
+            return actual;
+        }
+
+        public T getExpected() {
+            return expected;
+        }
+    }
+
+    private final ArrayList<T> unexpected;
+    private final ArrayList<T> missing;
+    private final ArrayList<Modified<T>> modified = new ArrayList<>();
+
+    private MeasurementLogDiff(List<T> actual, List<T> expected, Labeler<T> labeler) {
+        ArrayList<T> actualUnexpected = subtract(actual, expected);
+        ArrayList<T> actualMissing = subtract(expected, actual);
+        if (labeler != null && !actualUnexpected.isEmpty() && !actualMissing.isEmpty()) {
+            HashMap<String, List<T>> missingByLabel = new HashMap<>();
+            for (T entry : actualMissing) {
+                String label = foldCase(labeler.getLabel(entry));
+                if (label == null) {
+                    continue;
+                }
+                List<T> entries = missingByLabel.get(label);
+                if (entries == null) {
+                    entries = new ArrayList<>(1);
+                    missingByLabel.put(label, entries);
+                }
+                entries.add(entry);
+            }
+            HashMap<T, Integer> modifiedActual = new HashMap<>();
+            HashMap<T, Integer> modifiedExpected = new HashMap<>();
+            for (T entry : actualUnexpected) {
+                String label = foldCase(labeler.getLabel(entry));
+                List<T> matches = label == null ? null : missingByLabel.get(label);
+                if (matches == null) {
+                    continue;
+                }
+                for (T match : matches) {
+                    modified.add(new Modified<>(entry, match));
+                    increment(modifiedActual, entry);
+                    increment(modifiedExpected, match);
+                }
+            }
+            if (!modified.isEmpty()) {
+                actualUnexpected = removeFirstOccurrences(actualUnexpected, modifiedActual);
+                actualMissing = removeFirstOccurrences(actualMissing, modifiedExpected);
+            }
+        }
+        this.unexpected = actualUnexpected;
+        this.missing = actualMissing;
+    }
+
+    /**
+     * @param actual measurements reported by the host or vm
+     * @param expected whitelist measurements
+     * @param labeler to also find modified entries, or null to only find unexpected and missing entries
+     * @return the differences between the two lists
+     */
+    public static <T> MeasurementLogDiff<T> compare(List<T> actual, List<T> expected, Labeler<T> labeler) {
+        return new MeasurementLogDiff<>(actual, expected, labeler);
+    }
+
+    /**
+     * @return actual entries that are not in the whitelist and were not reported as modified
+     */
+    public ArrayList<T> getUnexpected() {
+        return unexpected;
+    }
+
+    /**
+     * @return whitelist entries that are not in the actual log and were not reported as modified
+     */
+    public ArrayList<T> getMissing() {
+        return missing;
+    }
+
+    public List<Modified<T>> getModified() {
+        return modified;
+    }
+
+    /**
+     * Same result as {@code new ArrayList<>(from).removeAll(remove)} in
+     * linear instead of quadratic time.
+     *
+     * @param from
+     * @param remove
+     * @return the entries of {@code from} that are not equal to any entry of {@code remove}, in order
+     */
+    public static <T> ArrayList<T> subtract(List<T> from, Collection<T> remove) {
+        HashSet<T> removeSet = remove instanceof HashSet ? (HashSet<T>) remove : new HashSet<>(remove);
+        ArrayList<T> result = new ArrayList<>();
+        for (T entry : from) {
+            if (!removeSet.contains(entry)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same result as calling {@code list.remove(entry)} once for each count
+     * of each entry, which removes the first occurrences.
+     */
+    private static <T> ArrayList<T> removeFirstOccurrences(List<T> list, HashMap<T, Integer> counts) {
+        ArrayList<T> result = new ArrayList<>(list.size());
+        for (T entry : list) {
+            Integer count = counts.get(entry);
+            if (count != null && count > 0) {
+                counts.put(entry, count - 1);
+            } else {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private static <T> void increment(HashMap<T, Integer> counts, T entry) {
+        Integer count = counts.get(entry);
+        counts.put(entry, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Two labels have the same folded form exactly when
+     * {@code String.equalsIgnoreCase} considers them equal.
+     */
+    private static String foldCase(String label) {
+        if (label == null) {
+            return null;
+        }
+        char[] chars = label.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+}
@@ -14,7 +14,6 @@ import com.intel.mtwilson.policy.RuleResult;
 import com.intel.mtwilson.policy.fault.PcrEventLogContainsUnexpectedEntries;
 import com.intel.mtwilson.policy.fault.PcrEventLogMissing;
 import com.intel.mtwilson.policy.fault.PcrEventLogMissingExpectedEntries;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -67,14 +66,13 @@ public class PcrEventLogEquals extends BaseRule {
                 }
                 else {                    
                     // we check that for the PCR defined in the policy, the HostReport's PcrModuleManifest contains the exact set of expected modules
-                    ArrayList<Measurement> hostActualUnexpected = new ArrayList<Measurement>(moduleManifest);
-                    hostActualUnexpected.removeAll(expected.getEventLog()); //  hostActualUnexpected = actual modules - expected modules = only extra modules that shouldn't be there;  comparison is done BY HASH VALUE,  not by name or any "other info"
+                    MeasurementLogDiff<Measurement> diff = MeasurementLogDiff.compare(moduleManifest, expected.getEventLog(), null);
+                    List<Measurement> hostActualUnexpected = diff.getUnexpected(); //  hostActualUnexpected = actual modules - expected modules = only extra modules that shouldn't be there;  comparison is done BY HASH VALUE,  not by name or any "other info"
                     if( !hostActualUnexpected.isEmpty() ) {
                         log.debug("PcrEventLogEquals : Host is having #{} additional modules compared to the white list.", hostActualUnexpected.size());
                         report.fault(new PcrEventLogContainsUnexpectedEntries(expected.getPcrIndex(), hostActualUnexpected));
                     }
-                    ArrayList<Measurement> hostActualMissing = new ArrayList<Measurement>(expected.getEventLog());
-                    hostActualMissing.removeAll(moduleManifest); // hostActualMissing = expected modules - actual modules = only modules that should be there but aren't 
+                    List<Measurement> hostActualMissing = diff.getMissing(); // hostActualMissing = expected modules - actual modules = only modules that should be there but aren't 
                     if( !hostActualMissing.isEmpty() ) {
                         log.debug("PcrEventLogEquals : Host is missing #{} modules compared to the white list.", hostActualMissing.size());
                         report.fault(new PcrEventLogMissingExpectedEntries(expected.getPcrIndex(), new HashSet<Measurement>(hostActualMissing)));
@@ -21,7 +21,6 @@ import com.intel.mtwilson.policy.fault.XmlMeasurementLogValueMismatchEntries;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,7 +76,7 @@ public class XmlMeasurementLogEquals extends BaseRule {
             
         } else {
             // Retrieve the list of modules as measurements from the XML log provided by the host
-            List<Measurement> actualModules = new XmlMeasurementLog(expected.getPcrIndex(), hostReport.pcrManifest.getMeasurementXml()).getMeasurements();
+            List<Measurement> actualModules = hostReport.pcrManifest.getMeasurementXmlLog();
             log.debug("XmlMeasurementLogEquals: About to apply the XmlMeasurementLogEquals policy for {} entries.", actualModules.size());
             if( actualModules.isEmpty() ) {
                 report.fault(new XmlMeasurementLogMissing());
@@ -86,18 +85,16 @@ public class XmlMeasurementLogEquals extends BaseRule {
                 // We will first check if the host provided any additional modules as part of the log
                 // hostActualUnexpected = actual modules - expected modules = only extra modules that shouldn't be there;  
                 // comparison is done BY HASH VALUE,  not by name or any "other info"
-                ArrayList<Measurement> hostActualUnexpected = new ArrayList<>(actualModules);
-                hostActualUnexpected.removeAll(expected.getMeasurements()); 
-
-                ArrayList<Measurement> hostActualMissing = new ArrayList<>(expected.getMeasurements());
-
+                // hostActualMissing = expected modules - actual modules = only modules that should be there but aren't 
                 log.debug("XmlMeasurementLogEquals: About to check host entries {} against the whitelist which has {} entries.", 
-                        actualModules.size(), hostActualMissing.size());
-                log.debug("XmlMeasurementLogEquals: Verifying {} against {}", expected.toString(), actualModules.toString());
+                        actualModules.size(), expected.getMeasurements().size());
+                log.trace("XmlMeasurementLogEquals: Verifying {} against {}", expected, actualModules);
 
-                hostActualMissing.removeAll(actualModules); // hostActualMissing = expected modules - actual modules = only modules that should be there but aren't 
+                MeasurementLogDiff<Measurement> diff = MeasurementLogDiff.compare(actualModules, expected.getMeasurements(), MeasurementLogDiff.MEASUREMENT_LABEL);
+                List<Measurement> hostActualUnexpected = diff.getUnexpected();
+                List<Measurement> hostActualMissing = diff.getMissing();
 
-                raiseFaultForModifiedEntries(hostActualUnexpected, hostActualMissing, report);
+                raiseFaultForModifiedEntries(diff.getModified(), report);
                 
                 if( !hostActualUnexpected.isEmpty() ) {
                     log.debug("XmlMeasurementLogEquals : Host is having #{} additional modules compared to the white list.", hostActualUnexpected.size());
@@ -117,29 +114,24 @@ public class XmlMeasurementLogEquals extends BaseRule {
         return report;
     }
     
-    private void raiseFaultForModifiedEntries(ArrayList<Measurement> hostActualUnexpected, ArrayList<Measurement> hostActualMissing, RuleResult report) {
+    /**
+     * Raises the fault for the modules whose digest differs from the whitelist. The faults for missing and new modules
+     * are raised by the calling function.
+     * @param modifiedModules
+     * @param report 
+     */
+    private void raiseFaultForModifiedEntries(List<MeasurementLogDiff.Modified<Measurement>> modifiedModules, RuleResult report) {
         ArrayList<Measurement> hostModifiedModules = new ArrayList<>();
-        ArrayList<Measurement> tempHostActualUnexpected = new ArrayList<>(hostActualUnexpected);
-        ArrayList<Measurement> tempHostActualMissing = new ArrayList<>(hostActualMissing);
         
         try {
-            for (Measurement tempUnexpected : tempHostActualUnexpected) {
-                for (Measurement tempMissing : tempHostActualMissing) {
-                    log.debug("RaiseFaultForModifiedEntries: Comparing module {} with hash {} to module {} with hash {}.", tempUnexpected.getLabel(), 
-                            tempUnexpected.getValue().toString(), tempMissing.getLabel(), tempMissing.getValue().toString());
-                    if (tempUnexpected.getLabel().equalsIgnoreCase(tempMissing.getLabel())) {
-                        log.debug("Adding the entry to the list of modified modules and deleting from the other 2 lists.");
-                        
-                        // We are storing the whitelist value and the actual value so that we do not need to compare again when generating the reports.
-                        HashMap<String, String> tempHashMapToAdd = new HashMap<>();
-                        tempHashMapToAdd.put("Actual_Value", tempUnexpected.getValue().toString());
-                        Measurement toMeasurementToAdd = new MeasurementSha1((Sha1Digest)tempMissing.getValue(), tempMissing.getLabel(), tempHashMapToAdd);
-                        
-                        hostModifiedModules.add(toMeasurementToAdd);
-                        hostActualUnexpected.remove(tempUnexpected);
-                        hostActualMissing.remove(tempMissing);
-                    }
-                }
+            for (MeasurementLogDiff.Modified<Measurement> modified : modifiedModules) {
+                log.debug("RaiseFaultForModifiedEntries: Module {} has hash {} instead of {}.", modified.getExpected().getLabel(), 
+                        modified.getActual().getValue(), modified.getExpected().getValue());
+                // We are storing the whitelist value and the actual value so that we do not need to compare again when generating the reports.
+                HashMap<String, String> tempHashMapToAdd = new HashMap<>();
+                tempHashMapToAdd.put("Actual_Value", modified.getActual().getValue().toString());
+                Measurement toMeasurementToAdd = new MeasurementSha1((Sha1Digest)modified.getExpected().getValue(), modified.getExpected().getLabel(), tempHashMapToAdd);
+                hostModifiedModules.add(toMeasurementToAdd);
             }                        
             
             if (!hostModifiedModules.isEmpty()) {
@@ -12,7 +12,6 @@ import com.intel.mtwilson.model.Measurement;
 import com.intel.mtwilson.model.PcrIndex;
 import com.intel.dcsg.cpg.crypto.Sha1Digest;
 import com.intel.dcsg.cpg.crypto.Sha256Digest;
-import com.intel.mtwilson.model.XmlMeasurementLog;
 import com.intel.mtwilson.policy.BaseRule;
 import com.intel.mtwilson.policy.HostReport;
 import com.intel.mtwilson.policy.RuleResult;
@@ -62,7 +61,7 @@ public class XmlMeasurementLogIntegrity extends BaseRule {
             
         } else {
 
-            List<Measurement> measurements = new XmlMeasurementLog(this.pcrIndex, hostReport.pcrManifest.getMeasurementXml()).getMeasurements();
+            List<Measurement> measurements = hostReport.pcrManifest.getMeasurementXmlLog();
             log.debug("XmlMeasurementLogIntegrity: Retrieved #{} of measurements from the log.", measurements.size());
             if( measurements.size() > 0 ) {
                 AbstractDigest actualValue = computeHistory(measurements); // calculate expected' based on history
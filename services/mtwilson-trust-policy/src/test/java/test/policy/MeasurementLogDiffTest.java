@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package test.policy;
+
+import com.intel.dcsg.cpg.crypto.Sha1Digest;
+import com.intel.mtwilson.model.Measurement;
+import com.intel.mtwilson.model.MeasurementSha1;
+import com.intel.mtwilson.policy.rule.MeasurementLogDiff;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Checks that the linear diff produces the same unexpected, missing and
+ * modified entries as the removeAll and nested label comparison it replaces,
+ * and times both on large logs (the "performance:" lines in the test output).
+ */
+public class MeasurementLogDiffTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MeasurementLogDiffTest.class);
+
+    private static Measurement measurement(String digestSeed, String label) {
+        return new MeasurementSha1(Sha1Digest.digestOf(digestSeed.getBytes()), label);
+    }
+
+    /**
+     * The comparison performed by XmlMeasurementLogEquals before the diff was introduced.
+     */
+    private static List<List<Measurement>> quadratic(List<Measurement> actual, List<Measurement> expected) {
+        ArrayList<Measurement> unexpected = new ArrayList<>(actual);
+        unexpected.removeAll(expected);
+        ArrayList<Measurement> missing = new ArrayList<>(expected);
+        missing.removeAll(actual);
+        ArrayList<Measurement> modifiedActual = new ArrayList<>();
+        ArrayList<Measurement> modifiedExpected = new ArrayList<>();
+        ArrayList<Measurement> tempUnexpected = new ArrayList<>(unexpected);
+        ArrayList<Measurement> tempMissing = new ArrayList<>(missing);
+        for (Measurement u : tempUnexpected) {
+            for (Measurement m : tempMissing) {
+                if (u.getLabel().equalsIgnoreCase(m.getLabel())) {
+                    modifiedActual.add(u);
+                    modifiedExpected.add(m);
+                    unexpected.remove(u);
+                    missing.remove(m);
+                }
+            }
+        }
+        ArrayList<List<Measurement>> result = new ArrayList<>();
+        result.add(unexpected);
+        result.add(missing);
+        result.add(modifiedActual);
+        result.add(modifiedExpected);
+        return result;
+    }
+
+    private static List<List<Measurement>> linear(List<Measurement> actual, List<Measurement> expected) {
+        MeasurementLogDiff<Measurement> diff = MeasurementLogDiff.compare(actual, expected, MeasurementLogDiff.MEASUREMENT_LABEL);
+        ArrayList<Measurement> modifiedActual = new ArrayList<>();
+        ArrayList<Measurement> modifiedExpected = new ArrayList<>();
+        for (MeasurementLogDiff.Modified<Measurement> modified : diff.getModified()) {
+            modifiedActual.add(modified.getActual());
+            modifiedExpected.add(modified.getExpected());
+        }
+        ArrayList<List<Measurement>> result = new ArrayList<>();
+        result.add(diff.getUnexpected());
+        result.add(diff.getMissing());
+        result.add(modifiedActual);
+        result.add(modifiedExpected);
+        return result;
+    }
+
+    /**
+     * Measurement.equals only compares digests, so the labels are compared separately.
+     */
+    private static void assertSameEntries(List<Measurement> expected, List<Measurement> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), actual.get(i));
+        }
+    }
+
+    /**
+     * @param size number of whitelist entries
+     * @param changes number of entries to add, remove, modify or duplicate
+     */
+    private static List<List<Measurement>> logs(int size, int changes, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Measurement> expected = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            expected.add(measurement("module" + i, "/boot/module" + i));
+        }
+        ArrayList<Measurement> actual = new ArrayList<>(expected);
+        for (int i = 0; i < changes; i++) {
+            int index = random.nextInt(actual.size());
+            switch (random.nextInt(5)) {
+                case 0: // unexpected module
+                    actual.add(measurement("extra" + i, "/opt/extra" + i));
+                    break;
+                case 1: // missing module
+                    actual.remove(index);
+                    break;
+                case 2: // modified module, label in a different case
+                    actual.set(index, measurement("changed" + i, actual.get(index).getLabel().toUpperCase()));
+                    break;
+                case 3: // duplicate entries with the same digest
+                    actual.add(actual.get(index));
+                    expected.add(measurement("dup" + i, "/dup" + i));
+                    expected.add(measurement("dup" + i, "/dup" + i + "/copy"));
+                    break;
+                default: // two modified entries with the same label
+                    actual.add(measurement("relabel" + i, "/boot/module" + index));
+                    break;
+            }
+        }
+        ArrayList<List<Measurement>> logs = new ArrayList<>();
+        logs.add(actual);
+        logs.add(expected);
+        return logs;
+    }
+
+    @Test
+    public void testSameResultAsRemoveAll() {
+        for (long seed = 0; seed < 50; seed++) {
+            List<List<Measurement>> logs = logs(200, 40, seed);
+            List<List<Measurement>> before = quadratic(logs.get(0), logs.get(1));
+            List<List<Measurement>> after = linear(logs.get(0), logs.get(1));
+            for (int i = 0; i < before.size(); i++) {
+                assertSameEntries(before.get(i), after.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testWithoutLabeler() {
+        List<List<Measurement>> logs = logs(100, 20, 1);
+        MeasurementLogDiff<Measurement> diff = MeasurementLogDiff.compare(logs.get(0), logs.get(1), null);
+        ArrayList<Measurement> unexpected = new ArrayList<>(logs.get(0));
+        unexpected.removeAll(logs.get(1));
+        ArrayList<Measurement> missing = new ArrayList<>(logs.get(1));
+        missing.removeAll(logs.get(0));
+        assertSameEntries(unexpected, diff.getUnexpected());
+        assertSameEntries(missing, diff.getMissing());
+        assertTrue(diff.getModified().isEmpty());
+    }
+
+    @Test
+    public void testModifiedEntry() {
+        List<Measurement> expected = new ArrayList<>();
+        expected.add(measurement("a", "/boot/vmlinuz"));
+        expected.add(measurement("b", "/boot/initrd"));
+        List<Measurement> actual = new ArrayList<>();
+        actual.add(measurement("a", "/boot/vmlinuz"));
+        actual.add(measurement("c", "/BOOT/INITRD"));
+        actual.add(measurement("d", "/boot/extra"));
+        MeasurementLogDiff<Measurement> diff = MeasurementLogDiff.compare(actual, expected, MeasurementLogDiff.MEASUREMENT_LABEL);
+        assertEquals(1, diff.getModified().size());
+        assertSame(actual.get(1), diff.getModified().get(0).getActual());
+        assertSame(expected.get(1), diff.getModified().get(0).getExpected());
+        assertSameEntries(actual.subList(2, 3), diff.getUnexpected());
+        assertTrue(diff.getMissing().isEmpty());
+    }
+
+    /**
+     * Timing comparison with removeAll; run with
+     * -Dtest=MeasurementLogDiffTest#testPerformance and look at the log output
+     */
+    @Ignore
+    @Test
+    public void testPerformance() {
+        for (int size : new int[] { 1000, 10000, 100000 }) {
+            List<List<Measurement>> logs = logs(size, size / 10, size);
+            long start = System.nanoTime();
+            List<List<Measurement>> after = linear(logs.get(0), logs.get(1));
+            long linear = System.nanoTime() - start;
+            log.info("performance: diff of {} measurements in {}ms", size, linear / 1000000);
+            assertFalse(after.get(0).isEmpty());
+            if (size <= 10000) {
+                start = System.nanoTime();
+                quadratic(logs.get(0), logs.get(1));
+                long quadratic = System.nanoTime() - start;
+                log.info("performance: removeAll of {} measurements in {}ms", size, quadratic / 1000000);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package test.policy;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.crypto.Sha1Digest;
+import com.intel.mtwilson.model.Measurement;
+import com.intel.mtwilson.model.MeasurementSha1;
+import com.intel.mtwilson.model.PcrEventLogSha1;
+import com.intel.mtwilson.model.PcrIndex;
+import com.intel.mtwilson.model.PcrManifest;
+import com.intel.mtwilson.model.PcrSha1;
+import com.intel.mtwilson.policy.HostReport;
+import com.intel.mtwilson.policy.Policy;
+import com.intel.mtwilson.policy.PolicyEngine;
+import com.intel.mtwilson.policy.Rule;
+import com.intel.mtwilson.policy.RuleResult;
+import com.intel.mtwilson.policy.TrustReport;
+import com.intel.mtwilson.policy.rule.PcrEventLogIncludes;
+import com.intel.mtwilson.policy.rule.PcrEventLogIntegrity;
+import com.intel.mtwilson.policy.rule.PcrMatchesConstant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares the sequential, parallel, and fail-fast modes of PolicyEngine on a
+ * host report with a large pcr 19 event log like the ones in TestVmwareEsxi51
+ * and TestLinuxXen169.
+ */
+public class PolicyEngineTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PolicyEngineTest.class);
+    private static final int MODULES = 2000;
+
+    private List<MeasurementSha1> createEventLog() {
+        ArrayList<MeasurementSha1> eventLog = new ArrayList<>();
+        for (int i = 0; i < MODULES; i++) {
+            eventLog.add(new MeasurementSha1(Sha1Digest.digestOf(("module" + i).getBytes()), "module" + i));
+        }
+        return eventLog;
+    }
+
+    private HostReport createHostReport(List<MeasurementSha1> eventLog) {
+        Sha1Digest pcr19 = Sha1Digest.ZERO;
+        for (MeasurementSha1 m : eventLog) {
+            pcr19 = pcr19.extend(m.getValue().toByteArray());
+        }
+        HostReport hostReport = new HostReport();
+        hostReport.pcrManifest = new PcrManifest();
+        hostReport.pcrManifest.setPcr(new PcrSha1(0, "891eb0b556b83fcef1c10f3fa6464345e34f8f91"));
+        hostReport.pcrManifest.setPcr(new PcrSha1(17, "bfc3ffd7940e9281a3ebfdfa4e0412869a3f55d8"));
+        hostReport.pcrManifest.setPcr(new PcrSha1(18, "a14c6b5735dbdfbbd926925947ea3da2982739fd"));
+        hostReport.pcrManifest.setPcr(new PcrSha1(19, pcr19.toString()));
+        hostReport.pcrManifest.setPcrEventLog(new PcrEventLogSha1(PcrIndex.PCR19, eventLog));
+        return hostReport;
+    }
+
+    /**
+     * One rule per module like the vmm whitelist for a host with a pcr 19 event log
+     */
+    private Set<Rule> createRules(List<MeasurementSha1> eventLog, String bios0, String vmm18) {
+        LinkedHashSet<Rule> rules = new LinkedHashSet<>();
+        PcrMatchesConstant pcr0 = new PcrMatchesConstant(new PcrSha1(0, bios0));
+        pcr0.setMarkers("BIOS");
+        rules.add(pcr0);
+        PcrMatchesConstant pcr17 = new PcrMatchesConstant(new PcrSha1(17, "bfc3ffd7940e9281a3ebfdfa4e0412869a3f55d8"));
+        pcr17.setMarkers("BIOS");
+        rules.add(pcr17);
+        PcrMatchesConstant pcr18 = new PcrMatchesConstant(new PcrSha1(18, vmm18));
+        pcr18.setMarkers("VMM");
+        rules.add(pcr18);
+        PcrEventLogIntegrity integrity = new PcrEventLogIntegrity(DigestAlgorithm.SHA1, PcrIndex.PCR19);
+        integrity.setMarkers("VMM");
+        rules.add(integrity);
+        for (MeasurementSha1 m : eventLog) {
+            PcrEventLogIncludes includes = new PcrEventLogIncludes(DigestAlgorithm.SHA1, PcrIndex.PCR19, (Measurement) m);
+            includes.setMarkers("VMM");
+            rules.add(includes);
+        }
+        return rules;
+    }
+
+    private List<String> ruleOrder(TrustReport report) {
+        ArrayList<String> order = new ArrayList<>();
+        for (RuleResult result : report.getResults()) {
+            order.add(String.valueOf(System.identityHashCode(result.getRule())) + (result.isTrusted() ? "+" : "-"));
+        }
+        return order;
+    }
+
+    @Test
+    public void testParallelSameAsSequential() {
+        List<MeasurementSha1> eventLog = createEventLog();
+        HostReport hostReport = createHostReport(eventLog);
+        Policy policy = new Policy("test", createRules(eventLog, "891eb0b556b83fcef1c10f3fa6464345e34f8f91", "0000000000000000000000000000000000000000"));
+        TrustReport sequential = new PolicyEngine().apply(hostReport, policy);
+        TrustReport parallel = new PolicyEngine(true, false).apply(hostReport, policy);
+        assertEquals(policy.getRules().size(), sequential.getResults().size());
+        assertEquals(ruleOrder(sequential), ruleOrder(parallel));
+        assertTrue(parallel.isTrustedForMarker("BIOS"));
+        assertFalse(parallel.isTrustedForMarker("VMM"));
+    }
+
+    @Test
+    public void testFailFast() {
+        List<MeasurementSha1> eventLog = createEventLog();
+        HostReport hostReport = createHostReport(eventLog);
+        Policy policy = new Policy("test", createRules(eventLog, "0000000000000000000000000000000000000000", "a14c6b5735dbdfbbd926925947ea3da2982739fd"));
+        // the vmm rules must all be applied even though a bios rule failed
+        for (PolicyEngine engine : new PolicyEngine[]{new PolicyEngine(false, true), new PolicyEngine(true, true)}) {
+            TrustReport report = engine.apply(hostReport, policy);
+            assertFalse(report.isTrustedForMarker("BIOS"));
+            assertTrue(report.isTrustedForMarker("VMM"));
+            assertEquals(MODULES + 2, report.getResultsForMarker("VMM").size());
+        }
+        // a failed vmm pcr skips the module checks that come after it when evaluating sequentially
+        Set<Rule> untrustedVmm = createRules(eventLog, "891eb0b556b83fcef1c10f3fa6464345e34f8f91", "0000000000000000000000000000000000000000");
+        List<RuleResult> results = new PolicyEngine(false, true).applyAll(hostReport, untrustedVmm);
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isTrusted());
+        assertTrue(results.get(1).isTrusted());
+        assertFalse(results.get(2).isTrusted());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelRuleException() {
+        HashSet<Rule> rules = new HashSet<>();
+        rules.add(new PcrMatchesConstant(new PcrSha1(0, "891eb0b556b83fcef1c10f3fa6464345e34f8f91")));
+        rules.add(new Rule() {
+            @Override
+            public RuleResult apply(HostReport hostReport) {
+                throw new IllegalArgumentException("test");
+            }
+
+            @Override
+            public String[] getMarkers() {
+                return null;
+            }
+        });
+        new PolicyEngine(true, false).applyAll(hostReport(), rules);
+    }
+
+    private HostReport hostReport() {
+        return createHostReport(new ArrayList<MeasurementSha1>());
+    }
+
+    /**
+     * Timing comparison of the evaluation modes; run with
+     * -Dtest=PolicyEngineTest#benchmarkModes and look at the log output
+     */
+    @Ignore
+    @Test
+    public void benchmarkModes() {
+        List<MeasurementSha1> eventLog = createEventLog();
+        HostReport hostReport = createHostReport(eventLog);
+        Policy trusted = new Policy("trusted", createRules(eventLog, "891eb0b556b83fcef1c10f3fa6464345e34f8f91", "a14c6b5735dbdfbbd926925947ea3da2982739fd"));
+        Policy untrusted = new Policy("untrusted", createRules(eventLog, "891eb0b556b83fcef1c10f3fa6464345e34f8f91", "0000000000000000000000000000000000000000"));
+        PolicyEngine[] engines = new PolicyEngine[]{new PolicyEngine(), new PolicyEngine(true, false), new PolicyEngine(false, true), new PolicyEngine(true, true)};
+        int iterations = 20;
+        for (Policy policy : new Policy[]{trusted, untrusted}) {
+            for (PolicyEngine engine : engines) {
+                for (int i = 0; i < 5; i++) {
+                    engine.apply(hostReport, policy); // warm up
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    engine.apply(hostReport, policy);
+                }
+                long elapsed = System.nanoTime() - start;
+                log.info("{} policy parallel={} failFast={}: {} us/op", policy.getName(), engine.isParallel(), engine.isFailFast(), elapsed / iterations / 1000);
+            }
+        }
+    }
+}
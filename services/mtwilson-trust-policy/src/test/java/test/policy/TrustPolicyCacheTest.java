@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package test.policy;
+
+import com.intel.mtwilson.model.PcrIndex;
+import com.intel.mtwilson.model.XmlMeasurementLog;
+import com.intel.mtwilson.policy.BaseRule;
+import com.intel.mtwilson.policy.HostReport;
+import com.intel.mtwilson.policy.Rule;
+import com.intel.mtwilson.policy.RuleResult;
+import com.intel.mtwilson.policy.TrustPolicyCache;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrustPolicyCacheTest {
+    private TrustPolicyCache cache;
+
+    private static class TestRule extends BaseRule {
+        @Override
+        public RuleResult apply(HostReport hostReport) {
+            return new RuleResult(this);
+        }
+    }
+
+    private Set<Rule> rules() {
+        HashSet<Rule> rules = new HashSet<>();
+        rules.add(new TestRule());
+        return rules;
+    }
+
+    @Before
+    public void clear() {
+        cache = TrustPolicyCache.getInstance();
+        cache.setMaxEntries(TrustPolicyCache.DEFAULT_MAX_ENTRIES);
+        cache.setExpiresMillis(TrustPolicyCache.DEFAULT_EXPIRES_SECONDS * 1000L);
+        cache.invalidateAll();
+    }
+
+    @Test
+    public void testSharedAcrossHosts() {
+        TrustPolicyCache.Key key = new TrustPolicyCache.Key("intel", 1, 2, "SHA1", null);
+        assertNull(cache.get(key));
+        Set<Rule> cached = cache.put(key, rules(), cache.generation());
+        assertSame(cached, cache.get(new TrustPolicyCache.Key("intel", 1, 2, "SHA1", null)));
+        assertNull(cache.get(new TrustPolicyCache.Key("intel", 1, 2, "SHA256", null)));
+        assertNull(cache.get(new TrustPolicyCache.Key("intel-da", 1, 2, "SHA1", null)));
+        try {
+            cached.clear();
+            fail("cached rules are modifiable");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    @Test
+    public void testInvalidateMle() {
+        TrustPolicyCache.Key key12 = new TrustPolicyCache.Key("intel", 1, 2, "SHA1", null);
+        TrustPolicyCache.Key key13 = new TrustPolicyCache.Key("intel", 1, 3, "SHA1", null);
+        TrustPolicyCache.Key key42 = new TrustPolicyCache.Key("intel", 4, 2, "SHA1", 100);
+        cache.put(key12, rules(), cache.generation());
+        cache.put(key13, rules(), cache.generation());
+        cache.put(key42, rules(), cache.generation());
+        cache.invalidateMle(2);
+        assertNull(cache.get(key12));
+        assertNotNull(cache.get(key13));
+        assertNull(cache.get(key42));
+        cache.invalidateMle(1);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidateHost() {
+        TrustPolicyCache.Key shared = new TrustPolicyCache.Key("intel", 1, 2, "SHA1", null);
+        TrustPolicyCache.Key host100 = new TrustPolicyCache.Key("intel", 1, 2, "SHA1", 100);
+        TrustPolicyCache.Key host101 = new TrustPolicyCache.Key("intel", 1, 2, "SHA1", 101);
+        cache.put(shared, rules(), cache.generation());
+        cache.put(host100, rules(), cache.generation());
+        cache.put(host101, rules(), cache.generation());
+        cache.invalidateHost(100);
+        assertNotNull(cache.get(shared));
+        assertNull(cache.get(host100));
+        assertNotNull(cache.get(host101));
+    }
+
+    @Test
+    public void testLoadStartedBeforeInvalidationIsNotCached() {
+        TrustPolicyCache.Key key = new TrustPolicyCache.Key("intel", 1, 2, "SHA1", null);
+        long generation = cache.generation();
+        // whitelist changes while the rules are being loaded
+        cache.invalidateMle(1);
+        Set<Rule> loaded = cache.put(key, rules(), generation);
+        assertEquals(1, loaded.size());
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testHostSpecificMle() {
+        assertNull(cache.isHostSpecificMle(5));
+        cache.setHostSpecificMle(5, true, cache.generation());
+        assertTrue(cache.isHostSpecificMle(5));
+        cache.invalidateMle(5);
+        assertNull(cache.isHostSpecificMle(5));
+    }
+
+    @Test
+    public void testMaxEntries() {
+        cache.setMaxEntries(1);
+        cache.put(new TrustPolicyCache.Key("intel", 1, 2, "SHA1", null), rules(), cache.generation());
+        Set<Rule> notCached = cache.put(new TrustPolicyCache.Key("intel", 1, 3, "SHA1", null), Collections.<Rule>emptySet(), cache.generation());
+        assertTrue(notCached.isEmpty());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testExpired() {
+        cache.setExpiresMillis(0);
+        TrustPolicyCache.Key key = new TrustPolicyCache.Key("intel", 1, 2, "SHA1", null);
+        cache.put(key, rules(), cache.generation());
+        assertNull(cache.get(key));
+        cache.setHostSpecificMle(5, true, cache.generation());
+        assertNull(cache.isHostSpecificMle(5));
+        // an expired entry is replaced by the next load
+        cache.setExpiresMillis(60000);
+        Set<Rule> reloaded = cache.put(key, rules(), cache.generation());
+        assertSame(reloaded, cache.get(key));
+    }
+
+    @Test
+    public void testMeasurementLogExpired() {
+        XmlMeasurementLog measurementLog = new XmlMeasurementLog(PcrIndex.PCR19);
+        cache.putMeasurementLog(5, measurementLog, cache.generation());
+        assertSame(measurementLog, cache.getMeasurementLog(5));
+        cache.invalidateMle(5);
+        assertNull(cache.getMeasurementLog(5));
+        cache.setExpiresMillis(0);
+        cache.putMeasurementLog(5, measurementLog, cache.generation());
+        assertNull(cache.getMeasurementLog(5));
+    }
+}
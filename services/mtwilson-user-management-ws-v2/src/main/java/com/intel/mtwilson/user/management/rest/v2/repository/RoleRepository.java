@@ -19,6 +19,7 @@ import com.intel.mtwilson.repository.RepositorySearchException;
 import com.intel.mtwilson.repository.RepositoryStoreConflictException;
 import com.intel.mtwilson.repository.RepositoryStoreException;
 import com.intel.mtwilson.user.management.rest.v2.model.RolePermissionFilterCriteria;
+import com.intel.mtwilson.shiro.jdbi.LoginCache;
 import com.intel.mtwilson.shiro.jdbi.LoginDAO;
 import com.intel.mtwilson.shiro.jdbi.MyJdbi;
 import java.util.List;
@@ -103,6 +104,7 @@ public class RoleRepository implements DocumentRepository<Role, RoleCollection,
                     obj.setDescription(item.getDescription());
                 
                 loginDAO.updateRole(obj.getId(), obj.getRoleName(), obj.getDescription());
+                LoginCache.getInstance().clear();
                 log.debug("Role:Store - Updated the role with id {} successfully.", obj.getId());
                 
             } else {
@@ -133,6 +135,7 @@ public class RoleRepository implements DocumentRepository<Role, RoleCollection,
                 obj.setRoleName(item.getRoleName());
                 obj.setDescription(item.getDescription());
                 loginDAO.insertRole(obj.getId(), obj.getRoleName(), obj.getDescription());
+                LoginCache.getInstance().clear();
                 log.debug("Role:Create - Created the role with name {} successfully.", item.getRoleName());
             } else {
                 log.error("Role:Create - Role with name {} will not be created since a duplicate already exists.", item.getRoleName());
@@ -169,6 +172,7 @@ public class RoleRepository implements DocumentRepository<Role, RoleCollection,
                 rpRepo.delete(rpCriteria);
                 
                 loginDAO.deleteRole(obj.getId());
+                LoginCache.getInstance().clear();
                 log.debug("Role:Delete - Deleted the role with id {} successfully.", locator.id);
             } else {
                 log.info("Role:Delete - Role does not exist in the system.");
@@ -23,6 +23,7 @@ import com.intel.mtwilson.user.management.rest.v2.model.RoleLocator;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginPasswordRole;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginPasswordRoleCollection;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginPasswordRoleFilterCriteria;
+import com.intel.mtwilson.shiro.jdbi.LoginCache;
 import com.intel.mtwilson.shiro.jdbi.LoginDAO;
 import com.intel.mtwilson.shiro.jdbi.MyJdbi;
 import com.intel.mtwilson.user.management.rest.v2.model.Status;
@@ -124,6 +125,7 @@ public class UserLoginPasswordRepository implements DocumentRepository<UserLogin
                 obj.setComment(item.getComment());
                 loginDAO.updateUserLoginPassword(obj.getPasswordHash(), obj.getSalt(), obj.getIterations(), obj.getAlgorithm(), obj.getExpires(), 
                         obj.isEnabled(), obj.getId(), obj.getStatus(), obj.getComment());
+                LoginCache.getInstance().clear();
                 log.debug("UserLoginPassword:Store - Updated the user login password with id {} successfully.", obj.getId());
 
                 // We need not check for the length here since the admin might want to delete all the roles
@@ -187,6 +189,7 @@ public class UserLoginPasswordRepository implements DocumentRepository<UserLogin
                 obj.setComment(item.getComment());
                 loginDAO.insertUserLoginPassword(obj.getId(), obj.getUserId(), obj.getPasswordHash(), obj.getSalt(), obj.getIterations(), obj.getAlgorithm(),
                         obj.getExpires(), obj.isEnabled(), obj.getStatus(), obj.getComment());
+                LoginCache.getInstance().clear();
                 log.debug("UserLoginPassword:Create - Created the user login password for user with id {} successfully.", obj.getUserId());
             } else {
                 log.error("UserLoginPassword:Create - User login password for user with Id {} will not be created since a duplicate already exists.", obj.getUserId());
@@ -216,6 +219,7 @@ public class UserLoginPasswordRepository implements DocumentRepository<UserLogin
                 repo.delete(criteria);
                 
                 loginDAO.deleteUserLoginPasswordById(locator.id);
+                LoginCache.getInstance().clear();
                 log.debug("UserLoginPassword:Delete - Deleted the user login password with id {} successfully.", locator.id);
             } else {
                 log.info("UserLoginPassword:Delete - User login password does not exist in the system.");
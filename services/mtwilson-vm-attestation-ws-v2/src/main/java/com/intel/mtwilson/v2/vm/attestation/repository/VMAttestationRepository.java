@@ -9,7 +9,6 @@ import com.intel.dcsg.cpg.io.UUID;
 import com.intel.dcsg.cpg.iso8601.Iso8601Date;
 import com.intel.dcsg.cpg.validation.ValidationUtil;
 import com.intel.dcsg.cpg.x509.X509Util;
-import com.intel.dcsg.cpg.xml.JAXB;
 import com.intel.mtwilson.My;
 import com.intel.mtwilson.agent.HostAgent;
 import com.intel.mtwilson.agent.HostAgentFactory;
@@ -24,9 +23,6 @@ import com.intel.mtwilson.as.rest.v2.model.VMAttestationFilterCriteria;
 import com.intel.mtwilson.as.rest.v2.model.VMAttestationLocator;
 import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
 import com.intel.mtwilson.jaxrs2.server.resource.DocumentRepository;
-import com.intel.mtwilson.measurement.xml.FileMeasurementType;
-import com.intel.mtwilson.measurement.xml.DirectoryMeasurementType;
-import com.intel.mtwilson.measurement.xml.MeasurementType;
 import com.intel.mtwilson.model.Measurement;
 import com.intel.mtwilson.model.PcrIndex;
 import com.intel.mtwilson.model.XmlMeasurementLog;
@@ -43,16 +39,17 @@ import com.intel.mtwilson.repository.RepositorySearchException;
 import com.intel.mtwilson.trustagent.model.VMAttestationRequest;
 import com.intel.mtwilson.trustagent.model.VMQuoteResponse;
 import static com.intel.mtwilson.trustagent.model.VMQuoteResponse.QuoteType.XML_DSIG;
-import com.intel.mtwilson.trustpolicy.xml.DirectoryMeasurement;
 import com.intel.mtwilson.util.xml.dsig.XmlDsigVerify;
 import com.intel.mtwilson.trustpolicy.xml.TrustPolicy;
-import com.intel.mtwilson.measurement.xml.Measurements;
 import com.intel.mtwilson.model.VmMeasurement;
 import com.intel.mtwilson.model.VmMeasurementLog;
+import com.intel.mtwilson.v2.vm.attestation.repository.VerifiedTrustPolicyCache.VerifiedTrustPolicy;
 import com.intel.mtwilson.vmquote.xml.VMQuote;
 import gov.niarl.his.privacyca.TpmUtils;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
@@ -62,12 +59,16 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.security.cert.CertificateException;
+import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.crypto.MarshalException;
 import javax.xml.crypto.dsig.XMLSignatureException;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.apache.commons.io.IOUtils;
 import org.apache.shiro.authz.annotation.RequiresPermissions;
 import org.xml.sax.SAXException;
@@ -81,6 +82,21 @@ public class VMAttestationRepository implements DocumentRepository<VMAttestation
     
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(VMAttestationRepository.class);
     private ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+    private static final ConcurrentHashMap<String, JAXBContext> jaxbContexts = new ConcurrentHashMap<>();
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+    private static X509Certificate samlCertificate = null;
+    private static long samlCertificateLastModified = 0;
+    private static String samlCertificatePath = null;
+    private static X509Certificate privacyCaCertificate = null;
+    private static long privacyCaCertificateLastModified = 0;
+    private static String privacyCaCertificatePath = null;
+    
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
             
     @Override
     @RequiresPermissions("vm_attestations:search")    
@@ -205,7 +221,6 @@ public class VMAttestationRepository implements DocumentRepository<VMAttestation
         log.debug("VMAttestation:Create - Got request to create VM attestation report.");  
         
         String nonce;
-        JAXB jaxb = new JAXB();        
         if (item.getId() == null) { item.setId(new UUID()); }        
         ValidationUtil.validate(item); 
         
@@ -261,6 +276,8 @@ public class VMAttestationRepository implements DocumentRepository<VMAttestation
 
                         boolean isVMQuoteValid;
                         boolean isTrustPolicyValid;
+                        VerifiedTrustPolicyCache trustPolicyCache = VerifiedTrustPolicyCache.getInstance();
+                        VerifiedTrustPolicy verifiedTrustPolicy = null;
 
                         switch(vmQuoteResponse.getVmQuoteType()) {
 
@@ -268,10 +285,12 @@ public class VMAttestationRepository implements DocumentRepository<VMAttestation
 
                                 log.debug("VMAttestation:Create - createSamlAssertion: XML_DSIG section");
 
+                                X509Certificate samlCert = getSamlCertificate();
                                 try {
                                     // Validate the TrustPolicy signature and the certificate that was used to sign the TrustPolicy
                                     log.debug("VMAttestation:Create - About to validate the trust policy.");
-                                    isTrustPolicyValid = XmlDsigVerify.isValid(trustPolicyXml, getSamlCertificate());
+                                    verifiedTrustPolicy = trustPolicyCache.get(trustPolicyXml, samlCert);
+                                    isTrustPolicyValid = verifiedTrustPolicy != null || XmlDsigVerify.isValid(trustPolicyXml, samlCert);
                                     log.debug("VMAttestation:Create - Validation result of TrustPolicy is {}", isTrustPolicyValid);
                                 } catch (Exception ex) {
                                     log.error("VMAttestation:Create - Error during validation of the TrustPolicy. {}", ex.getMessage());
@@ -281,7 +300,7 @@ public class VMAttestationRepository implements DocumentRepository<VMAttestation
                                 try {
                                     // Validate the VM Quote signature and the certificate that was used to sign the signing key
                                     log.debug("VMAttestation:Create - About to validate the VMQuote using the PrivacyCA cert @ : {}", My.configuration().getPrivacyCaIdentityP12().getAbsolutePath());
-                                    X509Certificate privacyCaCert = TpmUtils.certFromP12(My.configuration().getPrivacyCaIdentityP12().getAbsolutePath(), My.configuration().getPrivacyCaIdentityPassword());
+                                    X509Certificate privacyCaCert = getPrivacyCaCertificate();
                                     isVMQuoteValid = XmlDsigVerify.isValid(vmQuoteXml, privacyCaCert);
                                     log.debug("VMAttestation:Create - Validation result of VMQuote is {}", isVMQuoteValid);
                                 } catch (KeyStoreException | IOException | NoSuchAlgorithmException | CertificateException | java.security.cert.CertificateException | ParserConfigurationException | SAXException | MarshalException | XMLSignatureException ex) {
@@ -303,8 +322,11 @@ public class VMAttestationRepository implements DocumentRepository<VMAttestation
                                     RuleResult vmRuleResult;
                                     
                                     // Deserialize the TrustPolicy and VMQuote into the autogenerated objects
-                                    TrustPolicy vmTrustPolicy = jaxb.read(trustPolicyXml, TrustPolicy.class);
-                                    VMQuote vmQuote = jaxb.read(vmQuoteXml, VMQuote.class);
+                                    if (verifiedTrustPolicy == null) {
+                                        verifiedTrustPolicy = trustPolicyCache.add(trustPolicyXml, samlCert, readXml(trustPolicyXml, TrustPolicy.class));
+                                    }
+                                    TrustPolicy vmTrustPolicy = verifiedTrustPolicy.getTrustPolicy();
+                                    VMQuote vmQuote = readXml(vmQuoteXml, VMQuote.class);
                                     
                                     String cumulativeHashFromQuote = vmQuote.getCumulativeHash();
                                     String vmInstanceIdFromQuote = vmQuote.getVmInstanceId();
@@ -333,28 +355,8 @@ public class VMAttestationRepository implements DocumentRepository<VMAttestation
 
                                     actualModules = new VmMeasurementLog(measurementXml).getMeasurements();
 
-                                    // creating Measurements Object which will be converted into measurement xml string
-                                    Measurements whitelistObj = new Measurements();
-                                    List<MeasurementType> measurements = whitelistObj.getMeasurements();
-                                    for (com.intel.mtwilson.trustpolicy.xml.Measurement measurement: vmTrustPolicy.getWhitelist().getMeasurements()){
-                                        MeasurementType measurementType;
-                                        if(measurement instanceof DirectoryMeasurement){
-                                            DirectoryMeasurementType dirMeasurementType = new DirectoryMeasurementType();
-                                            com.intel.mtwilson.trustpolicy.xml.DirectoryMeasurement dirMeasurement = (com.intel.mtwilson.trustpolicy.xml.DirectoryMeasurement) measurement;
-                                            dirMeasurementType.setExclude(dirMeasurement.getExclude());
-                                            dirMeasurementType.setInclude(dirMeasurement.getInclude());
-                                            measurementType = dirMeasurementType;
-                                        }
-                                        else{
-                                            measurementType = new FileMeasurementType();
-                                        }
-                                        measurementType.setPath(measurement.getPath());
-                                        measurementType.setValue(measurement.getValue());
-                                        measurements.add(measurementType);
-                                    }
-                                    String whiteListXml = jaxb.write(whitelistObj);
-                                    
-                                    whitelistModules = new VmMeasurementLog(whiteListXml).getMeasurements();
+                                    // the whitelist of the trust policy converted to VM measurements when it was verified
+                                    whitelistModules = verifiedTrustPolicy.getWhitelist();
                                     VmMeasurementLogEquals vmMeasurementLogEqualsRule = new VmMeasurementLogEquals();                                        
                                     vmRuleResult = vmMeasurementLogEqualsRule.apply2(actualModules, whitelistModules);
                                     if (vmRuleResult.getFaults() != null && vmRuleResult.getFaults().size() > 0)
@@ -512,16 +514,28 @@ public class VMAttestationRepository implements DocumentRepository<VMAttestation
         }
     }
      
-    public static X509Certificate getSamlCertificate() {
+    /**
+     * The SAML certificate is read again only when its file is modified.
+     * 
+     * @return the SAML certificate, or null if it cannot be read
+     */
+    public static synchronized X509Certificate getSamlCertificate() {
+        File samlCertificateFile = My.configuration().getSamlCertificateFile();
+        long lastModified = samlCertificateFile.lastModified();
+        if (samlCertificate != null && lastModified == samlCertificateLastModified && samlCertificateFile.getAbsolutePath().equals(samlCertificatePath)) {
+            return samlCertificate;
+        }
         X509Certificate samlCert = null;        
         byte[] samlPemBytes;
-        try (FileInputStream samlPemFile = new FileInputStream(My.configuration().getSamlCertificateFile())) {
+        try (FileInputStream samlPemFile = new FileInputStream(samlCertificateFile)) {
 
             samlPemBytes = IOUtils.toByteArray(samlPemFile);
             samlCert = X509Util.decodePemCertificate(new String(samlPemBytes));
             log.debug("Successfully retrieved the SAML certificate for verification. {}", samlCert.getIssuerX500Principal().getName());
 
-            
+            samlCertificate = samlCert;
+            samlCertificateLastModified = lastModified;
+            samlCertificatePath = samlCertificateFile.getAbsolutePath();
         } catch (IOException | java.security.cert.CertificateException ex) {
             log.error("Error during verification of the certificate that signed the data. {}", ex.getMessage());
         } 
@@ -529,4 +543,37 @@ public class VMAttestationRepository implements DocumentRepository<VMAttestation
         return samlCert;
     }
     
+    /**
+     * The PrivacyCA PKCS#12 file is opened again only when it is modified.
+     */
+    private static synchronized X509Certificate getPrivacyCaCertificate() throws KeyStoreException, IOException, NoSuchAlgorithmException, CertificateException, java.security.cert.CertificateException {
+        File privacyCaFile = My.configuration().getPrivacyCaIdentityP12();
+        long lastModified = privacyCaFile.lastModified();
+        if (privacyCaCertificate == null || lastModified != privacyCaCertificateLastModified || !privacyCaFile.getAbsolutePath().equals(privacyCaCertificatePath)) {
+            privacyCaCertificate = TpmUtils.certFromP12(privacyCaFile.getAbsolutePath(), My.configuration().getPrivacyCaIdentityPassword());
+            privacyCaCertificateLastModified = lastModified;
+            privacyCaCertificatePath = privacyCaFile.getAbsolutePath();
+        }
+        return privacyCaCertificate;
+    }
+    
+    /**
+     * Unmarshals the xml with a JAXB context that is created once for each
+     * package, and without DTDs or external entities.
+     */
+    private static <T> T readXml(String xml, Class<T> valueType) throws JAXBException, XMLStreamException {
+        String contextPath = valueType.getPackage().getName();
+        JAXBContext jaxbContext = jaxbContexts.get(contextPath);
+        if (jaxbContext == null) {
+            jaxbContext = JAXBContext.newInstance(contextPath, valueType.getClassLoader());
+            jaxbContexts.putIfAbsent(contextPath, jaxbContext);
+        }
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+        try {
+            return jaxbContext.createUnmarshaller().unmarshal(reader, valueType).getValue();
+        } finally {
+            reader.close();
+        }
+    }
+    
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.v2.vm.attestation.repository;
+
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.mtwilson.My;
+import com.intel.mtwilson.model.VmMeasurement;
+import com.intel.mtwilson.trustpolicy.xml.DirectoryMeasurement;
+import com.intel.mtwilson.trustpolicy.xml.Measurement;
+import com.intel.mtwilson.trustpolicy.xml.TrustPolicy;
+import com.intel.mtwilson.measurement.xml.DirectoryMeasurementType;
+import com.intel.mtwilson.measurement.xml.FileMeasurementType;
+import java.nio.charset.Charset;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the trust policies whose signature was already verified, with
+ * their whitelist converted to VM measurements. Many VMs are launched from
+ * the same few images and so send the same trust policy; a cached policy is
+ * not verified, unmarshalled, or converted again.
+ *
+ * An entry is keyed by the SHA-256 digest of the trust policy xml, which
+ * includes its signature, and of the certificate that verified it, so a
+ * changed policy or a new SAML certificate is a miss. When the cache has
+ * mtwilson.vm.attestation.trust.policy.cache.max entries (default 1000) it
+ * is cleared.
+ */
+public class VerifiedTrustPolicyCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(VerifiedTrustPolicyCache.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    public static final String TRUST_POLICY_CACHE_MAX = "mtwilson.vm.attestation.trust.policy.cache.max";
+
+    private final ConcurrentHashMap<String, VerifiedTrustPolicy> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * A trust policy with a valid signature and its whitelist.
+     */
+    public static class VerifiedTrustPolicy {
+        private final TrustPolicy trustPolicy;
+        private final List<VmMeasurement> whitelist;
+
+        VerifiedTrustPolicy(TrustPolicy trustPolicy) {
+            this.trustPolicy = trustPolicy;
+            this.whitelist = Collections.unmodifiableList(toVmMeasurements(trustPolicy));
+        }
+
+        /**
+         * @return the trust policy; it is shared, so do not modify it
+         */
+        public TrustPolicy getTrustPolicy() {
+            return trustPolicy;
+        }
+
+        public List<VmMeasurement> getWhitelist() {
+            return whitelist;
+        }
+    }
+
+    private static class VerifiedTrustPolicyCacheHolder {
+        private static final VerifiedTrustPolicyCache instance = createInstance();
+
+        private static VerifiedTrustPolicyCache createInstance() {
+            int maxEntries = 1000;
+            try {
+                maxEntries = My.configuration().getConfiguration().getInt(TRUST_POLICY_CACHE_MAX, maxEntries);
+            } catch (RuntimeException e) {
+                log.warn("Cannot load trust policy cache settings, using defaults: {}", e.getMessage());
+            }
+            return new VerifiedTrustPolicyCache(maxEntries);
+        }
+    }
+
+    /**
+     * @param maxEntries maximum number of trust policies; 0 disables the cache
+     */
+    VerifiedTrustPolicyCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public static VerifiedTrustPolicyCache getInstance() {
+        return VerifiedTrustPolicyCacheHolder.instance;
+    }
+
+    /**
+     * Converts the whitelist of the trust policy to VM measurements with the
+     * same info that VmMeasurementLog creates from a measurement xml.
+     */
+    static List<VmMeasurement> toVmMeasurements(TrustPolicy trustPolicy) {
+        ArrayList<VmMeasurement> measurements = new ArrayList<>();
+        for (Measurement measurement : trustPolicy.getWhitelist().getMeasurements()) {
+            HashMap<String, String> moduleInfo = new HashMap<>();
+            if (measurement instanceof DirectoryMeasurement) {
+                DirectoryMeasurement dirMeasurement = (DirectoryMeasurement) measurement;
+                moduleInfo.put("Type", DirectoryMeasurementType.class.getSimpleName());
+                moduleInfo.put("Include", dirMeasurement.getInclude());
+                moduleInfo.put("Exclude", dirMeasurement.getExclude());
+            } else {
+                moduleInfo.put("Type", FileMeasurementType.class.getSimpleName());
+            }
+            measurements.add(new VmMeasurement(Sha256Digest.valueOfHex(measurement.getValue()), measurement.getPath(), moduleInfo));
+        }
+        return measurements;
+    }
+
+    /**
+     * @param trustPolicyXml
+     * @param signer the certificate that must have signed the trust policy
+     * @return the trust policy if it was verified with the same certificate, otherwise null
+     */
+    public VerifiedTrustPolicy get(String trustPolicyXml, X509Certificate signer) {
+        String key = maxEntries <= 0 ? null : key(trustPolicyXml, signer);
+        VerifiedTrustPolicy entry = key == null ? null : entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Call only after the signature of the trust policy was verified with the signer certificate.
+     *
+     * @param trustPolicyXml
+     * @param signer
+     * @param trustPolicy the unmarshalled trust policy xml
+     * @return the verified trust policy, also when the cache is disabled
+     */
+    public VerifiedTrustPolicy add(String trustPolicyXml, X509Certificate signer, TrustPolicy trustPolicy) {
+        VerifiedTrustPolicy entry = new VerifiedTrustPolicy(trustPolicy);
+        String key = maxEntries <= 0 ? null : key(trustPolicyXml, signer);
+        if (key != null) {
+            if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+                log.debug("Trust policy cache is full with {} entries; clearing", entries.size());
+                entries.clear();
+            }
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private String key(String trustPolicyXml, X509Certificate signer) {
+        if (signer == null) {
+            return null;
+        }
+        try {
+            return Sha256Digest.digestOf(trustPolicyXml.getBytes(UTF8)).toString() + ":" + Sha256Digest.digestOf(signer.getEncoded()).toString();
+        } catch (CertificateEncodingException e) {
+            log.debug("Cannot encode trust policy signer certificate", e);
+            return null;
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.v2.vm.attestation.repository;
+
+import com.intel.dcsg.cpg.crypto.RsaUtil;
+import com.intel.dcsg.cpg.xml.JAXB;
+import com.intel.mtwilson.measurement.xml.DirectoryMeasurementType;
+import com.intel.mtwilson.measurement.xml.FileMeasurementType;
+import com.intel.mtwilson.measurement.xml.MeasurementType;
+import com.intel.mtwilson.measurement.xml.Measurements;
+import com.intel.mtwilson.model.VmMeasurement;
+import com.intel.mtwilson.model.VmMeasurementLog;
+import com.intel.mtwilson.trustpolicy.xml.DirectoryMeasurement;
+import com.intel.mtwilson.trustpolicy.xml.Measurement;
+import com.intel.mtwilson.trustpolicy.xml.TrustPolicy;
+import java.nio.charset.Charset;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a cached trust policy has the same whitelist as converting it
+ * to measurement xml and reading it with VmMeasurementLog, which is what
+ * VMAttestationRepository did for every attestation before the cache.
+ */
+public class VerifiedTrustPolicyCacheTest {
+    private static String xmlpath = "/trustpolicy/trustpolicy_whitelist.xml";
+
+    private String trustPolicyXml() throws Exception {
+        return IOUtils.toString(getClass().getResourceAsStream(xmlpath), Charset.forName("UTF-8"));
+    }
+
+    private X509Certificate certificate() throws Exception {
+        KeyPair keypair = RsaUtil.generateRsaKeyPair(1024);
+        return RsaUtil.generateX509Certificate("TrustDirector", keypair, 1);
+    }
+
+    /**
+     * The conversion VMAttestationRepository used before the whitelist was cached.
+     */
+    private List<VmMeasurement> toVmMeasurementLog(TrustPolicy trustPolicy) throws Exception {
+        Measurements whitelistObj = new Measurements();
+        List<MeasurementType> measurements = whitelistObj.getMeasurements();
+        for (Measurement measurement : trustPolicy.getWhitelist().getMeasurements()) {
+            MeasurementType measurementType;
+            if (measurement instanceof DirectoryMeasurement) {
+                DirectoryMeasurementType dirMeasurementType = new DirectoryMeasurementType();
+                DirectoryMeasurement dirMeasurement = (DirectoryMeasurement) measurement;
+                dirMeasurementType.setExclude(dirMeasurement.getExclude());
+                dirMeasurementType.setInclude(dirMeasurement.getInclude());
+                measurementType = dirMeasurementType;
+            } else {
+                measurementType = new FileMeasurementType();
+            }
+            measurementType.setPath(measurement.getPath());
+            measurementType.setValue(measurement.getValue());
+            measurements.add(measurementType);
+        }
+        return new VmMeasurementLog(new JAXB().write(whitelistObj)).getMeasurements();
+    }
+
+    @Test
+    public void testWhitelistMatchesVmMeasurementLog() throws Exception {
+        TrustPolicy trustPolicy = new JAXB().read(trustPolicyXml(), TrustPolicy.class);
+        List<VmMeasurement> expected = toVmMeasurementLog(trustPolicy);
+        List<VmMeasurement> actual = VerifiedTrustPolicyCache.toVmMeasurements(trustPolicy);
+        assertEquals(5, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            // VmMeasurement.equals only compares the digest
+            assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+            assertEquals(expected.get(i).getLabel(), actual.get(i).getLabel());
+            assertEquals(expected.get(i).getInfo(), actual.get(i).getInfo());
+        }
+        // a directory without Include and Exclude has them as null values, not missing
+        assertTrue(actual.get(3).getInfo().containsKey("Include"));
+        assertNull(actual.get(3).getInfo().get("Include"));
+        assertNull(actual.get(4).getInfo().get("Exclude"));
+        assertEquals(".*", actual.get(1).getInfo().get("Include"));
+        assertEquals("FileMeasurementType", actual.get(0).getInfo().get("Type"));
+    }
+
+    @Test
+    public void testCachedBySignerAndXml() throws Exception {
+        String xml = trustPolicyXml();
+        TrustPolicy trustPolicy = new JAXB().read(xml, TrustPolicy.class);
+        X509Certificate signer = certificate();
+        X509Certificate otherSigner = certificate();
+        VerifiedTrustPolicyCache cache = new VerifiedTrustPolicyCache(10);
+        assertNull(cache.get(xml, signer));
+        VerifiedTrustPolicyCache.VerifiedTrustPolicy added = cache.add(xml, signer, trustPolicy);
+        assertSame(added, cache.get(xml, signer));
+        assertSame(trustPolicy, added.getTrustPolicy());
+        // verified with a different certificate, for example after the SAML certificate changed
+        assertNull(cache.get(xml, otherSigner));
+        // a changed policy
+        assertNull(cache.get(xml.replace("MeasureOnly", "MeasureAndEnforce"), signer));
+        assertNull(cache.get(xml, null));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void testCacheDisabled() throws Exception {
+        String xml = trustPolicyXml();
+        X509Certificate signer = certificate();
+        VerifiedTrustPolicyCache cache = new VerifiedTrustPolicyCache(0);
+        VerifiedTrustPolicyCache.VerifiedTrustPolicy added = cache.add(xml, signer, new JAXB().read(xml, TrustPolicy.class));
+        assertEquals(5, added.getWhitelist().size());
+        assertNull(cache.get(xml, signer));
+        assertEquals(0, cache.size());
+    }
+}
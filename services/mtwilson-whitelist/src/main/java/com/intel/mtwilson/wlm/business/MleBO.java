@@ -13,9 +13,20 @@ import com.intel.mtwilson.as.data.*;
 import com.intel.mtwilson.datatypes.*;
 import com.intel.dcsg.cpg.io.UUID;
 import com.intel.mtwilson.My;
+import com.intel.mtwilson.audit.api.AuditLogger;
+import com.intel.mtwilson.audit.data.AuditLog;
+import com.intel.mtwilson.audit.handler.AuditDescriptor;
+import com.intel.mtwilson.audit.helper.AuditEntryType;
+import com.intel.mtwilson.policy.TrustPolicyCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import org.apache.commons.lang.StringUtils;
@@ -33,8 +44,15 @@ public class MleBO {
     TblEventTypeJpaController eventTypeJpaController = null;
     TblPackageNamespaceJpaController packageNSJpaController = null;
     MwMleSourceJpaController mleSourceJpaController = null;
+    private final Set<Integer> pendingInvalidations = new HashSet<>();
     private static String hexadecimalRegEx = "[0-9A-Fa-f]+";  // changed from + to 40 because sha1 is always 40 characters long when it's in hex
     private static String invalidWhiteList = "[0]+|[Ff]+";
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int MODULE_IMPORT_BATCH_SIZE = 1000;
+    private static final String SELECT_MODULE_SQL = "SELECT ID, ComponentName, Event_ID, pcr_bank, DigestValue, Description FROM mw_module_manifest WHERE MLE_ID=?";
+    private static final String SELECT_MODULE_ID_SQL = "SELECT ID, uuid_hex FROM mw_module_manifest WHERE MLE_ID=?";
+    private static final String INSERT_MODULE_SQL = "INSERT INTO mw_module_manifest (MLE_ID, Event_ID, NameSpace_ID, ComponentName, DigestValue, pcr_bank, ExtendedToPCR, PackageName, PackageVendor, PackageVersion, UseHostSpecificDigestValue, Description, uuid_hex, mle_uuid_hex) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_MODULE_SQL = "UPDATE mw_module_manifest SET DigestValue=?, Description=? WHERE ID=?";
 
     public MleBO() {
         try {
@@ -50,6 +68,42 @@ public class MleBO {
         }
     }
 
+    /**
+     * Removes the trust policies compiled from this MLE's whitelist from the
+     * attestation service cache so the next attestation of a host linked to
+     * it reads the updated whitelist.
+     */
+    private void invalidateTrustPolicies(TblMle tblMle) {
+        if (tblMle != null && tblMle.getId() != null) {
+            TrustPolicyCache.getInstance().invalidateMle(tblMle.getId());
+        }
+    }
+
+    /**
+     * When the change was made with the caller's entity manager it is not
+     * visible until the caller commits, and an attestation in between would
+     * cache the old whitelist again, so the MLE is only remembered until the
+     * caller calls {@link #invalidatePendingTrustPolicies()}.
+     */
+    private void invalidateTrustPolicies(TblMle tblMle, EntityManager em) {
+        if (em == null) {
+            invalidateTrustPolicies(tblMle);
+        } else if (tblMle != null && tblMle.getId() != null) {
+            pendingInvalidations.add(tblMle.getId());
+        }
+    }
+
+    /**
+     * Must be called after committing the transaction of an entity manager
+     * that was passed to this object to change a whitelist.
+     */
+    public void invalidatePendingTrustPolicies() {
+        for (Integer mleId : pendingInvalidations) {
+            TrustPolicyCache.getInstance().invalidateMle(mleId);
+        }
+        pendingInvalidations.clear();
+    }
+
     // This function will be used to validate the white list values. We have seen in some cases where in we would get -1. 
     private boolean isWhiteListValid(String pcrBank, String whiteList) {
         int expectedSize = (pcrBank != null && "SHA256".equalsIgnoreCase(pcrBank)) ? 32 * 2 : 20 * 2;
@@ -198,6 +252,7 @@ public class MleBO {
             // Bug: 4393 - Update the PCR list only if the user has specified an empty or valid PCRs
             if (mleData.getManifestList() != null)
                 updatePcrManifest(tblMle, mleData);
+            invalidateTrustPolicies(tblMle);
 
         } catch (ASException ase) {
             throw ase;
@@ -272,6 +327,7 @@ public class MleBO {
             deleteMleSource(mleName, mleVersion, osName, osVersion, oemName, mleUuid);
 
             mleJpaController.destroy(tblMle.getId());
+            invalidateTrustPolicies(tblMle);
 
         } catch (ASException ase) {
             throw ase;
@@ -769,6 +825,7 @@ public class MleBO {
 
             // Now add the pcr to the database.
             addPcrManifest(tblMle, pcrWhiteList, em, uuid);
+            invalidateTrustPolicies(tblMle, em);
 
         } catch (ASException ase) {
             throw ase;
@@ -841,6 +898,7 @@ public class MleBO {
             } else {
                 pcrManifestJpaController.edit_v2(tblPcr, em);
             }
+            invalidateTrustPolicies(tblPcr.getMleId(), em);
 
         } catch (ASException ase) {
             throw ase;
@@ -908,6 +966,7 @@ public class MleBO {
             
             // Delete the PCR white list entry.
             pcrManifestJpaController.destroy(tblPcr.getId());
+            invalidateTrustPolicies(mleObj);
 
         } catch (ASException ase) {
             throw ase;
@@ -1063,6 +1122,7 @@ public class MleBO {
                 log.debug("ADDMLETIME: Using the new create method of having EM.");
                 moduleManifestJpaController.create_v2(newModuleRecord, em);
             }
+            invalidateTrustPolicies(newModuleRecord.getMleId(), em);
             log.debug("ADDMLETIME: after insert {}", (System.currentTimeMillis() - addModule5));
 
         } catch (ASException ase) {
@@ -1170,6 +1230,7 @@ public class MleBO {
             } else {
                 moduleManifestJpaController.edit_v2(tblModule, em);
             }
+            invalidateTrustPolicies(tblModule.getMleId(), em);
 
         } catch (ASException ase) {
             throw ase;
@@ -1183,6 +1244,307 @@ public class MleBO {
         return "true";
     }
 
+    /**
+     * An existing module white list updated by importModuleWhiteLists, with the
+     * previous values of its changed fields for the audit log.
+     */
+    private static class ModuleWhiteListUpdate {
+        private final TblModuleManifest tblModule;
+        private final HashMap<String, Object> changedColumns = new HashMap<>();
+
+        private ModuleWhiteListUpdate(TblModuleManifest tblModule) {
+            this.tblModule = tblModule;
+        }
+    }
+
+    /**
+     * Adds or updates all the module white lists of a good known host, for example the thousands of
+     * PCR 19 modules of a VMM MLE, in one pass instead of calling addModuleWhiteList for each module.
+     * The event types and namespace are read once, the existing module white lists of each MLE are read
+     * with one query and compared with the new ones in memory, and the new and updated module white lists
+     * are written with JDBC batches on the connection of the caller's transaction.
+     *
+     * Since the rows are not written through the entity manager, each insert and update is sent to the
+     * audit log here, with the same data AuditEventHandlerImpl records for create_v2 and edit_v2, and the
+     * MLEs, event types and namespaces (and the module manifests when any were updated) are evicted from
+     * the shared cache.
+     *
+     * @param modules : Module white lists to be added or updated
+     * @param overwrite : If true, existing module white lists are updated; otherwise they are reported as already existing
+     * @param em : Entity manager with an active transaction, which the caller commits before calling {@link #invalidatePendingTrustPolicies()}
+     */
+    public void importModuleWhiteLists(List<ModuleWhiteList> modules, boolean overwrite, EntityManager em) {
+        long importStart = System.currentTimeMillis();
+
+        try {
+
+            HashMap<String, TblEventType> eventTypes = new HashMap<>();
+            HashMap<Integer, TblEventType> eventTypesById = new HashMap<>();
+            for (TblEventType tblEvent : eventTypeJpaController.findTblEventTypeEntities()) {
+                eventTypes.put(tblEvent.getName(), tblEvent);
+                eventTypesById.put(tblEvent.getId(), tblEvent);
+            }
+            TblPackageNamespace nsPackNS;
+            try {
+                nsPackNS = packageNSJpaController.findByName("Standard_Global_NS");
+            } catch (NoResultException nre) {
+                throw new ASException(ErrorCode.WS_NAME_SPACE_DOES_NOT_EXIST);
+            }
+            Connection connection = em.unwrap(Connection.class);
+            // the lookups in TblModuleManifestJpaController ignore case and trailing spaces only on MySQL
+            boolean ignoreCase = "MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName());
+
+            long prefetchEnd = System.currentTimeMillis();
+
+            // Find the MLE of each module and compare the module with the existing module white lists of that MLE
+            HashMap<String, TblMle> mles = new HashMap<>();
+            HashSet<Integer> prefetchedMleIds = new HashSet<>();
+            ModuleWhiteListIndex existingModules = new ModuleWhiteListIndex(overwrite, ignoreCase);
+            ArrayList<TblModuleManifest> inserts = new ArrayList<>();
+            LinkedHashMap<Integer, ModuleWhiteListUpdate> updates = new LinkedHashMap<>();
+            for (ModuleWhiteList moduleData : modules) {
+                String mleKey = moduleData.getMleName() + "|" + moduleData.getMleVersion() + "|" + moduleData.getOsName() + "|"
+                        + moduleData.getOsVersion() + "|" + moduleData.getOemName();
+                TblMle tblMle = mles.get(mleKey);
+                if (tblMle == null) {
+                    try {
+                        tblMle = getMleDetails(moduleData.getMleName(),
+                                moduleData.getMleVersion(), moduleData.getOsName(),
+                                moduleData.getOsVersion(), moduleData.getOemName());
+                    } catch (NoResultException nre) {
+                        throw new ASException(nre, ErrorCode.WS_MLE_DOES_NOT_EXIST, moduleData.getMleName(), moduleData.getMleVersion());
+                    }
+                    if (tblMle == null) {
+                        log.error("MLE specified is not found in the DB");
+                        throw new ASException(ErrorCode.WS_MLE_RETRIEVAL_ERROR, this.getClass().getSimpleName());
+                    }
+                    if (prefetchedMleIds.add(tblMle.getId())) {
+                        existingModules.addAll(findModuleWhiteLists(connection, tblMle, eventTypesById));
+                    }
+                    mles.put(mleKey, tblMle);
+                }
+
+                validateNull("ComponentName", moduleData.getComponentName());
+                validateNull("EventName", moduleData.getEventName());
+                TblEventType tblEvent = eventTypes.get(moduleData.getEventName());
+                if (tblEvent == null) {
+                    throw new ASException(ErrorCode.WS_EVENT_TYPE_DOES_NOT_EXIST, moduleData.getEventName());
+                }
+
+                // For Open Source hypervisors, we do not want to prefix the event type field name. So, we need to check if the event name
+                // corresponds to VMware, then we will append the event type fieldName to the component name. Otherwise we won't
+                String fullComponentName;
+                if (moduleData.getEventName().contains("Vim25")) {
+                    fullComponentName = tblEvent.getFieldName() + "." + moduleData.getComponentName();
+                } else {
+                    fullComponentName = moduleData.getComponentName();
+                }
+                // fix for Bug #730 that affected postgres only because postgres does not automatically trim spaces on queries but mysql automatically trims
+                fullComponentName = fullComponentName.trim();
+
+                // Bug 375: If the white list is not valid, then an exception would be thrown.
+                validateWhitelistValue(moduleData.getPcrBank(), moduleData.getComponentName(), moduleData.getDigestValue());
+
+                TblModuleManifest tblModule = existingModules.find(moduleData, tblMle.getId(), tblEvent.getId(), fullComponentName);
+                if (tblModule == null) {
+                    tblModule = new TblModuleManifest();
+                    tblModule.setUuid_hex(new UUID().toString());
+                    tblModule.setMleId(tblMle);
+                    tblModule.setMle_uuid_hex(tblMle.getUuid_hex());
+                    tblModule.setEventID(tblEvent);
+                    tblModule.setNameSpaceID(nsPackNS);
+                    tblModule.setComponentName(fullComponentName);
+                    tblModule.setPcrBank(moduleData.getPcrBank());
+                    tblModule.setDigestValue(moduleData.getDigestValue());
+                    tblModule.setPackageName(moduleData.getPackageName());
+                    tblModule.setPackageVendor(moduleData.getPackageVendor());
+                    tblModule.setPackageVersion(moduleData.getPackageVersion());
+                    tblModule.setUseHostSpecificDigestValue(moduleData.getUseHostSpecificDigest());
+                    tblModule.setExtendedToPCR(moduleData.getExtendedToPCR());
+                    tblModule.setDescription(moduleData.getDescription());
+                    inserts.add(tblModule);
+                    existingModules.add(tblModule);
+                } else if (tblModule.getId() == null) {
+                    // listed twice in this import, so the second one replaces the first before it is inserted
+                    tblModule.setDigestValue(moduleData.getDigestValue());
+                    tblModule.setDescription(moduleData.getDescription());
+                } else {
+                    ModuleWhiteListUpdate update = updates.get(tblModule.getId());
+                    if (update == null) {
+                        update = new ModuleWhiteListUpdate(tblModule);
+                    }
+                    if (!StringUtils.equals(tblModule.getDigestValue(), moduleData.getDigestValue())) {
+                        if (!update.changedColumns.containsKey("digestValue")) {
+                            update.changedColumns.put("digestValue", tblModule.getDigestValue());
+                        }
+                        tblModule.setDigestValue(moduleData.getDigestValue());
+                    }
+                    if (!StringUtils.equals(tblModule.getDescription(), moduleData.getDescription())) {
+                        if (!update.changedColumns.containsKey("description")) {
+                            update.changedColumns.put("description", tblModule.getDescription());
+                        }
+                        tblModule.setDescription(moduleData.getDescription());
+                    }
+                    // like edit_v2, nothing is written or audited when neither value changed
+                    if (!update.changedColumns.isEmpty()) {
+                        updates.put(tblModule.getId(), update);
+                    }
+                }
+            }
+
+            long compareEnd = System.currentTimeMillis();
+
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_MODULE_SQL)) {
+                int count = 0;
+                for (TblModuleManifest tblModule : inserts) {
+                    insert.setInt(1, tblModule.getMleId().getId());
+                    insert.setInt(2, tblModule.getEventID().getId());
+                    insert.setInt(3, nsPackNS.getId());
+                    insert.setString(4, tblModule.getComponentName());
+                    insert.setString(5, tblModule.getDigestValue());
+                    insert.setString(6, tblModule.getPcrBank());
+                    insert.setString(7, tblModule.getExtendedToPCR());
+                    insert.setString(8, tblModule.getPackageName());
+                    insert.setString(9, tblModule.getPackageVendor());
+                    insert.setString(10, tblModule.getPackageVersion());
+                    insert.setBoolean(11, Boolean.TRUE.equals(tblModule.getUseHostSpecificDigestValue()));
+                    insert.setString(12, tblModule.getDescription());
+                    insert.setString(13, tblModule.getUuid_hex());
+                    insert.setString(14, tblModule.getMle_uuid_hex());
+                    insert.addBatch();
+                    if (++count % MODULE_IMPORT_BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                if (count % MODULE_IMPORT_BATCH_SIZE != 0) {
+                    insert.executeBatch();
+                }
+            }
+
+            long insertEnd = System.currentTimeMillis();
+
+            try (PreparedStatement update = connection.prepareStatement(UPDATE_MODULE_SQL)) {
+                int count = 0;
+                for (ModuleWhiteListUpdate row : updates.values()) {
+                    update.setString(1, row.tblModule.getDigestValue());
+                    update.setString(2, row.tblModule.getDescription());
+                    update.setInt(3, row.tblModule.getId());
+                    update.addBatch();
+                    if (++count % MODULE_IMPORT_BATCH_SIZE == 0) {
+                        update.executeBatch();
+                    }
+                }
+                if (count % MODULE_IMPORT_BATCH_SIZE != 0) {
+                    update.executeBatch();
+                }
+            }
+
+            long updateEnd = System.currentTimeMillis();
+
+            if (!inserts.isEmpty()) {
+                setModuleWhiteListIds(connection, inserts, mles.values());
+            }
+            for (TblModuleManifest tblModule : inserts) {
+                auditModuleWhiteList(tblModule, AuditEntryType.CREATE, Collections.<String, Object>emptyMap());
+            }
+            for (ModuleWhiteListUpdate row : updates.values()) {
+                auditModuleWhiteList(row.tblModule, AuditEntryType.UPDATE, row.changedColumns);
+            }
+
+            long auditEnd = System.currentTimeMillis();
+
+            Cache cache = em.getEntityManagerFactory().getCache();
+            for (TblMle tblMle : mles.values()) {
+                cache.evict(TblMle.class, tblMle.getId());
+                invalidateTrustPolicies(tblMle, em);
+            }
+            cache.evict(TblEventType.class);
+            cache.evict(TblPackageNamespace.class);
+            if (!updates.isEmpty()) {
+                cache.evict(TblModuleManifest.class);
+            }
+
+            log.info("Imported {} module white lists ({} added, {} updated) in {} ms: prefetch {} ms, compare {} ms, insert {} ms, update {} ms, audit {} ms", new Object[]{
+                modules.size(), inserts.size(), updates.size(), (auditEnd - importStart), (prefetchEnd - importStart),
+                (compareEnd - prefetchEnd), (insertEnd - compareEnd), (updateEnd - insertEnd), (auditEnd - updateEnd)});
+
+        } catch (ASException ase) {
+            throw ase;
+        } catch (Exception e) {
+            log.error("Error during Module whitelist import.", e);
+            throw new ASException(ErrorCode.WS_MODULE_WHITELIST_CREATE_ERROR, e.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * @return the module white lists of the MLE, not attached to any entity manager, with only the
+     * fields that importModuleWhiteLists compares and updates
+     */
+    private List<TblModuleManifest> findModuleWhiteLists(Connection connection, TblMle tblMle, Map<Integer, TblEventType> eventTypesById) throws SQLException {
+        ArrayList<TblModuleManifest> moduleManifests = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement(SELECT_MODULE_SQL)) {
+            select.setInt(1, tblMle.getId());
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    TblModuleManifest tblModule = new TblModuleManifest();
+                    tblModule.setId(rs.getInt(1));
+                    tblModule.setComponentName(rs.getString(2));
+                    TblEventType tblEvent = eventTypesById.get(rs.getInt(3));
+                    if (tblEvent == null) {
+                        tblEvent = new TblEventType(rs.getInt(3));
+                    }
+                    tblModule.setEventID(tblEvent);
+                    tblModule.setPcrBank(rs.getString(4));
+                    tblModule.setDigestValue(rs.getString(5));
+                    tblModule.setDescription(rs.getString(6));
+                    tblModule.setMleId(tblMle);
+                    moduleManifests.add(tblModule);
+                }
+            }
+        }
+        return moduleManifests;
+    }
+
+    /**
+     * Sets the generated IDs of the inserted module white lists, found by their UUIDs, for the audit log.
+     */
+    private void setModuleWhiteListIds(Connection connection, List<TblModuleManifest> inserts, Collection<TblMle> mles) throws SQLException {
+        HashMap<String, Integer> ids = new HashMap<>();
+        try (PreparedStatement select = connection.prepareStatement(SELECT_MODULE_ID_SQL)) {
+            for (TblMle tblMle : mles) {
+                select.setInt(1, tblMle.getId());
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        ids.put(rs.getString(2), rs.getInt(1));
+                    }
+                }
+            }
+        }
+        for (TblModuleManifest tblModule : inserts) {
+            tblModule.setId(ids.get(tblModule.getUuid_hex()));
+        }
+    }
+
+    /**
+     * Sends a module white list written by importModuleWhiteLists to the audit log, which queues it for
+     * the AuditBatchWriter. Like AuditEventHandlerImpl, a failure is logged and does not fail the import.
+     *
+     * @param changedColumns previous values of the changed fields, by field name; for an update only these are recorded
+     */
+    private void auditModuleWhiteList(TblModuleManifest tblModule, AuditEntryType action, Map<String, Object> changedColumns) {
+        try {
+            AuditDescriptor descriptor = AuditDescriptor.forClass(TblModuleManifest.class);
+            AuditLog auditLog = new AuditLog();
+            auditLog.setEntityType(TblModuleManifest.class.getSimpleName());
+            auditLog.setData(descriptor.writeColumns(tblModule, changedColumns, action == AuditEntryType.UPDATE, mapper));
+            auditLog.setEntityId(descriptor.getPrimaryKey(tblModule));
+            auditLog.setAction(action.toString());
+            new AuditLogger().addLog(auditLog);
+        } catch (Exception e) {
+            log.error("Error while writing the audit log for module white list {}", tblModule.getUuid_hex(), e);
+        }
+    }
+
     /**
      * Added By: Sudhir on June 21, 2012
      *
@@ -1256,6 +1618,7 @@ public class MleBO {
 
             if (tblModule != null) {
                 moduleManifestJpaController.destroy(tblModule.getId());
+                invalidateTrustPolicies(tblModule.getMleId());
             }
 
         } catch (ASException ase) {
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.wlm.business;
+
+import com.intel.mountwilson.as.common.ASException;
+import com.intel.mtwilson.as.data.TblModuleManifest;
+import com.intel.mtwilson.datatypes.ModuleWhiteList;
+import com.intel.mtwilson.i18n.ErrorCode;
+import java.util.Collection;
+import java.util.HashMap;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The module white lists of the MLEs touched by MleBO.importModuleWhiteLists,
+ * so each new module is compared with the existing ones in memory instead of
+ * with one query per module.
+ *
+ * The component name and PCR bank are compared the way the lookups in
+ * TblModuleManifestJpaController compare them on the database in use, so a
+ * module that addModuleWhiteList would reject as already existing is not
+ * inserted a second time: ignoring case and trailing spaces on MySQL, and
+ * exactly on PostgreSQL.
+ */
+class ModuleWhiteListIndex {
+
+    private final HashMap<String, TblModuleManifest> modules = new HashMap<>();
+    private final boolean overwrite;
+    private final boolean ignoreCase;
+
+    /**
+     * @param overwrite true to update existing module white lists, false to reject them as already existing
+     * @param ignoreCase true to compare like MySQL, ignoring case and trailing spaces; false to compare exactly
+     */
+    ModuleWhiteListIndex(boolean overwrite, boolean ignoreCase) {
+        this.overwrite = overwrite;
+        this.ignoreCase = ignoreCase;
+    }
+
+    private String normalize(String value) {
+        if (value == null || !ignoreCase) {
+            return value;
+        }
+        return StringUtils.stripEnd(value, " ").toLowerCase();
+    }
+
+    private String key(Integer mleId, Integer eventId, String fullComponentName, String pcrBank) {
+        return mleId + "|" + eventId + "|" + normalize(fullComponentName) + "|" + normalize(pcrBank);
+    }
+
+    void addAll(Collection<TblModuleManifest> moduleManifests) {
+        for (TblModuleManifest moduleManifest : moduleManifests) {
+            add(moduleManifest);
+        }
+    }
+
+    /**
+     * Adds an existing or newly created module white list.
+     */
+    void add(TblModuleManifest moduleManifest) {
+        modules.put(key(moduleManifest.getMleId().getId(), moduleManifest.getEventID().getId(), moduleManifest.getComponentName(), moduleManifest.getPcrBank()), moduleManifest);
+    }
+
+    /**
+     * @param moduleData the module to import
+     * @param mleId
+     * @param eventId
+     * @param fullComponentName the component name as stored, with the event type field name for VMware modules
+     * @return the existing module white list to update, or null if the module must be inserted
+     * @throws ASException WS_MODULE_WHITELIST_ALREADY_EXISTS if the module exists and overwrite is false
+     */
+    TblModuleManifest find(ModuleWhiteList moduleData, Integer mleId, Integer eventId, String fullComponentName) {
+        TblModuleManifest existing = modules.get(key(mleId, eventId, fullComponentName, moduleData.getPcrBank()));
+        if (existing != null && !overwrite) {
+            throw new ASException(ErrorCode.WS_MODULE_WHITELIST_ALREADY_EXISTS, moduleData.getComponentName());
+        }
+        return existing;
+    }
+}
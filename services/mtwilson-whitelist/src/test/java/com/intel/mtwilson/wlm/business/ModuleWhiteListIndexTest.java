@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.wlm.business;
+
+import com.intel.mountwilson.as.common.ASException;
+import com.intel.mtwilson.as.data.TblEventType;
+import com.intel.mtwilson.as.data.TblMle;
+import com.intel.mtwilson.as.data.TblModuleManifest;
+import com.intel.mtwilson.datatypes.ModuleWhiteList;
+import com.intel.mtwilson.i18n.ErrorCode;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ModuleWhiteListIndexTest {
+    private static final int MLE_ID = 1;
+    private static final int EVENT_ID = 2;
+
+    private TblModuleManifest moduleManifest(String componentName, String pcrBank) {
+        TblMle tblMle = new TblMle();
+        tblMle.setId(MLE_ID);
+        TblEventType tblEvent = new TblEventType();
+        tblEvent.setId(EVENT_ID);
+        TblModuleManifest moduleManifest = new TblModuleManifest();
+        moduleManifest.setMleId(tblMle);
+        moduleManifest.setEventID(tblEvent);
+        moduleManifest.setComponentName(componentName);
+        moduleManifest.setPcrBank(pcrBank);
+        return moduleManifest;
+    }
+
+    private ModuleWhiteList module(String componentName, String pcrBank) {
+        ModuleWhiteList module = new ModuleWhiteList();
+        module.setComponentName(componentName);
+        module.setPcrBank(pcrBank);
+        return module;
+    }
+
+    @Test
+    public void testNewModuleIsInserted() {
+        ModuleWhiteListIndex index = new ModuleWhiteListIndex(false, false);
+        index.addAll(Arrays.asList(moduleManifest("vmkernel", "SHA1")));
+        assertNull(index.find(module("tboot", "SHA1"), MLE_ID, EVENT_ID, "tboot"));
+        assertNull(index.find(module("vmkernel", "SHA256"), MLE_ID, EVENT_ID, "vmkernel"));
+        assertNull(index.find(module("vmkernel", "SHA1"), MLE_ID, EVENT_ID + 1, "vmkernel"));
+        assertNull(index.find(module("vmkernel", "SHA1"), MLE_ID + 1, EVENT_ID, "vmkernel"));
+    }
+
+    @Test
+    public void testExistingModuleIsOverwritten() {
+        TblModuleManifest existing = moduleManifest("componentName.Vmkernel", "SHA1");
+        ModuleWhiteListIndex index = new ModuleWhiteListIndex(true, false);
+        index.addAll(Arrays.asList(existing));
+        assertSame(existing, index.find(module("Vmkernel", "SHA1"), MLE_ID, EVENT_ID, "componentName.Vmkernel"));
+    }
+
+    @Test
+    public void testComparedExactlyOnPostgres() {
+        ModuleWhiteListIndex index = new ModuleWhiteListIndex(false, false);
+        index.addAll(Arrays.asList(moduleManifest("componentName.Vmkernel", "SHA1")));
+        // the PostgreSQL lookups compare with =, so these are new modules
+        assertNull(index.find(module("VMKERNEL", "sha1"), MLE_ID, EVENT_ID, "COMPONENTNAME.VMKERNEL"));
+        assertNull(index.find(module("Vmkernel", "SHA1 "), MLE_ID, EVENT_ID, "componentName.Vmkernel"));
+    }
+
+    @Test
+    public void testComparedIgnoringCaseOnMysql() {
+        TblModuleManifest existing = moduleManifest("componentName.Vmkernel", "SHA1");
+        ModuleWhiteListIndex index = new ModuleWhiteListIndex(true, true);
+        index.addAll(Arrays.asList(existing));
+        // the MySQL lookups ignore case and trailing spaces
+        assertSame(existing, index.find(module("VMKERNEL", "sha1"), MLE_ID, EVENT_ID, "COMPONENTNAME.VMKERNEL"));
+        assertSame(existing, index.find(module("Vmkernel", "SHA1 "), MLE_ID, EVENT_ID, "componentName.vmkernel"));
+    }
+
+    @Test
+    public void testExistingModuleAlreadyExists() {
+        ModuleWhiteListIndex index = new ModuleWhiteListIndex(false, false);
+        index.addAll(Arrays.asList(moduleManifest("vmkernel", "SHA1")));
+        try {
+            index.find(module("vmkernel", "SHA1"), MLE_ID, EVENT_ID, "vmkernel");
+            fail("An existing module must not be inserted again");
+        } catch (ASException e) {
+            assertEquals(ErrorCode.WS_MODULE_WHITELIST_ALREADY_EXISTS, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testInsertedModuleIsFound() {
+        ModuleWhiteListIndex index = new ModuleWhiteListIndex(true, false);
+        assertNull(index.find(module("vmkernel", "SHA1"), MLE_ID, EVENT_ID, "vmkernel"));
+        TblModuleManifest inserted = moduleManifest("vmkernel", "SHA1");
+        index.add(inserted);
+        // a module listed twice in the same import is updated the second time
+        assertSame(inserted, index.find(module("vmkernel", "SHA1"), MLE_ID, EVENT_ID, "vmkernel"));
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.trustagent.client.jaxrs;
+
+import com.intel.dcsg.cpg.io.UUID;
+import com.intel.dcsg.cpg.tls.policy.TlsConnection;
+import com.intel.mtwilson.trustagent.model.HostInfo;
+import com.intel.mtwilson.trustagent.model.TpmQuoteResponse;
+import com.intel.mtwilson.trustagent.model.VMAttestationRequest;
+import com.intel.mtwilson.trustagent.model.VMAttestationResponse;
+import com.intel.mtwilson.trustagent.model.VMQuoteResponse;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A TrustAgentClient shared through TrustAgentClientPool; each request holds
+ * one of the pool's request slots for the trust agent while it is in progress.
+ * The client is checked out from getClient until the caller returns it. When
+ * the pool evicts the client, its Jersey client is closed as soon as it is
+ * neither checked out nor has a request in progress.
+ */
+class PooledTrustAgentClient extends TrustAgentClient {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PooledTrustAgentClient.class);
+    private final TrustAgentClientPool pool;
+    final String url;
+    final Semaphore permits;
+    volatile long lastUsed;
+    private volatile boolean closing;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private int checkouts; // guarded by this
+
+    PooledTrustAgentClient(TrustAgentClientPool pool, Properties properties, TlsConnection tlsConnection) throws Exception {
+        super(properties, tlsConnection);
+        this.pool = pool;
+        this.url = tlsConnection.getURL().toExternalForm();
+        this.permits = new Semaphore(pool.getMaxPerRoute(), true);
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    boolean isIdle() {
+        return permits.availablePermits() == pool.getMaxPerRoute();
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * @return false if the client was already closed and must not be handed out
+     */
+    synchronized boolean checkOut() {
+        if (closed.get()) {
+            return false;
+        }
+        checkouts++;
+        return true;
+    }
+
+    synchronized void checkIn() {
+        if (checkouts > 0) {
+            checkouts--;
+        }
+        closeIfIdle();
+    }
+
+    /**
+     * Called by the pool after the client was removed from it. The Jersey
+     * client is closed after every caller returned the client and the last
+     * request in progress is finished.
+     */
+    void close() {
+        closing = true;
+        closeIfIdle();
+    }
+
+    synchronized void closeIfIdle() {
+        // taking every request slot keeps any other request from starting
+        if (closing && checkouts == 0 && permits.tryAcquire(pool.getMaxPerRoute()) && closed.compareAndSet(false, true)) {
+            try {
+                getClient().close();
+            } catch (RuntimeException e) {
+                log.debug("Cannot close trust agent client for {}: {}", url, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public X509Certificate getAik() {
+        pool.lease(this);
+        try {
+            return super.getAik();
+        } finally {
+            pool.release(this);
+        }
+    }
+
+    @Override
+    public X509Certificate getAikCa() {
+        pool.lease(this);
+        try {
+            return super.getAikCa();
+        } finally {
+            pool.release(this);
+        }
+    }
+
+    @Override
+    public HostInfo getHostInfo() {
+        pool.lease(this);
+        try {
+            return super.getHostInfo();
+        } finally {
+            pool.release(this);
+        }
+    }
+
+    @Override
+    public void writeTag(byte[] tag, UUID hardwareUuid) {
+        pool.lease(this);
+        try {
+            super.writeTag(tag, hardwareUuid);
+        } finally {
+            pool.release(this);
+        }
+    }
+
+    @Override
+    public TpmQuoteResponse getTpmQuote(byte[] nonce, int[] pcrs) {
+        pool.lease(this);
+        try {
+            return super.getTpmQuote(nonce, pcrs);
+        } finally {
+            pool.release(this);
+        }
+    }
+
+    @Override
+    public TpmQuoteResponse getTpmQuote(byte[] nonce, int[] pcrs, String pcrBank) {
+        pool.lease(this);
+        try {
+            return super.getTpmQuote(nonce, pcrs, pcrBank);
+        } finally {
+            pool.release(this);
+        }
+    }
+
+    @Override
+    public TpmQuoteResponse getTpmQuote(byte[] nonce, int[] pcrs, String[] pcrBanks) {
+        pool.lease(this);
+        try {
+            return super.getTpmQuote(nonce, pcrs, pcrBanks);
+        } finally {
+            pool.release(this);
+        }
+    }
+
+    @Override
+    public X509Certificate getBindingKeyCertificate() {
+        pool.lease(this);
+        try {
+            return super.getBindingKeyCertificate();
+        } finally {
+            pool.release(this);
+        }
+    }
+
+    @Override
+    public VMAttestationResponse getVMAttestationStatus(String vmInstanceId) {
+        pool.lease(this);
+        try {
+            return super.getVMAttestationStatus(vmInstanceId);
+        } finally {
+            pool.release(this);
+        }
+    }
+
+    @Override
+    public VMQuoteResponse getVMAttestationReport(VMAttestationRequest obj) {
+        pool.lease(this);
+        try {
+            return super.getVMAttestationReport(obj);
+        } finally {
+            pool.release(this);
+        }
+    }
+}
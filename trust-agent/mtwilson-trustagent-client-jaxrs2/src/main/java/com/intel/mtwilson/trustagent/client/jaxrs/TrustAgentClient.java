@@ -152,11 +152,13 @@ public class TrustAgentClient extends MtWilsonClient {
         TagWriteRequest tagWriteRequest = new TagWriteRequest();
         tagWriteRequest.setTag(tag);
         tagWriteRequest.setHardwareUuid(hardwareUuid);
+        // close the response so the connection can be kept alive for the next request
         getTarget()
                 .path("/tag")
                 .request()
                 .accept(MediaType.APPLICATION_JSON)
-                .post(Entity.json(tagWriteRequest));
+                .post(Entity.json(tagWriteRequest))
+                .close();
     }
     
      /**
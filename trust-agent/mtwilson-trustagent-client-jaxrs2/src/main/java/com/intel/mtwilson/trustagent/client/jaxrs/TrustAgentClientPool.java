@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.trustagent.client.jaxrs;
+
+import com.intel.dcsg.cpg.tls.policy.TlsConnection;
+import com.intel.dcsg.cpg.tls.policy.TlsPolicy;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.ProcessingException;
+
+/**
+ * Keeps one TrustAgentClient per trust agent URL, credentials, and TLS policy
+ * so that attesting the same host again reuses the same Jersey client. A new
+ * client has a new SSL socket factory, so none of the keep-alive connections
+ * or TLS sessions of the previous client can be reused and every attestation
+ * starts with a full handshake; a pooled client lets the JDK keep-alive cache
+ * reuse the open HTTPS connections to the trust agent for the AIK, host info,
+ * and quote requests of the next attestation.
+ *
+ * Requests are bounded per trust agent (maxPerRoute, which should not be more
+ * than the http.maxConnections keep-alive limit of 5) and in total
+ * (maxTotal); a request waits up to leaseTimeoutMillis for a slot and then
+ * fails with a ProcessingException like any other connection failure.
+ * Clients not used for idleMillis are removed, and when there are more than
+ * maxRoutes clients the least recently used idle client is removed.
+ *
+ * A client is checked out from {@link #getClient(Properties, TlsConnection)}
+ * until the caller passes it to {@link #returnClient(TrustAgentClient)}.
+ * Evicted clients are closed as soon as they are returned and have no request
+ * in progress, so a caller can keep using a client the pool has evicted. A
+ * client that is never returned is not closed by the pool; like a client
+ * created without the pool, it is left to the garbage collector.
+ *
+ * The TLS policy is compared by identity, so a client is only reused while
+ * the host's TLS policy is the same instance. Callers must only use the pool
+ * for TLS policy instances that are kept between attestations, such as the
+ * ones cached by the TLS policy factory; a client for any other policy could
+ * never be reused. When the cached policy changes a new client is created and
+ * the old one is removed when it becomes idle.
+ */
+public class TrustAgentClientPool {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TrustAgentClientPool.class);
+
+    private final ConcurrentHashMap<Route, PooledTrustAgentClient> clients = new ConcurrentHashMap<>();
+    private final int maxPerRoute;
+    private final int maxRoutes;
+    private final long idleMillis;
+    private final long leaseTimeoutMillis;
+    private final Semaphore total;
+    private final AtomicInteger leased = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private volatile long nextEviction;
+
+    /**
+     * @param maxPerRoute maximum concurrent requests to one trust agent
+     * @param maxTotal maximum concurrent requests to all trust agents
+     * @param maxRoutes maximum number of clients to keep; 0 disables pooling
+     * @param idleMillis how long to keep a client that is not used
+     * @param leaseTimeoutMillis how long a request waits when a limit is reached
+     */
+    public TrustAgentClientPool(int maxPerRoute, int maxTotal, int maxRoutes, long idleMillis, long leaseTimeoutMillis) {
+        this.maxPerRoute = Math.max(1, maxPerRoute);
+        this.total = new Semaphore(Math.max(1, maxTotal), true);
+        this.maxRoutes = maxRoutes;
+        this.idleMillis = idleMillis;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.nextEviction = System.currentTimeMillis() + idleMillis;
+    }
+
+    /**
+     * @param properties credentials for the trust agent
+     * @param tlsConnection the trust agent URL and TLS policy
+     * @return a shared client for the trust agent; it is safe to use from any number of threads,
+     * and should be passed to {@link #returnClient(TrustAgentClient)} when the caller is done with it
+     * @throws Exception from the TrustAgentClient constructor
+     */
+    public TrustAgentClient getClient(Properties properties, TlsConnection tlsConnection) throws Exception {
+        if (maxRoutes <= 0) {
+            created.incrementAndGet();
+            return new TrustAgentClient(properties, tlsConnection);
+        }
+        long now = System.currentTimeMillis();
+        if (now >= nextEviction) {
+            nextEviction = now + Math.max(1000, idleMillis / 2);
+            evictIdle(now);
+        }
+        Route route = new Route(tlsConnection, properties);
+        while (true) {
+            PooledTrustAgentClient client = clients.get(route);
+            if (client == null) {
+                PooledTrustAgentClient newClient = new PooledTrustAgentClient(this, properties, tlsConnection);
+                newClient.checkOut();
+                newClient.touch(); // before the eviction, so the new client is not the least recently used
+                client = clients.putIfAbsent(route, newClient);
+                if (client == null) {
+                    created.incrementAndGet();
+                    log.debug("Created trust agent client for {}", route.url);
+                    if (clients.size() > maxRoutes) {
+                        evictLeastRecentlyUsed();
+                    }
+                    return newClient;
+                }
+                newClient.checkIn();
+                newClient.close();
+            }
+            if (client.checkOut()) {
+                reused.incrementAndGet();
+                client.touch();
+                return client;
+            }
+            // closed after another thread evicted it
+            clients.remove(route, client);
+        }
+    }
+
+    /**
+     * Ends the caller's use of a client from {@link #getClient(Properties, TlsConnection)},
+     * so it can be closed once it is evicted. Clients created while pooling is
+     * disabled are ignored.
+     *
+     * @param client
+     */
+    public void returnClient(TrustAgentClient client) {
+        if (client instanceof PooledTrustAgentClient) {
+            ((PooledTrustAgentClient) client).checkIn();
+        }
+    }
+
+    private void evictIdle(long now) {
+        Iterator<Map.Entry<Route, PooledTrustAgentClient>> it = clients.entrySet().iterator();
+        while (it.hasNext()) {
+            PooledTrustAgentClient client = it.next().getValue();
+            if (client.isIdle() && client.lastUsed + idleMillis <= now) {
+                it.remove();
+                evicted.incrementAndGet();
+                client.close();
+            }
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Map.Entry<Route, PooledTrustAgentClient> oldest = null;
+        for (Map.Entry<Route, PooledTrustAgentClient> entry : clients.entrySet()) {
+            if (entry.getValue().isIdle() && (oldest == null || entry.getValue().lastUsed < oldest.getValue().lastUsed)) {
+                oldest = entry;
+            }
+        }
+        if (oldest != null && clients.remove(oldest.getKey(), oldest.getValue())) {
+            evicted.incrementAndGet();
+            oldest.getValue().close();
+        }
+    }
+
+    /**
+     * Waits for a request slot for the client's trust agent and then for one
+     * of the total request slots, always in that order.
+     */
+    void lease(PooledTrustAgentClient client) {
+        if (client.isClosed()) {
+            throw new ProcessingException("Trust agent client was closed: " + client.url);
+        }
+        try {
+            if (!client.permits.tryAcquire(leaseTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new ProcessingException("Timed out waiting for a connection to trust agent: " + client.url);
+            }
+            if (!total.tryAcquire(leaseTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                client.permits.release();
+                throw new ProcessingException("Timed out waiting for a trust agent connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("Interrupted while waiting for a connection to trust agent: " + client.url, e);
+        }
+        leased.incrementAndGet();
+    }
+
+    void release(PooledTrustAgentClient client) {
+        leased.decrementAndGet();
+        total.release();
+        client.permits.release();
+        client.touch();
+        client.closeIfIdle();
+    }
+
+    int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    /**
+     * Removes every client and closes the ones that are not checked out; the
+     * others are closed when they are returned.
+     */
+    public void clear() {
+        Iterator<PooledTrustAgentClient> it = clients.values().iterator();
+        while (it.hasNext()) {
+            PooledTrustAgentClient client = it.next();
+            it.remove();
+            client.close();
+        }
+    }
+
+    public Statistics getStatistics() {
+        int idle = 0;
+        for (PooledTrustAgentClient client : clients.values()) {
+            if (client.isIdle()) {
+                idle++;
+            }
+        }
+        return new Statistics(clients.size(), idle, leased.get(), created.get(), reused.get(), evicted.get());
+    }
+
+    /**
+     * A snapshot of the pool counters. Each created client makes a full TLS
+     * handshake on its first request, so the created count is the number of
+     * full handshakes the pool could not avoid; reused clients send their
+     * requests over the kept-alive connections or resumed TLS sessions of the
+     * same client.
+     */
+    public static class Statistics {
+        private final int clients;
+        private final int idle;
+        private final int leased;
+        private final long created;
+        private final long reused;
+        private final long evicted;
+
+        public Statistics(int clients, int idle, int leased, long created, long reused, long evicted) {
+            this.clients = clients;
+            this.idle = idle;
+            this.leased = leased;
+            this.created = created;
+            this.reused = reused;
+            this.evicted = evicted;
+        }
+
+        /**
+         * @return number of trust agent clients in the pool
+         */
+        public int getClients() {
+            return clients;
+        }
+
+        /**
+         * @return number of clients in the pool without a request in progress
+         */
+        public int getIdle() {
+            return idle;
+        }
+
+        /**
+         * @return number of requests in progress
+         */
+        public int getLeased() {
+            return leased;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getReused() {
+            return reused;
+        }
+
+        public long getEvicted() {
+            return evicted;
+        }
+    }
+
+    private static class Route {
+        private final String url;
+        private final TlsPolicy tlsPolicy;
+        private final Properties properties;
+
+        private Route(TlsConnection tlsConnection, Properties properties) {
+            this.url = tlsConnection.getURL().toExternalForm();
+            this.tlsPolicy = tlsConnection.getTlsPolicy();
+            this.properties = new Properties();
+            if (properties != null) {
+                this.properties.putAll(properties);
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Route)) {
+                return false;
+            }
+            Route other = (Route) obj;
+            return url.equals(other.url) && tlsPolicy == other.tlsPolicy && properties.equals(other.properties);
+        }
+
+        @Override
+        public int hashCode() {
+            return (url.hashCode() * 31 + System.identityHashCode(tlsPolicy)) * 31 + properties.hashCode();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.trustagent.client.jaxrs;
+
+import com.intel.dcsg.cpg.tls.policy.TlsConnection;
+import com.intel.dcsg.cpg.tls.policy.TlsPolicy;
+import com.intel.dcsg.cpg.tls.policy.impl.InsecureTlsPolicy;
+import java.net.URL;
+import java.util.Properties;
+import javax.ws.rs.ProcessingException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The clients are never used to connect to a trust agent here; the tests only
+ * check which client the pool returns and when it is closed.
+ */
+public class TrustAgentClientPoolTest {
+    private final TlsPolicy tlsPolicy = new InsecureTlsPolicy();
+
+    private TlsConnection connection(String host) throws Exception {
+        return new TlsConnection(new URL("https://" + host + ":1443/v2"), tlsPolicy);
+    }
+
+    private Properties credentials(String username) {
+        Properties properties = new Properties();
+        properties.setProperty("mtwilson.api.username", username);
+        properties.setProperty("mtwilson.api.password", "password");
+        return properties;
+    }
+
+    @Test
+    public void testClientIsReusedForSameRoute() throws Exception {
+        TrustAgentClientPool pool = new TrustAgentClientPool(5, 10, 10, 60000, 1000);
+        TrustAgentClient client = pool.getClient(credentials("admin"), connection("host1"));
+        assertSame(client, pool.getClient(credentials("admin"), connection("host1")));
+        assertNotSame(client, pool.getClient(credentials("other"), connection("host1")));
+        assertNotSame(client, pool.getClient(credentials("admin"), connection("host2")));
+        // a different policy instance gets its own client
+        assertNotSame(client, pool.getClient(credentials("admin"), new TlsConnection(new URL("https://host1:1443/v2"), new InsecureTlsPolicy())));
+        TrustAgentClientPool.Statistics statistics = pool.getStatistics();
+        assertEquals(4, statistics.getClients());
+        assertEquals(4, statistics.getCreated());
+        assertEquals(1, statistics.getReused());
+    }
+
+    @Test
+    public void testPoolingDisabled() throws Exception {
+        TrustAgentClientPool pool = new TrustAgentClientPool(5, 10, 0, 60000, 1000);
+        TrustAgentClient client = pool.getClient(credentials("admin"), connection("host1"));
+        assertFalse(client instanceof PooledTrustAgentClient);
+        assertNotSame(client, pool.getClient(credentials("admin"), connection("host1")));
+        assertEquals(0, pool.getStatistics().getClients());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedClientIsEvictedAndClosed() throws Exception {
+        TrustAgentClientPool pool = new TrustAgentClientPool(5, 10, 2, 60000, 1000);
+        PooledTrustAgentClient host1 = (PooledTrustAgentClient) pool.getClient(credentials("admin"), connection("host1"));
+        PooledTrustAgentClient host2 = (PooledTrustAgentClient) pool.getClient(credentials("admin"), connection("host2"));
+        pool.returnClient(host1);
+        host1.lastUsed = 1;
+        pool.getClient(credentials("admin"), connection("host3"));
+        assertTrue(host1.isClosed());
+        assertFalse(host2.isClosed());
+        assertEquals(1, pool.getStatistics().getEvicted());
+        assertEquals(2, pool.getStatistics().getClients());
+        try {
+            host1.getHostInfo();
+            fail("An evicted client must not send requests");
+        } catch (ProcessingException e) {
+            // expected
+        }
+        assertNotSame(host1, pool.getClient(credentials("admin"), connection("host1")));
+    }
+
+    @Test
+    public void testClientInUseIsClosedAfterRelease() throws Exception {
+        TrustAgentClientPool pool = new TrustAgentClientPool(5, 10, 10, 60000, 1000);
+        PooledTrustAgentClient client = (PooledTrustAgentClient) pool.getClient(credentials("admin"), connection("host1"));
+        pool.returnClient(client);
+        pool.lease(client);
+        pool.clear();
+        assertFalse(client.isClosed());
+        pool.release(client);
+        assertTrue(client.isClosed());
+        assertEquals(0, pool.getStatistics().getClients());
+    }
+
+    @Test
+    public void testCheckedOutClientIsClosedWhenReturned() throws Exception {
+        TrustAgentClientPool pool = new TrustAgentClientPool(5, 10, 1, 60000, 1000);
+        PooledTrustAgentClient host1 = (PooledTrustAgentClient) pool.getClient(credentials("admin"), connection("host1"));
+        PooledTrustAgentClient reused = (PooledTrustAgentClient) pool.getClient(credentials("admin"), connection("host1"));
+        assertSame(host1, reused);
+        host1.lastUsed = 1;
+        pool.getClient(credentials("admin"), connection("host2"));
+        assertEquals(1, pool.getStatistics().getEvicted());
+        // evicted between two requests of the callers that still hold it
+        assertFalse(host1.isClosed());
+        pool.lease(host1);
+        pool.release(host1);
+        pool.returnClient(host1);
+        assertFalse(host1.isClosed());
+        pool.returnClient(reused);
+        assertTrue(host1.isClosed());
+    }
+
+    @Test
+    public void testRequestsPerRouteAreLimited() throws Exception {
+        TrustAgentClientPool pool = new TrustAgentClientPool(1, 10, 10, 60000, 100);
+        PooledTrustAgentClient client = (PooledTrustAgentClient) pool.getClient(credentials("admin"), connection("host1"));
+        pool.lease(client);
+        assertEquals(1, pool.getStatistics().getLeased());
+        try {
+            pool.lease(client);
+            fail("Second request to the same trust agent must wait for the first");
+        } catch (ProcessingException e) {
+            // expected
+        }
+        pool.release(client);
+        pool.lease(client);
+        pool.release(client);
+        assertEquals(0, pool.getStatistics().getLeased());
+        assertEquals(1, pool.getStatistics().getIdle());
+    }
+}
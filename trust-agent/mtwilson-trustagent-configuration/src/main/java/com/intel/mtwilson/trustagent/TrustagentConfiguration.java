@@ -73,6 +73,9 @@ public class TrustagentConfiguration {
     public final static String JETTY_THREAD_MAX = "jetty.thread.max";
                
     private Configuration conf;
+    private static TrustagentConfiguration cachedConfiguration = null;
+    private static long cachedConfigurationLastModified = 0;
+    private static long cachedConfigurationLength = 0;
 
     public Configuration getConf() {
         return conf;
@@ -377,6 +380,35 @@ public class TrustagentConfiguration {
         }
     }
     
+    /**
+     * Same as loadConfiguration() but keeps the configuration until the
+     * last modified time or length of trustagent.properties changes, so
+     * that frequent requests such as the tpm quote do not read (and
+     * possibly decrypt) the file every time.
+     * 
+     * @return the configuration, shared by all callers; do not modify it
+     * @throws IOException 
+     */
+    public static synchronized TrustagentConfiguration loadCachedConfiguration() throws IOException {
+        File file = new File(Folders.configuration() + File.separator + "trustagent.properties");
+        long lastModified = file.lastModified(); // 0 if the file does not exist
+        long length = file.length();
+        if( cachedConfiguration == null || lastModified != cachedConfigurationLastModified || length != cachedConfigurationLength ) {
+            log.debug("Loading trustagent.properties");
+            cachedConfiguration = loadConfiguration();
+            cachedConfigurationLastModified = lastModified;
+            cachedConfigurationLength = length;
+        }
+        return cachedConfiguration;
+    }
+    
+    /**
+     * The next call to loadCachedConfiguration() will load the file again.
+     */
+    public static synchronized void invalidateCachedConfiguration() {
+        cachedConfiguration = null;
+    }
+    
     // Helper methods for the Binding key
     public String getBindingKeySecretHex() {
         return conf.get(BINDING_KEY_SECRET); // intentionally no default - this must be generated during setup
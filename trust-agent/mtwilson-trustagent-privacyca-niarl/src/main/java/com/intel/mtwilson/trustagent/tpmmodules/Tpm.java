@@ -22,6 +22,9 @@ public class Tpm {
     public static TpmModuleProvider tpmModule = null;
     public static String tpmVersion=null;
     public static String pcrBanks=null;  // initialized to SHA1 to accomodate tpm1.2. this value is updated if tpm version is 2.0 
+    private static final long ASSET_TAG_CACHE_MILLIS = 60000;
+    private static byte[] assetTag = null;
+    private static long assetTagExpires = 0; // 0 when the asset tag must be read from the TPM
 
     public static String getTpmVersion() {
         if (tpmVersion==null) {
@@ -51,6 +54,39 @@ public class Tpm {
         return tpmModule;
     }
     
+    /**
+     * Reads the asset tag with getModule().readAssetTag(ownerAuth) at most
+     * once a minute, so that each tpm quote does not need to run the nvram
+     * commands; the result that the asset tag is not provisioned is kept
+     * too. Call invalidateAssetTag() after writing the asset tag.
+     * 
+     * @param ownerAuth
+     * @return the asset tag hash
+     * @throws IOException
+     * @throws TpmModule.TpmModuleException if the asset tag is not provisioned
+     */
+    public static synchronized byte[] readAssetTag(byte[] ownerAuth) throws IOException, TpmModule.TpmModuleException {
+        long now = System.currentTimeMillis();
+        if (now >= assetTagExpires) {
+            try {
+                assetTag = getModule().readAssetTag(ownerAuth);
+            } catch (TpmModule.TpmModuleException e) {
+                log.debug("Cannot read asset tag: {}", e.getMessage());
+                assetTag = null;
+            }
+            assetTagExpires = now + ASSET_TAG_CACHE_MILLIS;
+        }
+        if (assetTag == null) {
+            throw new TpmModule.TpmModuleException("Asset Tag has not been provisioned on this TPM");
+        }
+        return assetTag;
+    }
+    
+    public static synchronized void invalidateAssetTag() {
+        assetTag = null;
+        assetTagExpires = 0;
+    }
+    
     public static String getpcrBanks() {
         if (pcrBanks==null) {
             try {
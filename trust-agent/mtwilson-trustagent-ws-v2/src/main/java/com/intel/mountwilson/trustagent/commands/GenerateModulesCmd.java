@@ -31,6 +31,10 @@ import org.apache.commons.io.FileUtils;
 public class GenerateModulesCmd implements ICommand {
 
     Logger log = LoggerFactory.getLogger(getClass().getName());
+    private static final File BOOT_ID_FILE = new File("/proc/sys/kernel/random/boot_id");
+    private static final Object lock = new Object();
+    private static String cachedBootId = null;
+    private static String cachedModules = null;
     private TADataContext context;
 
     public GenerateModulesCmd(TADataContext context) {
@@ -40,7 +44,21 @@ public class GenerateModulesCmd implements ICommand {
     @Override
     public void execute() throws TAException {
         try {
-            getXmlFromMeasureLog();
+            String bootId = readBootId();
+            // the TXT measurement log does not change until the next boot, so
+            // the script only runs once per boot; the lock also keeps
+            // concurrent quote requests from running the script together
+            synchronized(lock) {
+                if (bootId == null || !bootId.equals(cachedBootId) || cachedModules == null) {
+                    getXmlFromMeasureLog();
+                    cachedModules = context.getModules();
+                    cachedBootId = bootId;
+                }
+                else {
+                    log.debug("Using module information from boot {}", bootId);
+                    context.setModules(cachedModules);
+                }
+            }
 
         } catch (Exception ex) {
             throw new TAException(ErrorCode.ERROR, "Error while getting Module details.", ex);
@@ -48,6 +66,20 @@ public class GenerateModulesCmd implements ICommand {
 
     }
 
+    /**
+     * @return the id of the current boot, or null if it is not available
+     */
+    private String readBootId() {
+        try {
+            if (BOOT_ID_FILE.exists()) {
+                return FileUtils.readFileToString(BOOT_ID_FILE).trim();
+            }
+        } catch (IOException e) {
+            log.debug("Cannot read boot id: {}", e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * calls OAT script prepares XML from measureLog
      *
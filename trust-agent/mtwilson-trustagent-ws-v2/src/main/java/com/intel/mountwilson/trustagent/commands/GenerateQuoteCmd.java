@@ -192,7 +192,7 @@ public class GenerateQuoteCmd implements ICommand {
                         * the quoted information
                         * signature over quoted information
                     */
-                    TrustagentConfiguration TAconfig = TrustagentConfiguration.loadConfiguration();
+                    TrustagentConfiguration TAconfig = TrustagentConfiguration.loadCachedConfiguration();
                     CommandLine command = new CommandLine("tpm2_quote");
                     command.addArgument("-k");
                     command.addArgument(TAconfig.getAikHandle());
@@ -239,6 +239,8 @@ public class GenerateQuoteCmd implements ICommand {
                 }
             } else {
                 try {   
+                        // aikquote is the only quote tool that reads the nonce from a file
+                        new CreateNonceFileCmd(context).execute();
                         CommandLine command = new CommandLine("/opt/trustagent/bin/aikquote");
                         command.addArgument("-p");
                         command.addArgument(identityAuthKey);
@@ -5,6 +5,7 @@
  */
 package com.intel.mountwilson.trustagent.commands;
 
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
 import com.intel.dcsg.cpg.xml.JAXB;
 import com.intel.mountwilson.common.ErrorCode;
 import com.intel.mountwilson.common.ICommand;
@@ -24,6 +25,11 @@ import org.apache.commons.io.IOUtils;
  */
 public class RetrieveTcbMeasurement implements ICommand {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RetrieveTcbMeasurement.class);
+    private static String cachedPath = null;
+    private static long cachedLastModified = 0;
+    private static long cachedLength = 0;
+    private static String cachedDigest = null;
+    private static String cachedTcbMeasurement = null;
     private TADataContext context;
 
     public RetrieveTcbMeasurement(TADataContext context) {
@@ -52,11 +58,7 @@ public class RetrieveTcbMeasurement implements ICommand {
 
         try {
             log.debug("Processing the TCB measurement XML file @ {}.", tcbMeasurementFile.getAbsolutePath());
-            try (InputStream in = new FileInputStream(tcbMeasurementFile)) {
-                String tcbMeasurementString = IOUtils.toString(in, Charset.forName("UTF-8"));
-                log.info("TCB measurement XML string: {}", tcbMeasurementString);
-                context.setTcbMeasurement(tcbMeasurementString);
-            }
+            context.setTcbMeasurement(readTcbMeasurement(tcbMeasurementFile));
         } catch (IOException e) {
             log.warn("IOException, invalid measurement.xml: {}", e.getMessage());
             throw new TAException(ErrorCode.BAD_REQUEST, "Invalid measurement.xml file. Cannot unmarshal/marshal object using jaxb.");
@@ -65,4 +67,32 @@ public class RetrieveTcbMeasurement implements ICommand {
             throw new TAException(ErrorCode.BAD_REQUEST, "Invalid measurement.xml file. Cannot unmarshal/marshal object using jaxb.");
         }
     }
+    
+    /**
+     * Reads the file only when its path, last modified time, or length is
+     * different from the last time, and keeps the previous string when the
+     * content has the same SHA-256 digest.
+     */
+    private static synchronized String readTcbMeasurement(File tcbMeasurementFile) throws IOException {
+        String path = tcbMeasurementFile.getAbsolutePath();
+        long lastModified = tcbMeasurementFile.lastModified();
+        long length = tcbMeasurementFile.length();
+        if (cachedTcbMeasurement != null && path.equals(cachedPath) && lastModified == cachedLastModified && length == cachedLength) {
+            return cachedTcbMeasurement;
+        }
+        byte[] content;
+        try (InputStream in = new FileInputStream(tcbMeasurementFile)) {
+            content = IOUtils.toByteArray(in);
+        }
+        String digest = Sha256Digest.digestOf(content).toString();
+        if (cachedTcbMeasurement == null || !digest.equals(cachedDigest)) {
+            cachedTcbMeasurement = new String(content, Charset.forName("UTF-8"));
+            cachedDigest = digest;
+            log.info("TCB measurement XML string: {}", cachedTcbMeasurement);
+        }
+        cachedPath = path;
+        cachedLastModified = lastModified;
+        cachedLength = length;
+        return cachedTcbMeasurement;
+    }
 }
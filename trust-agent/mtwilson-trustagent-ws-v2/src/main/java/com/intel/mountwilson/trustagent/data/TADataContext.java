@@ -16,6 +16,7 @@ import com.intel.mtwilson.util.ResourceFinder;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Properties;
+import org.apache.commons.io.FileUtils;
 
 /**
  *
@@ -194,6 +195,18 @@ public class TADataContext {
         //return Config.getHomeFolder() + File.separator + Config.getInstance().getProperty("data.folder") + File.separator;
         return path;
     }
+    
+    /**
+     * Deletes the session data folder and its files, if the folder was
+     * created.
+     * @throws IOException 
+     */
+    public void deleteDataFolder() throws IOException {
+        File dir = new File(Folders.repository() + File.separator + getSessionId());
+        if( dir.exists() ) {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
 
     public void setAIKCertificate(String certBytes) {
         this.AIKCertificate = certBytes;
@@ -247,7 +260,7 @@ public class TADataContext {
 
     public String getIdentityAuthKey() {
         try {
-            TrustagentConfiguration configuration = TrustagentConfiguration.loadConfiguration();
+            TrustagentConfiguration configuration = TrustagentConfiguration.loadCachedConfiguration();
             return configuration.getAikSecretHex();
             /*
             File aikAuthFile = ResourceFinder.getFile("trustagent.properties");
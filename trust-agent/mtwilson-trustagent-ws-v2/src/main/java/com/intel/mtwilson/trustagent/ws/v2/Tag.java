@@ -39,7 +39,11 @@ public class Tag {
         log.debug("writeTag uuid {} sha1 {}", tagInfo.getHardwareUuid(), Hex.encodeHexString(tagInfo.getTag()));       
         TrustagentConfiguration config = new TrustagentConfiguration(TAConfig.getConfiguration());        
         
-        Tpm.getModule().setAssetTag(config.getTpmOwnerSecret(), tagInfo.getTag());                
+        try {
+            Tpm.getModule().setAssetTag(config.getTpmOwnerSecret(), tagInfo.getTag());
+        } finally {
+            Tpm.invalidateAssetTag();
+        }
         
         log.debug("writeTag returning 204 status");
         response.setStatus(Response.Status.NO_CONTENT.getStatusCode());
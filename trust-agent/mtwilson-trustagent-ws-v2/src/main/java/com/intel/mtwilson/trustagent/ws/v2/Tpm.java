@@ -7,30 +7,26 @@ package com.intel.mtwilson.trustagent.ws.v2;
 import com.intel.dcsg.cpg.net.IPv4Address;
 import com.intel.mountwilson.common.TAException;
 import com.intel.mountwilson.trustagent.commands.BuildQuoteXMLCmd;
-import com.intel.mountwilson.trustagent.commands.CreateNonceFileCmd;
 import com.intel.mountwilson.trustagent.commands.GenerateModulesCmd;
 import com.intel.mountwilson.trustagent.commands.GenerateQuoteCmd;
 import com.intel.mountwilson.trustagent.commands.ReadIdentityCmd;
 import com.intel.mountwilson.trustagent.data.TADataContext;
 import com.intel.mtwilson.launcher.ws.ext.V2;
 import com.intel.dcsg.cpg.crypto.Sha1Digest;
-import com.intel.mountwilson.common.ErrorCode;
 import com.intel.mountwilson.trustagent.commands.ReadAssetTag;
 import com.intel.mountwilson.trustagent.commands.RetrieveTcbMeasurement;
 import com.intel.mtwilson.trustagent.TrustagentConfiguration;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import com.intel.mtwilson.trustagent.model.TpmQuoteRequest;
 import com.intel.mtwilson.trustagent.model.TpmQuoteResponse;
-import com.intel.mtwilson.util.exec.EscapeUtil;
-import java.io.File;
-import com.intel.mtwilson.util.exec.ExecUtil;
-import com.intel.mtwilson.util.exec.Result;
 import gov.niarl.his.privacyca.TpmModule;
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.http.HttpServletRequest;
@@ -39,9 +35,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.exec.CommandLine;
 import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -52,6 +46,7 @@ import org.apache.commons.lang3.StringUtils;
 @Path("/tpm")
 public class Tpm {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Tpm.class);
+    private static final TpmQuoteMetrics metrics = new TpmQuoteMetrics();
     private long t0 = System.currentTimeMillis();
     
 
@@ -68,15 +63,24 @@ public class Tpm {
     private void logPerformance(String message) {
         long t1 = System.currentTimeMillis();
         log.debug("performance: after {} ms: {}", t1-t0, message);
+        metrics.record(message, t1-t0);
         t0 = t1;
     }
     
+    @GET
+    @Path("/quote/metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<TpmQuoteMetrics.Step> getTpmQuoteMetrics() {
+        return metrics.getSteps();
+    }
+    
     @POST
     @Path("/quote")
     @Consumes({MediaType.APPLICATION_XML,MediaType.APPLICATION_JSON})
     @Produces({MediaType.APPLICATION_XML,MediaType.APPLICATION_JSON})
     public TpmQuoteResponse tpmQuote(TpmQuoteRequest tpmQuoteRequest, @Context HttpServletRequest request) throws IOException, TAException {
         logPerformance("inside tpmQuote");
+        long start = t0;
         /**
          * issue #1038 we will hash this ip address together with the input
          * nonce to produce the quote nonce; mtwilson server will do the same
@@ -91,8 +95,8 @@ public class Tpm {
          * will again has its ip address so it will be double-hashed and fail
          * verification
          */
-        TrustagentConfiguration configuration = TrustagentConfiguration.loadConfiguration();
-        logPerformance("TrustagentConfiguration.loadConfiguration()");
+        TrustagentConfiguration configuration = TrustagentConfiguration.loadCachedConfiguration();
+        logPerformance("TrustagentConfiguration.loadCachedConfiguration()");
         if( configuration.isTpmQuoteWithIpAddress() ) {
             if( IPv4Address.isValid(request.getLocalAddr()) ) {
                 IPv4Address ipv4 = new IPv4Address(request.getLocalAddr());
@@ -122,7 +126,7 @@ public class Tpm {
         byte[] ownerAuth = configuration.getTpmOwnerSecret();
         byte[] assetTagHash = null;
         try {
-            assetTagHash = com.intel.mtwilson.trustagent.tpmmodules.Tpm.getModule().readAssetTag(ownerAuth);
+            assetTagHash = com.intel.mtwilson.trustagent.tpmmodules.Tpm.readAssetTag(ownerAuth);
             log.debug("Asset Tag is: {}", assetTagHash);
             byte[] extendedNoncewithAssetTag = Sha1Digest.digestOf(tpmQuoteRequest.getNonce()).extend(assetTagHash).toByteArray();
             tpmQuoteRequest.setNonce(extendedNoncewithAssetTag);
@@ -131,31 +135,39 @@ public class Tpm {
             log.debug("Could not read Asset Tag from TPM");
             log.debug("Asset Tag is not provisioned");
         }               
+        logPerformance("readAssetTag");
 
         context.setNonce(Base64.encodeBase64String(tpmQuoteRequest.getNonce()));
         context.setSelectedPCRs(joinIntegers(tpmQuoteRequest.getPcrs(), ' '));
 
         logPerformance("new TADataContext()");
-        new CreateNonceFileCmd(context).execute(); // FileUtils.write to file nonce (binary)
-        logPerformance("CreateNonceFileCmd");
-        new ReadIdentityCmd(context).execute();  // trustagentrepository.getaikcertificate
-        logPerformance("ReadIdentityCmd");
+        TpmQuoteResponse response;
+        try {
+            // the nonce file is only written for the TPM 1.2 quote tool (see GenerateQuoteCmd)
+            new ReadIdentityCmd(context).execute();  // trustagentrepository.getaikcertificate
+            logPerformance("ReadIdentityCmd");
+
+            // Get the module information
+            if (!osName.toLowerCase().contains("windows")) {
+                new GenerateModulesCmd(context).execute(); // String moduleXml = getXmlFromMeasureLog(configuration);
+                logPerformance("GenerateModulesCmd");
+                new RetrieveTcbMeasurement(context).execute(); //does nothing if measurement.xml does not exist
+                logPerformance("RetrieveTcbMeasurement");
+            }
+            new GenerateQuoteCmd(context).execute();
+            logPerformance("GenerateQuoteCmd");
+            new BuildQuoteXMLCmd(context).execute();
+            logPerformance("BuildQuoteXMLCmd");
 
-        // Get the module information
-        if (!osName.toLowerCase().contains("windows")) {
-            new GenerateModulesCmd(context).execute(); // String moduleXml = getXmlFromMeasureLog(configuration);
-            logPerformance("GenerateModulesCmd");
-            new RetrieveTcbMeasurement(context).execute(); //does nothing if measurement.xml does not exist
-            logPerformance("RetrieveTcbMeasurement");
+            // return context.getResponseXML();
+            response = context.getTpmQuoteResponse();
+            logPerformance("context.getTpmQuoteResponse()");
+        }
+        finally {
+            // delete temporary session directory
+            context.deleteDataFolder();
+            logPerformance("deleteDataFolder");
         }
-        new GenerateQuoteCmd(context).execute();
-        logPerformance("GenerateQuoteCmd");
-        new BuildQuoteXMLCmd(context).execute();
-        logPerformance("BuildQuoteXMLCmd");
-            
-        // return context.getResponseXML();
-        TpmQuoteResponse response = context.getTpmQuoteResponse();
-        logPerformance("context.getTpmQuoteResponse()");
 
         //assetTag 
         //#6560: Null pointer dereference of 'response' where null is returned from a method
@@ -165,23 +177,8 @@ public class Tpm {
                 response.assetTag = assetTagHash;
         }
 
-        // delete temporary session directory
-        if (!osName.toLowerCase().contains("windows")) {
-            CommandLine command = new CommandLine("rm");
-            command.addArgument("-rf");
-            command.addArgument(EscapeUtil.doubleQuoteEscapeShellArgument(context.getDataFolder()));
-            Result result = ExecUtil.execute(command);
-            logPerformance("ExecUtil.execute(command)");
-            if (result.getExitCode() != 0) {
-                log.error("Error running command [{}]: {}", command.getExecutable(), result.getStderr());
-                throw new TAException(ErrorCode.ERROR, result.getStderr());
-            }
-            log.debug("command stdout: {}", result.getStdout());
-        } else {
-            // we should use more neutral ways to delete the folder
-            FileUtils.forceDelete(new File(context.getDataFolder())); 
-        }
         logPerformance("before return response");
+        metrics.record("total", System.currentTimeMillis() - start);
         return response;
     }
     
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.trustagent.ws.v2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how many times each step of the tpm quote ran and how long it
+ * took in total, so that GET /tpm/quote/metrics shows where the latency
+ * of a quote goes.
+ */
+public class TpmQuoteMetrics {
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private static class Counter {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private final AtomicLong maxMillis = new AtomicLong();
+    }
+
+    public void record(String step, long millis) {
+        Counter counter = counters.get(step);
+        if (counter == null) {
+            Counter newCounter = new Counter();
+            counter = counters.putIfAbsent(step, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.count.incrementAndGet();
+        counter.totalMillis.addAndGet(millis);
+        long max = counter.maxMillis.get();
+        while (millis > max && !counter.maxMillis.compareAndSet(max, millis)) {
+            max = counter.maxMillis.get();
+        }
+    }
+
+    public List<Step> getSteps() {
+        ArrayList<Step> steps = new ArrayList<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            steps.add(new Step(entry.getKey(), counter.count.get(), counter.totalMillis.get(), counter.maxMillis.get()));
+        }
+        return steps;
+    }
+
+    public static class Step {
+        private final String name;
+        private final long count;
+        private final long totalMillis;
+        private final long maxMillis;
+
+        public Step(String name, long count, long totalMillis, long maxMillis) {
+            this.name = name;
+            this.count = count;
+            this.totalMillis = totalMillis;
+            this.maxMillis = maxMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public long getAverageMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+    }
+}